@@ -0,0 +1,62 @@
+// arch-tag: 4e74cede-aab3-4378-a45d-0e28a732bb6f
+package de.yvert.accel;
+
+import de.yvert.cr.profiles.IntersectionResult;
+import de.yvert.geometry.BoundingBox;
+import de.yvert.geometry.Ray;
+import de.yvert.geometry.Triangulation;
+
+/**
+ * An acceleration structure answers ray queries against a fixed set of
+ * {@link de.yvert.geometry.SceneItem}s without testing every single item.
+ * <p>
+ * Distances are measured in multiples of the ray direction, just like
+ * {@link de.yvert.geometry.SceneItem#distance(Ray)}. Rays must be up to date, see
+ * {@link Ray#update()}.
+ * 
+ * @see AcceleratorBuilder
+ */
+public interface Accelerator
+{
+
+/**
+ * Finds the closest item hit by <code>ray</code> at a distance in the open interval
+ * (0, <code>maxDistance</code>). On a hit, the distance and the item are stored in
+ * <code>result.distance</code> and <code>result.item</code>. Otherwise,
+ * <code>result</code> is not modified.
+ * 
+ * @return true, if the ray hits an item
+ */
+boolean intersect(Ray ray, double maxDistance, IntersectionResult result);
+
+/**
+ * Tells whether <code>ray</code> hits any item at a distance in the open interval
+ * (<code>tmin</code>, <code>tmax</code>), e.g. whether a shadow ray is blocked. The
+ * search stops at the first such hit, which need not be the closest one, and no hit
+ * record is filled in. Items are still tested with
+ * {@link de.yvert.geometry.SceneItem#distance(Ray)}, so an item whose first
+ * intersection lies before <code>tmin</code> does not count.
+ */
+boolean occluded(Ray ray, double tmin, double tmax);
+
+/**
+ * Answers {@link #occluded(Ray, double, double)} for the first <code>count</code> rays,
+ * e.g. for all samples of an area light, and stores the answers in
+ * <code>occluded</code>. Implementations may share work between the rays.
+ * 
+ * @return the number of occluded rays
+ */
+int occluded(Ray[] rays, double[] tmin, double[] tmax, int count, boolean[] occluded);
+
+/**
+ * Returns a box around all items, or null if there are none.
+ */
+BoundingBox getBoundingBox();
+
+/**
+ * Adds the triangles of all items to <code>tri</code>, see
+ * {@link de.yvert.geometry.SceneItem#triangulate(Triangulation)}.
+ */
+void triangulate(Triangulation tri);
+
+}
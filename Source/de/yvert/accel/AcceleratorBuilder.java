@@ -0,0 +1,15 @@
+// arch-tag: 1028dba0-4225-433b-90ce-eedc7c05ad9c
+package de.yvert.accel;
+
+import de.yvert.geometry.SceneItemCollection;
+
+/**
+ * Turns a {@link SceneItemCollection} into an {@link Accelerator}. The collection
+ * may be modified after the call without affecting the result.
+ */
+public interface AcceleratorBuilder
+{
+
+Accelerator build(SceneItemCollection collection);
+
+}
@@ -0,0 +1,444 @@
+// arch-tag: a239f0f0-7c6c-455b-8807-eb5e2e273458
+package de.yvert.accel;
+
+import de.yvert.cr.profiles.IntersectionResult;
+import de.yvert.geometry.BoundingBox;
+import de.yvert.geometry.Ray;
+import de.yvert.geometry.RayPacket;
+import de.yvert.geometry.SceneItem;
+import de.yvert.geometry.Triangulation;
+import de.yvert.geometry.Vector3;
+
+/**
+ * A bounding volume hierarchy over a set of {@link SceneItem}s.
+ * <p>
+ * The tree is stored in flat arrays, the root is node 0. Node <code>i</code> keeps its box
+ * in <code>bounds[6*i]</code> to <code>bounds[6*i+5]</code> (min x, y, z followed by
+ * max x, y, z) and two ints in <code>nodes[2*i]</code> and <code>nodes[2*i+1]</code>.
+ * An inner node stores the indices of its two children. A leaf stores the index of its
+ * first entry in <code>refs</code> and the negated number of entries. The entries of
+ * <code>refs</code> are indices into <code>items</code>.
+ *
+ * @see SAHBuilder
+ */
+public class BVH implements Accelerator
+{
+
+final SceneItem[] items;
+final int[] refs;
+final int[] nodes;
+final double[] bounds;
+final int nodeCount;
+final int maxDepth;
+
+/** Build time in nanoseconds, set by the builder. */
+long buildTime;
+
+private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>()
+	{
+		@Override
+		protected Scratch initialValue()
+		{ return new Scratch(maxDepth+1); }
+	};
+	
+	/**
+	 * Per-thread traversal state, so that tracing a ray or packet does not allocate.
+	 * Traversals of one BVH never nest, as a BVH cannot contain itself, even through
+	 * instances.
+	 */
+	static final class Scratch
+	{
+		final int[] stack;
+		final int[] stackMask;
+		final double[] entry = new double[RayPacket.MAX_SIZE];
+		// a node box interpolated in time, see MotionBVH
+		final double[] box = new double[6];
+		
+		Scratch(int size)
+		{
+			stack = new int[size];
+			stackMask = new int[size];
+		}
+	}
+
+BVH(SceneItem[] items, int[] refs, int[] nodes, double[] bounds, int nodeCount)
+{
+	this.items = items;
+	this.refs = refs;
+	this.nodes = nodes;
+	this.bounds = bounds;
+	this.nodeCount = nodeCount;
+	this.maxDepth = nodeCount == 0 ? 0 : calculateDepth();
+}
+
+private int calculateDepth()
+{
+	int[] stack = new int[2*64];
+	int sp = 0;
+	int result = 0;
+	stack[sp++] = 0;
+	stack[sp++] = 0;
+	while (sp > 0)
+	{
+		int depth = stack[--sp];
+		int node = stack[--sp];
+		if (depth > result) result = depth;
+		if (!isLeaf(node))
+		{
+			if (sp+4 > stack.length)
+			{
+				int[] temp = new int[2*stack.length];
+				System.arraycopy(stack, 0, temp, 0, sp);
+				stack = temp;
+			}
+			stack[sp++] = nodes[2*node];
+			stack[sp++] = depth+1;
+			stack[sp++] = nodes[2*node+1];
+			stack[sp++] = depth+1;
+		}
+	}
+	return result;
+}
+
+final boolean isLeaf(int node)
+{ return nodes[2*node+1] < 0; }
+
+/**
+ * Returns the traversal state of the calling thread.
+ */
+final Scratch scratch()
+{ return scratch.get(); }
+
+public int getNodeCount()
+{ return nodeCount; }
+
+public int getItemCount()
+{ return items.length; }
+
+public int getMaxDepth()
+{ return maxDepth; }
+
+/**
+ * Returns the build time in milliseconds.
+ */
+public double getBuildTime()
+{ return buildTime/1e6; }
+
+public BVHStatistics getStatistics()
+{ return new BVHStatistics(this); }
+
+public BoundingBox getBoundingBox()
+{
+	if (nodeCount == 0) return null;
+	return new BoundingBox(new Vector3(bounds[0], bounds[1], bounds[2]),
+			new Vector3(bounds[3], bounds[4], bounds[5]));
+}
+
+public void triangulate(Triangulation tri)
+{
+	for (SceneItem item : items)
+		item.triangulate(tri);
+}
+
+public boolean intersect(Ray ray, double maxDistance, IntersectionResult result)
+{
+	if (nodeCount == 0) return false;
+	
+	if (BoundingBox.intersects2(bounds, 0, ray, maxDistance) < 0)
+		return false;
+	
+	int[] stack = scratch().stack;
+	int sp = 0;
+	int node = 0;
+	double closest = maxDistance;
+	SceneItem hit = null;
+	while (true)
+	{
+		int a = nodes[2*node];
+		int b = nodes[2*node+1];
+		if (b < 0)
+		{
+			for (int i = a; i < a-b; i++)
+			{
+				double d = intersectItem(refs[i], ray, closest, result);
+				if ((d > 0) && (d < closest))
+				{
+					closest = d;
+					hit = items[refs[i]];
+				}
+			}
+		}
+		else
+		{
+			double ta = BoundingBox.intersects2(bounds, 6*a, ray, closest);
+			double tb = BoundingBox.intersects2(bounds, 6*b, ray, closest);
+			if (ta >= 0)
+			{
+				if (tb >= 0)
+				{
+					// visit the nearer child first, it may cut off the other one
+					if (ta <= tb)
+					{ stack[sp++] = b; node = a; }
+					else
+					{ stack[sp++] = a; node = b; }
+				}
+				else
+					node = a;
+				continue;
+			}
+			else if (tb >= 0)
+			{
+				node = b;
+				continue;
+			}
+		}
+		
+		// a closer hit may have been found since the node was pushed
+		node = -1;
+		while (sp > 0)
+		{
+			int candidate = stack[--sp];
+			if (BoundingBox.intersects2(bounds, 6*candidate, ray, closest) >= 0)
+			{
+				node = candidate;
+				break;
+			}
+		}
+		if (node < 0) break;
+	}
+	
+	if (hit == null) return false;
+	result.distance = closest;
+	result.item = hit;
+	return true;
+}
+
+/**
+ * Intersects the rays of a packet selected by its mask, ray <code>i</code> up to
+ * <code>packet.maxDistance[i]</code>, and stores each hit in <code>results[i]</code>
+ * like {@link #intersect(Ray, double, IntersectionResult)}. The distance to the hit is
+ * also stored in <code>packet.maxDistance[i]</code>.
+ * <p>
+ * A coherent packet traverses the tree together, with a mask of the rays still active
+ * in each subtree, and a subtree is skipped as soon as the frustum test or the slab
+ * tests of all active rays miss its box. Incoherent packets would visit the union of
+ * their nodes, so their rays are traced one by one.
+ * 
+ * @return the mask of the rays that hit an item
+ */
+public int intersect(RayPacket packet, IntersectionResult[] results)
+{
+	int mask = packet.getMask();
+	if ((nodeCount == 0) || (mask == 0)) return 0;
+	
+	int hits = 0;
+	if (!packet.isCoherent())
+	{
+		for (int m = mask; m != 0; m &= m-1)
+		{
+			int k = Integer.numberOfTrailingZeros(m);
+			if (intersect(packet.rays[k], packet.maxDistance[k], results[k]))
+			{
+				packet.maxDistance[k] = results[k].distance;
+				hits |= 1 << k;
+			}
+		}
+		return hits;
+	}
+	
+	Scratch scratch = scratch();
+	double[] entry = scratch.entry;
+	mask = BoundingBox.intersects(bounds, 0, packet, mask, entry);
+	if (mask == 0) return 0;
+	
+	boolean frustum = packet.isFrustumCulling();
+	int[] stack = scratch.stack;
+	int[] stackMask = scratch.stackMask;
+	int sp = 0;
+	int node = 0;
+	while (true)
+	{
+		int a = nodes[2*node];
+		int b = nodes[2*node+1];
+		if (b < 0)
+		{
+			for (int i = a; i < a-b; i++)
+			{
+				int index = refs[i];
+				for (int m = mask; m != 0; m &= m-1)
+				{
+					int k = Integer.numberOfTrailingZeros(m);
+					double d = intersectItem(index, packet.rays[k], packet.maxDistance[k], results[k]);
+					if ((d > 0) && (d < packet.maxDistance[k]))
+					{
+						packet.maxDistance[k] = d;
+						results[k].distance = d;
+						results[k].item = items[index];
+						hits |= 1 << k;
+					}
+				}
+			}
+		}
+		else
+		{
+			int maskA = 0, maskB = 0;
+			double ta = Double.MAX_VALUE, tb = Double.MAX_VALUE;
+			if (!frustum || BoundingBox.intersectsFrustum(bounds, 6*a, packet))
+			{
+				maskA = BoundingBox.intersects(bounds, 6*a, packet, mask, entry);
+				ta = nearest(entry, maskA);
+			}
+			if (!frustum || BoundingBox.intersectsFrustum(bounds, 6*b, packet))
+			{
+				maskB = BoundingBox.intersects(bounds, 6*b, packet, mask, entry);
+				tb = nearest(entry, maskB);
+			}
+			if (maskA != 0)
+			{
+				if (maskB != 0)
+				{
+					// visit the child the packet reaches first
+					if (ta <= tb)
+					{ stack[sp] = b; stackMask[sp++] = maskB; node = a; mask = maskA; }
+					else
+					{ stack[sp] = a; stackMask[sp++] = maskA; node = b; mask = maskB; }
+				}
+				else
+				{ node = a; mask = maskA; }
+				continue;
+			}
+			else if (maskB != 0)
+			{
+				node = b;
+				mask = maskB;
+				continue;
+			}
+		}
+		
+		// rays may have found closer hits since the node was pushed
+		node = -1;
+		while (sp > 0)
+		{
+			sp--;
+			int m = BoundingBox.intersects(bounds, 6*stack[sp], packet, stackMask[sp], entry);
+			if (m != 0)
+			{
+				node = stack[sp];
+				mask = m;
+				break;
+			}
+		}
+		if (node < 0) break;
+	}
+	return hits;
+}
+
+private static double nearest(double[] entry, int mask)
+{
+	double result = Double.MAX_VALUE;
+	for (int m = mask; m != 0; m &= m-1)
+		result = Math.min(result, entry[Integer.numberOfTrailingZeros(m)]);
+	return result;
+}
+
+public boolean occluded(Ray ray, double tmin, double tmax)
+{
+	if (nodeCount == 0) return false;
+	return findOccluder(ray, tmin, tmax, scratch().stack) >= 0;
+}
+
+/**
+ * Shadow rays from one point towards the samples of a light are usually blocked by the
+ * same item, so the item that blocked the previous ray is tested first, and the whole
+ * batch shares one traversal stack.
+ */
+public int occluded(Ray[] rays, double[] tmin, double[] tmax, int count, boolean[] occluded)
+{
+	if (nodeCount == 0)
+	{
+		for (int i = 0; i < count; i++)
+			occluded[i] = false;
+		return 0;
+	}
+	
+	int[] stack = scratch().stack;
+	int last = -1;
+	int result = 0;
+	for (int i = 0; i < count; i++)
+	{
+		if ((last < 0) || !occludedByItem(refs[last], rays[i], tmin[i], tmax[i]))
+			last = findOccluder(rays[i], tmin[i], tmax[i], stack);
+		occluded[i] = last >= 0;
+		if (occluded[i]) result++;
+	}
+	return result;
+}
+
+/**
+ * Returns the entry in <code>refs</code> of some item hit in (tmin, tmax), or -1. The
+ * children are visited in any order, as the first hit ends the search anyway.
+ */
+private int findOccluder(Ray ray, double tmin, double tmax, int[] stack)
+{
+	if (BoundingBox.intersects2(bounds, 0, ray, tmax) < 0)
+		return -1;
+	
+	int sp = 0;
+	int node = 0;
+	while (true)
+	{
+		int a = nodes[2*node];
+		int b = nodes[2*node+1];
+		if (b < 0)
+		{
+			for (int i = a; i < a-b; i++)
+				if (occludedByItem(refs[i], ray, tmin, tmax)) return i;
+		}
+		else
+		{
+			boolean hitA = BoundingBox.intersects2(bounds, 6*a, ray, tmax) >= 0;
+			boolean hitB = BoundingBox.intersects2(bounds, 6*b, ray, tmax) >= 0;
+			if (hitA)
+			{
+				if (hitB) stack[sp++] = b;
+				node = a;
+				continue;
+			}
+			else if (hitB)
+			{
+				node = b;
+				continue;
+			}
+		}
+		if (sp == 0) return -1;
+		node = stack[--sp];
+	}
+}
+
+/**
+ * Intersects the ray with item <code>index</code> and returns the distance, or a value
+ * <= 0 on a miss. Subclasses may store additional information about a hit closer than
+ * <code>closest</code> in <code>result</code>, and must clear it otherwise, see
+ * {@link IntersectionResult#clearPrimitive()}.
+ */
+double intersectItem(int index, Ray ray, double closest, IntersectionResult result)
+{
+	double d = items[index].distance(ray);
+	if ((d > 0) && (d < closest)) result.clearPrimitive();
+	return d;
+}
+
+/**
+ * Tells whether item <code>index</code> is hit in (tmin, tmax).
+ */
+boolean occludedByItem(int index, Ray ray, double tmin, double tmax)
+{
+	double d = items[index].distance(ray);
+	return (d > tmin) && (d < tmax);
+}
+
+@Override
+public String toString()
+{ return getStatistics().toString(); }
+
+}
@@ -0,0 +1,252 @@
+// arch-tag: c1c1ee55-9548-4458-8f56-bca22c0b8978
+package de.yvert.accel;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import de.yvert.geometry.PrecomputedTriangles;
+import de.yvert.geometry.SceneItem;
+import de.yvert.geometry.SceneItemCollection;
+import de.yvert.geometry.TriangleMesh;
+
+/**
+ * Keeps built {@link BVH}s over triangle meshes in a directory, so that a static model
+ * is only built once.
+ * <p>
+ * A file is named after a SHA-1 hash of the vertex and face data of the mesh, so any
+ * change to the geometry results in a new file. It starts with a header (magic number,
+ * format version, hash and sizes), followed by the node boxes, the node array and the
+ * item indices of the leaves, all big-endian. A file with a different version or a
+ * damaged file is treated as missing and rebuilt.
+ * <p>
+ * A file is opened through {@link FileChannel#map} and traversed in place by a
+ * {@link MappedBVH}, so a warm start only reads the header and checks the nodes, and the
+ * pages of the tree are shared by all processes on the host that use the same file. The
+ * file stays mapped until the tree is garbage collected.
+ * <p>
+ * The items of a BVH are the faces of the mesh in face order, as returned by
+ * {@link TriangleMesh#getFaces()}. The hash does not cover the builder, so a
+ * directory should only be used with one builder configuration.
+ */
+public class BVHCache
+{
+
+static final int MAGIC = 0x42564843; // "BVHC"
+static final int VERSION = 1;
+
+private static final int HASH_LENGTH = 20;
+private static final int HEADER_SIZE = 4+4+HASH_LENGTH+4+4+4;
+
+private final File directory;
+private final AcceleratorBuilder builder;
+
+/**
+ * Creates a cache in the given directory, which must exist. Missing entries are built
+ * with the given builder, which must produce a {@link BVH}.
+ */
+public BVHCache(File directory, AcceleratorBuilder builder)
+{
+	if (!directory.isDirectory()) throw new IllegalArgumentException("not a directory: "+directory);
+	this.directory = directory;
+	this.builder = builder;
+}
+
+public File getDirectory()
+{ return directory; }
+
+/**
+ * Returns the file the BVH for the given mesh is stored in.
+ */
+public File getFile(TriangleMesh mesh)
+{ return new File(directory, toHex(hash(mesh))+".bvh"); }
+
+/**
+ * Returns a BVH over the triangles of the given mesh, either mapped from the cache or
+ * built and stored. It tests the triangles with {@link PrecomputedTriangles}, see
+ * {@link MeshBVH} and {@link MappedMeshBVH}.
+ */
+public Accelerator get(TriangleMesh mesh) throws IOException
+{
+	byte[] hash = hash(mesh);
+	File file = new File(directory, toHex(hash)+".bvh");
+	SceneItem[] items = mesh.getFaces();
+	if (file.exists())
+	{
+		try
+		{ return new MappedMeshBVH(read(file, hash, items), mesh); }
+		catch (IOException e)
+		{/* outdated or damaged, build it again */}
+	}
+	
+	SceneItemCollection collection = new SceneItemCollection();
+	for (int i = 0; i < items.length; i++)
+		collection.add(items[i]);
+	Accelerator accel = builder.build(collection);
+	if (!(accel instanceof BVH)) throw new IllegalStateException("the builder does not produce a BVH");
+	BVH bvh = (BVH) accel;
+	write(bvh, hash, file);
+	return new MeshBVH(bvh, mesh);
+}
+
+/**
+ * Returns a SHA-1 hash of the vertex positions and faces of the mesh.
+ */
+public static byte[] hash(TriangleMesh mesh)
+{
+	MessageDigest digest;
+	try
+	{ digest = MessageDigest.getInstance("SHA-1"); }
+	catch (NoSuchAlgorithmException e)
+	{ throw new IllegalStateException(e); }
+	
+	ByteBuffer buffer = ByteBuffer.allocate(8192);
+	buffer.putInt(mesh.vertexCount());
+	buffer.putInt(mesh.triangleCount());
+	float[] v = mesh.vertexData;
+	for (int i = 0; i < v.length; i++)
+	{
+		if (buffer.remaining() < 4) flush(digest, buffer);
+		buffer.putFloat(v[i]);
+	}
+	int[] f = mesh.faceData;
+	for (int i = 0; i < f.length; i++)
+	{
+		if (buffer.remaining() < 4) flush(digest, buffer);
+		buffer.putInt(f[i]);
+	}
+	flush(digest, buffer);
+	return digest.digest();
+}
+
+private static void flush(MessageDigest digest, ByteBuffer buffer)
+{
+	digest.update(buffer.array(), 0, buffer.position());
+	buffer.clear();
+}
+
+private static String toHex(byte[] data)
+{
+	StringBuffer result = new StringBuffer();
+	for (int i = 0; i < data.length; i++)
+	{
+		result.append(Character.forDigit((data[i] >> 4) & 15, 16));
+		result.append(Character.forDigit(data[i] & 15, 16));
+	}
+	return result.toString();
+}
+
+/**
+ * Writes the BVH to the given file. The data is written to a temporary file first, so
+ * that concurrent readers never see a partial file.
+ */
+static void write(BVH bvh, byte[] hash, File file) throws IOException
+{
+	int refCount = bvh.refs.length;
+	ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE+8*6*bvh.nodeCount+4*2*bvh.nodeCount+4*refCount);
+	buffer.putInt(MAGIC);
+	buffer.putInt(VERSION);
+	buffer.put(hash);
+	buffer.putInt(bvh.items.length);
+	buffer.putInt(bvh.nodeCount);
+	buffer.putInt(refCount);
+	buffer.asDoubleBuffer().put(bvh.bounds, 0, 6*bvh.nodeCount);
+	buffer.position(buffer.position()+8*6*bvh.nodeCount);
+	buffer.asIntBuffer().put(bvh.nodes, 0, 2*bvh.nodeCount).put(bvh.refs, 0, refCount);
+	buffer.rewind();
+	
+	File temp = File.createTempFile("bvh", ".tmp", file.getParentFile());
+	FileOutputStream out = new FileOutputStream(temp);
+	try
+	{
+		FileChannel channel = out.getChannel();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+	finally
+	{ out.close(); }
+	
+	if (!temp.renameTo(file))
+	{
+		// some platforms do not replace existing files
+		file.delete();
+		if (!temp.renameTo(file))
+		{
+			temp.delete();
+			throw new IOException("Cannot rename \""+temp+"\" to \""+file+"\"!");
+		}
+	}
+}
+
+/**
+ * Maps a BVH over the given items from a file. Throws an IOException if the file has a
+ * different version, a different hash or does not fit the items.
+ */
+static MappedBVH read(File file, byte[] hash, SceneItem[] items) throws IOException
+{
+	RandomAccessFile in = new RandomAccessFile(file, "r");
+	try
+	{
+		FileChannel channel = in.getChannel();
+		long size = channel.size();
+		if (size < HEADER_SIZE) throw new IOException("Truncated file: \""+file+"\"!");
+		if (size > Integer.MAX_VALUE) throw new IOException("File too large: \""+file+"\"!");
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		
+		if (buffer.getInt(0) != MAGIC) throw new IOException("Not a BVH file: \""+file+"\"!");
+		if (buffer.getInt(4) != VERSION) throw new IOException("Unsupported version: \""+file+"\"!");
+		byte[] fileHash = new byte[HASH_LENGTH];
+		buffer.position(8);
+		buffer.get(fileHash);
+		if (!MessageDigest.isEqual(hash, fileHash)) throw new IOException("Hash mismatch: \""+file+"\"!");
+		int itemCount = buffer.getInt();
+		int nodeCount = buffer.getInt();
+		int refCount = buffer.getInt();
+		if ((itemCount != items.length) || (nodeCount < 0) || (refCount < 0)
+				|| (size != HEADER_SIZE+8L*6*nodeCount+4L*2*nodeCount+4L*refCount))
+			throw new IOException("Invalid sizes: \""+file+"\"!");
+		
+		DoubleBuffer bounds = (DoubleBuffer) buffer.asDoubleBuffer().limit(6*nodeCount);
+		buffer.position(buffer.position()+8*6*nodeCount);
+		IntBuffer nodes = (IntBuffer) buffer.asIntBuffer().limit(2*nodeCount);
+		buffer.position(buffer.position()+4*2*nodeCount);
+		IntBuffer refs = buffer.asIntBuffer();
+		
+		// a damaged file must not send the traversal out of bounds or into a cycle, so
+		// every node except the root needs to be the child of at most one node
+		boolean[] seen = new boolean[nodeCount];
+		if (nodeCount > 0) seen[0] = true;
+		for (int i = 0; i < nodeCount; i++)
+		{
+			int a = nodes.get(2*i), b = nodes.get(2*i+1);
+			boolean valid;
+			if (b < 0)
+				valid = (a >= 0) && ((long) a-b <= refCount);
+			else
+			{
+				valid = (a >= 0) && (a < nodeCount) && (b < nodeCount) && (a != b) && !seen[a] && !seen[b];
+				if (valid) seen[a] = seen[b] = true;
+			}
+			if (!valid) throw new IOException("Invalid node "+i+": \""+file+"\"!");
+		}
+		for (int i = 0; i < refCount; i++)
+		{
+			int ref = refs.get(i);
+			if ((ref < 0) || (ref >= itemCount)) throw new IOException("Invalid reference "+i+": \""+file+"\"!");
+		}
+		
+		return new MappedBVH(items, bounds, nodes, refs, nodeCount);
+	}
+	finally
+	{ in.close(); }
+}
+
+}
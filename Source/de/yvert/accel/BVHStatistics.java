@@ -0,0 +1,73 @@
+// arch-tag: 1cc0c956-fcfc-4b8c-8983-41a6fb96aabc
+package de.yvert.accel;
+
+/**
+ * A quality report for a {@link BVH}.
+ * <p>
+ * The SAH cost is the expected cost of a ray query against the tree, measured in
+ * item intersections (see {@link SurfaceAreaHeuristic}). Lower is better. Costs of
+ * different trees over the same items can be compared directly.
+ */
+public final class BVHStatistics
+{
+
+public final int nodeCount;
+public final int leafCount;
+public final int itemCount;
+public final int referenceCount;
+public final int maxDepth;
+public final int maxLeafSize;
+public final double sahCost;
+
+/** Build time in milliseconds. */
+public final double buildTime;
+
+public BVHStatistics(BVH bvh)
+{
+	nodeCount = bvh.nodeCount;
+	itemCount = bvh.items.length;
+	maxDepth = bvh.maxDepth;
+	buildTime = bvh.getBuildTime();
+	
+	int leaves = 0, references = 0, largest = 0;
+	double cost = 0;
+	double rootArea = nodeCount > 0 ? SurfaceAreaHeuristic.halfArea(bvh.bounds, 0) : 0;
+	for (int i = 0; i < nodeCount; i++)
+	{
+		double area = rootArea > 0 ? SurfaceAreaHeuristic.halfArea(bvh.bounds, 6*i)/rootArea : 1;
+		if (bvh.isLeaf(i))
+		{
+			int count = -bvh.nodes[2*i+1];
+			leaves++;
+			references += count;
+			if (count > largest) largest = count;
+			cost += area*count*SurfaceAreaHeuristic.INTERSECTION_COST;
+		}
+		else
+			cost += area*SurfaceAreaHeuristic.TRAVERSAL_COST;
+	}
+	leafCount = leaves;
+	referenceCount = references;
+	maxLeafSize = largest;
+	sahCost = cost;
+}
+
+public double getAverageLeafSize()
+{ return leafCount > 0 ? referenceCount/(double) leafCount : 0; }
+
+@Override
+public String toString()
+{
+	StringBuffer out = new StringBuffer();
+	out.append("BVH over ").append(itemCount).append(" items\n");
+	out.append("  nodes:      ").append(nodeCount).append(" (").append(leafCount).append(" leaves)\n");
+	out.append("  depth:      ").append(maxDepth).append("\n");
+	out.append("  references: ").append(referenceCount);
+	out.append(" (max ").append(maxLeafSize).append(" per leaf, avg ");
+	out.append(Math.round(getAverageLeafSize()*100)/100.0).append(")\n");
+	out.append("  SAH cost:   ").append(Math.round(sahCost*1000)/1000.0).append("\n");
+	out.append("  build time: ").append(Math.round(buildTime*10)/10.0).append(" ms");
+	return out.toString();
+}
+
+}
@@ -0,0 +1,367 @@
+// arch-tag: d414b733-137e-4f50-a3ec-2c6f7a80ba08
+package de.yvert.accel;
+
+import de.yvert.cr.profiles.IntersectionResult;
+import de.yvert.geometry.BoundingBox;
+import de.yvert.geometry.Parallelogram;
+import de.yvert.geometry.PrecomputedTriangles;
+import de.yvert.geometry.Ray;
+import de.yvert.geometry.SceneItem;
+import de.yvert.geometry.Sphere;
+import de.yvert.geometry.Triangle;
+import de.yvert.geometry.Vector3;
+
+/**
+ * A BVH whose triangles, spheres and parallelograms are compiled into flat arrays, one
+ * per type, so that intersecting them needs no virtual call.
+ * <p>
+ * Calling {@link SceneItem#distance(Ray)} on a mix of types makes the call site
+ * megamorphic, and the JIT cannot inline it. Here, the entries of every leaf are sorted
+ * by type, and the leaf keeps where each type's range ends. Traversal runs one loop per
+ * range, each of which calls a single static test on the array of its type. Items of any
+ * other type, and subclasses of the compiled types, are intersected like in the BVH the
+ * compiled one was made from, so instances in a {@link TopLevelBVH} still work.
+ * <p>
+ * Triangles are tested with {@link PrecomputedTriangles} and store their barycentric
+ * coordinates in the result. Spheres and parallelograms give the same distances as
+ * {@link Sphere#distance(Ray)} and {@link Parallelogram#distance(Ray)}. The compiled
+ * arrays are copies, so the items must not move afterwards.
+ */
+public class CompiledBVH extends BVH
+{
+
+static final byte TRIANGLE = 0;
+static final byte SPHERE = 1;
+static final byte PARALLELOGRAM = 2;
+static final byte OTHER = 3;
+
+// the same as in Sphere and Parallelogram
+private static final double EPSILON = 1e-4f;
+
+private final BVH source;
+private final byte[] types;
+private final int[] slots;
+private final int[] typeCounts = new int[4];
+
+private final PrecomputedTriangles triangles;
+// center and radius per sphere
+private final double[] spheres;
+// corner a, edges u and v and their cross product per parallelogram
+private final double[] parallelograms;
+// per leaf, the ends of the triangle, sphere and parallelogram ranges in refs
+private final int[] leafRanges;
+
+public CompiledBVH(BVH bvh)
+{
+	super(bvh.items, sortLeaves(bvh), bvh.nodes, bvh.bounds, bvh.nodeCount);
+	buildTime = bvh.buildTime;
+	source = bvh;
+	
+	types = new byte[items.length];
+	slots = new int[items.length];
+	for (int i = 0; i < items.length; i++)
+	{
+		types[i] = typeOf(items[i]);
+		slots[i] = typeCounts[types[i]]++;
+	}
+	
+	Triangle[] triangleItems = new Triangle[typeCounts[TRIANGLE]];
+	spheres = new double[4*typeCounts[SPHERE]];
+	parallelograms = new double[12*typeCounts[PARALLELOGRAM]];
+	for (int i = 0; i < items.length; i++)
+	{
+		int slot = slots[i];
+		switch (types[i])
+		{
+			case TRIANGLE :
+				triangleItems[slot] = (Triangle) items[i];
+				break;
+			case SPHERE :
+				Sphere sphere = (Sphere) items[i];
+				set(spheres, 4*slot, sphere.point);
+				spheres[4*slot+3] = sphere.radius;
+				break;
+			case PARALLELOGRAM :
+				Parallelogram p = (Parallelogram) items[i];
+				set(parallelograms, 12*slot, p.a);
+				set(parallelograms, 12*slot+3, p.u);
+				set(parallelograms, 12*slot+6, p.v);
+				set(parallelograms, 12*slot+9, p.u.cross(p.v));
+				break;
+			default :
+				break;
+		}
+	}
+	triangles = new PrecomputedTriangles(triangleItems);
+	
+	leafRanges = new int[3*nodeCount];
+	for (int node = 0; node < nodeCount; node++)
+	{
+		if (!isLeaf(node)) continue;
+		int i = nodes[2*node], end = i-nodes[2*node+1];
+		for (byte type = TRIANGLE; type < OTHER; type++)
+		{
+			while ((i < end) && (types[refs[i]] == type)) i++;
+			leafRanges[3*node+type] = i;
+		}
+	}
+}
+
+private static void set(double[] data, int offset, Vector3 v)
+{
+	data[offset  ] = v.getX();
+	data[offset+1] = v.getY();
+	data[offset+2] = v.getZ();
+}
+
+/**
+ * Only the exact classes are compiled, subclasses may intersect differently.
+ */
+static byte typeOf(SceneItem item)
+{
+	Class<?> c = item.getClass();
+	if (c == Triangle.class) return TRIANGLE;
+	if (c == Sphere.class) return SPHERE;
+	if (c == Parallelogram.class) return PARALLELOGRAM;
+	return OTHER;
+}
+
+/**
+ * Returns a copy of the refs of the BVH with the entries of every leaf sorted by type.
+ */
+private static int[] sortLeaves(BVH bvh)
+{
+	int[] refs = bvh.refs.clone();
+	int[] temp = new int[refs.length];
+	for (int node = 0; node < bvh.nodeCount; node++)
+	{
+		if (!bvh.isLeaf(node)) continue;
+		int first = bvh.nodes[2*node], end = first-bvh.nodes[2*node+1];
+		int k = first;
+		for (byte type = TRIANGLE; type <= OTHER; type++)
+			for (int i = first; i < end; i++)
+				if (typeOf(bvh.items[refs[i]]) == type) temp[k++] = refs[i];
+		System.arraycopy(temp, first, refs, first, end-first);
+	}
+	return refs;
+}
+
+/**
+ * Returns the number of compiled items of the given type, see {@link #TRIANGLE} and so
+ * on.
+ */
+int getTypeCount(byte type)
+{ return typeCounts[type]; }
+
+@Override
+public boolean intersect(Ray ray, double maxDistance, IntersectionResult result)
+{
+	if (nodeCount == 0) return false;
+	
+	if (BoundingBox.intersects2(bounds, 0, ray, maxDistance) < 0)
+		return false;
+	
+	int[] stack = scratch().stack;
+	int sp = 0;
+	int node = 0;
+	double closest = maxDistance;
+	int hit = -1;
+	while (true)
+	{
+		int a = nodes[2*node];
+		int b = nodes[2*node+1];
+		if (b < 0)
+		{
+			int triangleEnd = leafRanges[3*node];
+			int sphereEnd = leafRanges[3*node+1];
+			int parallelogramEnd = leafRanges[3*node+2];
+			for (int i = a; i < triangleEnd; i++)
+			{
+				double d = triangles.intersectInto(slots[refs[i]], ray, closest, result);
+				if (d > 0)
+				{
+					closest = d;
+					hit = refs[i];
+					result.baryItem = items[hit];
+					result.primitive = -1;
+					result.mesh = null;
+				}
+			}
+			for (int i = triangleEnd; i < sphereEnd; i++)
+			{
+				double d = intersectSphere(spheres, 4*slots[refs[i]], ray);
+				if ((d > 0) && (d < closest))
+				{
+					closest = d;
+					hit = refs[i];
+					result.clearPrimitive();
+				}
+			}
+			for (int i = sphereEnd; i < parallelogramEnd; i++)
+			{
+				double d = intersectParallelogram(parallelograms, 12*slots[refs[i]], ray);
+				if ((d > 0) && (d < closest))
+				{
+					closest = d;
+					hit = refs[i];
+					result.clearPrimitive();
+				}
+			}
+			for (int i = parallelogramEnd; i < a-b; i++)
+			{
+				double d = source.intersectItem(refs[i], ray, closest, result);
+				if ((d > 0) && (d < closest))
+				{
+					closest = d;
+					hit = refs[i];
+				}
+			}
+		}
+		else
+		{
+			double ta = BoundingBox.intersects2(bounds, 6*a, ray, closest);
+			double tb = BoundingBox.intersects2(bounds, 6*b, ray, closest);
+			if (ta >= 0)
+			{
+				if (tb >= 0)
+				{
+					if (ta <= tb)
+					{ stack[sp++] = b; node = a; }
+					else
+					{ stack[sp++] = a; node = b; }
+				}
+				else
+					node = a;
+				continue;
+			}
+			else if (tb >= 0)
+			{
+				node = b;
+				continue;
+			}
+		}
+		
+		node = -1;
+		while (sp > 0)
+		{
+			int candidate = stack[--sp];
+			if (BoundingBox.intersects2(bounds, 6*candidate, ray, closest) >= 0)
+			{
+				node = candidate;
+				break;
+			}
+		}
+		if (node < 0) break;
+	}
+	
+	if (hit < 0) return false;
+	result.distance = closest;
+	result.item = items[hit];
+	return true;
+}
+
+/**
+ * Used by the packet and occlusion queries and by a {@link WideBVH} made from this one.
+ */
+@Override
+double intersectItem(int index, Ray ray, double closest, IntersectionResult result)
+{
+	double d;
+	switch (types[index])
+	{
+		case TRIANGLE :
+			d = triangles.intersectInto(slots[index], ray, closest, result);
+			if (d > 0)
+			{
+				result.baryItem = items[index];
+				result.primitive = -1;
+				result.mesh = null;
+			}
+			return d;
+		case SPHERE :
+			d = intersectSphere(spheres, 4*slots[index], ray);
+			break;
+		case PARALLELOGRAM :
+			d = intersectParallelogram(parallelograms, 12*slots[index], ray);
+			break;
+		default :
+			return source.intersectItem(index, ray, closest, result);
+	}
+	if ((d > 0) && (d < closest)) result.clearPrimitive();
+	return d;
+}
+
+@Override
+boolean occludedByItem(int index, Ray ray, double tmin, double tmax)
+{
+	double d;
+	switch (types[index])
+	{
+		case TRIANGLE :
+			d = triangles.intersect(slots[index], ray, tmax, null);
+			break;
+		case SPHERE :
+			d = intersectSphere(spheres, 4*slots[index], ray);
+			break;
+		case PARALLELOGRAM :
+			d = intersectParallelogram(parallelograms, 12*slots[index], ray);
+			break;
+		default :
+			return source.occludedByItem(index, ray, tmin, tmax);
+	}
+	return (d > tmin) && (d < tmax);
+}
+
+/**
+ * Same as {@link Sphere#distance(Ray)}.
+ */
+static double intersectSphere(double[] s, int off, Ray ray)
+{
+	double dx = ray.p.getX()-s[off], dy = ray.p.getY()-s[off+1], dz = ray.p.getZ()-s[off+2];
+	double vx = ray.v.getX(), vy = ray.v.getY(), vz = ray.v.getZ();
+	double radius = s[off+3];
+	double a = vx*vx+vy*vy+vz*vz;
+	double b = vx*dx+vy*dy+vz*dz;
+	double c = dx*dx+dy*dy+dz*dz-radius*radius;
+	double belowrt = b*b-a*c;
+	if (belowrt < 0) return -1;
+	double rt = Math.sqrt(belowrt);
+	double first = (-b-rt)/a;
+	if (first < 0)
+	{
+		double second = (-b+rt)/a;
+		if (second < EPSILON) return -1;
+		return second;
+	}
+	return first;
+}
+
+/**
+ * Same as {@link Parallelogram#distance(Ray)}, with the determinants written as triple
+ * products.
+ */
+static double intersectParallelogram(double[] q, int off, Ray ray)
+{
+	double dx = ray.v.getX(), dy = ray.v.getY(), dz = ray.v.getZ();
+	double tx = ray.p.getX()-q[off], ty = ray.p.getY()-q[off+1], tz = ray.p.getZ()-q[off+2];
+	double ux = q[off+3], uy = q[off+4], uz = q[off+5];
+	double vx = q[off+6], vy = q[off+7], vz = q[off+8];
+	double nx = q[off+9], ny = q[off+10], nz = q[off+11];
+	
+	double det = dx*nx+dy*ny+dz*nz;
+	if (Math.abs(det) < EPSILON) return -1;
+	
+	double t = -(tx*nx+ty*ny+tz*nz)/det;
+	if (t < EPSILON) return -1;
+	
+	// tmp.(v x d) and u.(tmp x d)
+	double alpha = (tx*(vy*dz-vz*dy)+ty*(vz*dx-vx*dz)+tz*(vx*dy-vy*dx))/det;
+	if ((alpha < 0) || (alpha > 1)) return -1;
+	
+	double beta = (ux*(ty*dz-tz*dy)+uy*(tz*dx-tx*dz)+uz*(tx*dy-ty*dx))/det;
+	if ((beta < 0) || (beta > 1)) return -1;
+	
+	return t;
+}
+
+}
@@ -0,0 +1,496 @@
+// arch-tag: af8dbf06-bccd-4e24-8353-b977a0337b52
+package de.yvert.accel;
+
+import java.util.HashMap;
+
+import de.yvert.cr.profiles.IntersectionResult;
+import de.yvert.geometry.BoundingBox;
+import de.yvert.geometry.Ray;
+import de.yvert.geometry.SceneItem;
+import de.yvert.geometry.SceneItemCollection;
+import de.yvert.geometry.Triangulation;
+import de.yvert.geometry.Vector3;
+
+/**
+ * A bounding volume hierarchy that supports inserting and removing items one by one,
+ * for scenes that are edited interactively.
+ * <p>
+ * Every leaf holds a single item. A new item descends from the root towards the
+ * sibling that increases the SAH cost the least, and a new inner node joins the two.
+ * Removing an item replaces its parent with its sibling. In both cases, the boxes on
+ * the path back to the root are refitted, and at each node on that path a child is
+ * swapped with a grandchild if that reduces the surface area of the modified subtree
+ * (tree rotations, see Kopta et al., "Fast, Effective BVH Updates for Animated
+ * Scenes", 2012). Edits touch only the path from one leaf to the root, which is
+ * O(log n) in a well-balanced tree.
+ * <p>
+ * Nodes live in flat arrays and are recycled through a free list. Queries see a
+ * consistent tree after every edit, but edits must not run concurrently with queries
+ * or with each other.
+ */
+public class DynamicBVH implements Accelerator
+{
+
+private static final int NULL = -1;
+
+// per node: parent, left child, right child (NULL for leaves), height
+private int[] nodes = new int[4*16];
+private double[] bounds = new double[6*16];
+private SceneItem[] items = new SceneItem[16];
+private int capacity = 16;
+private int nodeCount = 0;
+private int freeList = NULL;
+private int root = NULL;
+
+private final HashMap<SceneItem,Integer> leaves = new HashMap<SceneItem,Integer>();
+private final double[] temp = new double[6];
+// per-thread traversal stacks, grown when edits make the tree higher
+private final ThreadLocal<int[]> stacks = new ThreadLocal<int[]>()
+	{
+		@Override
+		protected int[] initialValue()
+		{ return new int[16]; }
+	};
+
+public DynamicBVH()
+{
+	initFreeList(0);
+}
+
+public DynamicBVH(SceneItemCollection collection)
+{
+	this();
+	for (SceneItem item : collection)
+		insert(item);
+}
+
+private void initFreeList(int first)
+{
+	for (int i = first; i < capacity-1; i++)
+		nodes[4*i] = i+1;
+	nodes[4*(capacity-1)] = NULL;
+	freeList = first;
+}
+
+private int allocateNode()
+{
+	if (freeList == NULL)
+	{
+		int size = 2*capacity;
+		int[] tempNodes = new int[4*size];
+		System.arraycopy(nodes, 0, tempNodes, 0, 4*capacity);
+		nodes = tempNodes;
+		double[] tempBounds = new double[6*size];
+		System.arraycopy(bounds, 0, tempBounds, 0, 6*capacity);
+		bounds = tempBounds;
+		SceneItem[] tempItems = new SceneItem[size];
+		System.arraycopy(items, 0, tempItems, 0, capacity);
+		items = tempItems;
+		int first = capacity;
+		capacity = size;
+		initFreeList(first);
+	}
+	int node = freeList;
+	freeList = nodes[4*node];
+	nodes[4*node  ] = NULL;
+	nodes[4*node+1] = NULL;
+	nodes[4*node+2] = NULL;
+	nodes[4*node+3] = 0;
+	nodeCount++;
+	return node;
+}
+
+private void freeNode(int node)
+{
+	items[node] = null;
+	nodes[4*node] = freeList;
+	freeList = node;
+	nodeCount--;
+}
+
+private boolean isLeaf(int node)
+{ return nodes[4*node+1] == NULL; }
+
+private double area(int node)
+{ return SurfaceAreaHeuristic.halfArea(bounds, 6*node); }
+
+private double unionArea(int a, int b)
+{
+	System.arraycopy(bounds, 6*a, temp, 0, 6);
+	SurfaceAreaHeuristic.union(temp, 0, bounds, 6*b);
+	return SurfaceAreaHeuristic.halfArea(temp, 0);
+}
+
+/**
+ * Returns the number of items.
+ */
+public int size()
+{ return leaves.size(); }
+
+public int getNodeCount()
+{ return nodeCount; }
+
+/**
+ * Returns the height of the tree, which is 0 for a single leaf.
+ */
+public int getHeight()
+{ return root == NULL ? 0 : nodes[4*root+3]; }
+
+/**
+ * Returns the traversal stack of the calling thread, which holds a path from the root
+ * to the deepest leaf.
+ */
+private int[] stack()
+{
+	int[] stack = stacks.get();
+	if (stack.length <= getHeight())
+	{
+		stack = new int[Math.max(2*stack.length, getHeight()+1)];
+		stacks.set(stack);
+	}
+	return stack;
+}
+
+public boolean contains(SceneItem item)
+{ return leaves.containsKey(item); }
+
+/**
+ * Returns the SAH cost of the tree, normalized like {@link BVHStatistics#sahCost}.
+ */
+public double getSAHCost()
+{
+	if (root == NULL) return 0;
+	double rootArea = area(root);
+	double cost = 0;
+	int[] stack = new int[getHeight()+1];
+	int sp = 0;
+	stack[sp++] = root;
+	while (sp > 0)
+	{
+		int node = stack[--sp];
+		double relative = rootArea > 0 ? area(node)/rootArea : 1;
+		if (isLeaf(node))
+			cost += relative*SurfaceAreaHeuristic.INTERSECTION_COST;
+		else
+		{
+			cost += relative*SurfaceAreaHeuristic.TRAVERSAL_COST;
+			stack[sp++] = nodes[4*node+1];
+			stack[sp++] = nodes[4*node+2];
+		}
+	}
+	return cost;
+}
+
+/**
+ * Adds an item. Adding an item that is already contained has no effect.
+ */
+public void insert(SceneItem item)
+{
+	if (leaves.containsKey(item)) return;
+	int leaf = allocateNode();
+	items[leaf] = item;
+	BoundingBox box = item.getBoundingBox();
+	int off = 6*leaf;
+	bounds[off  ] = box.getMinX();
+	bounds[off+1] = box.getMinY();
+	bounds[off+2] = box.getMinZ();
+	bounds[off+3] = box.getMaxX();
+	bounds[off+4] = box.getMaxY();
+	bounds[off+5] = box.getMaxZ();
+	leaves.put(item, Integer.valueOf(leaf));
+	insertLeaf(leaf);
+}
+
+/**
+ * Removes an item.
+ *
+ * @return false, if the item was not contained
+ */
+public boolean remove(SceneItem item)
+{
+	Integer leaf = leaves.remove(item);
+	if (leaf == null) return false;
+	removeLeaf(leaf.intValue());
+	freeNode(leaf.intValue());
+	return true;
+}
+
+/**
+ * Moves an item to its current position after its geometry has changed.
+ *
+ * @return false, if the item was not contained
+ */
+public boolean update(SceneItem item)
+{
+	if (!remove(item)) return false;
+	insert(item);
+	return true;
+}
+
+private void insertLeaf(int leaf)
+{
+	if (root == NULL)
+	{
+		root = leaf;
+		nodes[4*leaf] = NULL;
+		return;
+	}
+	
+	// find the best sibling, greedily
+	int sibling = root;
+	while (!isLeaf(sibling))
+	{
+		int left = nodes[4*sibling+1];
+		int right = nodes[4*sibling+2];
+		double combined = unionArea(sibling, leaf);
+		
+		// the cost of a new parent here, and the cost increase for all ancestors below
+		double cost = combined;
+		double inherited = combined-area(sibling);
+		double leftCost = descendCost(left, leaf)+inherited;
+		double rightCost = descendCost(right, leaf)+inherited;
+		if ((cost <= leftCost) && (cost <= rightCost)) break;
+		sibling = leftCost <= rightCost ? left : right;
+	}
+	
+	int oldParent = nodes[4*sibling];
+	int parent = allocateNode();
+	nodes[4*parent  ] = oldParent;
+	nodes[4*parent+1] = sibling;
+	nodes[4*parent+2] = leaf;
+	nodes[4*sibling] = parent;
+	nodes[4*leaf] = parent;
+	if (oldParent == NULL)
+		root = parent;
+	else
+		replaceChild(oldParent, sibling, parent);
+	
+	refitUpwards(parent);
+}
+
+private double descendCost(int child, int leaf)
+{
+	double combined = unionArea(child, leaf);
+	return isLeaf(child) ? combined : combined-area(child);
+}
+
+private void removeLeaf(int leaf)
+{
+	if (leaf == root)
+	{
+		root = NULL;
+		return;
+	}
+	int parent = nodes[4*leaf];
+	int grandParent = nodes[4*parent];
+	int sibling = nodes[4*parent+1] == leaf ? nodes[4*parent+2] : nodes[4*parent+1];
+	nodes[4*sibling] = grandParent;
+	if (grandParent == NULL)
+		root = sibling;
+	else
+	{
+		replaceChild(grandParent, parent, sibling);
+		refitUpwards(grandParent);
+	}
+	freeNode(parent);
+}
+
+private void replaceChild(int parent, int oldChild, int newChild)
+{
+	if (nodes[4*parent+1] == oldChild)
+		nodes[4*parent+1] = newChild;
+	else
+		nodes[4*parent+2] = newChild;
+}
+
+private void refitUpwards(int node)
+{
+	while (node != NULL)
+	{
+		refit(node);
+		rotate(node);
+		node = nodes[4*node];
+	}
+}
+
+private void refit(int node)
+{
+	int left = nodes[4*node+1];
+	int right = nodes[4*node+2];
+	System.arraycopy(bounds, 6*left, bounds, 6*node, 6);
+	SurfaceAreaHeuristic.union(bounds, 6*node, bounds, 6*right);
+	nodes[4*node+3] = 1+Math.max(nodes[4*left+3], nodes[4*right+3]);
+}
+
+/**
+ * Swaps a child of the node with a grandchild on the other side, if that reduces the
+ * area of the modified child.
+ */
+private void rotate(int node)
+{
+	int left = nodes[4*node+1];
+	int right = nodes[4*node+2];
+	double best = 0;
+	int child = NULL, grandChild = NULL;
+	if (!isLeaf(right))
+	{
+		double area = area(right);
+		double diff = unionArea(left, nodes[4*right+2])-area;
+		if (diff < best) { best = diff; child = left; grandChild = nodes[4*right+1]; }
+		diff = unionArea(left, nodes[4*right+1])-area;
+		if (diff < best) { best = diff; child = left; grandChild = nodes[4*right+2]; }
+	}
+	if (!isLeaf(left))
+	{
+		double area = area(left);
+		double diff = unionArea(right, nodes[4*left+2])-area;
+		if (diff < best) { best = diff; child = right; grandChild = nodes[4*left+1]; }
+		diff = unionArea(right, nodes[4*left+1])-area;
+		if (diff < best) { best = diff; child = right; grandChild = nodes[4*left+2]; }
+	}
+	if (child == NULL) return;
+	
+	// the grandchild moves up, the child moves down into the other subtree
+	int other = nodes[4*grandChild];
+	replaceChild(node, child, grandChild);
+	nodes[4*grandChild] = node;
+	replaceChild(other, grandChild, child);
+	nodes[4*child] = other;
+	refit(other);
+	nodes[4*node+3] = 1+Math.max(nodes[4*nodes[4*node+1]+3], nodes[4*nodes[4*node+2]+3]);
+}
+
+public BoundingBox getBoundingBox()
+{
+	if (root == NULL) return null;
+	int off = 6*root;
+	return new BoundingBox(new Vector3(bounds[off], bounds[off+1], bounds[off+2]),
+			new Vector3(bounds[off+3], bounds[off+4], bounds[off+5]));
+}
+
+public void triangulate(Triangulation tri)
+{
+	// leaves in node order, which does not depend on hashing
+	for (int i = 0; i < capacity; i++)
+		if (items[i] != null)
+			items[i].triangulate(tri);
+}
+
+public boolean intersect(Ray ray, double maxDistance, IntersectionResult result)
+{
+	if (root == NULL) return false;
+	
+	if (BoundingBox.intersects2(bounds, 6*root, ray, maxDistance) < 0)
+		return false;
+	
+	int[] stack = stack();
+	int sp = 0;
+	int node = root;
+	double closest = maxDistance;
+	SceneItem hit = null;
+	while (true)
+	{
+		if (isLeaf(node))
+		{
+			SceneItem item = items[node];
+			double d = item.distance(ray);
+			if ((d > 0) && (d < closest))
+			{
+				closest = d;
+				hit = item;
+			}
+		}
+		else
+		{
+			int a = nodes[4*node+1];
+			int b = nodes[4*node+2];
+			double ta = BoundingBox.intersects2(bounds, 6*a, ray, closest);
+			double tb = BoundingBox.intersects2(bounds, 6*b, ray, closest);
+			if (ta >= 0)
+			{
+				if (tb >= 0)
+				{
+					if (ta <= tb)
+					{ stack[sp++] = b; node = a; }
+					else
+					{ stack[sp++] = a; node = b; }
+				}
+				else
+					node = a;
+				continue;
+			}
+			else if (tb >= 0)
+			{
+				node = b;
+				continue;
+			}
+		}
+		
+		node = NULL;
+		while (sp > 0)
+		{
+			int candidate = stack[--sp];
+			if (BoundingBox.intersects2(bounds, 6*candidate, ray, closest) >= 0)
+			{
+				node = candidate;
+				break;
+			}
+		}
+		if (node == NULL) break;
+	}
+	
+	if (hit == null) return false;
+	result.distance = closest;
+	result.item = hit;
+	result.clearPrimitive();
+	return true;
+}
+
+public boolean occluded(Ray ray, double tmin, double tmax)
+{
+	if (root == NULL) return false;
+	
+	if (BoundingBox.intersects2(bounds, 6*root, ray, tmax) < 0)
+		return false;
+	
+	int[] stack = stack();
+	int sp = 0;
+	int node = root;
+	while (true)
+	{
+		if (isLeaf(node))
+		{
+			double d = items[node].distance(ray);
+			if ((d > tmin) && (d < tmax)) return true;
+		}
+		else
+		{
+			int a = nodes[4*node+1];
+			int b = nodes[4*node+2];
+			boolean hitA = BoundingBox.intersects2(bounds, 6*a, ray, tmax) >= 0;
+			boolean hitB = BoundingBox.intersects2(bounds, 6*b, ray, tmax) >= 0;
+			if (hitA)
+			{
+				if (hitB) stack[sp++] = b;
+				node = a;
+				continue;
+			}
+			else if (hitB)
+			{
+				node = b;
+				continue;
+			}
+		}
+		if (sp == 0) return false;
+		node = stack[--sp];
+	}
+}
+
+public int occluded(Ray[] rays, double[] tmin, double[] tmax, int count, boolean[] occluded)
+{ return Occlusion.each(this, rays, tmin, tmax, count, occluded); }
+
+@Override
+public String toString()
+{ return "DynamicBVH over "+size()+" items, height "+getHeight(); }
+
+}
@@ -0,0 +1,316 @@
+// arch-tag: e75b55e4-36e2-466d-8ef0-458e5a236f94
+package de.yvert.accel;
+
+import de.yvert.cr.profiles.IntersectionResult;
+import de.yvert.geometry.BoundingBox;
+import de.yvert.geometry.Ray;
+import de.yvert.geometry.SceneItem;
+import de.yvert.geometry.Triangulation;
+import de.yvert.geometry.Vector3;
+
+/**
+ * A two-level grid over a set of {@link SceneItem}s.
+ * <p>
+ * The box <code>bounds</code> is divided into <code>res[0]*res[1]*res[2]</code> top
+ * cells, and every non-empty top cell into a subgrid of its own resolution, which is
+ * <code>subRes[3*c]</code> to <code>subRes[3*c+2]</code> for top cell <code>c</code>
+ * and 0 for an empty one. The leaf cells of subgrid <code>c</code> are numbered
+ * consecutively from <code>subFirst[c]</code> on, and leaf cell <code>k</code>
+ * references the items <code>refs[leafStart[k]]</code> to
+ * <code>refs[leafStart[k+1]-1]</code>. Cells are numbered x first, then y, then z.
+ * <p>
+ * Rays walk both levels in order with a 3D-DDA. An item that overlaps several cells is
+ * referenced from all of them, and a {@link Mailbox} makes sure it is tested only once
+ * per ray. Dense top cells get finer subgrids, so a grid copes with some variation in
+ * density, but it is at its best when the items are spread evenly, as in particle
+ * clouds or terrain.
+ *
+ * @see GridBuilder
+ */
+public class Grid implements Accelerator
+{
+	
+	/**
+	 * The state of one traversal, kept per thread.
+	 */
+	private static final class Scratch
+	{
+		final Mailbox mailbox = new Mailbox(256);
+		final double[] p = new double[3];
+		final double[] v = new double[3];
+		final int[] cell = new int[3];
+		final int[] step = new int[3];
+		final double[] next = new double[3];
+		final double[] delta = new double[3];
+		final int[] subCell = new int[3];
+		final int[] subStep = new int[3];
+		final double[] subNext = new double[3];
+		final double[] subDelta = new double[3];
+		double closest;
+		SceneItem hit;
+	}
+
+final SceneItem[] items;
+final int[] refs;
+final int[] leafStart;
+final double[] bounds;
+final int[] res;
+final int[] subRes;
+final int[] subFirst;
+private final double[] cellSize = new double[3];
+
+/** Build time in nanoseconds, set by the builder. */
+long buildTime;
+
+private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>()
+	{
+		@Override
+		protected Scratch initialValue()
+		{ return new Scratch(); }
+	};
+
+Grid(SceneItem[] items, int[] refs, int[] leafStart, double[] bounds, int[] res, int[] subRes, int[] subFirst)
+{
+	this.items = items;
+	this.refs = refs;
+	this.leafStart = leafStart;
+	this.bounds = bounds;
+	this.res = res;
+	this.subRes = subRes;
+	this.subFirst = subFirst;
+	for (int k = 0; k < 3; k++)
+		cellSize[k] = cellSize(bounds[k+3]-bounds[k], res[k]);
+}
+
+static double cellSize(double extent, int res)
+{ return extent/res; }
+
+/**
+ * Returns the cell of a grid with the given origin, cell size and resolution that holds
+ * <code>x</code>; values outside go to the border cells.
+ */
+static int cellIndex(double x, double origin, double size, int res)
+{
+	if (!(size > 0)) return 0;
+	double cell = Math.floor((x-origin)/size);
+	if (!(cell > 0)) return 0;
+	return cell >= res ? res-1 : (int) cell;
+}
+
+public int getItemCount()
+{ return items.length; }
+
+public int getTopCellCount()
+{ return res[0]*res[1]*res[2]; }
+
+public int getLeafCellCount()
+{ return leafStart.length-1; }
+
+/**
+ * Returns the total number of item references in all leaf cells.
+ */
+public int getReferenceCount()
+{ return leafStart[leafStart.length-1]; }
+
+/**
+ * Returns the resolution of the top level along the given axis.
+ */
+public int getResolution(int axis)
+{ return res[axis]; }
+
+/**
+ * Returns the build time in milliseconds.
+ */
+public double getBuildTime()
+{ return buildTime/1e6; }
+
+public BoundingBox getBoundingBox()
+{
+	if (items.length == 0) return null;
+	return new BoundingBox(new Vector3(bounds[0], bounds[1], bounds[2]),
+			new Vector3(bounds[3], bounds[4], bounds[5]));
+}
+
+public void triangulate(Triangulation tri)
+{
+	for (SceneItem item : items)
+		item.triangulate(tri);
+}
+
+public boolean intersect(Ray ray, double maxDistance, IntersectionResult result)
+{
+	if (items.length == 0) return false;
+	Scratch s = scratch.get();
+	s.closest = maxDistance;
+	s.hit = null;
+	traverse(ray, 0, maxDistance, false, s);
+	if (s.hit == null) return false;
+	result.distance = s.closest;
+	result.item = s.hit;
+	result.clearPrimitive();
+	return true;
+}
+
+public boolean occluded(Ray ray, double tmin, double tmax)
+{
+	if (items.length == 0) return false;
+	Scratch s = scratch.get();
+	s.hit = null;
+	traverse(ray, tmin, tmax, true, s);
+	return s.hit != null;
+}
+
+public int occluded(Ray[] rays, double[] tmin, double[] tmax, int count, boolean[] occluded)
+{ return Occlusion.each(this, rays, tmin, tmax, count, occluded); }
+
+/**
+ * Walks the top cells along the ray from <code>tmin</code> to <code>tmax</code>. A
+ * shadow ray stops at the first item hit in (tmin, tmax), any other ray as soon as the
+ * closest hit lies in the cell just visited.
+ */
+private void traverse(Ray ray, double tmin, double tmax, boolean shadow, Scratch s)
+{
+	double[] p = s.p, v = s.v;
+	p[0] = ray.p.getX(); p[1] = ray.p.getY(); p[2] = ray.p.getZ();
+	v[0] = ray.v.getX(); v[1] = ray.v.getY(); v[2] = ray.v.getZ();
+	
+	// clip the ray to the grid
+	double near = tmin > 0 ? tmin : 0;
+	double far = tmax;
+	for (int k = 0; k < 3; k++)
+	{
+		if (v[k] == 0)
+		{
+			if ((p[k] < bounds[k]) || (p[k] > bounds[k+3])) return;
+			continue;
+		}
+		double t0 = (bounds[k]-p[k])/v[k];
+		double t1 = (bounds[k+3]-p[k])/v[k];
+		if (t0 > t1) { double help = t0; t0 = t1; t1 = help; }
+		if (t0 > near) near = t0;
+		if (t1 < far) far = t1;
+	}
+	if (near > far) return;
+	
+	s.mailbox.nextRay();
+	int[] cell = s.cell, step = s.step;
+	double[] next = s.next, delta = s.delta;
+	for (int k = 0; k < 3; k++)
+		setup(k, p, v, near, bounds[k], cellSize[k], res[k], cell, step, next, delta);
+	double enter = near;
+	while (true)
+	{
+		double exit = Math.min(Math.min(next[0], next[1]), Math.min(next[2], far));
+		int c = (cell[2]*res[1]+cell[1])*res[0]+cell[0];
+		if ((subRes[3*c] != 0) && traverseCell(c, ray, enter, exit, tmin, tmax, shadow, s)) return;
+		if (exit >= far) return;
+		
+		int k = next[0] <= next[1] ? (next[0] <= next[2] ? 0 : 2) : (next[1] <= next[2] ? 1 : 2);
+		cell[k] += step[k];
+		if ((cell[k] < 0) || (cell[k] >= res[k])) return;
+		enter = next[k];
+		next[k] += delta[k];
+	}
+}
+
+/**
+ * Walks the subgrid of top cell <code>c</code> from <code>enter</code> to
+ * <code>exit</code>. Returns true if the traversal is done.
+ */
+private boolean traverseCell(int c, Ray ray, double enter, double exit, double tmin, double tmax, boolean shadow, Scratch s)
+{
+	int[] top = s.cell;
+	double ox = bounds[0]+top[0]*cellSize[0];
+	double oy = bounds[1]+top[1]*cellSize[1];
+	double oz = bounds[2]+top[2]*cellSize[2];
+	int rx = subRes[3*c], ry = subRes[3*c+1], rz = subRes[3*c+2];
+	double sx = cellSize(cellSize[0], rx), sy = cellSize(cellSize[1], ry), sz = cellSize(cellSize[2], rz);
+	
+	int[] cell = s.subCell, step = s.subStep;
+	double[] next = s.subNext, delta = s.subDelta;
+	setup(0, s.p, s.v, enter, ox, sx, rx, cell, step, next, delta);
+	setup(1, s.p, s.v, enter, oy, sy, ry, cell, step, next, delta);
+	setup(2, s.p, s.v, enter, oz, sz, rz, cell, step, next, delta);
+	Mailbox mailbox = s.mailbox;
+	int first = subFirst[c];
+	while (true)
+	{
+		double cellExit = Math.min(Math.min(next[0], next[1]), Math.min(next[2], exit));
+		int k = first+(cell[2]*ry+cell[1])*rx+cell[0];
+		for (int i = leafStart[k]; i < leafStart[k+1]; i++)
+		{
+			SceneItem item = items[refs[i]];
+			if (!mailbox.visit(item)) continue;
+			double d = item.distance(ray);
+			if (shadow)
+			{
+				if ((d > tmin) && (d < tmax))
+				{
+					s.hit = item;
+					return true;
+				}
+			}
+			else if ((d > 0) && (d < s.closest))
+			{
+				s.closest = d;
+				s.hit = item;
+			}
+		}
+		
+		// all remaining cells lie behind this one
+		if (!shadow && (s.closest <= cellExit)) return true;
+		if (cellExit >= exit) return false;
+		
+		int axis = next[0] <= next[1] ? (next[0] <= next[2] ? 0 : 2) : (next[1] <= next[2] ? 1 : 2);
+		cell[axis] += step[axis];
+		if (axis == 0 ? (cell[0] < 0) || (cell[0] >= rx) :
+		    axis == 1 ? (cell[1] < 0) || (cell[1] >= ry) :
+		                (cell[2] < 0) || (cell[2] >= rz)) return false;
+		next[axis] += delta[axis];
+	}
+}
+
+/**
+ * Finds the cell the ray is in at distance <code>t</code> along axis <code>k</code>,
+ * the direction it steps in, the distance at which it crosses the next cell boundary
+ * and the distance between two boundaries. An axis the ray does not move along is never
+ * crossed.
+ */
+private static void setup(int k, double[] p, double[] v, double t, double origin, double size, int res,
+		int[] cell, int[] step, double[] next, double[] delta)
+{
+	int i = cellIndex(p[k]+t*v[k], origin, size, res);
+	cell[k] = i;
+	if (v[k] > 0)
+	{
+		step[k] = 1;
+		next[k] = (origin+(i+1)*size-p[k])/v[k];
+		delta[k] = size/v[k];
+	}
+	else if (v[k] < 0)
+	{
+		step[k] = -1;
+		next[k] = (origin+i*size-p[k])/v[k];
+		delta[k] = -size/v[k];
+	}
+	else
+	{
+		step[k] = 0;
+		next[k] = Double.POSITIVE_INFINITY;
+		delta[k] = 0;
+	}
+}
+
+@Override
+public String toString()
+{
+	StringBuffer out = new StringBuffer();
+	out.append("Grid over ").append(items.length).append(" items\n");
+	out.append("  top cells:  ").append(res[0]).append("x").append(res[1]).append("x").append(res[2]).append("\n");
+	out.append("  leaf cells: ").append(getLeafCellCount()).append("\n");
+	out.append("  references: ").append(getReferenceCount()).append("\n");
+	out.append("  build time: ").append(Math.round(getBuildTime()*10)/10.0).append(" ms");
+	return out.toString();
+}
+
+}
@@ -0,0 +1,257 @@
+// arch-tag: 06749c9d-c60d-46ea-b380-3c86a55cb77d
+package de.yvert.accel;
+
+import de.yvert.geometry.BoundingBox;
+import de.yvert.geometry.SceneItem;
+import de.yvert.geometry.SceneItemCollection;
+
+/**
+ * Builds a two-level {@link Grid} in time linear in the number of item references.
+ * <p>
+ * The resolution of each level is chosen from the density of the items: a grid over
+ * <code>n</code> items in a box of volume <code>V</code> gets cubic cells of side
+ * <code>(V/(density*n))^(1/3)</code>, so that there are about <code>density*n</code>
+ * cells. The top level uses a low density, the subgrid of each top cell a higher one
+ * with the number of items in that cell, so dense regions get small cells, but none
+ * smaller than half the average item in them. Flat scenes, e.g. a terrain patch, use
+ * the area instead of the volume. Each level is filled by counting the cells every item
+ * box overlaps, a prefix sum and a second pass that writes the references.
+ */
+public class GridBuilder implements AcceleratorBuilder
+{
+
+private static final int MAX_TOP_RESOLUTION = 128;
+private static final int MAX_SUB_RESOLUTION = 32;
+
+private double topDensity = 0.125;
+private double cellDensity = 2;
+
+public GridBuilder()
+{/*OK*/}
+
+/**
+ * Returns the number of top cells per item.
+ */
+public double getTopDensity()
+{ return topDensity; }
+
+public void setTopDensity(double topDensity)
+{
+	if (!(topDensity > 0)) throw new IllegalArgumentException("topDensity <= 0");
+	this.topDensity = topDensity;
+}
+
+/**
+ * Returns the number of leaf cells per item in each subgrid.
+ */
+public double getCellDensity()
+{ return cellDensity; }
+
+public void setCellDensity(double cellDensity)
+{
+	if (!(cellDensity > 0)) throw new IllegalArgumentException("cellDensity <= 0");
+	this.cellDensity = cellDensity;
+}
+
+public Grid build(SceneItemCollection collection)
+{ return build(collection.toArray()); }
+
+public Grid build(SceneItem[] items)
+{
+	long start = System.nanoTime();
+	int count = items.length;
+	double[] bounds = new double[6];
+	SurfaceAreaHeuristic.clear(bounds, 0);
+	double[] itemBounds = new double[6*count];
+	for (int i = 0; i < count; i++)
+	{
+		BoundingBox box = items[i].getBoundingBox();
+		itemBounds[6*i  ] = box.getMinX();
+		itemBounds[6*i+1] = box.getMinY();
+		itemBounds[6*i+2] = box.getMinZ();
+		itemBounds[6*i+3] = box.getMaxX();
+		itemBounds[6*i+4] = box.getMaxY();
+		itemBounds[6*i+5] = box.getMaxZ();
+		SurfaceAreaHeuristic.union(bounds, 0, itemBounds, 6*i);
+	}
+	if (count == 0)
+	{
+		Grid result = new Grid(items, new int[0], new int[1], new double[6], new int[] { 1, 1, 1 }, new int[3], new int[1]);
+		result.buildTime = System.nanoTime()-start;
+		return result;
+	}
+	
+	// top level
+	int[] res = new int[3];
+	resolution(bounds[3]-bounds[0], bounds[4]-bounds[1], bounds[5]-bounds[2], count, topDensity, MAX_TOP_RESOLUTION, res, 0);
+	double[] size = new double[3];
+	for (int k = 0; k < 3; k++)
+		size[k] = Grid.cellSize(bounds[k+3]-bounds[k], res[k]);
+	int topCells = res[0]*res[1]*res[2];
+	int[] range = new int[6];
+	int[] topStart = new int[topCells+1];
+	for (int i = 0; i < count; i++)
+	{
+		cellRange(itemBounds, 6*i, bounds[0], bounds[1], bounds[2], size, res, range);
+		count(range, res, topStart, 1);
+	}
+	prefixSum(topStart);
+	int[] topRefs = new int[topStart[topCells]];
+	int[] fill = new int[topCells];
+	for (int i = 0; i < count; i++)
+	{
+		cellRange(itemBounds, 6*i, bounds[0], bounds[1], bounds[2], size, res, range);
+		insert(range, res, topStart, fill, 0, topRefs, i);
+	}
+	
+	// the resolution of every subgrid
+	int[] subRes = new int[3*topCells];
+	int[] subFirst = new int[topCells+1];
+	for (int c = 0; c < topCells; c++)
+	{
+		int n = topStart[c+1]-topStart[c];
+		if (n > 0)
+		{
+			resolution(size[0], size[1], size[2], n, cellDensity, MAX_SUB_RESOLUTION, subRes, 3*c);
+			limitToItemSize(itemBounds, topRefs, topStart[c], topStart[c+1], size, subRes, 3*c);
+		}
+		subFirst[c+1] = subFirst[c]+subRes[3*c]*subRes[3*c+1]*subRes[3*c+2];
+	}
+	
+	// leaf level, the items of each top cell are counted into and then inserted into its
+	// subgrid
+	int leafCells = subFirst[topCells];
+	int[] leafStart = new int[leafCells+1];
+	int[] refs = null;
+	int[] leafFill = null;
+	int[] r = new int[3];
+	double[] subSize = new double[3];
+	for (int pass = 0; pass < 2; pass++)
+	{
+		if (pass == 1)
+		{
+			prefixSum(leafStart);
+			refs = new int[leafStart[leafCells]];
+			leafFill = new int[leafCells];
+		}
+		for (int c = 0; c < topCells; c++)
+		{
+			if (topStart[c+1] == topStart[c]) continue;
+			int cx = c % res[0], cy = (c/res[0]) % res[1], cz = c/(res[0]*res[1]);
+			double ox = bounds[0]+cx*size[0];
+			double oy = bounds[1]+cy*size[1];
+			double oz = bounds[2]+cz*size[2];
+			for (int k = 0; k < 3; k++)
+			{
+				r[k] = subRes[3*c+k];
+				subSize[k] = Grid.cellSize(size[k], r[k]);
+			}
+			for (int j = topStart[c]; j < topStart[c+1]; j++)
+			{
+				int item = topRefs[j];
+				cellRange(itemBounds, 6*item, ox, oy, oz, subSize, r, range);
+				if (pass == 0)
+					count(range, r, leafStart, subFirst[c]+1);
+				else
+					insert(range, r, leafStart, leafFill, subFirst[c], refs, item);
+			}
+		}
+	}
+	
+	Grid result = new Grid(items, refs, leafStart, bounds, res, subRes, subFirst);
+	result.buildTime = System.nanoTime()-start;
+	return result;
+}
+
+/**
+ * Chooses the resolution of a grid over a box with the given extents that holds
+ * <code>n</code> items, so that it has about <code>density*n</code> cubic cells. Axes
+ * along which the box is flat get a single cell.
+ */
+static void resolution(double dx, double dy, double dz, int n, double density, int max, int[] res, int offset)
+{
+	double[] extent = new double[] { dx, dy, dz };
+	double largest = Math.max(dx, Math.max(dy, dz));
+	double product = 1;
+	int dimensions = 0;
+	for (int k = 0; k < 3; k++)
+		if (extent[k] > 1e-9*largest)
+		{
+			product *= extent[k];
+			dimensions++;
+		}
+	double side = dimensions == 0 ? 0 : Math.pow(product/(density*n), 1.0/dimensions);
+	for (int k = 0; k < 3; k++)
+	{
+		int r = 1;
+		if ((side > 0) && (extent[k] > 1e-9*largest))
+			r = (int) Math.round(extent[k]/side);
+		res[offset+k] = Math.max(1, Math.min(max, r));
+	}
+}
+
+/**
+ * Keeps the cells of a subgrid at least half as large as the average item in it, so
+ * that large items do not end up in hundreds of cells.
+ */
+private static void limitToItemSize(double[] itemBounds, int[] refs, int first, int end, double[] size, int[] res, int offset)
+{
+	for (int k = 0; k < 3; k++)
+	{
+		double sum = 0;
+		for (int j = first; j < end; j++)
+			sum += itemBounds[6*refs[j]+k+3]-itemBounds[6*refs[j]+k];
+		double average = sum/(end-first);
+		if (average > 0)
+			res[offset+k] = Math.max(1, Math.min(res[offset+k], (int) Math.ceil(2*size[k]/average)));
+	}
+}
+
+/**
+ * Finds the cells of a grid that the item box at <code>itemBounds[off]</code>
+ * overlaps, as the first and last cell along each axis.
+ */
+private static void cellRange(double[] itemBounds, int off, double ox, double oy, double oz, double[] size, int[] res, int[] range)
+{
+	range[0] = Grid.cellIndex(itemBounds[off  ], ox, size[0], res[0]);
+	range[1] = Grid.cellIndex(itemBounds[off+1], oy, size[1], res[1]);
+	range[2] = Grid.cellIndex(itemBounds[off+2], oz, size[2], res[2]);
+	range[3] = Grid.cellIndex(itemBounds[off+3], ox, size[0], res[0]);
+	range[4] = Grid.cellIndex(itemBounds[off+4], oy, size[1], res[1]);
+	range[5] = Grid.cellIndex(itemBounds[off+5], oz, size[2], res[2]);
+}
+
+/**
+ * Counts one more item in every cell of the range, cell <code>i</code> of the grid
+ * in <code>counts[base+i]</code>.
+ */
+private static void count(int[] range, int[] res, int[] counts, int base)
+{
+	for (int z = range[2]; z <= range[5]; z++)
+		for (int y = range[1]; y <= range[4]; y++)
+			for (int x = range[0]; x <= range[3]; x++)
+				counts[base+(z*res[1]+y)*res[0]+x]++;
+}
+
+/**
+ * Adds the item to every cell of the range, whose references start at
+ * <code>start[base+i]</code> for cell <code>i</code> of the grid.
+ */
+private static void insert(int[] range, int[] res, int[] start, int[] fill, int base, int[] refs, int item)
+{
+	for (int z = range[2]; z <= range[5]; z++)
+		for (int y = range[1]; y <= range[4]; y++)
+			for (int x = range[0]; x <= range[3]; x++)
+			{
+				int cell = base+(z*res[1]+y)*res[0]+x;
+				refs[start[cell]+fill[cell]++] = item;
+			}
+}
+
+private static void prefixSum(int[] data)
+{
+	for (int i = 1; i < data.length; i++)
+		data[i] += data[i-1];
+}
+
+}
@@ -0,0 +1,265 @@
+// arch-tag: cbf8f9c0-a8d6-4a1d-9a17-cd909aa7ffcf
+package de.yvert.accel;
+
+import de.yvert.cr.profiles.IntersectionResult;
+import de.yvert.geometry.BoundingBox;
+import de.yvert.geometry.BoundingSphere;
+import de.yvert.geometry.Matrix4;
+import de.yvert.geometry.Ray;
+import de.yvert.geometry.SceneItem;
+import de.yvert.geometry.Triangle;
+import de.yvert.geometry.Triangulation;
+import de.yvert.geometry.Vector3;
+
+/**
+ * A placement of a shared acceleration structure in the scene, e.g. one of a thousand
+ * identical chairs.
+ * <p>
+ * The transform maps object space to world space and must be affine. Instead of
+ * transforming the geometry, rays are transformed into object space, so the geometry
+ * and its acceleration structure exist only once, no matter how often they are placed.
+ * The transformed ray direction is not normalized, so distances are the same in both
+ * spaces.
+ * <p>
+ * The material of the instance applies to everything in it. Put instances into a
+ * {@link TopLevelBVH}, which records the item hit inside the instance in
+ * {@link IntersectionResult#innerItem}; {@link #getNormal} needs it. Instances cannot
+ * be nested.
+ */
+public class Instance extends SceneItem implements Accelerator
+{
+	
+	private static final class Scratch
+	{
+		final Ray ray = new Ray();
+		final IntersectionResult result = new IntersectionResult();
+	}
+
+private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>()
+	{
+		@Override
+		protected Scratch initialValue()
+		{ return new Scratch(); }
+	};
+
+private final Accelerator object;
+
+// the upper three rows of the transform and its inverse
+private final double[] toWorld = new double[12];
+private final double[] toObject = new double[12];
+private final BoundingBox bounds;
+
+public Instance(Accelerator object, Matrix4 transform)
+{
+	double[][] m = transform.getMatrix();
+	if ((m[3][0] != 0) || (m[3][1] != 0) || (m[3][2] != 0) || (m[3][3] != 1))
+		throw new IllegalArgumentException("transform is not affine");
+	double[][] inv = transform.invert().getMatrix();
+	for (int i = 0; i < 3; i++)
+		for (int j = 0; j < 4; j++)
+		{
+			toWorld[4*i+j] = m[i][j];
+			toObject[4*i+j] = inv[i][j];
+		}
+	this.object = object;
+	
+	BoundingBox box = object.getBoundingBox();
+	Vector3 corner = new Vector3();
+	if (box == null)
+	{
+		// nothing to hit, but keep a valid box
+		transformPoint(toWorld, corner, corner);
+		bounds = new BoundingBox(corner, corner);
+		return;
+	}
+	Vector3 min = null, max = null;
+	for (int i = 0; i < 8; i++)
+	{
+		corner.set((i & 1) == 0 ? box.getMinX() : box.getMaxX(),
+		           (i & 2) == 0 ? box.getMinY() : box.getMaxY(),
+		           (i & 4) == 0 ? box.getMinZ() : box.getMaxZ());
+		transformPoint(toWorld, corner, corner);
+		if (min == null)
+		{
+			min = new Vector3(corner);
+			max = new Vector3(corner);
+		}
+		min.componentMinAndSet(corner);
+		max.componentMaxAndSet(corner);
+	}
+	bounds = new BoundingBox(min, max);
+}
+
+private static void transformPoint(double[] t, Vector3 in, Vector3 out)
+{
+	double x = in.getX(), y = in.getY(), z = in.getZ();
+	out.set(t[0]*x+t[1]*y+t[ 2]*z+t[ 3],
+	        t[4]*x+t[5]*y+t[ 6]*z+t[ 7],
+	        t[8]*x+t[9]*y+t[10]*z+t[11]);
+}
+
+private static void transformDirection(double[] t, Vector3 in, Vector3 out)
+{
+	double x = in.getX(), y = in.getY(), z = in.getZ();
+	out.set(t[0]*x+t[1]*y+t[ 2]*z,
+	        t[4]*x+t[5]*y+t[ 6]*z,
+	        t[8]*x+t[9]*y+t[10]*z);
+}
+
+/**
+ * Transforms a normal from object to world space with the inverse transpose of the
+ * transform, and normalizes it.
+ */
+private void transformNormal(Vector3 in, Vector3 out)
+{
+	double[] t = toObject;
+	double x = in.getX(), y = in.getY(), z = in.getZ();
+	out.set(t[0]*x+t[4]*y+t[ 8]*z,
+	        t[1]*x+t[5]*y+t[ 9]*z,
+	        t[2]*x+t[6]*y+t[10]*z);
+	out.normalizeAndSet();
+}
+
+private void toObjectSpace(Ray ray, Ray dest)
+{
+	transformPoint(toObject, ray.p, dest.p);
+	transformDirection(toObject, ray.v, dest.v);
+	dest.time = ray.time;
+	dest.update();
+}
+
+public Accelerator getObject()
+{ return object; }
+
+public Matrix4 getTransform()
+{
+	double[] t = toWorld;
+	return new Matrix4(t[0], t[1], t[ 2], t[ 3],
+	                   t[4], t[5], t[ 6], t[ 7],
+	                   t[8], t[9], t[10], t[11],
+	                   0, 0, 0, 1);
+}
+
+/**
+ * Intersects the shared structure in object space. On a hit, <code>result.item</code>
+ * is this instance and <code>result.innerItem</code> the item hit inside it.
+ */
+public boolean intersect(Ray ray, double maxDistance, IntersectionResult result)
+{
+	Ray local = SCRATCH.get().ray;
+	toObjectSpace(ray, local);
+	if (!object.intersect(local, maxDistance, result)) return false;
+	result.innerItem = result.item;
+	result.item = this;
+	return true;
+}
+
+public boolean occluded(Ray ray, double tmin, double tmax)
+{
+	Ray local = SCRATCH.get().ray;
+	toObjectSpace(ray, local);
+	return object.occluded(local, tmin, tmax);
+}
+
+public int occluded(Ray[] rays, double[] tmin, double[] tmax, int count, boolean[] occluded)
+{ return Occlusion.each(this, rays, tmin, tmax, count, occluded); }
+
+@Override
+public double distance(Ray ray)
+{
+	Scratch scratch = SCRATCH.get();
+	toObjectSpace(ray, scratch.ray);
+	if (!object.intersect(scratch.ray, Double.MAX_VALUE, scratch.result)) return -1;
+	return scratch.result.distance;
+}
+
+@Override
+public void getNormal(IntersectionResult result, Vector3 geonormal)
+{
+	IntersectionResult local = SCRATCH.get().result;
+	toObjectSpace(result.ray, local.ray);
+	local.distance = result.distance;
+	local.item = result.innerItem;
+	local.copyPrimitive(result);
+	local.hitpoint.set(local.ray.v).scaleAndSet(local.distance).addAndSet(local.ray.p);
+	local.item.getNormal(local, geonormal);
+	transformNormal(geonormal, geonormal);
+}
+
+@Override
+public BoundingBox getBoundingBox()
+{ return new BoundingBox(bounds); }
+
+@Override
+public BoundingSphere getBoundingSphere()
+{ return new BoundingSphere(bounds.center, bounds.max.sub(bounds.center).getLength()); }
+
+@Override
+public double getMinX()
+{ return bounds.getMinX(); }
+
+@Override
+public double getMaxX()
+{ return bounds.getMaxX(); }
+
+@Override
+public double getMinY()
+{ return bounds.getMinY(); }
+
+@Override
+public double getMaxY()
+{ return bounds.getMaxY(); }
+
+@Override
+public double getMinZ()
+{ return bounds.getMinZ(); }
+
+@Override
+public double getMaxZ()
+{ return bounds.getMaxZ(); }
+
+/**
+ * Adds the triangles of the shared structure in world space. Vertices are transformed
+ * with the transform, normals with its inverse transpose. The triangles keep their
+ * texture coordinates and textures, and get the material of the instance.
+ */
+@Override
+public void triangulate(Triangulation tri)
+{
+	Triangulation local = new Triangulation();
+	object.triangulate(local);
+	for (Triangle t : local)
+	{
+		Triangle result = new Triangle();
+		result.a = new Vector3();
+		result.b = new Vector3();
+		result.c = new Vector3();
+		transformPoint(toWorld, t.a, result.a);
+		transformPoint(toWorld, t.b, result.b);
+		transformPoint(toWorld, t.c, result.c);
+		if (t.n != null)
+		{
+			result.n = new Vector3();
+			transformNormal(t.n, result.n);
+		}
+		else
+			result.calculateNormal();
+		for (int i = 0; i < 3; i++)
+			if (t.vertexNormals[i] != null)
+			{
+				result.vertexNormals[i] = new Vector3();
+				transformNormal(t.vertexNormals[i], result.vertexNormals[i]);
+			}
+		result.texcoordparams = t.texcoordparams;
+		result.setTextures(t.getTextures());
+		result.setTexCoordFunctions(t.getTexCoordFunctions());
+		result.setMaterial(material);
+		tri.add(result);
+	}
+}
+
+@Override
+public String toString()
+{ return "Instance: "+object; }
+
+}
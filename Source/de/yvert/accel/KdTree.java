@@ -0,0 +1,317 @@
+// arch-tag: fe0b6f5f-d4dc-48eb-a6f3-bb309409994d
+package de.yvert.accel;
+
+import de.yvert.cr.profiles.IntersectionResult;
+import de.yvert.geometry.BoundingBox;
+import de.yvert.geometry.Ray;
+import de.yvert.geometry.SceneItem;
+import de.yvert.geometry.Triangulation;
+import de.yvert.geometry.Vector3;
+
+/**
+ * A kd-tree over a set of {@link SceneItem}s.
+ * <p>
+ * The tree is stored in flat arrays, the root is node 0 and its box is
+ * <code>bounds</code>. Node <code>i</code> keeps three ints in <code>nodes[3*i]</code>
+ * to <code>nodes[3*i+2]</code>. An inner node stores the indices of its two children
+ * and the split axis, the split position is <code>splits[i]</code>. A leaf stores the
+ * index of its first entry in <code>refs</code>, the number of entries (which may be
+ * zero) and {@link #LEAF}. An item that straddles a split plane is referenced from
+ * several leaves, a {@link Mailbox} makes sure it is tested only once per ray.
+ *
+ * @see KdTreeBuilder
+ */
+public class KdTree implements Accelerator
+{
+
+static final int LEAF = 3;
+
+final SceneItem[] items;
+final int[] refs;
+final int[] nodes;
+final double[] splits;
+final double[] bounds;
+final int nodeCount;
+final int referenceCount;
+final int maxDepth;
+
+/** Build time in nanoseconds, set by the builder. */
+long buildTime;
+
+private final ThreadLocal<Traversal> traversals = new ThreadLocal<Traversal>()
+	{
+		@Override
+		protected Traversal initialValue()
+		{ return new Traversal(maxDepth+1); }
+	};
+	
+	/**
+	 * Per-thread state: the mailbox, the ray in array form and the traversal stack.
+	 */
+	private static final class Traversal
+	{
+		final Mailbox mailbox = new Mailbox(256);
+		final double[] p = new double[3];
+		final double[] vi = new double[3];
+		final int[] stack;
+		final double[] stackMin;
+		final double[] stackMax;
+		
+		Traversal(int size)
+		{
+			stack = new int[size];
+			stackMin = new double[size];
+			stackMax = new double[size];
+		}
+	}
+
+KdTree(SceneItem[] items, int[] refs, int referenceCount, int[] nodes, double[] splits, int nodeCount, double[] bounds, int maxDepth)
+{
+	this.items = items;
+	this.refs = refs;
+	this.referenceCount = referenceCount;
+	this.nodes = nodes;
+	this.splits = splits;
+	this.nodeCount = nodeCount;
+	this.bounds = bounds;
+	this.maxDepth = maxDepth;
+}
+
+final boolean isLeaf(int node)
+{ return nodes[3*node+2] == LEAF; }
+
+public int getNodeCount()
+{ return nodeCount; }
+
+public int getLeafCount()
+{ return (nodeCount+1)/2; }
+
+public int getItemCount()
+{ return items.length; }
+
+/**
+ * Returns the total number of item references in all leaves. This is at least the
+ * number of items, the difference is the number of duplicated references.
+ */
+public int getReferenceCount()
+{ return referenceCount; }
+
+public int getMaxDepth()
+{ return maxDepth; }
+
+/**
+ * Returns the build time in milliseconds.
+ */
+public double getBuildTime()
+{ return buildTime/1e6; }
+
+public BoundingBox getBoundingBox()
+{
+	if (nodeCount == 0) return null;
+	return new BoundingBox(new Vector3(bounds[0], bounds[1], bounds[2]),
+			new Vector3(bounds[3], bounds[4], bounds[5]));
+}
+
+public void triangulate(Triangulation tri)
+{
+	for (SceneItem item : items)
+		item.triangulate(tri);
+}
+
+public boolean intersect(Ray ray, double maxDistance, IntersectionResult result)
+{
+	if (nodeCount == 0) return false;
+	
+	Traversal traversal = traversals.get();
+	double[] p = traversal.p;
+	p[0] = ray.p.getX(); p[1] = ray.p.getY(); p[2] = ray.p.getZ();
+	double[] vi = traversal.vi;
+	vi[0] = ray.ix; vi[1] = ray.iy; vi[2] = ray.iz;
+	
+	// clip the ray to the root box
+	double tmin = 0;
+	double tmax = maxDistance;
+	for (int axis = 0; axis < 3; axis++)
+	{
+		double t0 = (bounds[axis]-p[axis])*vi[axis];
+		double t1 = (bounds[axis+3]-p[axis])*vi[axis];
+		if (t0 > t1) { double help = t0; t0 = t1; t1 = help; }
+		if (t0 > tmin) tmin = t0;
+		if (t1 < tmax) tmax = t1;
+	}
+	if (tmin > tmax) return false;
+	
+	Mailbox mailbox = traversal.mailbox;
+	mailbox.nextRay();
+	
+	int[] stack = traversal.stack;
+	double[] stackMin = traversal.stackMin;
+	double[] stackMax = traversal.stackMax;
+	int sp = 0;
+	int node = 0;
+	double closest = maxDistance;
+	SceneItem hit = null;
+	while (true)
+	{
+		if (nodes[3*node+2] != LEAF)
+		{
+			int axis = nodes[3*node+2];
+			double split = splits[node];
+			double tsplit = (split-p[axis])*vi[axis];
+			
+			int first, second;
+			if ((p[axis] < split) || ((p[axis] == split) && (vi[axis] <= 0)))
+			{ first = nodes[3*node]; second = nodes[3*node+1]; }
+			else
+			{ first = nodes[3*node+1]; second = nodes[3*node]; }
+			
+			if ((tsplit > tmax) || (tsplit <= 0))
+				node = first;
+			else if (tsplit < tmin)
+				node = second;
+			else
+			{
+				stack[sp] = second;
+				stackMin[sp] = tsplit;
+				stackMax[sp] = tmax;
+				sp++;
+				node = first;
+				tmax = tsplit;
+			}
+			continue;
+		}
+		
+		int start = nodes[3*node];
+		int end = start+nodes[3*node+1];
+		for (int i = start; i < end; i++)
+		{
+			SceneItem item = items[refs[i]];
+			if (!mailbox.visit(item)) continue;
+			double d = item.distance(ray);
+			if ((d > 0) && (d < closest))
+			{
+				closest = d;
+				hit = item;
+			}
+		}
+		
+		// all remaining cells lie behind this one
+		if (closest <= tmax) break;
+		
+		node = -1;
+		while (sp > 0)
+		{
+			sp--;
+			if (stackMin[sp] <= closest)
+			{
+				node = stack[sp];
+				tmin = stackMin[sp];
+				tmax = stackMax[sp];
+				break;
+			}
+		}
+		if (node < 0) break;
+	}
+	
+	if (hit == null) return false;
+	result.distance = closest;
+	result.item = hit;
+	result.clearPrimitive();
+	return true;
+}
+
+public boolean occluded(Ray ray, double tmin, double tmax)
+{
+	if (nodeCount == 0) return false;
+	
+	Traversal traversal = traversals.get();
+	double[] p = traversal.p;
+	p[0] = ray.p.getX(); p[1] = ray.p.getY(); p[2] = ray.p.getZ();
+	double[] vi = traversal.vi;
+	vi[0] = ray.ix; vi[1] = ray.iy; vi[2] = ray.iz;
+	
+	// only cells overlapping (tmin, tmax) can hold an occluder
+	double near = tmin > 0 ? tmin : 0;
+	double far = tmax;
+	for (int axis = 0; axis < 3; axis++)
+	{
+		double t0 = (bounds[axis]-p[axis])*vi[axis];
+		double t1 = (bounds[axis+3]-p[axis])*vi[axis];
+		if (t0 > t1) { double help = t0; t0 = t1; t1 = help; }
+		if (t0 > near) near = t0;
+		if (t1 < far) far = t1;
+	}
+	if (near > far) return false;
+	
+	Mailbox mailbox = traversal.mailbox;
+	mailbox.nextRay();
+	
+	int[] stack = traversal.stack;
+	double[] stackMin = traversal.stackMin;
+	double[] stackMax = traversal.stackMax;
+	int sp = 0;
+	int node = 0;
+	while (true)
+	{
+		if (nodes[3*node+2] != LEAF)
+		{
+			int axis = nodes[3*node+2];
+			double split = splits[node];
+			double tsplit = (split-p[axis])*vi[axis];
+			
+			int first, second;
+			if ((p[axis] < split) || ((p[axis] == split) && (vi[axis] <= 0)))
+			{ first = nodes[3*node]; second = nodes[3*node+1]; }
+			else
+			{ first = nodes[3*node+1]; second = nodes[3*node]; }
+			
+			if ((tsplit > far) || (tsplit <= 0))
+				node = first;
+			else if (tsplit < near)
+				node = second;
+			else
+			{
+				stack[sp] = second;
+				stackMin[sp] = tsplit;
+				stackMax[sp] = far;
+				sp++;
+				node = first;
+				far = tsplit;
+			}
+			continue;
+		}
+		
+		int start = nodes[3*node];
+		int end = start+nodes[3*node+1];
+		for (int i = start; i < end; i++)
+		{
+			SceneItem item = items[refs[i]];
+			if (!mailbox.visit(item)) continue;
+			double d = item.distance(ray);
+			if ((d > tmin) && (d < tmax)) return true;
+		}
+		
+		if (sp == 0) return false;
+		sp--;
+		node = stack[sp];
+		near = stackMin[sp];
+		far = stackMax[sp];
+	}
+}
+
+public int occluded(Ray[] rays, double[] tmin, double[] tmax, int count, boolean[] occluded)
+{ return Occlusion.each(this, rays, tmin, tmax, count, occluded); }
+
+@Override
+public String toString()
+{
+	StringBuffer out = new StringBuffer();
+	out.append("KdTree over ").append(items.length).append(" items\n");
+	out.append("  nodes:      ").append(nodeCount).append(" (").append(getLeafCount()).append(" leaves)\n");
+	out.append("  depth:      ").append(maxDepth).append("\n");
+	out.append("  references: ").append(referenceCount).append("\n");
+	out.append("  build time: ").append(Math.round(getBuildTime()*10)/10.0).append(" ms");
+	return out.toString();
+}
+
+}
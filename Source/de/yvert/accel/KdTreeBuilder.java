@@ -0,0 +1,364 @@
+// arch-tag: e2f1d166-f4fc-4b32-88a0-79e82a7a85a7
+package de.yvert.accel;
+
+import java.util.Arrays;
+
+import de.yvert.geometry.BoundingBox;
+import de.yvert.geometry.SceneItem;
+import de.yvert.geometry.SceneItemCollection;
+import de.yvert.geometry.Triangle;
+import de.yvert.geometry.Vector3;
+
+/**
+ * Builds a {@link KdTree} top-down using the surface area heuristic.
+ * <p>
+ * At each node, every boundary of an item box is a split candidate. The candidates are
+ * sorted along each axis and swept to find the plane with the lowest SAH cost, where a
+ * split that cuts off empty space gets a bonus. Triangles that straddle the chosen plane
+ * are clipped to both children with {@link Triangle#clip(BoundingBox)}, so the children
+ * only see the part of the triangle that actually lies inside them ("perfect splits",
+ * see Wald and Havran, "On building fast kd-Trees for Ray Tracing, and on doing that
+ * in O(N log N)", 2006). Other items use the intersection of their box with the cell.
+ * <p>
+ * Sorting at every node makes this O(n log^2 n).
+ */
+public class KdTreeBuilder implements AcceleratorBuilder
+{
+
+private double traversalCost = 0.5;
+private double intersectionCost = SurfaceAreaHeuristic.INTERSECTION_COST;
+private double emptyBonus = 0.2;
+private int maxDepth = 0;
+
+public KdTreeBuilder()
+{/*OK*/}
+
+public double getTraversalCost()
+{ return traversalCost; }
+
+public void setTraversalCost(double traversalCost)
+{ this.traversalCost = traversalCost; }
+
+public double getIntersectionCost()
+{ return intersectionCost; }
+
+public void setIntersectionCost(double intersectionCost)
+{ this.intersectionCost = intersectionCost; }
+
+/**
+ * Returns the fraction by which the cost of a split with an empty child is reduced.
+ */
+public double getEmptyBonus()
+{ return emptyBonus; }
+
+public void setEmptyBonus(double emptyBonus)
+{
+	if ((emptyBonus < 0) || (emptyBonus >= 1)) throw new IllegalArgumentException("emptyBonus out of range");
+	this.emptyBonus = emptyBonus;
+}
+
+/**
+ * Returns the maximum depth of the tree, or 0 if it is chosen from the number of items.
+ */
+public int getMaxDepth()
+{ return maxDepth; }
+
+public void setMaxDepth(int maxDepth)
+{
+	if (maxDepth < 0) throw new IllegalArgumentException("maxDepth < 0");
+	this.maxDepth = maxDepth;
+}
+
+public KdTree build(SceneItemCollection collection)
+{ return build(collection.toArray()); }
+
+public KdTree build(SceneItem[] items)
+{
+	long start = System.nanoTime();
+	int count = items.length;
+	int depthLimit = maxDepth;
+	if (depthLimit == 0)
+		depthLimit = (int) Math.round(8+1.3*Math.log(Math.max(count, 1))/Math.log(2));
+	
+	Construction c = new Construction(items, depthLimit);
+	c.run();
+	KdTree result = new KdTree(items, c.refs, c.refCount, c.nodes, c.splits, c.nodeCount, c.rootBounds, c.depth);
+	result.buildTime = System.nanoTime()-start;
+	return result;
+}
+	
+	/**
+	 * State of a single build, so that a builder can be shared between threads.
+	 */
+	private final class Construction
+	{
+		private final SceneItem[] items;
+		private final int depthLimit;
+		
+		int[] refs = new int[64];
+		int refCount = 0;
+		int[] nodes = new int[3*64];
+		double[] splits = new double[64];
+		int nodeCount = 0;
+		final double[] rootBounds = new double[6];
+		int depth = 0;
+		
+		private double[] starts = new double[0];
+		private double[] ends = new double[0];
+		private double[] planars = new double[0];
+		
+		Construction(SceneItem[] items, int depthLimit)
+		{
+			this.items = items;
+			this.depthLimit = depthLimit;
+		}
+		
+		void run()
+		{
+			int count = items.length;
+			if (count == 0) return;
+			
+			int[] itemRefs = new int[count];
+			double[] itemBounds = new double[6*count];
+			SurfaceAreaHeuristic.clear(rootBounds, 0);
+			for (int i = 0; i < count; i++)
+			{
+				BoundingBox box = items[i].getBoundingBox();
+				itemRefs[i] = i;
+				itemBounds[6*i  ] = box.getMinX();
+				itemBounds[6*i+1] = box.getMinY();
+				itemBounds[6*i+2] = box.getMinZ();
+				itemBounds[6*i+3] = box.getMaxX();
+				itemBounds[6*i+4] = box.getMaxY();
+				itemBounds[6*i+5] = box.getMaxZ();
+				SurfaceAreaHeuristic.union(rootBounds, 0, itemBounds, 6*i);
+			}
+			
+			allocateNodes(1);
+			subdivide(0, itemRefs, itemBounds, count, rootBounds.clone(), 0);
+		}
+		
+		private int allocateNodes(int count)
+		{
+			int result = nodeCount;
+			nodeCount += count;
+			if (nodeCount > splits.length)
+			{
+				int size = Math.max(2*splits.length, nodeCount);
+				int[] temp = new int[3*size];
+				System.arraycopy(nodes, 0, temp, 0, 3*result);
+				nodes = temp;
+				double[] temp2 = new double[size];
+				System.arraycopy(splits, 0, temp2, 0, result);
+				splits = temp2;
+			}
+			return result;
+		}
+		
+		private void makeLeaf(int node, int[] itemRefs, int count)
+		{
+			if (refCount+count > refs.length)
+			{
+				int[] temp = new int[Math.max(2*refs.length, refCount+count)];
+				System.arraycopy(refs, 0, temp, 0, refCount);
+				refs = temp;
+			}
+			System.arraycopy(itemRefs, 0, refs, refCount, count);
+			nodes[3*node] = refCount;
+			nodes[3*node+1] = count;
+			nodes[3*node+2] = KdTree.LEAF;
+			refCount += count;
+		}
+		
+		private void subdivide(int node, int[] itemRefs, double[] itemBounds, int count, double[] box, int level)
+		{
+			if (level > depth) depth = level;
+			double area = SurfaceAreaHeuristic.halfArea(box, 0);
+			double leafCost = intersectionCost*count;
+			if ((count <= 1) || (level >= depthLimit) || (area <= 0))
+			{
+				makeLeaf(node, itemRefs, count);
+				return;
+			}
+			
+			if (starts.length < count)
+			{
+				starts = new double[count];
+				ends = new double[count];
+				planars = new double[count];
+			}
+			
+			double bestCost = Double.POSITIVE_INFINITY;
+			int bestAxis = -1;
+			double bestSplit = 0;
+			boolean bestPlanarLeft = false;
+			for (int axis = 0; axis < 3; axis++)
+			{
+				double boxMin = box[axis];
+				double boxMax = box[axis+3];
+				if (boxMax <= boxMin) continue;
+				
+				int startCount = 0, endCount = 0, planarCount = 0;
+				for (int i = 0; i < count; i++)
+				{
+					double min = itemBounds[6*i+axis];
+					double max = itemBounds[6*i+3+axis];
+					if (min == max)
+						planars[planarCount++] = min;
+					else
+					{
+						starts[startCount++] = min;
+						ends[endCount++] = max;
+					}
+				}
+				Arrays.sort(starts, 0, startCount);
+				Arrays.sort(ends, 0, endCount);
+				Arrays.sort(planars, 0, planarCount);
+				
+				int axis1 = (axis+1) % 3;
+				int axis2 = (axis+2) % 3;
+				double d1 = box[axis1+3]-box[axis1];
+				double d2 = box[axis2+3]-box[axis2];
+				double capArea = d1*d2;
+				double perimeter = d1+d2;
+				
+				// sweep over all candidates, counting the items on either side
+				int is = 0, ie = 0, ip = 0;
+				int leftCount = 0, rightCount = count;
+				while ((is < startCount) || (ie < endCount) || (ip < planarCount))
+				{
+					double pos = Double.POSITIVE_INFINITY;
+					if ((is < startCount) && (starts[is] < pos)) pos = starts[is];
+					if ((ie < endCount) && (ends[ie] < pos)) pos = ends[ie];
+					if ((ip < planarCount) && (planars[ip] < pos)) pos = planars[ip];
+					
+					int startHere = 0, endHere = 0, planarHere = 0;
+					while ((is < startCount) && (starts[is] == pos)) { is++; startHere++; }
+					while ((ie < endCount) && (ends[ie] == pos)) { ie++; endHere++; }
+					while ((ip < planarCount) && (planars[ip] == pos)) { ip++; planarHere++; }
+					
+					rightCount -= planarHere+endHere;
+					if ((pos > boxMin) && (pos < boxMax))
+					{
+						double leftArea = capArea+(pos-boxMin)*perimeter;
+						double rightArea = capArea+(boxMax-pos)*perimeter;
+						double cost = splitCost(leftArea, leftCount+planarHere, rightArea, rightCount, area);
+						if (cost < bestCost)
+						{
+							bestCost = cost;
+							bestAxis = axis;
+							bestSplit = pos;
+							bestPlanarLeft = true;
+						}
+						cost = splitCost(leftArea, leftCount, rightArea, rightCount+planarHere, area);
+						if (cost < bestCost)
+						{
+							bestCost = cost;
+							bestAxis = axis;
+							bestSplit = pos;
+							bestPlanarLeft = false;
+						}
+					}
+					leftCount += startHere+planarHere;
+				}
+			}
+			
+			if ((bestAxis < 0) || (bestCost >= leafCost))
+			{
+				makeLeaf(node, itemRefs, count);
+				return;
+			}
+			
+			double[] leftBox = box.clone();
+			double[] rightBox = box.clone();
+			leftBox[bestAxis+3] = bestSplit;
+			rightBox[bestAxis] = bestSplit;
+			
+			int[] leftRefs = new int[count];
+			int[] rightRefs = new int[count];
+			double[] leftBounds = new double[6*count];
+			double[] rightBounds = new double[6*count];
+			int leftCount = 0, rightCount = 0;
+			for (int i = 0; i < count; i++)
+			{
+				double min = itemBounds[6*i+bestAxis];
+				double max = itemBounds[6*i+3+bestAxis];
+				boolean left, right;
+				if ((min == bestSplit) && (max == bestSplit))
+				{
+					left = bestPlanarLeft;
+					right = !bestPlanarLeft;
+				}
+				else
+				{
+					left = min < bestSplit;
+					right = max > bestSplit;
+				}
+				
+				if (left && right)
+				{
+					// the item straddles the plane, clip it to both sides
+					if (clip(itemRefs[i], leftBox, leftBounds, 6*leftCount))
+						leftRefs[leftCount++] = itemRefs[i];
+					if (clip(itemRefs[i], rightBox, rightBounds, 6*rightCount))
+						rightRefs[rightCount++] = itemRefs[i];
+				}
+				else if (left)
+				{
+					System.arraycopy(itemBounds, 6*i, leftBounds, 6*leftCount, 6);
+					leftRefs[leftCount++] = itemRefs[i];
+				}
+				else
+				{
+					System.arraycopy(itemBounds, 6*i, rightBounds, 6*rightCount, 6);
+					rightRefs[rightCount++] = itemRefs[i];
+				}
+			}
+			
+			int child = allocateNodes(2);
+			nodes[3*node] = child;
+			nodes[3*node+1] = child+1;
+			nodes[3*node+2] = bestAxis;
+			splits[node] = bestSplit;
+			
+			subdivide(child, leftRefs, leftBounds, leftCount, leftBox, level+1);
+			subdivide(child+1, rightRefs, rightBounds, rightCount, rightBox, level+1);
+		}
+		
+		private double splitCost(double leftArea, int leftCount, double rightArea, int rightCount, double area)
+		{
+			double cost = intersectionCost*(leftArea*leftCount+rightArea*rightCount)/area;
+			if ((leftCount == 0) || (rightCount == 0))
+				cost *= 1-emptyBonus;
+			return traversalCost+cost;
+		}
+		
+		/**
+		 * Computes the bounds of the part of the item inside the cell. Returns false
+		 * if the item does not overlap the cell at all.
+		 */
+		private boolean clip(int ref, double[] cell, double[] dest, int offset)
+		{
+			SceneItem item = items[ref];
+			BoundingBox box;
+			if (item instanceof Triangle)
+			{
+				box = new BoundingBox(new Vector3(cell[0], cell[1], cell[2]), new Vector3(cell[3], cell[4], cell[5]));
+				if (((Triangle) item).clip(box) < 0) return false;
+			}
+			else
+				box = item.getBoundingBox();
+			
+			dest[offset  ] = Math.max(box.getMinX(), cell[0]);
+			dest[offset+1] = Math.max(box.getMinY(), cell[1]);
+			dest[offset+2] = Math.max(box.getMinZ(), cell[2]);
+			dest[offset+3] = Math.min(box.getMaxX(), cell[3]);
+			dest[offset+4] = Math.min(box.getMaxY(), cell[4]);
+			dest[offset+5] = Math.min(box.getMaxZ(), cell[5]);
+			for (int axis = 0; axis < 3; axis++)
+				if (dest[offset+axis] > dest[offset+3+axis]) return false;
+			return true;
+		}
+	}
+
+}
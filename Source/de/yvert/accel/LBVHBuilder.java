@@ -0,0 +1,294 @@
+// arch-tag: e05fe661-87ca-4c64-9192-9e9a33549e49
+package de.yvert.accel;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import de.yvert.algorithms.ParallelFor;
+import de.yvert.algorithms.RadixSort;
+import de.yvert.geometry.BoundingBox;
+import de.yvert.geometry.SceneItem;
+import de.yvert.geometry.SceneItemCollection;
+
+/**
+ * Builds a linear BVH (LBVH) in parallel, for scenes that change every frame.
+ * <p>
+ * The item centroids are quantized to a 1024^3 grid and sorted along a Morton
+ * (Z-order) curve with a parallel radix sort. The tree then follows from the sorted
+ * codes: the two children of a node split its range where the highest differing bit
+ * changes. With the layout of Karras ("Maximizing Parallelism in the Construction of
+ * BVHs, Octrees, and k-d Trees", 2012), every inner node can be emitted independently
+ * of all others, so this step runs in parallel without any recursion. Finally, the node
+ * boxes are computed bottom-up; the second thread to arrive at a node merges its
+ * children and continues upwards.
+ * <p>
+ * Every step is linear in the number of items and scales with the number of threads.
+ * The resulting trees have a higher SAH cost than those of {@link SAHBuilder}, but are
+ * built an order of magnitude faster.
+ */
+public class LBVHBuilder implements AcceleratorBuilder
+{
+
+private static final int MORTON_BITS = 30;
+private static final int GRID_SIZE = 1 << (MORTON_BITS/3);
+
+private final ExecutorService executor;
+private final int parallelism;
+
+/**
+ * Creates a builder that uses a temporary thread pool with one thread per processor.
+ */
+public LBVHBuilder()
+{ this(null, Runtime.getRuntime().availableProcessors()); }
+
+/**
+ * Creates a builder that runs on the given executor, cutting every step into
+ * <code>parallelism</code> chunks. If the executor is null, a temporary thread pool
+ * is created for each build.
+ */
+public LBVHBuilder(ExecutorService executor, int parallelism)
+{
+	if (parallelism < 1) throw new IllegalArgumentException("parallelism < 1");
+	this.executor = executor;
+	this.parallelism = parallelism;
+}
+
+public BVH build(SceneItemCollection collection)
+{ return build(collection.toArray()); }
+
+public BVH build(SceneItem[] items)
+{
+	long start = System.nanoTime();
+	ExecutorService pool = executor;
+	if ((pool == null) && (parallelism > 1))
+		pool = Executors.newFixedThreadPool(parallelism);
+	try
+	{
+		BVH result = new Construction(items, pool).run();
+		result.buildTime = System.nanoTime()-start;
+		return result;
+	}
+	finally
+	{
+		if ((pool != null) && (pool != executor)) pool.shutdown();
+	}
+}
+
+/**
+ * Spreads the lower 10 bits of v so that there are two zero bits between each.
+ */
+static int expandBits(int v)
+{
+	v = (v*0x00010001) & 0xFF0000FF;
+	v = (v*0x00000101) & 0x0F00F00F;
+	v = (v*0x00000011) & 0xC30C30C3;
+	v = (v*0x00000005) & 0x49249249;
+	return v;
+}
+
+static int mortonCode(int x, int y, int z)
+{ return (expandBits(x) << 2) | (expandBits(y) << 1) | expandBits(z); }
+	
+	private final class Construction
+	{
+		final SceneItem[] items;
+		final ExecutorService pool;
+		final int count;
+		final int chunks;
+		
+		final double[] primBounds;
+		final double[] chunkCentroids;
+		final int[] codes;
+		final int[] refs;
+		
+		// inner node i is node i, leaf i is node count-1+i
+		final int[] nodes;
+		final int[] parents;
+		final double[] bounds;
+		
+		Construction(SceneItem[] items, ExecutorService pool)
+		{
+			this.items = items;
+			this.pool = pool;
+			count = items.length;
+			chunks = ParallelFor.chunkCount(count, parallelism);
+			primBounds = new double[6*count];
+			chunkCentroids = new double[6*chunks];
+			codes = new int[count];
+			refs = new int[count];
+			int nodeCount = count > 0 ? 2*count-1 : 0;
+			nodes = new int[2*nodeCount];
+			parents = new int[nodeCount];
+			bounds = new double[6*nodeCount];
+		}
+		
+		BVH run()
+		{
+			if (count == 0)
+				return new BVH(items, refs, nodes, bounds, 0);
+			
+			ParallelFor.run(pool, chunks, count, new ParallelFor.Body()
+				{
+					public void run(int chunk, int first, int afterLast)
+					{ collectBounds(chunk, first, afterLast); }
+				});
+			
+			// twice the centroid bounds, see collectBounds
+			double[] centroidBounds = new double[6];
+			SurfaceAreaHeuristic.clear(centroidBounds, 0);
+			for (int i = 0; i < chunks; i++)
+				SurfaceAreaHeuristic.union(centroidBounds, 0, chunkCentroids, 6*i);
+			final double[] offset = new double[3];
+			final double[] scale = new double[3];
+			for (int axis = 0; axis < 3; axis++)
+			{
+				double extent = centroidBounds[axis+3]-centroidBounds[axis];
+				offset[axis] = centroidBounds[axis];
+				scale[axis] = extent > 0 ? GRID_SIZE/extent : 0;
+			}
+			
+			ParallelFor.run(pool, chunks, count, new ParallelFor.Body()
+				{
+					public void run(int chunk, int first, int afterLast)
+					{ calculateCodes(first, afterLast, offset, scale); }
+				});
+			
+			RadixSort.sort(codes, refs, MORTON_BITS, pool, chunks);
+			
+			parents[0] = -1;
+			if (count > 1)
+			{
+				ParallelFor.run(pool, chunks, count-1, new ParallelFor.Body()
+					{
+						public void run(int chunk, int first, int afterLast)
+						{
+							for (int i = first; i < afterLast; i++)
+								emitInnerNode(i);
+						}
+					});
+			}
+			
+			final AtomicIntegerArray arrivals = new AtomicIntegerArray(count > 1 ? count-1 : 1);
+			ParallelFor.run(pool, chunks, count, new ParallelFor.Body()
+				{
+					public void run(int chunk, int first, int afterLast)
+					{
+						for (int i = first; i < afterLast; i++)
+							propagateBounds(i, arrivals);
+					}
+				});
+			
+			return new BVH(items, refs, nodes, bounds, 2*count-1);
+		}
+		
+		void collectBounds(int chunk, int first, int afterLast)
+		{
+			int off = 6*chunk;
+			SurfaceAreaHeuristic.clear(chunkCentroids, off);
+			for (int i = first; i < afterLast; i++)
+			{
+				BoundingBox box = items[i].getBoundingBox();
+				primBounds[6*i  ] = box.getMinX();
+				primBounds[6*i+1] = box.getMinY();
+				primBounds[6*i+2] = box.getMinZ();
+				primBounds[6*i+3] = box.getMaxX();
+				primBounds[6*i+4] = box.getMaxY();
+				primBounds[6*i+5] = box.getMaxZ();
+				for (int axis = 0; axis < 3; axis++)
+				{
+					double c = primBounds[6*i+axis]+primBounds[6*i+3+axis];
+					if (c < chunkCentroids[off+axis]) chunkCentroids[off+axis] = c;
+					if (c > chunkCentroids[off+3+axis]) chunkCentroids[off+3+axis] = c;
+				}
+			}
+		}
+		
+		void calculateCodes(int first, int afterLast, double[] offset, double[] scale)
+		{
+			for (int i = first; i < afterLast; i++)
+			{
+				int x = quantize(primBounds[6*i  ]+primBounds[6*i+3], offset[0], scale[0]);
+				int y = quantize(primBounds[6*i+1]+primBounds[6*i+4], offset[1], scale[1]);
+				int z = quantize(primBounds[6*i+2]+primBounds[6*i+5], offset[2], scale[2]);
+				codes[i] = mortonCode(x, y, z);
+				refs[i] = i;
+			}
+		}
+		
+		private int quantize(double value, double offset, double scale)
+		{
+			int result = (int) ((value-offset)*scale);
+			return result < GRID_SIZE ? result : GRID_SIZE-1;
+		}
+		
+		/**
+		 * Returns the length of the common prefix of the codes at i and j, or -1 if j is
+		 * out of range. Equal codes are told apart by their index.
+		 */
+		private int delta(int i, int j)
+		{
+			if ((j < 0) || (j >= count)) return -1;
+			if (codes[i] == codes[j])
+				return 32+Integer.numberOfLeadingZeros(i ^ j);
+			return Integer.numberOfLeadingZeros(codes[i] ^ codes[j]);
+		}
+		
+		void emitInnerNode(int i)
+		{
+			// the direction in which the range of this node extends
+			int d = delta(i, i+1)-delta(i, i-1) > 0 ? 1 : -1;
+			
+			// find the other end of the range by exponential, then binary search
+			int deltaMin = delta(i, i-d);
+			int lengthMax = 2;
+			while (delta(i, i+lengthMax*d) > deltaMin)
+				lengthMax *= 2;
+			int length = 0;
+			for (int t = lengthMax/2; t >= 1; t /= 2)
+				if (delta(i, i+(length+t)*d) > deltaMin)
+					length += t;
+			int j = i+length*d;
+			
+			// find the split position by binary search
+			int deltaNode = delta(i, j);
+			int s = 0;
+			int t = length;
+			do
+			{
+				t = (t+1) >> 1;
+				if (delta(i, i+(s+t)*d) > deltaNode)
+					s += t;
+			}
+			while (t > 1);
+			int gamma = i+s*d+Math.min(d, 0);
+			
+			int left = Math.min(i, j) == gamma ? count-1+gamma : gamma;
+			int right = Math.max(i, j) == gamma+1 ? count+gamma : gamma+1;
+			nodes[2*i] = left;
+			nodes[2*i+1] = right;
+			parents[left] = i;
+			parents[right] = i;
+		}
+		
+		void propagateBounds(int leafIndex, AtomicIntegerArray arrivals)
+		{
+			int node = count-1+leafIndex;
+			nodes[2*node] = leafIndex;
+			nodes[2*node+1] = -1;
+			System.arraycopy(primBounds, 6*refs[leafIndex], bounds, 6*node, 6);
+			
+			int parent = parents[node];
+			while (parent >= 0)
+			{
+				// the first thread to arrive leaves the work to the second one
+				if (arrivals.getAndIncrement(parent) == 0) return;
+				int off = 6*parent;
+				System.arraycopy(bounds, 6*nodes[2*parent], bounds, off, 6);
+				SurfaceAreaHeuristic.union(bounds, off, bounds, 6*nodes[2*parent+1]);
+				parent = parents[parent];
+			}
+		}
+	}
+
+}
@@ -0,0 +1,256 @@
+// arch-tag: 6fd3acab-98cb-4041-b24a-8dc5a83e6f12
+package de.yvert.accel;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import de.yvert.cr.profiles.IntersectionResult;
+import de.yvert.geometry.BoundingBox;
+import de.yvert.geometry.Ray;
+import de.yvert.geometry.SceneItem;
+import de.yvert.geometry.SceneItemCollection;
+import de.yvert.geometry.Triangulation;
+import de.yvert.geometry.Vector3;
+
+/**
+ * A BVH whose lower levels are only built when a ray first reaches them.
+ * <p>
+ * The upper levels are stored like in {@link BVH}, with the same box layout. Inner nodes
+ * keep the indices of their children in <code>nodes[2*i]</code> and
+ * <code>nodes[2*i+1]</code>. A leaf keeps the index of its subtree in
+ * <code>nodes[2*i]</code> and -1 in <code>nodes[2*i+1]</code>; the items of subtree
+ * <code>j</code> are <code>order[leafStart[j]]</code> to
+ * <code>order[leafStart[j]+leafSize[j]-1]</code>.
+ * <p>
+ * The first ray that enters a leaf builds its subtree with the subtree builder. The
+ * result is published with a compare-and-set, so threads never wait for each other. If
+ * two threads build the same subtree at the same time, both finish their build, but
+ * only the first result is kept and used by everyone. The subtree builder must
+ * therefore be safe to use from several threads at once, which all builders in this
+ * package are.
+ *
+ * @see LazyBVHBuilder
+ */
+public class LazyBVH implements Accelerator
+{
+
+final SceneItem[] items;
+final int[] order;
+final int[] nodes;
+final double[] bounds;
+final int nodeCount;
+final int maxDepth;
+final int[] leafStart;
+final int[] leafSize;
+
+private final AcceleratorBuilder subtreeBuilder;
+private final AtomicReferenceArray<Accelerator> subtrees;
+// per-thread traversal stacks, so that tracing a ray does not allocate
+private final ThreadLocal<int[]> stacks = new ThreadLocal<int[]>()
+	{
+		@Override
+		protected int[] initialValue()
+		{ return new int[maxDepth+1]; }
+	};
+
+/** Build time of the upper levels in nanoseconds, set by the builder. */
+long buildTime;
+
+LazyBVH(SceneItem[] items, int[] order, int[] nodes, double[] bounds, int nodeCount, int maxDepth,
+		int[] leafStart, int[] leafSize, AcceleratorBuilder subtreeBuilder)
+{
+	this.items = items;
+	this.order = order;
+	this.nodes = nodes;
+	this.bounds = bounds;
+	this.nodeCount = nodeCount;
+	this.maxDepth = maxDepth;
+	this.leafStart = leafStart;
+	this.leafSize = leafSize;
+	this.subtreeBuilder = subtreeBuilder;
+	subtrees = new AtomicReferenceArray<Accelerator>(leafStart.length);
+}
+
+public int getNodeCount()
+{ return nodeCount; }
+
+public int getItemCount()
+{ return items.length; }
+
+public int getMaxDepth()
+{ return maxDepth; }
+
+/**
+ * Returns the number of subtrees, built or not.
+ */
+public int getSubtreeCount()
+{ return leafStart.length; }
+
+/**
+ * Returns the number of subtrees built so far.
+ */
+public int getBuiltSubtreeCount()
+{
+	int result = 0;
+	for (int i = 0; i < subtrees.length(); i++)
+		if (subtrees.get(i) != null) result++;
+	return result;
+}
+
+/**
+ * Returns the build time of the upper levels in milliseconds.
+ */
+public double getBuildTime()
+{ return buildTime/1e6; }
+
+/**
+ * Returns the given subtree, building it if necessary.
+ */
+Accelerator getSubtree(int index)
+{
+	Accelerator result = subtrees.get(index);
+	if (result != null) return result;
+	
+	SceneItemCollection collection = new SceneItemCollection();
+	int start = leafStart[index];
+	for (int i = start; i < start+leafSize[index]; i++)
+		collection.add(items[order[i]]);
+	result = subtreeBuilder.build(collection);
+	
+	// another thread may have been faster, everyone uses the first result
+	if (!subtrees.compareAndSet(index, null, result))
+		result = subtrees.get(index);
+	return result;
+}
+
+public BoundingBox getBoundingBox()
+{
+	if (nodeCount == 0) return null;
+	return new BoundingBox(new Vector3(bounds[0], bounds[1], bounds[2]),
+			new Vector3(bounds[3], bounds[4], bounds[5]));
+}
+
+public void triangulate(Triangulation tri)
+{
+	for (SceneItem item : items)
+		item.triangulate(tri);
+}
+
+public boolean intersect(Ray ray, double maxDistance, IntersectionResult result)
+{
+	if (nodeCount == 0) return false;
+	
+	if (BoundingBox.intersects2(bounds, 0, ray, maxDistance) < 0)
+		return false;
+	
+	int[] stack = stacks.get();
+	int sp = 0;
+	int node = 0;
+	double closest = maxDistance;
+	boolean hit = false;
+	while (true)
+	{
+		int a = nodes[2*node];
+		int b = nodes[2*node+1];
+		if (b < 0)
+		{
+			// subtrees only touch the result on a closer hit
+			if (getSubtree(a).intersect(ray, closest, result))
+			{
+				closest = result.distance;
+				hit = true;
+			}
+		}
+		else
+		{
+			double ta = BoundingBox.intersects2(bounds, 6*a, ray, closest);
+			double tb = BoundingBox.intersects2(bounds, 6*b, ray, closest);
+			if (ta >= 0)
+			{
+				if (tb >= 0)
+				{
+					if (ta <= tb)
+					{ stack[sp++] = b; node = a; }
+					else
+					{ stack[sp++] = a; node = b; }
+				}
+				else
+					node = a;
+				continue;
+			}
+			else if (tb >= 0)
+			{
+				node = b;
+				continue;
+			}
+		}
+		
+		node = -1;
+		while (sp > 0)
+		{
+			int candidate = stack[--sp];
+			if (BoundingBox.intersects2(bounds, 6*candidate, ray, closest) >= 0)
+			{
+				node = candidate;
+				break;
+			}
+		}
+		if (node < 0) break;
+	}
+	return hit;
+}
+
+public boolean occluded(Ray ray, double tmin, double tmax)
+{
+	if (nodeCount == 0) return false;
+	
+	if (BoundingBox.intersects2(bounds, 0, ray, tmax) < 0)
+		return false;
+	
+	int[] stack = stacks.get();
+	int sp = 0;
+	int node = 0;
+	while (true)
+	{
+		int a = nodes[2*node];
+		int b = nodes[2*node+1];
+		if (b < 0)
+		{
+			if (getSubtree(a).occluded(ray, tmin, tmax)) return true;
+		}
+		else
+		{
+			boolean hitA = BoundingBox.intersects2(bounds, 6*a, ray, tmax) >= 0;
+			boolean hitB = BoundingBox.intersects2(bounds, 6*b, ray, tmax) >= 0;
+			if (hitA)
+			{
+				if (hitB) stack[sp++] = b;
+				node = a;
+				continue;
+			}
+			else if (hitB)
+			{
+				node = b;
+				continue;
+			}
+		}
+		if (sp == 0) return false;
+		node = stack[--sp];
+	}
+}
+
+public int occluded(Ray[] rays, double[] tmin, double[] tmax, int count, boolean[] occluded)
+{ return Occlusion.each(this, rays, tmin, tmax, count, occluded); }
+
+@Override
+public String toString()
+{
+	StringBuffer out = new StringBuffer();
+	out.append("LazyBVH over ").append(items.length).append(" items\n");
+	out.append("  nodes:      ").append(nodeCount).append("\n");
+	out.append("  depth:      ").append(maxDepth).append("\n");
+	out.append("  subtrees:   ").append(getBuiltSubtreeCount()).append(" of ").append(getSubtreeCount()).append(" built\n");
+	out.append("  build time: ").append(Math.round(getBuildTime()*10)/10.0).append(" ms");
+	return out.toString();
+}
+
+}
@@ -0,0 +1,228 @@
+// arch-tag: 636253fe-6703-4f4e-9f98-3c6232eabc2b
+package de.yvert.accel;
+
+import de.yvert.geometry.BoundingBox;
+import de.yvert.geometry.SceneItem;
+import de.yvert.geometry.SceneItemCollection;
+
+/**
+ * Builds a {@link LazyBVH}: only the upper levels are built up front, the subtrees below
+ * are built when a ray first needs them.
+ * <p>
+ * The upper levels only look at the item boxes. Each node is split in the middle of the
+ * longest axis of its item centroids, which is linear per level and needs no sorting,
+ * until a node holds at most {@link #getSubtreeSize()} items. The split quality matters
+ * little up there, the subtrees are built with the full subtree builder.
+ */
+public class LazyBVHBuilder implements AcceleratorBuilder
+{
+
+private AcceleratorBuilder subtreeBuilder = new SAHBuilder();
+private int subtreeSize = 4096;
+
+public LazyBVHBuilder()
+{/*OK*/}
+
+public AcceleratorBuilder getSubtreeBuilder()
+{ return subtreeBuilder; }
+
+/**
+ * Sets the builder for the subtrees. It is called from the rendering threads, so it
+ * must be safe to use from several threads at once.
+ */
+public void setSubtreeBuilder(AcceleratorBuilder subtreeBuilder)
+{ this.subtreeBuilder = subtreeBuilder; }
+
+public int getSubtreeSize()
+{ return subtreeSize; }
+
+/**
+ * Sets the maximum number of items below a node of the upper levels.
+ */
+public void setSubtreeSize(int subtreeSize)
+{
+	if (subtreeSize < 1) throw new IllegalArgumentException("subtreeSize < 1");
+	this.subtreeSize = subtreeSize;
+}
+
+public LazyBVH build(SceneItemCollection collection)
+{ return build(collection.toArray()); }
+
+public LazyBVH build(SceneItem[] items)
+{
+	long start = System.nanoTime();
+	Construction c = new Construction(items);
+	c.run();
+	LazyBVH result = new LazyBVH(items, c.order, c.nodes, c.bounds, c.nodeCount, c.maxDepth,
+			c.resize(c.leafStart, c.leafCount), c.resize(c.leafSize, c.leafCount), subtreeBuilder);
+	result.buildTime = System.nanoTime()-start;
+	return result;
+}
+	
+	/**
+	 * State of a single build, so that a builder can be shared between threads.
+	 */
+	private final class Construction
+	{
+		private final SceneItem[] items;
+		private final double[] itemBounds;
+		
+		final int[] order;
+		int[] nodes = new int[2*64];
+		double[] bounds = new double[6*64];
+		int nodeCount = 0;
+		int maxDepth = 0;
+		int[] leafStart = new int[32];
+		int[] leafSize = new int[32];
+		int leafCount = 0;
+		
+		private final double[] centroidBounds = new double[6];
+		
+		Construction(SceneItem[] items)
+		{
+			this.items = items;
+			int count = items.length;
+			order = new int[count];
+			itemBounds = new double[6*count];
+			for (int i = 0; i < count; i++)
+			{
+				BoundingBox box = items[i].getBoundingBox();
+				order[i] = i;
+				itemBounds[6*i  ] = box.getMinX();
+				itemBounds[6*i+1] = box.getMinY();
+				itemBounds[6*i+2] = box.getMinZ();
+				itemBounds[6*i+3] = box.getMaxX();
+				itemBounds[6*i+4] = box.getMaxY();
+				itemBounds[6*i+5] = box.getMaxZ();
+			}
+		}
+		
+		int[] resize(int[] data, int length)
+		{
+			int[] result = new int[length];
+			System.arraycopy(data, 0, result, 0, Math.min(data.length, length));
+			return result;
+		}
+		
+		void run()
+		{
+			if (items.length == 0) return;
+			
+			// node, first item, item count and depth of the nodes still to be split
+			int[] stack = new int[4*64];
+			int sp = 0;
+			allocateNode();
+			stack[sp++] = 0;
+			stack[sp++] = 0;
+			stack[sp++] = items.length;
+			stack[sp++] = 0;
+			while (sp > 0)
+			{
+				int depth = stack[--sp];
+				int count = stack[--sp];
+				int first = stack[--sp];
+				int node = stack[--sp];
+				if (depth > maxDepth) maxDepth = depth;
+				
+				int mid = split(node, first, count);
+				if (mid < 0)
+				{
+					makeLeaf(node, first, count);
+					continue;
+				}
+				
+				int left = allocateNode();
+				int right = allocateNode();
+				nodes[2*node] = left;
+				nodes[2*node+1] = right;
+				if (sp+8 > stack.length)
+				{
+					int[] temp = new int[2*stack.length];
+					System.arraycopy(stack, 0, temp, 0, sp);
+					stack = temp;
+				}
+				stack[sp++] = right;
+				stack[sp++] = mid;
+				stack[sp++] = first+count-mid;
+				stack[sp++] = depth+1;
+				stack[sp++] = left;
+				stack[sp++] = first;
+				stack[sp++] = mid-first;
+				stack[sp++] = depth+1;
+			}
+		}
+		
+		private int allocateNode()
+		{
+			if (2*nodeCount+2 > nodes.length)
+			{
+				int[] temp = new int[2*nodes.length];
+				System.arraycopy(nodes, 0, temp, 0, 2*nodeCount);
+				nodes = temp;
+				double[] temp2 = new double[2*bounds.length];
+				System.arraycopy(bounds, 0, temp2, 0, 6*nodeCount);
+				bounds = temp2;
+			}
+			return nodeCount++;
+		}
+		
+		private void makeLeaf(int node, int first, int count)
+		{
+			if (leafCount == leafStart.length)
+			{
+				leafStart = resize(leafStart, 2*leafCount);
+				leafSize = resize(leafSize, 2*leafCount);
+			}
+			leafStart[leafCount] = first;
+			leafSize[leafCount] = count;
+			nodes[2*node] = leafCount++;
+			nodes[2*node+1] = -1;
+		}
+		
+		/**
+		 * Computes the box of the node and partitions its items. Returns the first item of
+		 * the right child, or -1 if the node is small enough to be a leaf.
+		 */
+		private int split(int node, int first, int count)
+		{
+			SurfaceAreaHeuristic.clear(bounds, 6*node);
+			SurfaceAreaHeuristic.clear(centroidBounds, 0);
+			for (int i = first; i < first+count; i++)
+			{
+				int item = order[i];
+				SurfaceAreaHeuristic.union(bounds, 6*node, itemBounds, 6*item);
+				for (int axis = 0; axis < 3; axis++)
+				{
+					double c = itemBounds[6*item+axis]+itemBounds[6*item+3+axis];
+					if (c < centroidBounds[axis]) centroidBounds[axis] = c;
+					if (c > centroidBounds[axis+3]) centroidBounds[axis+3] = c;
+				}
+			}
+			if (count <= subtreeSize) return -1;
+			
+			int axis = 0;
+			for (int i = 1; i < 3; i++)
+				if (centroidBounds[i+3]-centroidBounds[i] > centroidBounds[axis+3]-centroidBounds[axis])
+					axis = i;
+			double middle = 0.5*(centroidBounds[axis]+centroidBounds[axis+3]);
+			
+			int l = first, r = first+count-1;
+			while (l <= r)
+			{
+				int item = order[l];
+				if (itemBounds[6*item+axis]+itemBounds[6*item+3+axis] < middle)
+					l++;
+				else
+				{
+					order[l] = order[r];
+					order[r--] = item;
+				}
+			}
+			
+			// all centroids coincide, any split is as good as any other
+			if ((l == first) || (l == first+count)) return first+count/2;
+			return l;
+		}
+	}
+
+}
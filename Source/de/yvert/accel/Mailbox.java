@@ -0,0 +1,63 @@
+// arch-tag: c77600cd-c296-42a4-b9b5-55bf53a97485
+package de.yvert.accel;
+
+import java.util.Arrays;
+
+import de.yvert.geometry.SceneObject;
+
+/**
+ * Remembers which items have already been tested against the current ray, so that
+ * items referenced from several cells of a spatial subdivision are tested only once.
+ * <p>
+ * This is a hashed mailbox: the {@link SceneObject#id} of an item selects a slot,
+ * which stores the id and the number of the ray that last visited it. A collision only
+ * costs an additional intersection test. A mailbox is not thread-safe; acceleration
+ * structures keep one per thread.
+ */
+final class Mailbox
+{
+
+private final int[] ids;
+private final int[] rays;
+private final int mask;
+private int ray = 1;
+
+/**
+ * Creates a mailbox with <code>size</code> slots, which must be a power of two.
+ */
+Mailbox(int size)
+{
+	if ((size <= 0) || ((size & (size-1)) != 0)) throw new IllegalArgumentException("size must be a power of two");
+	ids = new int[size];
+	rays = new int[size];
+	mask = size-1;
+}
+
+/**
+ * Starts a new ray, forgetting all items visited so far.
+ */
+void nextRay()
+{
+	ray++;
+	if (ray == 0)
+	{
+		Arrays.fill(rays, 0);
+		ray = 1;
+	}
+}
+
+/**
+ * Marks the item as visited by the current ray.
+ *
+ * @return false, if the item was already visited by the current ray
+ */
+boolean visit(SceneObject item)
+{
+	int slot = item.id & mask;
+	if ((rays[slot] == ray) && (ids[slot] == item.id)) return false;
+	rays[slot] = ray;
+	ids[slot] = item.id;
+	return true;
+}
+
+}
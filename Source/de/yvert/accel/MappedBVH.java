@@ -0,0 +1,273 @@
+// arch-tag: 3ab905cc-f717-4c92-b1f8-85ef3d88c8d2
+package de.yvert.accel;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+
+import de.yvert.cr.profiles.IntersectionResult;
+import de.yvert.geometry.BoundingBox;
+import de.yvert.geometry.Ray;
+import de.yvert.geometry.SceneItem;
+import de.yvert.geometry.Triangulation;
+import de.yvert.geometry.Vector3;
+
+/**
+ * A {@link BVH} that reads its node boxes, nodes and leaf entries from views of a
+ * memory-mapped file instead of heap arrays, see {@link BVHCache}. The layout is the same
+ * as that of a BVH: node <code>i</code> has its box at <code>bounds.get(6*i)</code> and
+ * its two ints at <code>nodes.get(2*i)</code>.
+ * <p>
+ * The operating system loads the pages of the mapping on first access and shares them
+ * between all processes that map the same file, so opening a tree costs neither a read
+ * of the whole file nor heap for its arrays. Only the items are kept in the heap. The
+ * views are read with absolute gets, so queries from several threads do not interfere.
+ */
+public class MappedBVH implements Accelerator
+{
+
+final SceneItem[] items;
+final DoubleBuffer bounds;
+final IntBuffer nodes;
+final IntBuffer refs;
+final int nodeCount;
+final int maxDepth;
+
+// per-thread traversal stacks, so that tracing a ray does not allocate
+private final ThreadLocal<int[]> stacks = new ThreadLocal<int[]>()
+	{
+		@Override
+		protected int[] initialValue()
+		{ return new int[maxDepth+1]; }
+	};
+
+/**
+ * Creates a tree over the given views, which must describe a valid tree over the items.
+ */
+MappedBVH(SceneItem[] items, DoubleBuffer bounds, IntBuffer nodes, IntBuffer refs, int nodeCount)
+{
+	this.items = items;
+	this.bounds = bounds;
+	this.nodes = nodes;
+	this.refs = refs;
+	this.nodeCount = nodeCount;
+	this.maxDepth = nodeCount == 0 ? 0 : calculateDepth();
+}
+
+private int calculateDepth()
+{
+	int[] stack = new int[2*64];
+	int sp = 0;
+	int result = 0;
+	stack[sp++] = 0;
+	stack[sp++] = 0;
+	while (sp > 0)
+	{
+		int depth = stack[--sp];
+		int node = stack[--sp];
+		if (depth > result) result = depth;
+		if (nodes.get(2*node+1) >= 0)
+		{
+			if (sp+4 > stack.length)
+			{
+				int[] temp = new int[2*stack.length];
+				System.arraycopy(stack, 0, temp, 0, sp);
+				stack = temp;
+			}
+			stack[sp++] = nodes.get(2*node);
+			stack[sp++] = depth+1;
+			stack[sp++] = nodes.get(2*node+1);
+			stack[sp++] = depth+1;
+		}
+	}
+	return result;
+}
+
+public int getNodeCount()
+{ return nodeCount; }
+
+public int getItemCount()
+{ return items.length; }
+
+public int getMaxDepth()
+{ return maxDepth; }
+
+public BoundingBox getBoundingBox()
+{
+	if (nodeCount == 0) return null;
+	return new BoundingBox(new Vector3(bounds.get(0), bounds.get(1), bounds.get(2)),
+			new Vector3(bounds.get(3), bounds.get(4), bounds.get(5)));
+}
+
+public void triangulate(Triangulation tri)
+{
+	for (SceneItem item : items)
+		item.triangulate(tri);
+}
+
+public boolean intersect(Ray ray, double maxDistance, IntersectionResult result)
+{
+	if (nodeCount == 0) return false;
+	
+	if (BoundingBox.intersects2(bounds, 0, ray, maxDistance) < 0)
+		return false;
+	
+	int[] stack = stacks.get();
+	int sp = 0;
+	int node = 0;
+	double closest = maxDistance;
+	SceneItem hit = null;
+	while (true)
+	{
+		int a = nodes.get(2*node);
+		int b = nodes.get(2*node+1);
+		if (b < 0)
+		{
+			for (int i = a; i < a-b; i++)
+			{
+				int index = refs.get(i);
+				double d = intersectItem(index, ray, closest, result);
+				if ((d > 0) && (d < closest))
+				{
+					closest = d;
+					hit = items[index];
+				}
+			}
+		}
+		else
+		{
+			double ta = BoundingBox.intersects2(bounds, 6*a, ray, closest);
+			double tb = BoundingBox.intersects2(bounds, 6*b, ray, closest);
+			if (ta >= 0)
+			{
+				if (tb >= 0)
+				{
+					// visit the nearer child first, it may cut off the other one
+					if (ta <= tb)
+					{ stack[sp++] = b; node = a; }
+					else
+					{ stack[sp++] = a; node = b; }
+				}
+				else
+					node = a;
+				continue;
+			}
+			else if (tb >= 0)
+			{
+				node = b;
+				continue;
+			}
+		}
+		
+		// a closer hit may have been found since the node was pushed
+		node = -1;
+		while (sp > 0)
+		{
+			int candidate = stack[--sp];
+			if (BoundingBox.intersects2(bounds, 6*candidate, ray, closest) >= 0)
+			{
+				node = candidate;
+				break;
+			}
+		}
+		if (node < 0) break;
+	}
+	
+	if (hit == null) return false;
+	result.distance = closest;
+	result.item = hit;
+	return true;
+}
+
+public boolean occluded(Ray ray, double tmin, double tmax)
+{
+	if (nodeCount == 0) return false;
+	return findOccluder(ray, tmin, tmax, stacks.get()) >= 0;
+}
+
+/**
+ * Like {@link BVH#occluded(Ray[], double[], double[], int, boolean[])}, the item that
+ * blocked the previous ray is tested first.
+ */
+public int occluded(Ray[] rays, double[] tmin, double[] tmax, int count, boolean[] occluded)
+{
+	if (nodeCount == 0)
+	{
+		for (int i = 0; i < count; i++)
+			occluded[i] = false;
+		return 0;
+	}
+	
+	int[] stack = stacks.get();
+	int last = -1;
+	int result = 0;
+	for (int i = 0; i < count; i++)
+	{
+		if ((last < 0) || !occludedByItem(refs.get(last), rays[i], tmin[i], tmax[i]))
+			last = findOccluder(rays[i], tmin[i], tmax[i], stack);
+		occluded[i] = last >= 0;
+		if (occluded[i]) result++;
+	}
+	return result;
+}
+
+/**
+ * Returns the entry in <code>refs</code> of some item hit in (tmin, tmax), or -1.
+ */
+private int findOccluder(Ray ray, double tmin, double tmax, int[] stack)
+{
+	if (BoundingBox.intersects2(bounds, 0, ray, tmax) < 0)
+		return -1;
+	
+	int sp = 0;
+	int node = 0;
+	while (true)
+	{
+		int a = nodes.get(2*node);
+		int b = nodes.get(2*node+1);
+		if (b < 0)
+		{
+			for (int i = a; i < a-b; i++)
+				if (occludedByItem(refs.get(i), ray, tmin, tmax)) return i;
+		}
+		else
+		{
+			boolean hitA = BoundingBox.intersects2(bounds, 6*a, ray, tmax) >= 0;
+			boolean hitB = BoundingBox.intersects2(bounds, 6*b, ray, tmax) >= 0;
+			if (hitA)
+			{
+				if (hitB) stack[sp++] = b;
+				node = a;
+				continue;
+			}
+			else if (hitB)
+			{
+				node = b;
+				continue;
+			}
+		}
+		if (sp == 0) return -1;
+		node = stack[--sp];
+	}
+}
+
+/**
+ * Intersects the ray with item <code>index</code>, see
+ * {@link BVH#intersectItem(int, Ray, double, IntersectionResult)}.
+ */
+double intersectItem(int index, Ray ray, double closest, IntersectionResult result)
+{
+	double d = items[index].distance(ray);
+	if ((d > 0) && (d < closest)) result.clearPrimitive();
+	return d;
+}
+
+/**
+ * Tells whether item <code>index</code> is hit in (tmin, tmax).
+ */
+boolean occludedByItem(int index, Ray ray, double tmin, double tmax)
+{
+	double d = items[index].distance(ray);
+	return (d > tmin) && (d < tmax);
+}
+
+}
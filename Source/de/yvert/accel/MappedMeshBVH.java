@@ -0,0 +1,49 @@
+// arch-tag: 8b44d5ca-aeff-4e7c-81ce-5d04246f6fa1
+package de.yvert.accel;
+
+import de.yvert.cr.profiles.IntersectionResult;
+import de.yvert.geometry.PrecomputedTriangles;
+import de.yvert.geometry.Ray;
+import de.yvert.geometry.TriangleMesh;
+
+/**
+ * A {@link MappedBVH} over the faces of a {@link TriangleMesh}, which tests them with
+ * {@link PrecomputedTriangles} like a {@link MeshBVH}. A hit stores its barycentric
+ * coordinates, face index and the mesh in the result.
+ */
+public class MappedMeshBVH extends MappedBVH
+{
+
+private final TriangleMesh mesh;
+private final PrecomputedTriangles triangles;
+
+public MappedMeshBVH(MappedBVH bvh, TriangleMesh mesh)
+{
+	super(bvh.items, bvh.bounds, bvh.nodes, bvh.refs, bvh.nodeCount);
+	if (bvh.items.length != mesh.triangleCount())
+		throw new IllegalArgumentException("the BVH was not built over the triangles of this mesh");
+	this.mesh = mesh;
+	triangles = new PrecomputedTriangles(mesh);
+}
+
+public TriangleMesh getMesh()
+{ return mesh; }
+
+@Override
+double intersectItem(int index, Ray ray, double closest, IntersectionResult result)
+{
+	double d = triangles.intersectInto(index, ray, closest, result);
+	if (d > 0)
+	{
+		result.baryItem = items[index];
+		result.primitive = index;
+		result.mesh = mesh;
+	}
+	return d;
+}
+
+@Override
+boolean occludedByItem(int index, Ray ray, double tmin, double tmax)
+{ return triangles.intersect(index, ray, tmax, null) > tmin; }
+
+}
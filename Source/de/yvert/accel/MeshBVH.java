@@ -0,0 +1,57 @@
+// arch-tag: 94a82ecb-0625-474e-b745-bac84e288042
+package de.yvert.accel;
+
+import de.yvert.cr.profiles.IntersectionResult;
+import de.yvert.geometry.PrecomputedTriangles;
+import de.yvert.geometry.Ray;
+import de.yvert.geometry.TriangleMesh;
+
+/**
+ * A BVH over the triangles of a {@link TriangleMesh}, which tests them with
+ * {@link PrecomputedTriangles} instead of
+ * {@link de.yvert.geometry.Triangle#distance(Ray)}.
+ * <p>
+ * Any builder can be used, as long as the BVH was built over <code>mesh.getFaces()</code>
+ * or <code>mesh.getTriangles()</code>, so that item <code>i</code> is face <code>i</code>:
+ * <code>new MeshBVH(new SAHBuilder().build(mesh.getFaces()), mesh)</code>. The faces
+ * take far less memory than triangles, and the intersection tests never touch them. A
+ * {@link Refitter} on a mesh BVH keeps the precomputed triangles up to date. A hit
+ * stores its barycentric coordinates, face index and the mesh in the result.
+ */
+public class MeshBVH extends BVH
+{
+
+private final TriangleMesh mesh;
+final PrecomputedTriangles triangles;
+
+public MeshBVH(BVH bvh, TriangleMesh mesh)
+{
+	super(bvh.items, bvh.refs, bvh.nodes, bvh.bounds, bvh.nodeCount);
+	if (bvh.items.length != mesh.triangleCount())
+		throw new IllegalArgumentException("the BVH was not built over the triangles of this mesh");
+	buildTime = bvh.buildTime;
+	this.mesh = mesh;
+	triangles = new PrecomputedTriangles(mesh);
+}
+
+public TriangleMesh getMesh()
+{ return mesh; }
+
+@Override
+double intersectItem(int index, Ray ray, double closest, IntersectionResult result)
+{
+	double d = triangles.intersectInto(index, ray, closest, result);
+	if (d > 0)
+	{
+		result.baryItem = items[index];
+		result.primitive = index;
+		result.mesh = mesh;
+	}
+	return d;
+}
+
+@Override
+boolean occludedByItem(int index, Ray ray, double tmin, double tmax)
+{ return triangles.intersect(index, ray, tmax, null) > tmin; }
+
+}
@@ -0,0 +1,259 @@
+// arch-tag: 6458a9b5-147b-48dc-bd90-ad6c1a1f68d6
+package de.yvert.accel;
+
+import de.yvert.cr.profiles.IntersectionResult;
+import de.yvert.geometry.BoundingBox;
+import de.yvert.geometry.MovingItem;
+import de.yvert.geometry.Ray;
+import de.yvert.geometry.SceneItem;
+
+/**
+ * A BVH for motion blur, whose nodes store one box at shutter open and one at shutter
+ * close.
+ * <p>
+ * The tree is that of the given BVH, which was built over the boxes enclosing the whole
+ * motion of every {@link MovingItem}. The two boxes of each node are then recomputed
+ * bottom-up from the boxes of its items at time 0 and 1; static items have the same box
+ * at both times. A ray is tested against the box interpolated at {@link Ray#time}, so a
+ * fast moving item is only visited by the rays near its position at that time, instead
+ * of by every ray that crosses its whole path. Since all motion is linear, the
+ * interpolated box encloses everything in the node at that time.
+ * <p>
+ * Packets and batches of occlusion queries work as well, the former with the boxes of
+ * the whole motion. The camera samples the shutter with
+ * {@link de.yvert.camera.CameraAccelerator#getRay(Ray, double, double, double)} and
+ * {@link de.yvert.camera.CameraAccelerator#getPacket(de.yvert.geometry.RayPacket, int, int, java.util.Random)}.
+ */
+public class MotionBVH extends BVH
+{
+
+// the node boxes at shutter open and close, laid out like bounds
+private final double[] bounds0;
+private final double[] bounds1;
+
+public MotionBVH(BVH bvh)
+{
+	super(bvh.items, bvh.refs, bvh.nodes, bvh.bounds, bvh.nodeCount);
+	buildTime = bvh.buildTime;
+	bounds0 = new double[6*nodeCount];
+	bounds1 = new double[6*nodeCount];
+	
+	// children after their parents, so the reverse order goes bottom-up
+	int[] order = new int[nodeCount];
+	int count = 0;
+	int[] stack = new int[maxDepth+1];
+	int sp = 0;
+	if (nodeCount > 0) stack[sp++] = 0;
+	while (sp > 0)
+	{
+		int node = stack[--sp];
+		order[count++] = node;
+		if (!isLeaf(node))
+		{
+			stack[sp++] = nodes[2*node];
+			stack[sp++] = nodes[2*node+1];
+		}
+	}
+	
+	for (int i = count-1; i >= 0; i--)
+	{
+		int node = order[i];
+		empty(bounds0, node);
+		empty(bounds1, node);
+		int a = nodes[2*node], b = nodes[2*node+1];
+		if (b < 0)
+		{
+			for (int j = a; j < a-b; j++)
+			{
+				SceneItem item = items[refs[j]];
+				if (item instanceof MovingItem)
+				{
+					include(bounds0, node, ((MovingItem) item).getBoundingBox(0));
+					include(bounds1, node, ((MovingItem) item).getBoundingBox(1));
+				}
+				else
+				{
+					BoundingBox box = item.getBoundingBox();
+					include(bounds0, node, box);
+					include(bounds1, node, box);
+				}
+			}
+		}
+		else
+		{
+			include(bounds0, node, bounds0, a);
+			include(bounds0, node, bounds0, b);
+			include(bounds1, node, bounds1, a);
+			include(bounds1, node, bounds1, b);
+		}
+	}
+}
+
+private static void empty(double[] bounds, int node)
+{
+	for (int k = 0; k < 3; k++)
+	{
+		bounds[6*node+k] = Double.POSITIVE_INFINITY;
+		bounds[6*node+3+k] = Double.NEGATIVE_INFINITY;
+	}
+}
+
+private static void include(double[] bounds, int node, BoundingBox box)
+{
+	int off = 6*node;
+	bounds[off  ] = Math.min(bounds[off  ], box.getMinX());
+	bounds[off+1] = Math.min(bounds[off+1], box.getMinY());
+	bounds[off+2] = Math.min(bounds[off+2], box.getMinZ());
+	bounds[off+3] = Math.max(bounds[off+3], box.getMaxX());
+	bounds[off+4] = Math.max(bounds[off+4], box.getMaxY());
+	bounds[off+5] = Math.max(bounds[off+5], box.getMaxZ());
+}
+
+private static void include(double[] bounds, int node, double[] source, int child)
+{
+	for (int k = 0; k < 3; k++)
+	{
+		bounds[6*node+k] = Math.min(bounds[6*node+k], source[6*child+k]);
+		bounds[6*node+3+k] = Math.max(bounds[6*node+3+k], source[6*child+3+k]);
+	}
+}
+
+/**
+ * Tests the ray against the box of the node at the time of the ray, using
+ * <code>box</code> as scratch space.
+ */
+private double intersectsNode(int node, Ray ray, double maxDistance, double[] box)
+{
+	double t = ray.time;
+	int off = 6*node;
+	for (int k = 0; k < 6; k++)
+		box[k] = bounds0[off+k]+t*(bounds1[off+k]-bounds0[off+k]);
+	return BoundingBox.intersects2(box, 0, ray, maxDistance);
+}
+
+@Override
+public boolean intersect(Ray ray, double maxDistance, IntersectionResult result)
+{
+	if (nodeCount == 0) return false;
+	
+	Scratch scratch = scratch();
+	double[] box = scratch.box;
+	if (intersectsNode(0, ray, maxDistance, box) < 0)
+		return false;
+	
+	int[] stack = scratch.stack;
+	int sp = 0;
+	int node = 0;
+	double closest = maxDistance;
+	SceneItem hit = null;
+	while (true)
+	{
+		int a = nodes[2*node];
+		int b = nodes[2*node+1];
+		if (b < 0)
+		{
+			for (int i = a; i < a-b; i++)
+			{
+				double d = intersectItem(refs[i], ray, closest, result);
+				if ((d > 0) && (d < closest))
+				{
+					closest = d;
+					hit = items[refs[i]];
+				}
+			}
+		}
+		else
+		{
+			double ta = intersectsNode(a, ray, closest, box);
+			double tb = intersectsNode(b, ray, closest, box);
+			if (ta >= 0)
+			{
+				if (tb >= 0)
+				{
+					if (ta <= tb)
+					{ stack[sp++] = b; node = a; }
+					else
+					{ stack[sp++] = a; node = b; }
+				}
+				else
+					node = a;
+				continue;
+			}
+			else if (tb >= 0)
+			{
+				node = b;
+				continue;
+			}
+		}
+		
+		node = -1;
+		while (sp > 0)
+		{
+			int candidate = stack[--sp];
+			if (intersectsNode(candidate, ray, closest, box) >= 0)
+			{
+				node = candidate;
+				break;
+			}
+		}
+		if (node < 0) break;
+	}
+	
+	if (hit == null) return false;
+	result.distance = closest;
+	result.item = hit;
+	return true;
+}
+
+@Override
+public boolean occluded(Ray ray, double tmin, double tmax)
+{
+	if (nodeCount == 0) return false;
+	
+	Scratch scratch = scratch();
+	double[] box = scratch.box;
+	if (intersectsNode(0, ray, tmax, box) < 0)
+		return false;
+	
+	int[] stack = scratch.stack;
+	int sp = 0;
+	int node = 0;
+	while (true)
+	{
+		int a = nodes[2*node];
+		int b = nodes[2*node+1];
+		if (b < 0)
+		{
+			for (int i = a; i < a-b; i++)
+				if (occludedByItem(refs[i], ray, tmin, tmax)) return true;
+		}
+		else
+		{
+			boolean hitA = intersectsNode(a, ray, tmax, box) >= 0;
+			boolean hitB = intersectsNode(b, ray, tmax, box) >= 0;
+			if (hitA)
+			{
+				if (hitB) stack[sp++] = b;
+				node = a;
+				continue;
+			}
+			else if (hitB)
+			{
+				node = b;
+				continue;
+			}
+		}
+		if (sp == 0) return false;
+		node = stack[--sp];
+	}
+}
+
+/**
+ * Shadow rays of one batch may be taken at different times, so there is no occluder
+ * worth testing first.
+ */
+@Override
+public int occluded(Ray[] rays, double[] tmin, double[] tmax, int count, boolean[] occluded)
+{ return Occlusion.each(this, rays, tmin, tmax, count, occluded); }
+
+}
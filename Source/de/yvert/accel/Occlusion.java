@@ -0,0 +1,30 @@
+// arch-tag: c183925c-95c7-49c0-a75c-12bee408b44d
+package de.yvert.accel;
+
+import de.yvert.geometry.Ray;
+
+/**
+ * Helpers for the occlusion queries of the {@link Accelerator}s.
+ */
+final class Occlusion
+{
+
+/**
+ * Answers a batch of occlusion queries one ray at a time, for accelerators that have
+ * nothing to share between the rays.
+ */
+static int each(Accelerator accel, Ray[] rays, double[] tmin, double[] tmax, int count, boolean[] occluded)
+{
+	int result = 0;
+	for (int i = 0; i < count; i++)
+	{
+		occluded[i] = accel.occluded(rays[i], tmin[i], tmax[i]);
+		if (occluded[i]) result++;
+	}
+	return result;
+}
+
+private Occlusion()
+{/*OK*/}
+
+}
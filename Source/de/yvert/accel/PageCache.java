@@ -0,0 +1,173 @@
+// arch-tag: 0225257a-ac0e-4c98-b211-ed947a770ab0
+package de.yvert.accel;
+
+/**
+ * A fixed number of page frames with least-recently-used replacement.
+ * <p>
+ * The frames are allocated once, a miss evicts the least recently used frame and loads
+ * the page into it, so the memory use never grows. Lookups go through an open
+ * addressing hash table from page to frame and do not allocate. A cache must only be
+ * used by one thread.
+ */
+final class PageCache
+{
+	
+	/**
+	 * Fills a frame with the contents of a page.
+	 */
+	interface Loader
+	{
+		void load(int page, Frame frame);
+	}
+	
+	static final class Frame
+	{
+		final double[] doubles;
+		final int[] ints;
+		int page = -1;
+		
+		// neighbours in the recency list, towards the most and the least recently used
+		int newer = -1;
+		int older = -1;
+		
+		Frame(int doubleCount, int intCount)
+		{
+			doubles = new double[doubleCount];
+			ints = new int[intCount];
+		}
+	}
+
+private final Loader loader;
+private final Frame[] frames;
+private final int[] table;
+private final int mask;
+private int used = 0;
+private int newest = -1;
+private int oldest = -1;
+
+private long hits = 0;
+private long misses = 0;
+
+PageCache(Loader loader, int frameCount, int doubleCount, int intCount)
+{
+	if (frameCount < 1) throw new IllegalArgumentException("frameCount < 1");
+	this.loader = loader;
+	frames = new Frame[frameCount];
+	for (int i = 0; i < frameCount; i++)
+		frames[i] = new Frame(doubleCount, intCount);
+	int size = 1;
+	while (size < 2*frameCount) size <<= 1;
+	table = new int[size];
+	mask = size-1;
+	for (int i = 0; i < size; i++)
+		table[i] = -1;
+}
+
+int getFrameCount()
+{ return frames.length; }
+
+long getHits()
+{ return hits; }
+
+long getMisses()
+{ return misses; }
+
+/**
+ * Returns the frame holding the given page, loading it if necessary. The frame stays
+ * valid until the next call.
+ */
+Frame get(int page)
+{
+	int slot = find(page);
+	if (table[slot] >= 0)
+	{
+		hits++;
+		int index = table[slot];
+		touch(index);
+		return frames[index];
+	}
+	
+	misses++;
+	int index;
+	if (used < frames.length)
+		index = used++;
+	else
+	{
+		index = oldest;
+		unlink(index);
+		remove(frames[index].page);
+		slot = find(page);
+	}
+	Frame frame = frames[index];
+	frame.page = page;
+	loader.load(page, frame);
+	table[slot] = index;
+	link(index);
+	return frame;
+}
+
+private static int hash(int page)
+{ return page*0x9E3779B9; }
+
+/**
+ * Returns the table slot of the page, or the empty slot where it would go.
+ */
+private int find(int page)
+{
+	int slot = hash(page) & mask;
+	while ((table[slot] >= 0) && (frames[table[slot]].page != page))
+		slot = (slot+1) & mask;
+	return slot;
+}
+
+/**
+ * Removes a page from the table, moving later entries of the same run back so that
+ * lookups never stop at a gap.
+ */
+private void remove(int page)
+{
+	int slot = find(page);
+	table[slot] = -1;
+	int next = (slot+1) & mask;
+	while (table[next] >= 0)
+	{
+		int home = hash(frames[table[next]].page) & mask;
+		// move the entry back unless its home lies cyclically in (slot, next]
+		boolean stays = slot <= next ? (home > slot) && (home <= next) : (home > slot) || (home <= next);
+		if (!stays)
+		{
+			table[slot] = table[next];
+			table[next] = -1;
+			slot = next;
+		}
+		next = (next+1) & mask;
+	}
+}
+
+private void link(int index)
+{
+	Frame frame = frames[index];
+	frame.newer = -1;
+	frame.older = newest;
+	if (newest >= 0) frames[newest].newer = index;
+	newest = index;
+	if (oldest < 0) oldest = index;
+}
+
+private void unlink(int index)
+{
+	Frame frame = frames[index];
+	if (frame.newer >= 0) frames[frame.newer].older = frame.older;
+	else newest = frame.older;
+	if (frame.older >= 0) frames[frame.older].newer = frame.newer;
+	else oldest = frame.newer;
+}
+
+private void touch(int index)
+{
+	if (index == newest) return;
+	unlink(index);
+	link(index);
+}
+
+}
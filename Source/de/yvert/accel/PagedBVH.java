@@ -0,0 +1,669 @@
+// arch-tag: 0caf04d6-139e-4e50-b073-bb0cadeb497f
+package de.yvert.accel;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+
+import de.yvert.cr.profiles.IntersectionResult;
+import de.yvert.geometry.BoundingBox;
+import de.yvert.geometry.Ray;
+import de.yvert.geometry.Triangle;
+import de.yvert.geometry.TriangleMesh;
+import de.yvert.geometry.Triangulation;
+import de.yvert.geometry.Vector3;
+
+/**
+ * A BVH over triangles that lives in a file and is traversed with a fixed amount of
+ * memory, for models that do not fit into the heap.
+ * <p>
+ * The file consists of pages of {@link #PAGE_SIZE} bytes. Page 0 is a header, followed
+ * by the node pages and the triangle pages. The nodes are clustered into treelets: each
+ * page is filled breadth-first from the root of a subtree, and the children that do not
+ * fit start new treelets. A ray therefore touches only a few pages on its way down. The
+ * triangles follow in the order of the leaves, with their vertices and their index in
+ * the BVH or mesh the file was written from.
+ * <p>
+ * {@link #write(TriangleMesh, File)} builds the tree while writing it, so the heap only
+ * needs to hold the mesh and a few bytes per triangle. {@link #write(BVH, File)} stores
+ * an existing BVH, which must be in memory together with its triangles.
+ * <p>
+ * The file is memory-mapped, so reading a page costs no system call and the operating
+ * system shares its cache between processes. The traversal never works on the mapping
+ * directly, though. Each thread has its own {@link PageCache} with a fixed number of
+ * frames, filled on demand and replaced least-recently-used. The heap used for the
+ * model is therefore <code>cacheSize*PAGE_SIZE</code> bytes per rendering thread, no
+ * matter how large the file is.
+ * <p>
+ * No triangles are kept in memory. A hit reports a {@link Triangle} with the stored
+ * vertices as <code>result.item</code>, which belongs to the calling thread and is
+ * reused by its next hit; copy it to keep it. Its index in the BVH or mesh the file was
+ * written from is reported as <code>result.primitive</code>, together with the
+ * barycentric coordinates of the hit.
+ */
+public class PagedBVH implements Accelerator
+{
+
+static final int MAGIC = 0x42565050; // "BVPP"
+static final int VERSION = 1;
+
+public static final int PAGE_SIZE = 8192;
+
+// bounds as six doubles and two ints per node, nine doubles and the index per triangle
+static final int NODE_SIZE = 6*8+2*4;
+static final int TRIANGLE_SIZE = 9*8+4;
+static final int NODES_PER_PAGE = PAGE_SIZE/NODE_SIZE;
+static final int TRIANGLES_PER_PAGE = PAGE_SIZE/TRIANGLE_SIZE;
+
+// pages per mapped region, a single mapping cannot exceed 2 GB
+private static final int REGION_PAGES = 1 << 16;
+
+private final RandomAccessFile file;
+private final MappedByteBuffer[] regions;
+private final int cacheSize;
+private final int nodeCount;
+private final int nodePageCount;
+private final int triangleCount;
+private final int pageCount;
+private final double[] rootBounds = new double[6];
+
+private final ThreadLocal<Traversal> traversals = new ThreadLocal<Traversal>()
+	{
+		@Override
+		protected Traversal initialValue()
+		{ return new Traversal(); }
+	};
+	
+	/**
+	 * Per-thread state: the page cache, the traversal stack and the triangle reported
+	 * by hits.
+	 */
+	private final class Traversal implements PageCache.Loader
+	{
+		final PageCache cache = new PageCache(this, cacheSize,
+				Math.max(6*NODES_PER_PAGE, 9*TRIANGLES_PER_PAGE), Math.max(2*NODES_PER_PAGE, TRIANGLES_PER_PAGE));
+		int[] stack = new int[64];
+		final double[] uv = new double[2];
+		final Triangle hit = new Triangle(new Vector3(), new Vector3(), new Vector3());
+		
+		public void load(int page, PageCache.Frame frame)
+		{ PagedBVH.this.load(page, frame); }
+	}
+
+/**
+ * Opens a file written by {@link #write}, keeping at most <code>cacheSize</code> pages
+ * in memory per thread.
+ */
+public PagedBVH(File file, int cacheSize) throws IOException
+{
+	if (cacheSize < 2) throw new IllegalArgumentException("cacheSize < 2");
+	this.cacheSize = cacheSize;
+	this.file = new RandomAccessFile(file, "r");
+	try
+	{
+		FileChannel channel = this.file.getChannel();
+		long size = channel.size();
+		if ((size < PAGE_SIZE) || (size % PAGE_SIZE != 0)) throw new IOException("Invalid file size: \""+file+"\"!");
+		pageCount = (int) (size/PAGE_SIZE);
+		
+		regions = new MappedByteBuffer[(pageCount+REGION_PAGES-1)/REGION_PAGES];
+		for (int i = 0; i < regions.length; i++)
+		{
+			long start = (long) i*REGION_PAGES*PAGE_SIZE;
+			regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size-start, (long) REGION_PAGES*PAGE_SIZE));
+		}
+		
+		ByteBuffer header = regions[0];
+		if (header.getInt(0) != MAGIC) throw new IOException("Not a paged BVH: \""+file+"\"!");
+		if (header.getInt(4) != VERSION) throw new IOException("Unsupported version: \""+file+"\"!");
+		if (header.getInt(8) != PAGE_SIZE) throw new IOException("Unsupported page size: \""+file+"\"!");
+		nodeCount = header.getInt(12);
+		nodePageCount = header.getInt(16);
+		triangleCount = header.getInt(20);
+		for (int i = 0; i < 6; i++)
+			rootBounds[i] = header.getDouble(24+8*i);
+		int trianglePages = (triangleCount+TRIANGLES_PER_PAGE-1)/TRIANGLES_PER_PAGE;
+		if ((nodeCount < 0) || (nodeCount > nodePageCount*NODES_PER_PAGE) || (1+nodePageCount+trianglePages != pageCount))
+			throw new IOException("Invalid header: \""+file+"\"!");
+	}
+	catch (IOException e)
+	{
+		this.file.close();
+		throw e;
+	}
+}
+
+/**
+ * Closes the file. The structure must not be used afterwards.
+ */
+public void close() throws IOException
+{ file.close(); }
+
+public int getNodeCount()
+{ return nodeCount; }
+
+public int getTriangleCount()
+{ return triangleCount; }
+
+public int getPageCount()
+{ return pageCount; }
+
+/**
+ * Returns the number of pages each thread keeps in memory.
+ */
+public int getCacheSize()
+{ return cacheSize; }
+
+/**
+ * Returns the number of pages the calling thread had to load so far.
+ */
+public long getCacheMisses()
+{ return traversals.get().cache.getMisses(); }
+
+/**
+ * Returns the number of page accesses of the calling thread that found the page in
+ * memory.
+ */
+public long getCacheHits()
+{ return traversals.get().cache.getHits(); }
+
+public BoundingBox getBoundingBox()
+{
+	if (nodeCount == 0) return null;
+	return new BoundingBox(new Vector3(rootBounds[0], rootBounds[1], rootBounds[2]),
+			new Vector3(rootBounds[3], rootBounds[4], rootBounds[5]));
+}
+
+/**
+ * Adds the stored triangles to <code>tri</code>, reading them straight from the file
+ * instead of through the page cache. A triangle referenced from several leaves is
+ * stored several times, but added once.
+ */
+public void triangulate(Triangulation tri)
+{
+	BitSet added = new BitSet();
+	for (int t = 0; t < triangleCount; t++)
+	{
+		int page = 1+nodePageCount+t/TRIANGLES_PER_PAGE;
+		ByteBuffer region = regions[page/REGION_PAGES];
+		int off = (page%REGION_PAGES)*PAGE_SIZE+(t%TRIANGLES_PER_PAGE)*TRIANGLE_SIZE;
+		int index = region.getInt(off+72);
+		if (added.get(index)) continue;
+		added.set(index);
+		tri.add(new Triangle(getVector(region, off), getVector(region, off+24), getVector(region, off+48)));
+	}
+}
+
+private static Vector3 getVector(ByteBuffer buffer, int off)
+{ return new Vector3(buffer.getDouble(off), buffer.getDouble(off+8), buffer.getDouble(off+16)); }
+
+private void load(int page, PageCache.Frame frame)
+{
+	ByteBuffer region = regions[page/REGION_PAGES];
+	int base = (page%REGION_PAGES)*PAGE_SIZE;
+	double[] d = frame.doubles;
+	int[] v = frame.ints;
+	if (page <= nodePageCount)
+	{
+		for (int i = 0; i < NODES_PER_PAGE; i++)
+		{
+			int off = base+i*NODE_SIZE;
+			for (int j = 0; j < 6; j++)
+				d[6*i+j] = region.getDouble(off+8*j);
+			v[2*i] = region.getInt(off+48);
+			v[2*i+1] = region.getInt(off+52);
+		}
+	}
+	else
+	{
+		for (int i = 0; i < TRIANGLES_PER_PAGE; i++)
+		{
+			int off = base+i*TRIANGLE_SIZE;
+			for (int j = 0; j < 9; j++)
+				d[9*i+j] = region.getDouble(off+8*j);
+			v[i] = region.getInt(off+72);
+		}
+	}
+}
+
+public boolean intersect(Ray ray, double maxDistance, IntersectionResult result)
+{
+	if (nodeCount == 0) return false;
+	
+	double px = ray.p.getX();
+	double py = ray.p.getY();
+	double pz = ray.p.getZ();
+	double vx = ray.v.getX();
+	double vy = ray.v.getY();
+	double vz = ray.v.getZ();
+	
+	if (BoundingBox.intersects2(rootBounds, 0, ray, maxDistance) < 0)
+		return false;
+	
+	Traversal traversal = traversals.get();
+	PageCache cache = traversal.cache;
+	int[] stack = traversal.stack;
+	int sp = 0;
+	int node = 0;
+	double closest = maxDistance;
+	int hit = -1;
+	while (true)
+	{
+		PageCache.Frame frame = cache.get(1+node/NODES_PER_PAGE);
+		int slot = node%NODES_PER_PAGE;
+		int a = frame.ints[2*slot];
+		int b = frame.ints[2*slot+1];
+		if (b < 0)
+		{
+			for (int t = a; t < a-b; t++)
+			{
+				PageCache.Frame triangles = cache.get(1+nodePageCount+t/TRIANGLES_PER_PAGE);
+				double d = intersectTriangle(triangles.doubles, 9*(t%TRIANGLES_PER_PAGE), px, py, pz, vx, vy, vz);
+				if ((d > 0) && (d < closest))
+				{
+					closest = d;
+					hit = t;
+				}
+			}
+		}
+		else
+		{
+			// both children are usually on the same page as their parent
+			PageCache.Frame fa = cache.get(1+a/NODES_PER_PAGE);
+			double ta = BoundingBox.intersects2(fa.doubles, 6*(a%NODES_PER_PAGE), ray, closest);
+			PageCache.Frame fb = cache.get(1+b/NODES_PER_PAGE);
+			double tb = BoundingBox.intersects2(fb.doubles, 6*(b%NODES_PER_PAGE), ray, closest);
+			if (ta >= 0)
+			{
+				if (tb >= 0)
+				{
+					if (sp == stack.length)
+					{
+						int[] temp = new int[2*stack.length];
+						System.arraycopy(stack, 0, temp, 0, sp);
+						stack = traversal.stack = temp;
+					}
+					if (ta <= tb)
+					{ stack[sp++] = b; node = a; }
+					else
+					{ stack[sp++] = a; node = b; }
+				}
+				else
+					node = a;
+				continue;
+			}
+			else if (tb >= 0)
+			{
+				node = b;
+				continue;
+			}
+		}
+		
+		node = -1;
+		while (sp > 0)
+		{
+			int candidate = stack[--sp];
+			PageCache.Frame fc = cache.get(1+candidate/NODES_PER_PAGE);
+			if (BoundingBox.intersects2(fc.doubles, 6*(candidate%NODES_PER_PAGE), ray, closest) >= 0)
+			{
+				node = candidate;
+				break;
+			}
+		}
+		if (node < 0) break;
+	}
+	
+	if (hit < 0) return false;
+	PageCache.Frame frame = cache.get(1+nodePageCount+hit/TRIANGLES_PER_PAGE);
+	double[] d = frame.doubles;
+	int off = 9*(hit%TRIANGLES_PER_PAGE);
+	Triangle triangle = traversal.hit;
+	triangle.a.set(d[off  ], d[off+1], d[off+2]);
+	triangle.b.set(d[off+3], d[off+4], d[off+5]);
+	triangle.c.set(d[off+6], d[off+7], d[off+8]);
+	setNormal(d, off, triangle.n);
+	result.distance = closest;
+	result.item = triangle;
+	
+	// only the closest triangle needs its barycentric coordinates
+	double[] uv = traversal.uv;
+	intersectTriangle(d, off, px, py, pz, vx, vy, vz, uv);
+	result.clearPrimitive();
+	result.hasBarycentrics = true;
+	result.baryU = uv[0];
+	result.baryV = uv[1];
+	result.baryItem = triangle;
+	result.primitive = frame.ints[hit%TRIANGLES_PER_PAGE];
+	return true;
+}
+
+public boolean occluded(Ray ray, double tmin, double tmax)
+{
+	if (nodeCount == 0) return false;
+	return findOccluder(ray, tmin, tmax, traversals.get()) >= 0;
+}
+
+/**
+ * Tests the triangle that blocked the previous ray first, like {@link BVH#occluded(Ray[],
+ * double[], double[], int, boolean[])}.
+ */
+public int occluded(Ray[] rays, double[] tmin, double[] tmax, int count, boolean[] occluded)
+{
+	if (nodeCount == 0)
+	{
+		for (int i = 0; i < count; i++)
+			occluded[i] = false;
+		return 0;
+	}
+	
+	Traversal traversal = traversals.get();
+	int last = -1;
+	int result = 0;
+	for (int i = 0; i < count; i++)
+	{
+		if ((last < 0) || !occludedByTriangle(traversal.cache, last, rays[i], tmin[i], tmax[i]))
+			last = findOccluder(rays[i], tmin[i], tmax[i], traversal);
+		occluded[i] = last >= 0;
+		if (occluded[i]) result++;
+	}
+	return result;
+}
+
+private boolean occludedByTriangle(PageCache cache, int t, Ray ray, double tmin, double tmax)
+{
+	PageCache.Frame triangles = cache.get(1+nodePageCount+t/TRIANGLES_PER_PAGE);
+	double d = intersectTriangle(triangles.doubles, 9*(t%TRIANGLES_PER_PAGE),
+			ray.p.getX(), ray.p.getY(), ray.p.getZ(), ray.v.getX(), ray.v.getY(), ray.v.getZ());
+	return (d > tmin) && (d < tmax);
+}
+
+/**
+ * Returns the slot of some triangle hit in (tmin, tmax), or -1.
+ */
+private int findOccluder(Ray ray, double tmin, double tmax, Traversal traversal)
+{
+	double px = ray.p.getX();
+	double py = ray.p.getY();
+	double pz = ray.p.getZ();
+	double vx = ray.v.getX();
+	double vy = ray.v.getY();
+	double vz = ray.v.getZ();
+	
+	if (BoundingBox.intersects2(rootBounds, 0, ray, tmax) < 0)
+		return -1;
+	
+	PageCache cache = traversal.cache;
+	int[] stack = traversal.stack;
+	int sp = 0;
+	int node = 0;
+	while (true)
+	{
+		PageCache.Frame frame = cache.get(1+node/NODES_PER_PAGE);
+		int slot = node%NODES_PER_PAGE;
+		int a = frame.ints[2*slot];
+		int b = frame.ints[2*slot+1];
+		if (b < 0)
+		{
+			for (int t = a; t < a-b; t++)
+			{
+				PageCache.Frame triangles = cache.get(1+nodePageCount+t/TRIANGLES_PER_PAGE);
+				double d = intersectTriangle(triangles.doubles, 9*(t%TRIANGLES_PER_PAGE), px, py, pz, vx, vy, vz);
+				if ((d > tmin) && (d < tmax)) return t;
+			}
+		}
+		else
+		{
+			PageCache.Frame fa = cache.get(1+a/NODES_PER_PAGE);
+			boolean hitA = BoundingBox.intersects2(fa.doubles, 6*(a%NODES_PER_PAGE), ray, tmax) >= 0;
+			PageCache.Frame fb = cache.get(1+b/NODES_PER_PAGE);
+			boolean hitB = BoundingBox.intersects2(fb.doubles, 6*(b%NODES_PER_PAGE), ray, tmax) >= 0;
+			if (hitA)
+			{
+				if (hitB)
+				{
+					if (sp == stack.length)
+					{
+						int[] temp = new int[2*stack.length];
+						System.arraycopy(stack, 0, temp, 0, sp);
+						stack = traversal.stack = temp;
+					}
+					stack[sp++] = b;
+				}
+				node = a;
+				continue;
+			}
+			else if (hitB)
+			{
+				node = b;
+				continue;
+			}
+		}
+		if (sp == 0) return -1;
+		node = stack[--sp];
+	}
+}
+
+/**
+ * Stores the unit normal of a triangle stored as nine doubles in <code>n</code>, the
+ * same as {@link Triangle#calculateNormal()}.
+ */
+private static void setNormal(double[] t, int off, Vector3 n)
+{
+	double e1x = t[off+3]-t[off], e1y = t[off+4]-t[off+1], e1z = t[off+5]-t[off+2];
+	double e2x = t[off+6]-t[off], e2y = t[off+7]-t[off+1], e2z = t[off+8]-t[off+2];
+	n.set(e1y*e2z-e1z*e2y, e1z*e2x-e1x*e2z, e1x*e2y-e1y*e2x);
+	n.normalizeAndSet();
+}
+
+/**
+ * Double-sided ray-triangle test (Moeller-Trumbore) on a triangle stored as nine
+ * doubles. Returns the distance, or -1 on a miss.
+ */
+private static double intersectTriangle(double[] t, int off, double px, double py, double pz, double vx, double vy, double vz)
+{ return intersectTriangle(t, off, px, py, pz, vx, vy, vz, null); }
+
+/**
+ * Same as above, on a hit the barycentric coordinates of the second and third vertex are
+ * stored in <code>uv</code> unless it is null.
+ */
+private static double intersectTriangle(double[] t, int off, double px, double py, double pz, double vx, double vy, double vz, double[] uv)
+{
+	double e1x = t[off+3]-t[off], e1y = t[off+4]-t[off+1], e1z = t[off+5]-t[off+2];
+	double e2x = t[off+6]-t[off], e2y = t[off+7]-t[off+1], e2z = t[off+8]-t[off+2];
+	double sx = vy*e2z-vz*e2y, sy = vz*e2x-vx*e2z, sz = vx*e2y-vy*e2x;
+	double det = e1x*sx+e1y*sy+e1z*sz;
+	if (det == 0) return -1;
+	double inv = 1/det;
+	double ox = px-t[off], oy = py-t[off+1], oz = pz-t[off+2];
+	double u = (ox*sx+oy*sy+oz*sz)*inv;
+	if ((u < 0) || (u > 1)) return -1;
+	double qx = oy*e1z-oz*e1y, qy = oz*e1x-ox*e1z, qz = ox*e1y-oy*e1x;
+	double v = (vx*qx+vy*qy+vz*qz)*inv;
+	if ((v < 0) || (u+v > 1)) return -1;
+	if (uv != null)
+	{
+		uv[0] = u;
+		uv[1] = v;
+	}
+	return (e2x*qx+e2y*qy+e2z*qz)*inv;
+}
+
+/**
+ * Builds a BVH over the triangles of the mesh and writes it to a file in the paged
+ * format, page by page as the tree is built. The triangles are numbered like the faces
+ * of the mesh.
+ */
+public static void write(TriangleMesh mesh, File file) throws IOException
+{ new PagedBVHWriter(mesh).write(file); }
+
+/**
+ * Writes a BVH over triangles to a file in the paged format. The whole BVH and its
+ * triangles must be in memory, see {@link #write(TriangleMesh, File)} for models that
+ * do not fit.
+ */
+public static void write(BVH bvh, File file) throws IOException
+{
+	for (int i = 0; i < bvh.items.length; i++)
+		if (!(bvh.items[i] instanceof Triangle))
+			throw new IllegalArgumentException("the BVH contains other items than triangles");
+	
+	// cluster the nodes into treelets, newId maps from the BVH to the file
+	int[] newId = new int[bvh.nodeCount];
+	int[] pageOrder = new int[bvh.nodeCount];
+	int[] roots = new int[bvh.nodeCount];
+	int rootHead = 0, rootTail = 0;
+	int assigned = 0;
+	if (bvh.nodeCount > 0) roots[rootTail++] = 0;
+	while (rootHead < rootTail)
+	{
+		// one page, breadth-first from as many treelet roots as fit; the children of
+		// nodes that come too late for this page start new treelets
+		int pageEnd = Math.min(assigned+NODES_PER_PAGE, bvh.nodeCount);
+		int next = assigned;
+		while ((assigned < pageEnd) && (rootHead < rootTail))
+		{
+			int root = roots[rootHead++];
+			newId[root] = assigned;
+			pageOrder[assigned++] = root;
+			while (next < assigned)
+			{
+				int node = pageOrder[next++];
+				if (bvh.isLeaf(node)) continue;
+				for (int k = 0; k < 2; k++)
+				{
+					int child = bvh.nodes[2*node+k];
+					if (assigned < pageEnd)
+					{
+						newId[child] = assigned;
+						pageOrder[assigned++] = child;
+					}
+					else
+						roots[rootTail++] = child;
+				}
+			}
+		}
+	}
+	int nodePageCount = (assigned+NODES_PER_PAGE-1)/NODES_PER_PAGE;
+	
+	ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE);
+	FileOutputStream out = new FileOutputStream(file);
+	try
+	{
+		FileChannel channel = out.getChannel();
+		page.putInt(MAGIC);
+		page.putInt(VERSION);
+		page.putInt(PAGE_SIZE);
+		page.putInt(assigned);
+		page.putInt(nodePageCount);
+		page.putInt(bvh.refs.length);
+		for (int i = 0; i < 6; i++)
+			page.putDouble(bvh.nodeCount > 0 ? bvh.bounds[i] : 0);
+		writePage(channel, page);
+		
+		// the triangles are renumbered in the order the leaves are written
+		int[] triangleStart = new int[bvh.nodeCount];
+		int[] triangleOrder = new int[bvh.refs.length];
+		int triangles = 0;
+		for (int i = 0; i < assigned; i++)
+		{
+			int node = pageOrder[i];
+			if (!bvh.isLeaf(node)) continue;
+			triangleStart[node] = triangles;
+			int first = bvh.nodes[2*node];
+			for (int j = first; j < first-bvh.nodes[2*node+1]; j++)
+				triangleOrder[triangles++] = bvh.refs[j];
+		}
+		
+		for (int p = 0; p < nodePageCount; p++)
+		{
+			for (int slot = 0; slot < NODES_PER_PAGE; slot++)
+			{
+				int id = p*NODES_PER_PAGE+slot;
+				if (id >= assigned) break;
+				int node = pageOrder[id];
+				page.position(slot*NODE_SIZE);
+				for (int j = 0; j < 6; j++)
+					page.putDouble(bvh.bounds[6*node+j]);
+				if (bvh.isLeaf(node))
+				{
+					page.putInt(triangleStart[node]);
+					page.putInt(bvh.nodes[2*node+1]);
+				}
+				else
+				{
+					page.putInt(newId[bvh.nodes[2*node]]);
+					page.putInt(newId[bvh.nodes[2*node+1]]);
+				}
+			}
+			writePage(channel, page);
+		}
+		
+		for (int t = 0; t < triangles; t++)
+		{
+			int slot = t%TRIANGLES_PER_PAGE;
+			Triangle triangle = (Triangle) bvh.items[triangleOrder[t]];
+			page.position(slot*TRIANGLE_SIZE);
+			putVector(page, triangle.a);
+			putVector(page, triangle.b);
+			putVector(page, triangle.c);
+			page.putInt(triangleOrder[t]);
+			if ((slot == TRIANGLES_PER_PAGE-1) || (t == triangles-1))
+				writePage(channel, page);
+		}
+	}
+	finally
+	{ out.close(); }
+}
+
+private static void putVector(ByteBuffer buffer, Vector3 v)
+{ buffer.putDouble(v.getX()).putDouble(v.getY()).putDouble(v.getZ()); }
+
+/**
+ * Writes the page at the current position of the channel and clears it.
+ */
+static void writePage(FileChannel channel, ByteBuffer page) throws IOException
+{
+	page.position(0);
+	page.limit(PAGE_SIZE);
+	while (page.hasRemaining())
+		channel.write(page);
+	clearPage(page);
+}
+
+/**
+ * Writes the page at the given position of the channel and clears it.
+ */
+static void writePage(FileChannel channel, ByteBuffer page, long position) throws IOException
+{
+	page.position(0);
+	page.limit(PAGE_SIZE);
+	while (page.hasRemaining())
+		position += channel.write(page, position);
+	clearPage(page);
+}
+
+private static void clearPage(ByteBuffer page)
+{
+	page.clear();
+	while (page.hasRemaining())
+		page.put((byte) 0);
+	page.clear();
+}
+
+@Override
+public String toString()
+{
+	StringBuffer out = new StringBuffer();
+	out.append("PagedBVH over ").append(triangleCount).append(" triangles\n");
+	out.append("  nodes:      ").append(nodeCount).append(" (").append(nodePageCount).append(" pages)\n");
+	out.append("  pages:      ").append(pageCount).append(" of ").append(PAGE_SIZE).append(" bytes\n");
+	out.append("  cache:      ").append(cacheSize).append(" pages per thread");
+	return out.toString();
+}
+
+}
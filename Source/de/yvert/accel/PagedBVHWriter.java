@@ -0,0 +1,361 @@
+// arch-tag: dc07b26f-bc33-46d7-8b29-6f5e56708780
+package de.yvert.accel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import de.yvert.geometry.TriangleMesh;
+
+/**
+ * Builds a BVH over the triangles of a mesh and writes it in the format of
+ * {@link PagedBVH} while building, see {@link PagedBVH#write(TriangleMesh, File)}.
+ * <p>
+ * The nodes are built top-down in the order they have in the file. Each node page is
+ * filled breadth-first from the roots of pending treelets, just like
+ * {@link PagedBVH#write(BVH, File)} clusters a finished tree, and is written as soon as
+ * it is full. A child that does not fit onto the page of its parent becomes the root of
+ * a new treelet. Its index is only known once a later page takes it, and is then
+ * patched into the record of the parent on disk. The triangles of a leaf go to a
+ * temporary file when the leaf is built, and are appended after the last node page.
+ * <p>
+ * Besides the mesh, the heap holds one int per triangle, the ranges of the pending
+ * treelet roots and two pages, but neither nodes nor triangle objects. Splits are chosen
+ * with the binned SAH like {@link SAHBuilder} with its default settings.
+ */
+final class PagedBVHWriter
+{
+
+private static final int PAGE_SIZE = PagedBVH.PAGE_SIZE;
+private static final int NODES_PER_PAGE = PagedBVH.NODES_PER_PAGE;
+private static final int TRIANGLES_PER_PAGE = PagedBVH.TRIANGLES_PER_PAGE;
+
+private static final int BIN_COUNT = 16;
+private static final int MAX_LEAF_SIZE = 8;
+
+private final float[] vertices;
+private final int[] faces;
+private final int[] refs;
+
+// pending treelet roots: first entry and count in refs, and the file position of the
+// child index to patch in the parent (-1 for the root of the tree)
+private int[] rootRanges = new int[2*64];
+private long[] rootPatches = new long[64];
+private int rootHead = 0, rootTail = 0;
+
+// the nodes on the current page, in breadth-first order
+private final int[] pageRanges = new int[2*NODES_PER_PAGE];
+private int pageNodes;
+private long pagePosition;
+
+private final double[] nodeBounds = new double[6];
+private final double[] primBounds = new double[6];
+private final double[] rootBounds = new double[6];
+private final double[] centroidMin = new double[3];
+private final double[] centroidMax = new double[3];
+private final int[] binCounts = new int[BIN_COUNT];
+private final double[] binBounds = new double[6*BIN_COUNT];
+private final double[] rightCosts = new double[BIN_COUNT];
+private final double[] sweep = new double[6];
+
+private final ByteBuffer nodePage = ByteBuffer.allocate(PAGE_SIZE);
+private final ByteBuffer trianglePage = ByteBuffer.allocate(PAGE_SIZE);
+private final ByteBuffer patch = ByteBuffer.allocate(4);
+private FileChannel channel;
+private FileChannel triangleChannel;
+private int nodeCount = 0;
+private int triangleCount = 0;
+
+PagedBVHWriter(TriangleMesh mesh)
+{
+	vertices = mesh.vertexData;
+	faces = mesh.faceData;
+	refs = new int[mesh.triangleCount()];
+	for (int i = 0; i < refs.length; i++)
+		refs[i] = i;
+}
+
+void write(File file) throws IOException
+{
+	File temp = File.createTempFile("triangles", ".tmp", file.getAbsoluteFile().getParentFile());
+	RandomAccessFile out = new RandomAccessFile(file, "rw");
+	RandomAccessFile triangles = new RandomAccessFile(temp, "rw");
+	try
+	{
+		out.setLength(0);
+		channel = out.getChannel();
+		triangleChannel = triangles.getChannel();
+		
+		if (refs.length > 0) pushRoot(0, refs.length, -1);
+		int nodePageCount = 0;
+		while (rootHead < rootTail)
+		{
+			pagePosition = (long) (1+nodePageCount)*PAGE_SIZE;
+			buildPage();
+			PagedBVH.writePage(channel, nodePage, pagePosition);
+			nodePageCount++;
+		}
+		if (triangleCount % TRIANGLES_PER_PAGE != 0)
+			PagedBVH.writePage(triangleChannel, trianglePage);
+		
+		nodePage.putInt(PagedBVH.MAGIC);
+		nodePage.putInt(PagedBVH.VERSION);
+		nodePage.putInt(PAGE_SIZE);
+		nodePage.putInt(nodeCount);
+		nodePage.putInt(nodePageCount);
+		nodePage.putInt(triangleCount);
+		for (int i = 0; i < 6; i++)
+			nodePage.putDouble(rootBounds[i]);
+		PagedBVH.writePage(channel, nodePage, 0);
+		
+		long position = (long) (1+nodePageCount)*PAGE_SIZE;
+		long size = triangleChannel.size();
+		for (long done = 0; done < size; )
+			done += triangleChannel.transferTo(done, size-done, channel.position(position+done));
+	}
+	finally
+	{
+		out.close();
+		triangles.close();
+		temp.delete();
+	}
+}
+
+private void pushRoot(int first, int count, long patchPosition)
+{
+	if (rootTail == rootPatches.length)
+	{
+		// reuse the space of the roots already taken, or grow
+		int size = rootTail-rootHead;
+		int capacity = size < rootPatches.length/2 ? rootPatches.length : 2*rootPatches.length;
+		int[] tempRanges = new int[2*capacity];
+		long[] tempPatches = new long[capacity];
+		System.arraycopy(rootRanges, 2*rootHead, tempRanges, 0, 2*size);
+		System.arraycopy(rootPatches, rootHead, tempPatches, 0, size);
+		rootRanges = tempRanges;
+		rootPatches = tempPatches;
+		rootHead = 0;
+		rootTail = size;
+	}
+	rootRanges[2*rootTail] = first;
+	rootRanges[2*rootTail+1] = count;
+	rootPatches[rootTail] = patchPosition;
+	rootTail++;
+}
+
+/**
+ * Fills the node page from the pending treelet roots, building each node when it is
+ * its turn.
+ */
+private void buildPage() throws IOException
+{
+	pageNodes = 0;
+	int next = 0;
+	while ((pageNodes < NODES_PER_PAGE) && (rootHead < rootTail))
+	{
+		if (rootPatches[rootHead] >= 0)
+		{
+			patch.clear();
+			patch.putInt(nodeCount);
+			patch.flip();
+			long position = rootPatches[rootHead];
+			while (patch.hasRemaining())
+				position += channel.write(patch, position);
+		}
+		addNode(rootRanges[2*rootHead], rootRanges[2*rootHead+1]);
+		rootHead++;
+		while (next < pageNodes)
+		{
+			subdivide(next);
+			next++;
+		}
+	}
+}
+
+private void addNode(int first, int count)
+{
+	pageRanges[2*pageNodes] = first;
+	pageRanges[2*pageNodes+1] = count;
+	pageNodes++;
+	nodeCount++;
+}
+
+/**
+ * Returns the index the child gets, or 0 if it does not fit onto this page and is
+ * patched in later.
+ */
+private int addChild(int slot, int k, int first, int count)
+{
+	if (pageNodes < NODES_PER_PAGE)
+	{
+		addNode(first, count);
+		return nodeCount-1;
+	}
+	pushRoot(first, count, pagePosition+slot*PagedBVH.NODE_SIZE+48+4*k);
+	return 0;
+}
+
+private void computePrimBounds(int ref)
+{
+	SurfaceAreaHeuristic.clear(primBounds, 0);
+	for (int k = 0; k < 3; k++)
+	{
+		int v = 3*faces[3*ref+k];
+		for (int axis = 0; axis < 3; axis++)
+		{
+			double x = vertices[v+axis];
+			if (x < primBounds[axis]) primBounds[axis] = x;
+			if (x > primBounds[axis+3]) primBounds[axis+3] = x;
+		}
+	}
+}
+
+private int bin(int ref, int axis, double scale)
+{
+	computePrimBounds(ref);
+	int result = (int) ((primBounds[axis]+primBounds[axis+3]-centroidMin[axis])*scale);
+	return result < BIN_COUNT ? result : BIN_COUNT-1;
+}
+
+private void subdivide(int slot) throws IOException
+{
+	int first = pageRanges[2*slot];
+	int count = pageRanges[2*slot+1];
+	int end = first+count;
+	
+	// twice the centroids, like in SAHBuilder
+	SurfaceAreaHeuristic.clear(nodeBounds, 0);
+	for (int axis = 0; axis < 3; axis++)
+	{
+		centroidMin[axis] = Double.POSITIVE_INFINITY;
+		centroidMax[axis] = Double.NEGATIVE_INFINITY;
+	}
+	for (int i = first; i < end; i++)
+	{
+		computePrimBounds(refs[i]);
+		SurfaceAreaHeuristic.union(nodeBounds, 0, primBounds, 0);
+		for (int axis = 0; axis < 3; axis++)
+		{
+			double c = primBounds[axis]+primBounds[axis+3];
+			if (c < centroidMin[axis]) centroidMin[axis] = c;
+			if (c > centroidMax[axis]) centroidMax[axis] = c;
+		}
+	}
+	if (nodeCount-pageNodes+slot == 0)
+		System.arraycopy(nodeBounds, 0, rootBounds, 0, 6);
+	nodePage.position(slot*PagedBVH.NODE_SIZE);
+	for (int j = 0; j < 6; j++)
+		nodePage.putDouble(nodeBounds[j]);
+	
+	double bestCost = Double.POSITIVE_INFINITY;
+	int bestAxis = -1;
+	int bestBin = -1;
+	for (int axis = 0; (count > 1) && (axis < 3); axis++)
+	{
+		double extent = centroidMax[axis]-centroidMin[axis];
+		if (extent <= 0) continue;
+		double scale = BIN_COUNT/extent;
+		
+		for (int b = 0; b < BIN_COUNT; b++)
+		{
+			binCounts[b] = 0;
+			SurfaceAreaHeuristic.clear(binBounds, 6*b);
+		}
+		for (int i = first; i < end; i++)
+		{
+			int b = bin(refs[i], axis, scale);
+			binCounts[b]++;
+			SurfaceAreaHeuristic.union(binBounds, 6*b, primBounds, 0);
+		}
+		
+		SurfaceAreaHeuristic.clear(sweep, 0);
+		int rightCount = 0;
+		for (int b = BIN_COUNT-1; b > 0; b--)
+		{
+			rightCount += binCounts[b];
+			SurfaceAreaHeuristic.union(sweep, 0, binBounds, 6*b);
+			rightCosts[b] = rightCount > 0 ? rightCount*SurfaceAreaHeuristic.halfArea(sweep, 0) : 0;
+		}
+		
+		SurfaceAreaHeuristic.clear(sweep, 0);
+		int leftCount = 0;
+		for (int b = 0; b < BIN_COUNT-1; b++)
+		{
+			leftCount += binCounts[b];
+			SurfaceAreaHeuristic.union(sweep, 0, binBounds, 6*b);
+			if ((leftCount == 0) || (leftCount == count)) continue;
+			double cost = leftCount*SurfaceAreaHeuristic.halfArea(sweep, 0)+rightCosts[b+1];
+			if (cost < bestCost)
+			{
+				bestCost = cost;
+				bestAxis = axis;
+				bestBin = b;
+			}
+		}
+	}
+	
+	double area = SurfaceAreaHeuristic.halfArea(nodeBounds, 0);
+	double leafCost = SurfaceAreaHeuristic.INTERSECTION_COST*count;
+	double splitCost = Double.POSITIVE_INFINITY;
+	if (bestAxis >= 0)
+		splitCost = SurfaceAreaHeuristic.TRAVERSAL_COST+SurfaceAreaHeuristic.INTERSECTION_COST*(area > 0 ? bestCost/area : count);
+	if ((count == 1) || ((splitCost >= leafCost) && (count <= MAX_LEAF_SIZE)))
+	{
+		nodePage.putInt(triangleCount);
+		nodePage.putInt(-count);
+		for (int i = first; i < end; i++)
+			writeTriangle(refs[i]);
+		return;
+	}
+	
+	int mid;
+	if (bestAxis < 0)
+	{
+		// all centroids coincide, any split is as good as any other
+		mid = first+count/2;
+	}
+	else
+	{
+		double scale = BIN_COUNT/(centroidMax[bestAxis]-centroidMin[bestAxis]);
+		int i = first;
+		int j = end-1;
+		while (i <= j)
+		{
+			if (bin(refs[i], bestAxis, scale) <= bestBin)
+				i++;
+			else
+			{
+				int temp = refs[i];
+				refs[i] = refs[j];
+				refs[j] = temp;
+				j--;
+			}
+		}
+		mid = i;
+	}
+	
+	int a = addChild(slot, 0, first, mid-first);
+	int b = addChild(slot, 1, mid, end-mid);
+	nodePage.position(slot*PagedBVH.NODE_SIZE+48);
+	nodePage.putInt(a);
+	nodePage.putInt(b);
+}
+
+private void writeTriangle(int ref) throws IOException
+{
+	int slot = triangleCount % TRIANGLES_PER_PAGE;
+	trianglePage.position(slot*PagedBVH.TRIANGLE_SIZE);
+	for (int k = 0; k < 3; k++)
+	{
+		int v = 3*faces[3*ref+k];
+		trianglePage.putDouble(vertices[v]).putDouble(vertices[v+1]).putDouble(vertices[v+2]);
+	}
+	trianglePage.putInt(ref);
+	triangleCount++;
+	if (slot == TRIANGLES_PER_PAGE-1)
+		PagedBVH.writePage(triangleChannel, trianglePage);
+}
+
+}
@@ -0,0 +1,189 @@
+// arch-tag: 300e8cbb-4a0f-4095-818e-e94f5eaec80d
+package de.yvert.accel;
+
+import java.util.concurrent.ExecutorService;
+
+import de.yvert.algorithms.ParallelFor;
+import de.yvert.algorithms.RadixSort;
+import de.yvert.cr.profiles.IntersectionResult;
+import de.yvert.geometry.BoundingBox;
+import de.yvert.geometry.Ray;
+
+/**
+ * A wavefront of rays that are traced together, e.g. all reflection or refraction rays
+ * of an image.
+ * <p>
+ * Secondary rays scatter in all directions, and tracing them in the order they were
+ * spawned touches a different part of the tree for every ray. A queue collects them
+ * first, with the pixel each one belongs to. {@link #trace} then sorts them by the octant
+ * of their direction and by the cell of a 512<sup>3</sup> grid over the scene their
+ * origin lies in, in Morton order, so that consecutive rays mostly visit the same nodes,
+ * and traces them in contiguous chunks on an executor. Each result is written back to
+ * the slot of its ray, so the caller reads them in the order the rays were added.
+ * <p>
+ * The results are allocated once and reused after {@link #clear()}. A queue must not be
+ * modified while it is traced.
+ */
+public class RayQueue
+{
+
+private static final int CELL_BITS = 9;
+private static final int GRID_SIZE = 1 << CELL_BITS;
+
+private final IntersectionResult[] results;
+private final double[] maxDistance;
+private final boolean[] hits;
+private int size = 0;
+
+public RayQueue(int capacity)
+{
+	if (capacity < 1) throw new IllegalArgumentException("capacity < 1");
+	results = new IntersectionResult[capacity];
+	for (int i = 0; i < capacity; i++)
+		results[i] = new IntersectionResult();
+	maxDistance = new double[capacity];
+	hits = new boolean[capacity];
+}
+
+public int size()
+{ return size; }
+
+public int getCapacity()
+{ return results.length; }
+
+public boolean isFull()
+{ return size == results.length; }
+
+/**
+ * Removes all rays, the results are reused.
+ */
+public void clear()
+{ size = 0; }
+
+/**
+ * Adds a copy of the ray, to be traced up to <code>maxDistance</code>, for pixel
+ * <code>(x, y)</code>. Returns its slot.
+ *
+ * @throws IllegalStateException if the queue is full
+ */
+public int add(Ray ray, double maxDistance, int x, int y)
+{
+	if (isFull()) throw new IllegalStateException("queue is full");
+	int slot = size++;
+	IntersectionResult result = results[slot];
+	result.ray.set(ray);
+	result.x = x;
+	result.y = y;
+	result.item = null;
+	result.innerItem = null;
+	result.clearPrimitive();
+	this.maxDistance[slot] = maxDistance;
+	hits[slot] = false;
+	return slot;
+}
+
+/**
+ * Tells whether the ray in the given slot hit anything in the last {@link #trace}.
+ */
+public boolean isHit(int slot)
+{
+	if (slot >= size) throw new IndexOutOfBoundsException("slot "+slot+" >= "+size);
+	return hits[slot];
+}
+
+/**
+ * Returns the result of the given slot. Its ray and pixel are always set, the rest only
+ * after a hit.
+ */
+public IntersectionResult getResult(int slot)
+{
+	if (slot >= size) throw new IndexOutOfBoundsException("slot "+slot+" >= "+size);
+	return results[slot];
+}
+
+/**
+ * Sorts the rays and traces them against <code>accel</code> in <code>parallelism</code>
+ * chunks.
+ *
+ * @param executor runs the chunks, or null to trace in the calling thread
+ * @return the number of rays that hit something
+ * @see ParallelFor
+ */
+public int trace(final Accelerator accel, ExecutorService executor, int parallelism)
+{
+	if (size == 0) return 0;
+	final int[] order = sortedOrder(accel.getBoundingBox());
+	
+	int chunks = ParallelFor.chunkCount(size, parallelism);
+	final int[] hitCounts = new int[chunks];
+	ParallelFor.run(executor, chunks, size, new ParallelFor.Body()
+		{
+			public void run(int chunk, int first, int afterLast)
+			{
+				int count = 0;
+				for (int i = first; i < afterLast; i++)
+				{
+					int slot = order[i];
+					IntersectionResult result = results[slot];
+					hits[slot] = accel.intersect(result.ray, maxDistance[slot], result);
+					if (hits[slot]) count++;
+				}
+				hitCounts[chunk] = count;
+			}
+		});
+	
+	int result = 0;
+	for (int count : hitCounts)
+		result += count;
+	return result;
+}
+
+/**
+ * Returns the slots sorted by direction octant and origin cell.
+ */
+private int[] sortedOrder(BoundingBox bounds)
+{
+	int[] keys = new int[size];
+	int[] order = new int[size];
+	double minX = 0, minY = 0, minZ = 0;
+	double scaleX = 0, scaleY = 0, scaleZ = 0;
+	if (bounds != null)
+	{
+		minX = bounds.min.getX();
+		minY = bounds.min.getY();
+		minZ = bounds.min.getZ();
+		scaleX = cellScale(bounds.max.getX()-minX);
+		scaleY = cellScale(bounds.max.getY()-minY);
+		scaleZ = cellScale(bounds.max.getZ()-minZ);
+	}
+	for (int i = 0; i < size; i++)
+	{
+		Ray ray = results[i].ray;
+		int octant = (ray.v.getX() < 0 ? 4 : 0) | (ray.v.getY() < 0 ? 2 : 0) | (ray.v.getZ() < 0 ? 1 : 0);
+		int cell = LBVHBuilder.mortonCode(cell(ray.p.getX(), minX, scaleX),
+				cell(ray.p.getY(), minY, scaleY), cell(ray.p.getZ(), minZ, scaleZ));
+		keys[i] = (octant << 3*CELL_BITS) | cell;
+		order[i] = i;
+	}
+	RadixSort.sort(keys, order, 3*CELL_BITS+3, null, 1);
+	return order;
+}
+
+private static double cellScale(double extent)
+{ return extent > 0 ? GRID_SIZE/extent : 0; }
+
+/**
+ * Origins outside the scene go to the nearest border cell.
+ */
+private static int cell(double value, double min, double scale)
+{
+	double cell = (value-min)*scale;
+	if (!(cell > 0)) return 0;
+	return cell >= GRID_SIZE ? GRID_SIZE-1 : (int) cell;
+}
+
+@Override
+public String toString()
+{ return "RayQueue with "+size+" of "+results.length+" rays"; }
+
+}
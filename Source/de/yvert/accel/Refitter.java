@@ -0,0 +1,235 @@
+// arch-tag: 581dfd5b-921d-4fe9-862c-9f0fbad76ab4
+package de.yvert.accel;
+
+import java.util.concurrent.ExecutorService;
+
+import de.yvert.algorithms.ParallelFor;
+import de.yvert.geometry.MeshTriangle;
+import de.yvert.geometry.PrecomputedTriangles;
+import de.yvert.geometry.SceneItem;
+import de.yvert.geometry.Triangle;
+import de.yvert.geometry.TriangleMesh;
+
+/**
+ * Updates a {@link BVH} over the triangles of a deforming {@link TriangleMesh} without
+ * rebuilding it.
+ * <p>
+ * The BVH must have been built over <code>mesh.getFaces()</code> or
+ * <code>mesh.getTriangles()</code>, so that item <code>i</code> is face <code>i</code>.
+ * When only <code>mesh.vertexData</code> (and possibly <code>mesh.vertexNormals</code>)
+ * changed, {@link #refit()} copies the new positions into the triangles, if the items
+ * are copies, and recomputes all node boxes bottom-up, one tree level at a time. Faces
+ * read the mesh directly, so they need no update. The precomputed triangles of a
+ * {@link MeshBVH} are updated as well. The topology of the tree stays the same, so its
+ * quality degrades as the triangles move away from each other. {@link #getCostRatio()}
+ * compares the current SAH cost with the cost at construction; once it exceeds the
+ * rebuild threshold, the tree should be rebuilt and a new refitter created.
+ * <p>
+ * The BVH must not be used for queries while a refit is running.
+ */
+public class Refitter
+{
+
+// levels with fewer nodes than this are not worth splitting between threads
+private static final int GRAIN = 256;
+
+private final BVH bvh;
+private final TriangleMesh mesh;
+// null for items that are faces
+private final Triangle[] triangles;
+private final PrecomputedTriangles precomputed;
+private final ExecutorService executor;
+private final int parallelism;
+
+// the nodes in breadth-first order, level i starts at levelStart[i]
+private final int[] order;
+private final int[] levelStart;
+
+private final double initialCost;
+private double cost;
+private double rebuildThreshold = 1.5;
+
+/**
+ * Creates a refitter that runs in the calling thread.
+ */
+public Refitter(BVH bvh, TriangleMesh mesh)
+{ this(bvh, mesh, null, 1); }
+
+/**
+ * Creates a refitter that runs on the given executor, cutting large tree levels into
+ * <code>parallelism</code> chunks. If the executor is null, everything runs in the
+ * calling thread.
+ */
+public Refitter(BVH bvh, TriangleMesh mesh, ExecutorService executor, int parallelism)
+{
+	if (parallelism < 1) throw new IllegalArgumentException("parallelism < 1");
+	if (bvh.items.length != mesh.triangleCount())
+		throw new IllegalArgumentException("the BVH was not built over the triangles of this mesh");
+	this.bvh = bvh;
+	this.mesh = mesh;
+	this.executor = executor;
+	this.parallelism = parallelism;
+	
+	precomputed = bvh instanceof MeshBVH ? ((MeshBVH) bvh).triangles : null;
+	triangles = new Triangle[bvh.items.length];
+	for (int i = 0; i < triangles.length; i++)
+	{
+		SceneItem item = bvh.items[i];
+		if (item instanceof Triangle)
+			triangles[i] = (Triangle) item;
+		else if (!(item instanceof MeshTriangle) || (((MeshTriangle) item).mesh != mesh) || (((MeshTriangle) item).face != i))
+			throw new IllegalArgumentException("the BVH was not built over the triangles of this mesh");
+	}
+	
+	order = new int[bvh.nodeCount];
+	levelStart = new int[bvh.maxDepth+2];
+	if (bvh.nodeCount > 0)
+	{
+		int end = 0;
+		order[end++] = 0;
+		for (int level = 0; level <= bvh.maxDepth; level++)
+		{
+			int levelEnd = end;
+			for (int i = levelStart[level]; i < levelEnd; i++)
+			{
+				int node = order[i];
+				if (!bvh.isLeaf(node))
+				{
+					order[end++] = bvh.nodes[2*node];
+					order[end++] = bvh.nodes[2*node+1];
+				}
+			}
+			levelStart[level+1] = levelEnd;
+		}
+	}
+	
+	initialCost = bvh.nodeCount > 0 ? new BVHStatistics(bvh).sahCost : 0;
+	cost = initialCost;
+}
+
+public BVH getBVH()
+{ return bvh; }
+
+/**
+ * Returns the ratio of the current SAH cost to the cost when this refitter was created.
+ */
+public double getCostRatio()
+{ return initialCost > 0 ? cost/initialCost : 1; }
+
+public double getRebuildThreshold()
+{ return rebuildThreshold; }
+
+/**
+ * Sets the cost ratio above which {@link #isRebuildRecommended()} returns true.
+ */
+public void setRebuildThreshold(double rebuildThreshold)
+{
+	if (rebuildThreshold < 1) throw new IllegalArgumentException("rebuildThreshold < 1");
+	this.rebuildThreshold = rebuildThreshold;
+}
+
+public boolean isRebuildRecommended()
+{ return getCostRatio() > rebuildThreshold; }
+
+/**
+ * Copies the vertex data of the mesh into the triangles, unless they are faces, and
+ * recomputes all node boxes.
+ *
+ * @return true, if a rebuild is recommended
+ */
+public boolean refit()
+{
+	if (bvh.nodeCount == 0) return false;
+	
+	ParallelFor.run(executor, chunks(triangles.length), triangles.length, new ParallelFor.Body()
+		{
+			public void run(int chunk, int first, int afterLast)
+			{
+				for (int i = first; i < afterLast; i++)
+					updateTriangle(i);
+			}
+		});
+	
+	for (int level = bvh.maxDepth; level >= 0; level--)
+	{
+		final int start = levelStart[level];
+		int count = levelStart[level+1]-start;
+		ParallelFor.run(executor, chunks(count), count, new ParallelFor.Body()
+			{
+				public void run(int chunk, int first, int afterLast)
+				{
+					for (int i = start+first; i < start+afterLast; i++)
+						refitNode(order[i]);
+				}
+			});
+	}
+	
+	cost = new BVHStatistics(bvh).sahCost;
+	return isRebuildRecommended();
+}
+
+private int chunks(int count)
+{ return ParallelFor.chunkCount(count/GRAIN, parallelism); }
+
+private void updateTriangle(int face)
+{
+	Triangle t = triangles[face];
+	if (precomputed != null) precomputed.set(face, mesh, face);
+	if (t == null) return;
+	
+	int a = 3*mesh.faceData[3*face], b = 3*mesh.faceData[3*face+1], c = 3*mesh.faceData[3*face+2];
+	float[] v = mesh.vertexData;
+	t.a.set(v[a], v[a+1], v[a+2]);
+	t.b.set(v[b], v[b+1], v[b+2]);
+	t.c.set(v[c], v[c+1], v[c+2]);
+	
+	// in place, the vertex normals may share this vector
+	double ex = t.b.getX()-t.a.getX(), ey = t.b.getY()-t.a.getY(), ez = t.b.getZ()-t.a.getZ();
+	double fx = t.c.getX()-t.a.getX(), fy = t.c.getY()-t.a.getY(), fz = t.c.getZ()-t.a.getZ();
+	t.n.set(ey*fz-ez*fy, ez*fx-ex*fz, ex*fy-ey*fx).normalizeAndSet();
+	
+	float[] n = mesh.vertexNormals;
+	if (n != null)
+	{
+		t.vertexNormals[0].set(n[a], n[a+1], n[a+2]);
+		t.vertexNormals[1].set(n[b], n[b+1], n[b+2]);
+		t.vertexNormals[2].set(n[c], n[c+1], n[c+2]);
+	}
+}
+
+private void refitNode(int node)
+{
+	double[] bounds = bvh.bounds;
+	int off = 6*node;
+	int a = bvh.nodes[2*node];
+	int b = bvh.nodes[2*node+1];
+	if (b >= 0)
+	{
+		System.arraycopy(bounds, 6*a, bounds, off, 6);
+		SurfaceAreaHeuristic.union(bounds, off, bounds, 6*b);
+		return;
+	}
+	
+	// the triangles hold the same positions as the mesh by now
+	SurfaceAreaHeuristic.clear(bounds, off);
+	for (int i = a; i < a-b; i++)
+	{
+		int face = 3*bvh.refs[i];
+		include(bounds, off, mesh.vertexData, 3*mesh.faceData[face  ]);
+		include(bounds, off, mesh.vertexData, 3*mesh.faceData[face+1]);
+		include(bounds, off, mesh.vertexData, 3*mesh.faceData[face+2]);
+	}
+}
+
+private static void include(double[] bounds, int off, float[] v, int i)
+{
+	double x = v[i], y = v[i+1], z = v[i+2];
+	if (x < bounds[off  ]) bounds[off  ] = x;
+	if (y < bounds[off+1]) bounds[off+1] = y;
+	if (z < bounds[off+2]) bounds[off+2] = z;
+	if (x > bounds[off+3]) bounds[off+3] = x;
+	if (y > bounds[off+4]) bounds[off+4] = y;
+	if (z > bounds[off+5]) bounds[off+5] = z;
+}
+
+}
@@ -0,0 +1,273 @@
+// arch-tag: 06902ba3-55e0-4c10-b865-e327b53fe187
+package de.yvert.accel;
+
+import de.yvert.geometry.BoundingBox;
+import de.yvert.geometry.SceneItem;
+import de.yvert.geometry.SceneItemCollection;
+
+/**
+ * Builds a {@link BVH} top-down using the surface area heuristic.
+ * <p>
+ * At each node, the item centroids are sorted into a fixed number of bins along each
+ * axis, and the split between two bins with the lowest SAH cost is chosen. A node
+ * becomes a leaf if splitting it would not pay off and it holds at most
+ * {@link #getMaxLeafSize()} items. This is O(n log n) and within a few percent of
+ * the cost of a full sweep over all split candidates.
+ *
+ * @see SurfaceAreaHeuristic
+ */
+public class SAHBuilder implements AcceleratorBuilder
+{
+
+private static final int BIN_COUNT = 16;
+
+private int maxLeafSize = 8;
+private double traversalCost = SurfaceAreaHeuristic.TRAVERSAL_COST;
+private double intersectionCost = SurfaceAreaHeuristic.INTERSECTION_COST;
+
+public SAHBuilder()
+{/*OK*/}
+
+public int getMaxLeafSize()
+{ return maxLeafSize; }
+
+public void setMaxLeafSize(int maxLeafSize)
+{
+	if (maxLeafSize < 1) throw new IllegalArgumentException("maxLeafSize < 1");
+	this.maxLeafSize = maxLeafSize;
+}
+
+public double getTraversalCost()
+{ return traversalCost; }
+
+public void setTraversalCost(double traversalCost)
+{ this.traversalCost = traversalCost; }
+
+public double getIntersectionCost()
+{ return intersectionCost; }
+
+public void setIntersectionCost(double intersectionCost)
+{ this.intersectionCost = intersectionCost; }
+
+public BVH build(SceneItemCollection collection)
+{ return build(collection.toArray()); }
+
+public BVH build(SceneItem[] items)
+{
+	long start = System.nanoTime();
+	double[] primBounds = new double[6*items.length];
+	for (int i = 0; i < items.length; i++)
+	{
+		BoundingBox box = items[i].getBoundingBox();
+		primBounds[6*i  ] = box.getMinX();
+		primBounds[6*i+1] = box.getMinY();
+		primBounds[6*i+2] = box.getMinZ();
+		primBounds[6*i+3] = box.getMaxX();
+		primBounds[6*i+4] = box.getMaxY();
+		primBounds[6*i+5] = box.getMaxZ();
+	}
+	
+	Construction c = new Construction(primBounds, items.length);
+	c.run();
+	BVH result = new BVH(items, c.refs, c.nodes, c.bounds, c.nodeCount);
+	result.buildTime = System.nanoTime()-start;
+	return result;
+}
+	
+	/**
+	 * State of a single build, so that a builder can be shared between threads.
+	 */
+	private final class Construction
+	{
+		private final double[] primBounds;
+		
+		final int[] refs;
+		final int[] nodes;
+		final double[] bounds;
+		int nodeCount;
+		
+		private final int[] binCounts = new int[BIN_COUNT];
+		private final double[] binBounds = new double[6*BIN_COUNT];
+		private final double[] rightCosts = new double[BIN_COUNT];
+		private final double[] sweep = new double[6];
+		private final double[] centroidMin = new double[3];
+		private final double[] centroidMax = new double[3];
+		
+		private int[] todo = new int[3*64];
+		private int todoCount = 0;
+		
+		Construction(double[] primBounds, int count)
+		{
+			this.primBounds = primBounds;
+			refs = new int[count];
+			for (int i = 0; i < count; i++)
+				refs[i] = i;
+			// every split creates two non-empty children
+			int maxNodes = count > 0 ? 2*count-1 : 0;
+			nodes = new int[2*maxNodes];
+			bounds = new double[6*maxNodes];
+		}
+		
+		void run()
+		{
+			if (refs.length == 0) return;
+			nodeCount = 1;
+			push(0, 0, refs.length);
+			while (todoCount > 0)
+			{
+				int count = todo[--todoCount];
+				int first = todo[--todoCount];
+				int node = todo[--todoCount];
+				subdivide(node, first, count);
+			}
+		}
+		
+		private void push(int node, int first, int count)
+		{
+			if (todoCount+3 > todo.length)
+			{
+				int[] temp = new int[2*todo.length];
+				System.arraycopy(todo, 0, temp, 0, todoCount);
+				todo = temp;
+			}
+			todo[todoCount++] = node;
+			todo[todoCount++] = first;
+			todo[todoCount++] = count;
+		}
+		
+		// twice the centroid, which sorts the same way and saves a multiplication
+		private double centroid(int ref, int axis)
+		{ return primBounds[6*ref+axis]+primBounds[6*ref+3+axis]; }
+		
+		private int bin(int ref, int axis, double scale)
+		{
+			int result = (int) ((centroid(ref, axis)-centroidMin[axis])*scale);
+			return result < BIN_COUNT ? result : BIN_COUNT-1;
+		}
+		
+		private void subdivide(int node, int first, int count)
+		{
+			int end = first+count;
+			SurfaceAreaHeuristic.clear(bounds, 6*node);
+			for (int axis = 0; axis < 3; axis++)
+			{
+				centroidMin[axis] = Double.POSITIVE_INFINITY;
+				centroidMax[axis] = Double.NEGATIVE_INFINITY;
+			}
+			for (int i = first; i < end; i++)
+			{
+				SurfaceAreaHeuristic.union(bounds, 6*node, primBounds, 6*refs[i]);
+				for (int axis = 0; axis < 3; axis++)
+				{
+					double c = centroid(refs[i], axis);
+					if (c < centroidMin[axis]) centroidMin[axis] = c;
+					if (c > centroidMax[axis]) centroidMax[axis] = c;
+				}
+			}
+			
+			if (count == 1)
+			{
+				makeLeaf(node, first, count);
+				return;
+			}
+			
+			double bestCost = Double.POSITIVE_INFINITY;
+			int bestAxis = -1;
+			int bestBin = -1;
+			for (int axis = 0; axis < 3; axis++)
+			{
+				double extent = centroidMax[axis]-centroidMin[axis];
+				if (extent <= 0) continue;
+				double scale = BIN_COUNT/extent;
+				
+				for (int b = 0; b < BIN_COUNT; b++)
+				{
+					binCounts[b] = 0;
+					SurfaceAreaHeuristic.clear(binBounds, 6*b);
+				}
+				for (int i = first; i < end; i++)
+				{
+					int b = bin(refs[i], axis, scale);
+					binCounts[b]++;
+					SurfaceAreaHeuristic.union(binBounds, 6*b, primBounds, 6*refs[i]);
+				}
+				
+				SurfaceAreaHeuristic.clear(sweep, 0);
+				int rightCount = 0;
+				for (int b = BIN_COUNT-1; b > 0; b--)
+				{
+					rightCount += binCounts[b];
+					SurfaceAreaHeuristic.union(sweep, 0, binBounds, 6*b);
+					rightCosts[b] = rightCount > 0 ? rightCount*SurfaceAreaHeuristic.halfArea(sweep, 0) : 0;
+				}
+				
+				SurfaceAreaHeuristic.clear(sweep, 0);
+				int leftCount = 0;
+				for (int b = 0; b < BIN_COUNT-1; b++)
+				{
+					leftCount += binCounts[b];
+					SurfaceAreaHeuristic.union(sweep, 0, binBounds, 6*b);
+					if ((leftCount == 0) || (leftCount == count)) continue;
+					double cost = leftCount*SurfaceAreaHeuristic.halfArea(sweep, 0)+rightCosts[b+1];
+					if (cost < bestCost)
+					{
+						bestCost = cost;
+						bestAxis = axis;
+						bestBin = b;
+					}
+				}
+			}
+			
+			double area = SurfaceAreaHeuristic.halfArea(bounds, 6*node);
+			double leafCost = intersectionCost*count;
+			double splitCost = Double.POSITIVE_INFINITY;
+			if (bestAxis >= 0)
+				splitCost = traversalCost+intersectionCost*(area > 0 ? bestCost/area : count);
+			if ((splitCost >= leafCost) && (count <= maxLeafSize))
+			{
+				makeLeaf(node, first, count);
+				return;
+			}
+			
+			int mid;
+			if (bestAxis < 0)
+			{
+				// all centroids coincide, any split is as good as any other
+				mid = first+count/2;
+			}
+			else
+			{
+				double scale = BIN_COUNT/(centroidMax[bestAxis]-centroidMin[bestAxis]);
+				int i = first;
+				int j = end-1;
+				while (i <= j)
+				{
+					if (bin(refs[i], bestAxis, scale) <= bestBin)
+						i++;
+					else
+					{
+						int temp = refs[i];
+						refs[i] = refs[j];
+						refs[j] = temp;
+						j--;
+					}
+				}
+				mid = i;
+			}
+			
+			int left = nodeCount;
+			nodeCount += 2;
+			nodes[2*node] = left;
+			nodes[2*node+1] = left+1;
+			push(left+1, mid, end-mid);
+			push(left, first, mid-first);
+		}
+		
+		private void makeLeaf(int node, int first, int count)
+		{
+			nodes[2*node] = first;
+			nodes[2*node+1] = -count;
+		}
+	}
+
+}
@@ -0,0 +1,545 @@
+// arch-tag: 111ec448-f057-4770-86ef-c43c4ed8b5da
+package de.yvert.accel;
+
+import java.util.ArrayList;
+
+import de.yvert.algorithms.PolygonClipper3D;
+import de.yvert.geometry.BoundingBox;
+import de.yvert.geometry.SceneItem;
+import de.yvert.geometry.Triangle;
+import de.yvert.geometry.Vector3;
+
+/**
+ * Builds a {@link BVH} with spatial splits (SBVH, see Stich et al., "Spatial Splits in
+ * Bounding Volume Hierarchies", 2009).
+ * <p>
+ * Like {@link SAHBuilder}, every node first looks for the best binned object split.
+ * If the two resulting boxes overlap noticeably, it also tries to split the node box
+ * itself: the references are sorted into equally sized slabs along each axis, and a
+ * triangle that spans several slabs is clipped to each of them with
+ * {@link PolygonClipper3D}, so every slab only sees the part of the triangle inside it.
+ * If a plane between two slabs is cheaper by SAH than the best object split, the
+ * references that straddle it are duplicated into both children, each with the bounds
+ * of its clipped part. This removes most of the overlap caused by large diagonal
+ * triangles. Other items are never clipped, only their boxes are cut.
+ * <p>
+ * Duplication is capped: the total number of references never exceeds
+ * <code>(1+maxDuplication)</code> times the number of items. Once the budget is used
+ * up, only object splits are considered.
+ */
+public class SBVHBuilder extends SAHBuilder
+{
+
+private static final int BIN_COUNT = 16;
+private static final int MAX_SPATIAL_DEPTH = 48;
+
+private double maxDuplication = 0.3;
+private double overlapThreshold = 1e-5;
+
+public SBVHBuilder()
+{/*OK*/}
+
+/**
+ * Returns the maximum number of additional references, as a fraction of the number of
+ * items.
+ */
+public double getMaxDuplication()
+{ return maxDuplication; }
+
+public void setMaxDuplication(double maxDuplication)
+{
+	if (maxDuplication < 0) throw new IllegalArgumentException("maxDuplication < 0");
+	this.maxDuplication = maxDuplication;
+}
+
+/**
+ * Returns the overlap of the children of the best object split, relative to the area of
+ * the root, above which spatial splits are tried.
+ */
+public double getOverlapThreshold()
+{ return overlapThreshold; }
+
+public void setOverlapThreshold(double overlapThreshold)
+{ this.overlapThreshold = overlapThreshold; }
+
+@Override
+public BVH build(SceneItem[] items)
+{
+	long start = System.nanoTime();
+	Construction c = new Construction(items);
+	c.run();
+	int[] refs = new int[c.refCount];
+	System.arraycopy(c.refs, 0, refs, 0, c.refCount);
+	BVH result = new BVH(items, refs, c.nodes, c.bounds, c.nodeCount);
+	result.buildTime = System.nanoTime()-start;
+	return result;
+}
+	
+	/**
+	 * A node that still has to be subdivided, with its references and their bounds.
+	 */
+	private static final class Task
+	{
+		final int node;
+		final int[] items;
+		final double[] bounds;
+		final int count;
+		final int depth;
+		
+		Task(int node, int[] items, double[] bounds, int count, int depth)
+		{
+			this.node = node;
+			this.items = items;
+			this.bounds = bounds;
+			this.count = count;
+			this.depth = depth;
+		}
+	}
+	
+	/**
+	 * State of a single build, so that a builder can be shared between threads.
+	 */
+	private final class Construction
+	{
+		private final SceneItem[] items;
+		private final int referenceLimit;
+		private int referenceTotal;
+		private double rootArea;
+		
+		int[] nodes = new int[2*64];
+		double[] bounds = new double[6*64];
+		int nodeCount = 0;
+		int[] refs = new int[64];
+		int refCount = 0;
+		
+		private final int[] binCounts = new int[BIN_COUNT];
+		private final int[] entries = new int[BIN_COUNT];
+		private final int[] exits = new int[BIN_COUNT];
+		private final double[] binBounds = new double[6*BIN_COUNT];
+		private final double[] rightAreas = new double[BIN_COUNT];
+		private final double[] sweep = new double[6];
+		private final double[] centroidBounds = new double[6];
+		private final double[] slab = new double[6];
+		private final double[] clipped = new double[6];
+		private final double[] leftBox = new double[6];
+		private final double[] rightBox = new double[6];
+		
+		// the bin left of the best plane found by the last sweep
+		private int bestBin;
+		
+		private final ArrayList<Task> todo = new ArrayList<Task>();
+		
+		Construction(SceneItem[] items)
+		{
+			this.items = items;
+			referenceLimit = (int) Math.min(Integer.MAX_VALUE, Math.floor(items.length*(1+maxDuplication)));
+			referenceTotal = items.length;
+		}
+		
+		void run()
+		{
+			int count = items.length;
+			if (count == 0) return;
+			int[] itemRefs = new int[count];
+			double[] itemBounds = new double[6*count];
+			for (int i = 0; i < count; i++)
+			{
+				BoundingBox box = items[i].getBoundingBox();
+				itemRefs[i] = i;
+				itemBounds[6*i  ] = box.getMinX();
+				itemBounds[6*i+1] = box.getMinY();
+				itemBounds[6*i+2] = box.getMinZ();
+				itemBounds[6*i+3] = box.getMaxX();
+				itemBounds[6*i+4] = box.getMaxY();
+				itemBounds[6*i+5] = box.getMaxZ();
+			}
+			
+			allocateNodes(1);
+			todo.add(new Task(0, itemRefs, itemBounds, count, 0));
+			while (!todo.isEmpty())
+				subdivide(todo.remove(todo.size()-1));
+		}
+		
+		private int allocateNodes(int count)
+		{
+			int result = nodeCount;
+			nodeCount += count;
+			if (2*nodeCount > nodes.length)
+			{
+				int size = Math.max(2*nodes.length, 2*nodeCount);
+				int[] temp = new int[size];
+				System.arraycopy(nodes, 0, temp, 0, 2*result);
+				nodes = temp;
+				double[] temp2 = new double[3*size];
+				System.arraycopy(bounds, 0, temp2, 0, 6*result);
+				bounds = temp2;
+			}
+			return result;
+		}
+		
+		private void makeLeaf(Task task)
+		{
+			if (refCount+task.count > refs.length)
+			{
+				int[] temp = new int[Math.max(2*refs.length, refCount+task.count)];
+				System.arraycopy(refs, 0, temp, 0, refCount);
+				refs = temp;
+			}
+			System.arraycopy(task.items, 0, refs, refCount, task.count);
+			nodes[2*task.node] = refCount;
+			nodes[2*task.node+1] = -task.count;
+			refCount += task.count;
+		}
+		
+		// twice the centroid, which sorts the same way and saves a multiplication
+		private int bin(double[] refBounds, int ref, int axis, double scale)
+		{
+			double c = refBounds[6*ref+axis]+refBounds[6*ref+3+axis];
+			int result = (int) ((c-centroidBounds[axis])*scale);
+			return result < BIN_COUNT ? result : BIN_COUNT-1;
+		}
+		
+		private void subdivide(Task task)
+		{
+			int node = task.node;
+			int count = task.count;
+			double[] refBounds = task.bounds;
+			SurfaceAreaHeuristic.clear(bounds, 6*node);
+			SurfaceAreaHeuristic.clear(centroidBounds, 0);
+			for (int i = 0; i < count; i++)
+			{
+				SurfaceAreaHeuristic.union(bounds, 6*node, refBounds, 6*i);
+				for (int axis = 0; axis < 3; axis++)
+				{
+					double c = refBounds[6*i+axis]+refBounds[6*i+3+axis];
+					if (c < centroidBounds[axis]) centroidBounds[axis] = c;
+					if (c > centroidBounds[axis+3]) centroidBounds[axis+3] = c;
+				}
+			}
+			double area = SurfaceAreaHeuristic.halfArea(bounds, 6*node);
+			if (node == 0) rootArea = area;
+			
+			if (count == 1)
+			{
+				makeLeaf(task);
+				return;
+			}
+			
+			// object split
+			double objectCost = Double.POSITIVE_INFINITY;
+			int objectAxis = -1;
+			int objectBin = -1;
+			for (int axis = 0; axis < 3; axis++)
+			{
+				double extent = centroidBounds[axis+3]-centroidBounds[axis];
+				if (extent <= 0) continue;
+				double scale = BIN_COUNT/extent;
+				
+				for (int b = 0; b < BIN_COUNT; b++)
+				{
+					binCounts[b] = 0;
+					SurfaceAreaHeuristic.clear(binBounds, 6*b);
+				}
+				for (int i = 0; i < count; i++)
+				{
+					int b = bin(refBounds, i, axis, scale);
+					binCounts[b]++;
+					SurfaceAreaHeuristic.union(binBounds, 6*b, refBounds, 6*i);
+				}
+				
+				double cost = sweep(binCounts, binCounts, count);
+				if (cost < objectCost)
+				{
+					objectCost = cost;
+					objectAxis = axis;
+					objectBin = bestBin;
+				}
+			}
+			
+			// spatial split, if the children of the object split overlap
+			double spatialCost = Double.POSITIVE_INFINITY;
+			int spatialAxis = -1;
+			int spatialBin = -1;
+			if ((task.depth < MAX_SPATIAL_DEPTH) && (referenceTotal < referenceLimit) && overlaps(task, objectAxis, objectBin))
+			{
+				for (int axis = 0; axis < 3; axis++)
+				{
+					double min = bounds[6*node+axis];
+					double extent = bounds[6*node+3+axis]-min;
+					if (extent <= 0) continue;
+					double width = extent/BIN_COUNT;
+					
+					for (int b = 0; b < BIN_COUNT; b++)
+					{
+						entries[b] = 0;
+						exits[b] = 0;
+						SurfaceAreaHeuristic.clear(binBounds, 6*b);
+					}
+					for (int i = 0; i < count; i++)
+					{
+						int first = spatialBin(refBounds[6*i+axis], min, width);
+						int last = spatialBin(refBounds[6*i+3+axis], min, width);
+						entries[first]++;
+						exits[last]++;
+						for (int b = first; b <= last; b++)
+						{
+							System.arraycopy(refBounds, 6*i, slab, 0, 6);
+							if (b > first) slab[axis] = min+b*width;
+							if (b < last) slab[axis+3] = min+(b+1)*width;
+							if (clip(task.items[i], slab, clipped))
+								SurfaceAreaHeuristic.union(binBounds, 6*b, clipped, 0);
+						}
+					}
+					
+					double cost = sweep(entries, exits, count);
+					if ((cost < spatialCost) && (cost < objectCost))
+					{
+						spatialCost = cost;
+						spatialAxis = axis;
+						spatialBin = bestBin;
+					}
+				}
+			}
+			
+			double bestCost = Math.min(objectCost, spatialCost);
+			double leafCost = getIntersectionCost()*count;
+			double splitCost = Double.POSITIVE_INFINITY;
+			if ((objectAxis >= 0) || (spatialAxis >= 0))
+				splitCost = getTraversalCost()+getIntersectionCost()*(area > 0 ? bestCost/area : count);
+			if ((splitCost >= leafCost) && (count <= getMaxLeafSize()))
+			{
+				makeLeaf(task);
+				return;
+			}
+			
+			if ((spatialAxis >= 0) && spatialSplit(task, spatialAxis, spatialBin))
+				return;
+			if (objectAxis >= 0)
+				objectSplit(task, objectAxis, objectBin);
+			else
+			{
+				// all centroids coincide, any split is as good as any other
+				int half = count/2;
+				int[] leftItems = new int[half];
+				int[] rightItems = new int[count-half];
+				double[] leftBounds = new double[6*half];
+				double[] rightBounds = new double[6*(count-half)];
+				System.arraycopy(task.items, 0, leftItems, 0, half);
+				System.arraycopy(task.items, half, rightItems, 0, count-half);
+				System.arraycopy(refBounds, 0, leftBounds, 0, 6*half);
+				System.arraycopy(refBounds, 6*half, rightBounds, 0, 6*(count-half));
+				pushChildren(task, leftItems, leftBounds, half, rightItems, rightBounds, count-half);
+			}
+		}
+		
+		/**
+		 * Sweeps over the bins from both sides and returns the lowest cost, as a sum of
+		 * count times area.
+		 */
+		private double sweep(int[] leftCounts, int[] rightCounts, int count)
+		{
+			SurfaceAreaHeuristic.clear(sweep, 0);
+			int rightCount = 0;
+			for (int b = BIN_COUNT-1; b > 0; b--)
+			{
+				rightCount += rightCounts[b];
+				SurfaceAreaHeuristic.union(sweep, 0, binBounds, 6*b);
+				rightAreas[b] = rightCount > 0 ? SurfaceAreaHeuristic.halfArea(sweep, 0) : 0;
+			}
+			
+			double best = Double.POSITIVE_INFINITY;
+			bestBin = -1;
+			SurfaceAreaHeuristic.clear(sweep, 0);
+			int leftCount = 0;
+			rightCount = count;
+			for (int b = 0; b < BIN_COUNT-1; b++)
+			{
+				leftCount += leftCounts[b];
+				rightCount -= rightCounts[b];
+				SurfaceAreaHeuristic.union(sweep, 0, binBounds, 6*b);
+				if ((leftCount == 0) || (rightCount == 0)) continue;
+				if ((leftCount == count) && (rightCount == count)) continue;
+				double cost = leftCount*SurfaceAreaHeuristic.halfArea(sweep, 0)+rightCount*rightAreas[b+1];
+				if (cost < best)
+				{
+					best = cost;
+					bestBin = b;
+				}
+			}
+			return best;
+		}
+		
+		private int spatialBin(double value, double min, double width)
+		{
+			int result = (int) ((value-min)/width);
+			if (result < 0) return 0;
+			return result < BIN_COUNT ? result : BIN_COUNT-1;
+		}
+		
+		/**
+		 * Returns true, if the children of the given object split overlap by more than
+		 * the threshold, or if there is no object split at all.
+		 */
+		private boolean overlaps(Task task, int axis, int bin)
+		{
+			if (axis < 0) return true;
+			double scale = BIN_COUNT/(centroidBounds[axis+3]-centroidBounds[axis]);
+			SurfaceAreaHeuristic.clear(leftBox, 0);
+			SurfaceAreaHeuristic.clear(rightBox, 0);
+			for (int i = 0; i < task.count; i++)
+			{
+				if (bin(task.bounds, i, axis, scale) <= bin)
+					SurfaceAreaHeuristic.union(leftBox, 0, task.bounds, 6*i);
+				else
+					SurfaceAreaHeuristic.union(rightBox, 0, task.bounds, 6*i);
+			}
+			for (int i = 0; i < 3; i++)
+			{
+				leftBox[i] = Math.max(leftBox[i], rightBox[i]);
+				leftBox[i+3] = Math.min(leftBox[i+3], rightBox[i+3]);
+				if (leftBox[i] > leftBox[i+3]) return false;
+			}
+			double overlap = SurfaceAreaHeuristic.halfArea(leftBox, 0);
+			return overlap > overlapThreshold*rootArea;
+		}
+		
+		/**
+		 * Computes the bounds of the part of the item inside <code>box</code>. Returns false
+		 * if the item does not overlap the box.
+		 */
+		private boolean clip(int item, double[] box, double[] dest)
+		{
+			SceneItem it = items[item];
+			System.arraycopy(box, 0, dest, 0, 6);
+			if (it instanceof Triangle)
+			{
+				Triangle t = (Triangle) it;
+				PolygonClipper3D clipper = new PolygonClipper3D(t.a, t.b, t.c);
+				clipper.clip(new BoundingBox(new Vector3(box[0], box[1], box[2]), new Vector3(box[3], box[4], box[5])));
+				Vector3[] points = clipper.getPoints();
+				if (points.length < 3) return false;
+				SurfaceAreaHeuristic.clear(dest, 0);
+				for (Vector3 p : points)
+				{
+					dest[0] = Math.min(dest[0], p.getX());
+					dest[1] = Math.min(dest[1], p.getY());
+					dest[2] = Math.min(dest[2], p.getZ());
+					dest[3] = Math.max(dest[3], p.getX());
+					dest[4] = Math.max(dest[4], p.getY());
+					dest[5] = Math.max(dest[5], p.getZ());
+				}
+				// never grow beyond the box because of rounding
+				for (int i = 0; i < 3; i++)
+				{
+					dest[i] = Math.max(dest[i], box[i]);
+					dest[i+3] = Math.min(dest[i+3], box[i+3]);
+				}
+			}
+			for (int i = 0; i < 3; i++)
+				if (dest[i] > dest[i+3]) return false;
+			return true;
+		}
+		
+		private void objectSplit(Task task, int axis, int bin)
+		{
+			double scale = BIN_COUNT/(centroidBounds[axis+3]-centroidBounds[axis]);
+			int count = task.count;
+			int leftCount = 0;
+			for (int i = 0; i < count; i++)
+				if (bin(task.bounds, i, axis, scale) <= bin) leftCount++;
+			
+			int[] leftItems = new int[leftCount];
+			int[] rightItems = new int[count-leftCount];
+			double[] leftBounds = new double[6*leftCount];
+			double[] rightBounds = new double[6*(count-leftCount)];
+			int l = 0, r = 0;
+			for (int i = 0; i < count; i++)
+			{
+				if (bin(task.bounds, i, axis, scale) <= bin)
+				{
+					leftItems[l] = task.items[i];
+					System.arraycopy(task.bounds, 6*i, leftBounds, 6*l, 6);
+					l++;
+				}
+				else
+				{
+					rightItems[r] = task.items[i];
+					System.arraycopy(task.bounds, 6*i, rightBounds, 6*r, 6);
+					r++;
+				}
+			}
+			pushChildren(task, leftItems, leftBounds, l, rightItems, rightBounds, r);
+		}
+		
+		/**
+		 * Splits the node at the given plane, unless the duplicated references would
+		 * exceed the budget or one side would be empty.
+		 */
+		private boolean spatialSplit(Task task, int axis, int bin)
+		{
+			int node = task.node;
+			int count = task.count;
+			double min = bounds[6*node+axis];
+			double pos = min+(bin+1)*(bounds[6*node+3+axis]-min)/BIN_COUNT;
+			
+			int[] leftItems = new int[count];
+			int[] rightItems = new int[count];
+			double[] leftBounds = new double[6*count];
+			double[] rightBounds = new double[6*count];
+			int l = 0, r = 0;
+			for (int i = 0; i < count; i++)
+			{
+				int item = task.items[i];
+				if (task.bounds[6*i+3+axis] <= pos)
+				{
+					leftItems[l] = item;
+					System.arraycopy(task.bounds, 6*i, leftBounds, 6*l, 6);
+					l++;
+				}
+				else if (task.bounds[6*i+axis] >= pos)
+				{
+					rightItems[r] = item;
+					System.arraycopy(task.bounds, 6*i, rightBounds, 6*r, 6);
+					r++;
+				}
+				else
+				{
+					// straddles the plane, clip to both sides
+					System.arraycopy(task.bounds, 6*i, slab, 0, 6);
+					slab[axis+3] = pos;
+					if (clip(item, slab, clipped))
+					{
+						leftItems[l] = item;
+						System.arraycopy(clipped, 0, leftBounds, 6*l, 6);
+						l++;
+					}
+					System.arraycopy(task.bounds, 6*i, slab, 0, 6);
+					slab[axis] = pos;
+					if (clip(item, slab, clipped))
+					{
+						rightItems[r] = item;
+						System.arraycopy(clipped, 0, rightBounds, 6*r, 6);
+						r++;
+					}
+				}
+			}
+			
+			if ((l == 0) || (r == 0) || (referenceTotal+l+r-count > referenceLimit))
+				return false;
+			referenceTotal += l+r-count;
+			pushChildren(task, leftItems, leftBounds, l, rightItems, rightBounds, r);
+			return true;
+		}
+		
+		private void pushChildren(Task task, int[] leftItems, double[] leftBounds, int leftCount,
+				int[] rightItems, double[] rightBounds, int rightCount)
+		{
+			int left = allocateNodes(2);
+			nodes[2*task.node] = left;
+			nodes[2*task.node+1] = left+1;
+			todo.add(new Task(left+1, rightItems, rightBounds, rightCount, task.depth+1));
+			todo.add(new Task(left, leftItems, leftBounds, leftCount, task.depth+1));
+		}
+	}
+
+}
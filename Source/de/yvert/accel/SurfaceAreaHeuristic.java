@@ -0,0 +1,65 @@
+// arch-tag: c66d5592-c248-4124-9270-74ae5cc4fabf
+package de.yvert.accel;
+
+/**
+ * Constants and helpers for the surface area heuristic (SAH).
+ * <p>
+ * The SAH estimates the cost of a random ray query against a subtree as the cost of
+ * visiting the subtree root plus the cost of its children, each weighted with the
+ * probability that a ray hitting the parent also hits the child. That probability is
+ * the ratio of the surface areas of the two boxes.
+ * <p>
+ * Boxes are stored in flat arrays as min x, y, z followed by max x, y, z.
+ */
+public final class SurfaceAreaHeuristic
+{
+
+/** The cost of visiting an inner node, relative to {@link #INTERSECTION_COST}. */
+public static final double TRAVERSAL_COST = 0.125;
+
+/** The cost of intersecting a ray with a single item. */
+public static final double INTERSECTION_COST = 1;
+
+/**
+ * Returns HALF the surface area of the box at <code>offset</code>, same as
+ * {@link de.yvert.geometry.BoundingBox#halfSurfaceArea()}.
+ */
+public static double halfArea(double[] bounds, int offset)
+{
+	double dx = bounds[offset+3]-bounds[offset  ];
+	double dy = bounds[offset+4]-bounds[offset+1];
+	double dz = bounds[offset+5]-bounds[offset+2];
+	return dx*dy + dx*dz + dy*dz;
+}
+
+/**
+ * Sets the box at <code>offset</code> to the empty box, i.e. one that does not
+ * contain any point and becomes the other box if {@link #union} is called.
+ */
+public static void clear(double[] bounds, int offset)
+{
+	bounds[offset  ] = Double.POSITIVE_INFINITY;
+	bounds[offset+1] = Double.POSITIVE_INFINITY;
+	bounds[offset+2] = Double.POSITIVE_INFINITY;
+	bounds[offset+3] = Double.NEGATIVE_INFINITY;
+	bounds[offset+4] = Double.NEGATIVE_INFINITY;
+	bounds[offset+5] = Double.NEGATIVE_INFINITY;
+}
+
+/**
+ * Enlarges the box at <code>offset</code> so that it contains the box at
+ * <code>otherOffset</code> in <code>other</code>.
+ */
+public static void union(double[] bounds, int offset, double[] other, int otherOffset)
+{
+	for (int i = 0; i < 3; i++)
+	{
+		if (other[otherOffset+i] < bounds[offset+i]) bounds[offset+i] = other[otherOffset+i];
+		if (other[otherOffset+3+i] > bounds[offset+3+i]) bounds[offset+3+i] = other[otherOffset+3+i];
+	}
+}
+
+private SurfaceAreaHeuristic()
+{/*OK*/}
+
+}
@@ -0,0 +1,44 @@
+// arch-tag: bdcab68a-bff4-45ca-b2d8-0fe028e4589d
+package de.yvert.accel;
+
+import de.yvert.cr.profiles.IntersectionResult;
+import de.yvert.geometry.Ray;
+import de.yvert.geometry.SceneItem;
+
+/**
+ * The top level of a two-level hierarchy: a BVH over {@link Instance}s, which may be
+ * mixed with other items.
+ * <p>
+ * Any builder that produces a {@link BVH} can be used, for example
+ * <code>new TopLevelBVH(new SAHBuilder().build(instances))</code>. Each instance a ray
+ * reaches transforms it into object space and traverses the shared structure, and the
+ * item hit inside an instance is stored in {@link IntersectionResult#innerItem}.
+ */
+public class TopLevelBVH extends BVH
+{
+
+public TopLevelBVH(BVH bvh)
+{
+	super(bvh.items, bvh.refs, bvh.nodes, bvh.bounds, bvh.nodeCount);
+	buildTime = bvh.buildTime;
+}
+
+@Override
+double intersectItem(int index, Ray ray, double closest, IntersectionResult result)
+{
+	SceneItem item = items[index];
+	if (item instanceof Instance)
+		return ((Instance) item).intersect(ray, closest, result) ? result.distance : -1;
+	return super.intersectItem(index, ray, closest, result);
+}
+
+@Override
+boolean occludedByItem(int index, Ray ray, double tmin, double tmax)
+{
+	SceneItem item = items[index];
+	if (item instanceof Instance)
+		return ((Instance) item).occluded(ray, tmin, tmax);
+	return super.occludedByItem(index, ray, tmin, tmax);
+}
+
+}
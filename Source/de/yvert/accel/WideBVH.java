@@ -0,0 +1,425 @@
+// arch-tag: b4693bf5-dcb0-401f-bd4b-225ff8c20bf3
+package de.yvert.accel;
+
+import de.yvert.cr.profiles.IntersectionResult;
+import de.yvert.geometry.BoundingBox;
+import de.yvert.geometry.Ray;
+import de.yvert.geometry.SceneItem;
+import de.yvert.geometry.Triangulation;
+
+/**
+ * A BVH with four or eight children per node (QBVH/OBVH), collapsed from a binary
+ * {@link BVH}.
+ * <p>
+ * Each binary node is expanded by repeatedly replacing its largest inner child with the
+ * two children of that child, until a node has <code>width</code> children. This removes
+ * most of the inner nodes, and a ray tests all children of a node at once. The child
+ * boxes are stored struct-of-arrays: slot <code>k</code> of node <code>i</code> keeps its
+ * box in <code>minX[width*i+k]</code> and so on, so the box test of a node is a single
+ * loop over contiguous floats without branches. Floats halve the memory traffic, they are
+ * rounded outwards so that the boxes stay conservative.
+ * <p>
+ * <code>children[width*i+k]</code> is the index of an inner child, or the bitwise
+ * complement of the first entry of a leaf in <code>refs</code>, with the number of
+ * entries in <code>counts[width*i+k]</code>. Unused slots have an empty box and no
+ * entries. The hit children of a node are visited front to back.
+ * <p>
+ * The items are intersected like in the BVH it was built from, so a wide BVH made from a
+ * {@link TopLevelBVH} still traverses its instances.
+ */
+public class WideBVH implements Accelerator
+{
+
+private final BVH bvh;
+private final int width;
+private final int nodeCount;
+private final int maxDepth;
+
+private final float[] minX, minY, minZ;
+private final float[] maxX, maxY, maxZ;
+private final int[] children;
+private final int[] counts;
+
+private final ThreadLocal<Traversal> traversals = new ThreadLocal<Traversal>()
+	{
+		@Override
+		protected Traversal initialValue()
+		{ return new Traversal((maxDepth+1)*(width-1)+1, width); }
+	};
+	
+	/**
+	 * Per-thread traversal state, so that tracing a ray does not allocate.
+	 */
+	private static final class Traversal
+	{
+		final int[] stack;
+		final double[] stackDistance;
+		final double[] entry;
+		final int[] order;
+		
+		Traversal(int size, int width)
+		{
+			stack = new int[size];
+			stackDistance = new double[size];
+			entry = new double[width];
+			order = new int[width];
+		}
+	}
+
+/**
+ * Collapses the given BVH into one with <code>width</code> children per node, which must
+ * be 4 or 8.
+ */
+public WideBVH(BVH bvh, int width)
+{
+	if ((width != 4) && (width != 8)) throw new IllegalArgumentException("width must be 4 or 8");
+	this.bvh = bvh;
+	this.width = width;
+	
+	// never more nodes than inner nodes in the binary tree, but at least the root
+	int capacity = Math.max(1, (bvh.nodeCount-1)/2);
+	if (bvh.nodeCount == 0) capacity = 0;
+	float[][] b = new float[6][width*capacity];
+	int[] childData = new int[width*capacity];
+	int[] countData = new int[width*capacity];
+	int[] source = new int[capacity];
+	int[] depth = new int[capacity];
+	
+	int count = 0;
+	int deepest = 0;
+	if (capacity > 0) source[count++] = 0;
+	int[] slots = new int[width];
+	for (int n = 0; n < count; n++)
+	{
+		int filled = 0;
+		int node = source[n];
+		if (bvh.isLeaf(node))
+			slots[filled++] = node;
+		else
+		{
+			slots[filled++] = bvh.nodes[2*node];
+			slots[filled++] = bvh.nodes[2*node+1];
+		}
+		
+		while (filled < width)
+		{
+			int largest = -1;
+			double largestArea = -1;
+			for (int k = 0; k < filled; k++)
+			{
+				if (bvh.isLeaf(slots[k])) continue;
+				double area = SurfaceAreaHeuristic.halfArea(bvh.bounds, 6*slots[k]);
+				if (area > largestArea)
+				{
+					largestArea = area;
+					largest = k;
+				}
+			}
+			if (largest < 0) break;
+			int inner = slots[largest];
+			slots[largest] = bvh.nodes[2*inner];
+			slots[filled++] = bvh.nodes[2*inner+1];
+		}
+		
+		for (int k = 0; k < width; k++)
+		{
+			int slot = width*n+k;
+			if (k >= filled)
+			{
+				for (int axis = 0; axis < 3; axis++)
+				{
+					b[axis][slot] = Float.POSITIVE_INFINITY;
+					b[axis+3][slot] = Float.NEGATIVE_INFINITY;
+				}
+				childData[slot] = ~0;
+				countData[slot] = 0;
+				continue;
+			}
+			
+			int child = slots[k];
+			for (int axis = 0; axis < 3; axis++)
+			{
+				b[axis][slot] = roundDown(bvh.bounds[6*child+axis]);
+				b[axis+3][slot] = roundUp(bvh.bounds[6*child+3+axis]);
+			}
+			if (bvh.isLeaf(child))
+			{
+				childData[slot] = ~bvh.nodes[2*child];
+				countData[slot] = -bvh.nodes[2*child+1];
+			}
+			else
+			{
+				childData[slot] = count;
+				source[count] = child;
+				depth[count] = depth[n]+1;
+				if (depth[count] > deepest) deepest = depth[count];
+				count++;
+			}
+		}
+	}
+	
+	nodeCount = count;
+	maxDepth = deepest;
+	minX = trim(b[0], width*count);
+	minY = trim(b[1], width*count);
+	minZ = trim(b[2], width*count);
+	maxX = trim(b[3], width*count);
+	maxY = trim(b[4], width*count);
+	maxZ = trim(b[5], width*count);
+	children = trim(childData, width*count);
+	counts = trim(countData, width*count);
+}
+
+private static float[] trim(float[] data, int length)
+{
+	if (data.length == length) return data;
+	float[] result = new float[length];
+	System.arraycopy(data, 0, result, 0, length);
+	return result;
+}
+
+private static int[] trim(int[] data, int length)
+{
+	if (data.length == length) return data;
+	int[] result = new int[length];
+	System.arraycopy(data, 0, result, 0, length);
+	return result;
+}
+
+/**
+ * Returns the largest float not greater than <code>d</code>.
+ */
+static float roundDown(double d)
+{
+	float f = (float) d;
+	if (f <= d) return f;
+	if (f == 0) return -Float.MIN_VALUE;
+	int bits = Float.floatToIntBits(f);
+	return Float.intBitsToFloat(f > 0 ? bits-1 : bits+1);
+}
+
+/**
+ * Returns the smallest float not less than <code>d</code>.
+ */
+static float roundUp(double d)
+{
+	float f = (float) d;
+	if (f >= d) return f;
+	if (f == 0) return Float.MIN_VALUE;
+	int bits = Float.floatToIntBits(f);
+	return Float.intBitsToFloat(f > 0 ? bits+1 : bits-1);
+}
+
+public int getWidth()
+{ return width; }
+
+public int getNodeCount()
+{ return nodeCount; }
+
+public int getItemCount()
+{ return bvh.items.length; }
+
+public int getMaxDepth()
+{ return maxDepth; }
+
+public BoundingBox getBoundingBox()
+{ return bvh.getBoundingBox(); }
+
+public void triangulate(Triangulation tri)
+{ bvh.triangulate(tri); }
+
+public boolean intersect(Ray ray, double maxDistance, IntersectionResult result)
+{
+	if (nodeCount == 0) return false;
+	
+	double vix = ray.ix, viy = ray.iy, viz = ray.iz;
+	double ox = ray.ox, oy = ray.oy, oz = ray.oz;
+	
+	if (BoundingBox.intersects2(bvh.bounds, 0, ray, maxDistance) < 0)
+		return false;
+	
+	// the slab a ray enters first depends only on the sign of its direction
+	float[] nearX = vix >= 0 ? minX : maxX, farX = vix >= 0 ? maxX : minX;
+	float[] nearY = viy >= 0 ? minY : maxY, farY = viy >= 0 ? maxY : minY;
+	float[] nearZ = viz >= 0 ? minZ : maxZ, farZ = viz >= 0 ? maxZ : minZ;
+	
+	// a leaf is pushed as the complement of its slot
+	Traversal traversal = traversals.get();
+	int[] stack = traversal.stack;
+	double[] stackDistance = traversal.stackDistance;
+	double[] entry = traversal.entry;
+	int[] order = traversal.order;
+	int sp = 0;
+	stack[sp] = 0;
+	stackDistance[sp] = 0;
+	sp++;
+	
+	double closest = maxDistance;
+	SceneItem hit = null;
+	while (sp > 0)
+	{
+		sp--;
+		// a closer hit may have been found since the node was pushed
+		if (stackDistance[sp] > closest) continue;
+		int node = stack[sp];
+		
+		if (node < 0)
+		{
+			int slot = ~node;
+			int first = ~children[slot];
+			int end = first+counts[slot];
+			for (int i = first; i < end; i++)
+			{
+				double d = bvh.intersectItem(bvh.refs[i], ray, closest, result);
+				if ((d > 0) && (d < closest))
+				{
+					closest = d;
+					hit = bvh.items[bvh.refs[i]];
+				}
+			}
+			continue;
+		}
+		
+		int base = width*node;
+		for (int k = 0; k < width; k++)
+		{
+			double t0x = nearX[base+k]*vix+ox, t1x = farX[base+k]*vix+ox;
+			double t0y = nearY[base+k]*viy+oy, t1y = farY[base+k]*viy+oy;
+			double t0z = nearZ[base+k]*viz+oz, t1z = farZ[base+k]*viz+oz;
+			double tmin = t0x > t0y ? t0x : t0y;
+			tmin = t0z > tmin ? t0z : tmin;
+			tmin = tmin > 0 ? tmin : 0;
+			double tmax = t1x < t1y ? t1x : t1y;
+			tmax = t1z < tmax ? t1z : tmax;
+			tmax = closest < tmax ? closest : tmax;
+			entry[k] = tmin <= tmax ? tmin : -1;
+		}
+		
+		// sort the hit children by entry distance
+		int hits = 0;
+		for (int k = 0; k < width; k++)
+		{
+			if (entry[k] < 0) continue;
+			int j = hits++;
+			while ((j > 0) && (entry[order[j-1]] < entry[k]))
+			{
+				order[j] = order[j-1];
+				j--;
+			}
+			order[j] = k;
+		}
+		
+		// the nearest child ends up on top of the stack
+		for (int j = 0; j < hits; j++)
+		{
+			int k = order[j];
+			int child = children[base+k];
+			stack[sp] = child >= 0 ? child : ~(base+k);
+			stackDistance[sp] = entry[k];
+			sp++;
+		}
+	}
+	
+	if (hit == null) return false;
+	result.distance = closest;
+	result.item = hit;
+	return true;
+}
+
+public boolean occluded(Ray ray, double tmin, double tmax)
+{
+	if (nodeCount == 0) return false;
+	return findOccluder(ray, tmin, tmax, traversals.get().stack) >= 0;
+}
+
+/**
+ * Tests the item that blocked the previous ray first, like {@link BVH#occluded(Ray[],
+ * double[], double[], int, boolean[])}.
+ */
+public int occluded(Ray[] rays, double[] tmin, double[] tmax, int count, boolean[] occluded)
+{
+	if (nodeCount == 0)
+	{
+		for (int i = 0; i < count; i++)
+			occluded[i] = false;
+		return 0;
+	}
+	
+	int[] stack = traversals.get().stack;
+	int last = -1;
+	int result = 0;
+	for (int i = 0; i < count; i++)
+	{
+		if ((last < 0) || !bvh.occludedByItem(bvh.refs[last], rays[i], tmin[i], tmax[i]))
+			last = findOccluder(rays[i], tmin[i], tmax[i], stack);
+		occluded[i] = last >= 0;
+		if (occluded[i]) result++;
+	}
+	return result;
+}
+
+/**
+ * Returns the entry in <code>refs</code> of some item hit in (tmin, tmax), or -1. The
+ * hit children are not sorted, and a child that the ray leaves before
+ * <code>tmin</code> is skipped.
+ */
+private int findOccluder(Ray ray, double tmin, double tmax, int[] stack)
+{
+	double vix = ray.ix, viy = ray.iy, viz = ray.iz;
+	double ox = ray.ox, oy = ray.oy, oz = ray.oz;
+	
+	if (BoundingBox.intersects2(bvh.bounds, 0, ray, tmax) < 0)
+		return -1;
+	
+	float[] nearX = vix >= 0 ? minX : maxX, farX = vix >= 0 ? maxX : minX;
+	float[] nearY = viy >= 0 ? minY : maxY, farY = viy >= 0 ? maxY : minY;
+	float[] nearZ = viz >= 0 ? minZ : maxZ, farZ = viz >= 0 ? maxZ : minZ;
+	
+	int sp = 0;
+	stack[sp++] = 0;
+	while (sp > 0)
+	{
+		int node = stack[--sp];
+		if (node < 0)
+		{
+			int slot = ~node;
+			int first = ~children[slot];
+			int end = first+counts[slot];
+			for (int i = first; i < end; i++)
+				if (bvh.occludedByItem(bvh.refs[i], ray, tmin, tmax)) return i;
+			continue;
+		}
+		
+		int base = width*node;
+		for (int k = 0; k < width; k++)
+		{
+			double t0x = nearX[base+k]*vix+ox, t1x = farX[base+k]*vix+ox;
+			double t0y = nearY[base+k]*viy+oy, t1y = farY[base+k]*viy+oy;
+			double t0z = nearZ[base+k]*viz+oz, t1z = farZ[base+k]*viz+oz;
+			double enter = t0x > t0y ? t0x : t0y;
+			enter = t0z > enter ? t0z : enter;
+			enter = enter > 0 ? enter : 0;
+			double exit = t1x < t1y ? t1x : t1y;
+			exit = t1z < exit ? t1z : exit;
+			if ((enter <= exit) && (enter <= tmax) && (exit >= tmin))
+			{
+				int child = children[base+k];
+				stack[sp++] = child >= 0 ? child : ~(base+k);
+			}
+		}
+	}
+	return -1;
+}
+
+@Override
+public String toString()
+{
+	StringBuffer out = new StringBuffer();
+	out.append("WideBVH over ").append(bvh.items.length).append(" items\n");
+	out.append("  width:      ").append(width).append("\n");
+	out.append("  nodes:      ").append(nodeCount).append(" (binary: ").append(bvh.nodeCount).append(")\n");
+	out.append("  depth:      ").append(maxDepth);
+	return out.toString();
+}
+
+}
@@ -0,0 +1,92 @@
+// arch-tag: b8ba03fa-041b-4ca0-a9bf-1dfef19c67c9
+package de.yvert.algorithms;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a loop over an index range in parallel by cutting it into contiguous chunks.
+ * <p>
+ * The call returns after all chunks are done, and everything written by the chunks is
+ * visible to the caller afterwards. Do not call this from a thread of the same
+ * (bounded) executor, it may wait for itself.
+ */
+public final class ParallelFor
+{
+	
+	public interface Body
+	{
+		/**
+		 * Processes the indices <code>first</code> to <code>afterLast-1</code>, which
+		 * form chunk number <code>chunk</code>.
+		 */
+		void run(int chunk, int first, int afterLast);
+	}
+
+/**
+ * Returns a sensible number of chunks for <code>count</code> indices, at least 1.
+ */
+public static int chunkCount(int count, int parallelism)
+{ return Math.max(1, Math.min(count, parallelism)); }
+
+/**
+ * Returns the first index of the given chunk. Chunks differ in size by at most one.
+ */
+public static int first(int chunk, int chunks, int count)
+{ return (int) (((long) count*chunk)/chunks); }
+
+/**
+ * Splits the range 0 to <code>count-1</code> into <code>chunks</code> chunks and runs
+ * them on the executor. If the executor is null, the chunks are run one after the other
+ * in the calling thread.
+ */
+public static void run(ExecutorService executor, final int chunks, final int count, final Body body)
+{
+	if ((executor == null) || (chunks <= 1))
+	{
+		for (int c = 0; c < chunks; c++)
+			body.run(c, first(c, chunks, count), first(c+1, chunks, count));
+		return;
+	}
+	
+	List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(chunks);
+	for (int c = 0; c < chunks; c++)
+	{
+		final int chunk = c;
+		tasks.add(new Callable<Object>()
+			{
+				public Object call()
+				{
+					body.run(chunk, first(chunk, chunks, count), first(chunk+1, chunks, count));
+					return null;
+				}
+			});
+	}
+	
+	try
+	{
+		for (Future<Object> future : executor.invokeAll(tasks))
+			future.get();
+	}
+	catch (InterruptedException e)
+	{
+		Thread.currentThread().interrupt();
+		throw new RuntimeException(e);
+	}
+	catch (ExecutionException e)
+	{
+		Throwable cause = e.getCause();
+		if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+		if (cause instanceof Error) throw (Error) cause;
+		throw new RuntimeException(cause);
+	}
+}
+
+private ParallelFor()
+{/*OK*/}
+
+}
@@ -0,0 +1,103 @@
+// arch-tag: a0f108c9-b841-46ec-9125-38302b33cce6
+package de.yvert.algorithms;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A stable least-significant-digit radix sort for int keys with an attached int value,
+ * e.g. an index into another array. Keys are compared as unsigned numbers.
+ * <p>
+ * Each pass sorts by 8 bits. In the parallel version, every chunk of the input counts
+ * its digits, the counts are turned into per-chunk output offsets, and then every chunk
+ * scatters its elements independently. This keeps the sort stable.
+ */
+public final class RadixSort
+{
+
+private static final int RADIX_BITS = 8;
+private static final int RADIX = 1 << RADIX_BITS;
+private static final int MASK = RADIX-1;
+
+/**
+ * Sorts all 32 bits of the keys in the calling thread.
+ */
+public static void sort(int[] keys, int[] values)
+{ sort(keys, values, 32, null, 1); }
+
+/**
+ * Sorts <code>keys</code> and applies the same permutation to <code>values</code>.
+ * Only the lowest <code>keyBits</code> bits of each key are looked at, so sorting
+ * 30 bit Morton codes takes four passes instead of five.
+ *
+ * @param executor runs the chunks, or null to run everything in the calling thread
+ * @param parallelism the number of chunks to cut the input into
+ * @see ParallelFor
+ */
+public static void sort(int[] keys, int[] values, int keyBits, ExecutorService executor, int parallelism)
+{
+	if (values.length != keys.length) throw new IllegalArgumentException("keys.length != values.length");
+	if ((keyBits < 0) || (keyBits > 32)) throw new IllegalArgumentException("keyBits out of range");
+	
+	final int count = keys.length;
+	final int chunks = ParallelFor.chunkCount(count, parallelism);
+	final int[][] offsets = new int[chunks][RADIX];
+	
+	int[] srcKeys = keys, srcValues = values;
+	int[] dstKeys = new int[count], dstValues = new int[count];
+	for (int shift = 0; shift < keyBits; shift += RADIX_BITS)
+	{
+		final int s = shift;
+		final int[] fromKeys = srcKeys, fromValues = srcValues;
+		final int[] toKeys = dstKeys, toValues = dstValues;
+		
+		ParallelFor.run(executor, chunks, count, new ParallelFor.Body()
+			{
+				public void run(int chunk, int first, int afterLast)
+				{
+					int[] histogram = offsets[chunk];
+					for (int i = 0; i < RADIX; i++)
+						histogram[i] = 0;
+					for (int i = first; i < afterLast; i++)
+						histogram[(fromKeys[i] >>> s) & MASK]++;
+				}
+			});
+		
+		// digit-major, chunk-minor, so that equal keys keep their order
+		int offset = 0;
+		for (int digit = 0; digit < RADIX; digit++)
+			for (int chunk = 0; chunk < chunks; chunk++)
+			{
+				int temp = offsets[chunk][digit];
+				offsets[chunk][digit] = offset;
+				offset += temp;
+			}
+		
+		ParallelFor.run(executor, chunks, count, new ParallelFor.Body()
+			{
+				public void run(int chunk, int first, int afterLast)
+				{
+					int[] position = offsets[chunk];
+					for (int i = first; i < afterLast; i++)
+					{
+						int index = position[(fromKeys[i] >>> s) & MASK]++;
+						toKeys[index] = fromKeys[i];
+						toValues[index] = fromValues[i];
+					}
+				}
+			});
+		
+		dstKeys = fromKeys; dstValues = fromValues;
+		srcKeys = toKeys; srcValues = toValues;
+	}
+	
+	if (srcKeys != keys)
+	{
+		System.arraycopy(srcKeys, 0, keys, 0, count);
+		System.arraycopy(srcValues, 0, values, 0, count);
+	}
+}
+
+private RadixSort()
+{/*OK*/}
+
+}
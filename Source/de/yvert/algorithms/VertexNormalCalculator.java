@@ -14,10 +14,12 @@ public final class VertexNormalCalculator
 
 public static double DISCONTINUITY_THRESHOLD = 0.707; //0.1736; //0.707;
 
-protected float[][] vertices = null;
-protected float[][] texcoords = null;
-protected int[][]   triangles = null;
-protected float[][] normals = null;
+// flat arrays as in TriangleMesh: vertices and normals hold x, y, z per vertex,
+// texcoords u, v per vertex and triangles three vertex indices each
+protected float[] vertices = null;
+protected float[] texcoords = null;
+protected int[]   triangles = null;
+protected float[] normals = null;
 protected int       maxNodes = 0; //to be assigned later
 
 //constructor
@@ -25,19 +27,19 @@ public VertexNormalCalculator()
 {/*OK*/}
 
 //constructor
-public VertexNormalCalculator(float[][] vertices, int[][] triangles, float[][] texcoords)
+public VertexNormalCalculator(float[] vertices, int[] triangles, float[] texcoords)
 {
 	setData(vertices, triangles, texcoords);
 }
 
-//input
-public final void setData(float[][] vertices, int[][] triangles, float[][] texcoords)
+//input, the arrays are not modified, the texture coordinates may be null
+public final void setData(float[] vertices, int[] triangles, float[] texcoords)
 {
-	maxNodes = vertices.length;
+	maxNodes = vertices.length/3;
 
-	this.vertices = vertices.clone();
-	this.triangles = triangles.clone();
-	this.texcoords = texcoords.clone();
+	this.vertices = vertices;
+	this.triangles = triangles;
+	this.texcoords = texcoords;
 }
 
 //start calculation
@@ -50,10 +52,10 @@ public void doCalculation()
 }
 
 //return results
-public float[][] getVertices()  { return vertices;  }
-public int[][] getTriangles()   { return triangles; }
-public float[][] getNormals()   { return normals;   }
-public float[][] getTexCoords() { return texcoords; }
+public float[] getVertices()  { return vertices;  }
+public int[] getTriangles()   { return triangles; }
+public float[] getNormals()   { return normals;   }
+public float[] getTexCoords() { return texcoords; }
 
 
 //class needed to store edge information
@@ -120,15 +122,15 @@ protected Hashtable<Edge,EdgeInfo> adjacentTriangles()
 	//each triangle adds at most 2 new edges except the first which adds 3
 	//but since hash map does rehashing at 75% at and we want to minimize collision,
 	//we chose the following size
-	Hashtable<Edge,EdgeInfo> edges = new Hashtable<Edge,EdgeInfo>(triangles.length<<2);
+	Hashtable<Edge,EdgeInfo> edges = new Hashtable<Edge,EdgeInfo>((triangles.length/3)<<2);
 	Edge edge1, edge2, edge3 = null;
 	
 	//add all edges to the hashtable
-	for (int i = 0; i < triangles.length; i++)
+	for (int i = 0; i < triangles.length/3; i++)
 	{
-		edge1 = new Edge(triangles[i][0], triangles[i][1]);
-		edge2 = new Edge(triangles[i][0], triangles[i][2]);
-		edge3 = new Edge(triangles[i][1], triangles[i][2]);
+		edge1 = new Edge(triangles[3*i], triangles[3*i+1]);
+		edge2 = new Edge(triangles[3*i], triangles[3*i+2]);
+		edge3 = new Edge(triangles[3*i+1], triangles[3*i+2]);
 		
 		if (edges.containsKey(edge1))
 			edges.get(edge1).t2 = i;
@@ -174,16 +176,16 @@ protected Hashtable<Edge,EdgeInfo> adjacentTriangles()
 //returns a list which associates the vertices and its adjacent triangles
 protected int[][] adjacentVerticesTriangles(Hashtable<Edge,EdgeInfo> adjacencyList)
 {
-	int[][] adjacencyVTList = new int[vertices.length][];
-	int[] cardinalityMem = new int[vertices.length];
+	int[][] adjacencyVTList = new int[vertices.length/3][];
+	int[] cardinalityMem = new int[vertices.length/3];
 	for (int i = 0; i < cardinalityMem.length; i++) cardinalityMem[i] = 0;
 
 	//count number of triangles per vertex
-	for (int i = 0; i < triangles.length; i++)
+	for (int i = 0; i < triangles.length/3; i++)
 	{
-		cardinalityMem[triangles[i][0]] ++; 
-		cardinalityMem[triangles[i][1]] ++; 
-		cardinalityMem[triangles[i][2]] ++;
+		cardinalityMem[triangles[3*i]] ++; 
+		cardinalityMem[triangles[3*i+1]] ++; 
+		cardinalityMem[triangles[3*i+2]] ++;
 	}
 
 	//init array for each vertex
@@ -194,11 +196,11 @@ protected int[][] adjacentVerticesTriangles(Hashtable<Edge,EdgeInfo> adjacencyLi
 	}
 
 	//fill in adjacency list
-	for (int i = 0; i < triangles.length; i++)
+	for (int i = 0; i < triangles.length/3; i++)
 	{
-		adjacencyVTList[triangles[i][0]][cardinalityMem[triangles[i][0]]++] = i;
-		adjacencyVTList[triangles[i][1]][cardinalityMem[triangles[i][1]]++] = i;
-		adjacencyVTList[triangles[i][2]][cardinalityMem[triangles[i][2]]++] = i;
+		adjacencyVTList[triangles[3*i]][cardinalityMem[triangles[3*i]]++] = i;
+		adjacencyVTList[triangles[3*i+1]][cardinalityMem[triangles[3*i+1]]++] = i;
+		adjacencyVTList[triangles[3*i+2]][cardinalityMem[triangles[3*i+2]]++] = i;
 	}
 
 	//sort the adjacent faces for each vertex clockwise or counter-clockwise
@@ -214,7 +216,7 @@ protected int[][] adjacentVerticesTriangles(Hashtable<Edge,EdgeInfo> adjacencyLi
 		{
 			for (int j = 0; j < 3; j++)
 			{
-				Edge dummyEdge = new Edge(i, triangles[adjacencyVTList[i][m]][j]);
+				Edge dummyEdge = new Edge(i, triangles[3*adjacencyVTList[i][m]+j]);
 				testEdge = adjacencyList.get(dummyEdge);
 				if ((testEdge == null) || (testEdge.t2 < 0)) start = m;
 			}
@@ -231,26 +233,26 @@ protected int[][] adjacentVerticesTriangles(Hashtable<Edge,EdgeInfo> adjacencyLi
 		//determine first choice
 		if (testEdge != null)
 		{
-			if (triangles[adjacencyVTList[i][0]][0] == i)
+			if (triangles[3*adjacencyVTList[i][0]] == i)
 			{
-				if ((testEdge.e.v1 == triangles[adjacencyVTList[i][0]][1])
-				|| (testEdge.e.v2 == triangles[adjacencyVTList[i][0]][1])) choice = 2;
+				if ((testEdge.e.v1 == triangles[3*adjacencyVTList[i][0]+1])
+				|| (testEdge.e.v2 == triangles[3*adjacencyVTList[i][0]+1])) choice = 2;
 				else choice = 1;
 			}
-			else if (triangles[adjacencyVTList[i][0]][1] == i)
+			else if (triangles[3*adjacencyVTList[i][0]+1] == i)
 			{
-				if ((testEdge.e.v1 == triangles[adjacencyVTList[i][0]][0])
-				|| (testEdge.e.v2 == triangles[adjacencyVTList[i][0]][0])) choice = 2;
+				if ((testEdge.e.v1 == triangles[3*adjacencyVTList[i][0]])
+				|| (testEdge.e.v2 == triangles[3*adjacencyVTList[i][0]])) choice = 2;
 				else choice = 0;
 			}
 			else
 			{
-				if ((testEdge.e.v1 == triangles[adjacencyVTList[i][0]][0])
-				|| (testEdge.e.v2 == triangles[adjacencyVTList[i][0]][0])) choice = 1;
+				if ((testEdge.e.v1 == triangles[3*adjacencyVTList[i][0]])
+				|| (testEdge.e.v2 == triangles[3*adjacencyVTList[i][0]])) choice = 1;
 				else choice = 0;
 			}
 		}
-		else if (triangles[adjacencyVTList[i][0]][0] == i) choice = 1;
+		else if (triangles[3*adjacencyVTList[i][0]] == i) choice = 1;
 
 		//sort triangles
 		for (int m = 0; m < adjacencyVTList[i].length; m++)
@@ -258,19 +260,19 @@ protected int[][] adjacentVerticesTriangles(Hashtable<Edge,EdgeInfo> adjacencyLi
 		{
 			boolean found = false;
 
-			if (triangles[adjacencyVTList[i][n]][0] == triangles[adjacencyVTList[i][m]][choice])
+			if (triangles[3*adjacencyVTList[i][n]] == triangles[3*adjacencyVTList[i][m]+choice])
 			{
-				if (triangles[adjacencyVTList[i][n]][1] == i) choice = 2; else choice = 1;
+				if (triangles[3*adjacencyVTList[i][n]+1] == i) choice = 2; else choice = 1;
 				found = true;
 			}
-			else if (triangles[adjacencyVTList[i][n]][1] == triangles[adjacencyVTList[i][m]][choice])
+			else if (triangles[3*adjacencyVTList[i][n]+1] == triangles[3*adjacencyVTList[i][m]+choice])
 			{
-				if (triangles[adjacencyVTList[i][n]][0] == i) choice = 2; else choice = 0;
+				if (triangles[3*adjacencyVTList[i][n]] == i) choice = 2; else choice = 0;
 				found = true;
 			}
-			else if (triangles[adjacencyVTList[i][n]][2] == triangles[adjacencyVTList[i][m]][choice])
+			else if (triangles[3*adjacencyVTList[i][n]+2] == triangles[3*adjacencyVTList[i][m]+choice])
 			{
-				if (triangles[adjacencyVTList[i][n]][0] == i) choice = 2; else choice = 0;
+				if (triangles[3*adjacencyVTList[i][n]] == i) choice = 2; else choice = 0;
 				found = true;
 			}
 
@@ -308,7 +310,7 @@ protected int[][] eliminateDiscontinuities(Hashtable<Edge,EdgeInfo> adjacencyLis
 		boolean noBoundary = true;
 		for (int j = 0; j < 3; j++)
 		{
-			Edge dummyEdge = new Edge(k, triangles[adjacencyVTList[k][0]][j]);
+			Edge dummyEdge = new Edge(k, triangles[3*adjacencyVTList[k][0]+j]);
 			EdgeInfo testEdge = adjacencyList.get(dummyEdge);
 			if (testEdge != null)
 			{
@@ -324,7 +326,7 @@ protected int[][] eliminateDiscontinuities(Hashtable<Edge,EdgeInfo> adjacencyLis
 		{
 			for (int j = 0; j < 3; j++)
 			{
-				Edge dummyEdge = new Edge(k, triangles[adjacencyVTList[k][i]][j]);
+				Edge dummyEdge = new Edge(k, triangles[3*adjacencyVTList[k][i]+j]);
 				EdgeInfo testEdge = adjacencyList.get(dummyEdge);
 				if ((testEdge != null) && (testEdge.discontinuity))
 				{
@@ -350,7 +352,7 @@ protected int[][] eliminateDiscontinuities(Hashtable<Edge,EdgeInfo> adjacencyLis
 			Edge dummyEdge = null;
 			for (int j = 0; j < 3; j++)
 			{
-				dummyEdge = new Edge(k, triangles[adjacencyVTList[k][current%len]][j]);
+				dummyEdge = new Edge(k, triangles[3*adjacencyVTList[k][current%len]+j]);
 				EdgeInfo testEdge = adjacencyList.get(dummyEdge);
 				if ((testEdge != null) && (testEdge.discontinuity))
 				{
@@ -382,9 +384,9 @@ protected int[][] eliminateDiscontinuities(Hashtable<Edge,EdgeInfo> adjacencyLis
 
 	//create a new list of adjacencies and update the triangles and vertices
 	int[][] newAdjacencyVTList = new int[vertexList.size()][];
-	float[][] newVertices = new float[vertexList.size()][3];
-	float[][] newTexcoords = new float[vertexList.size()][2];
-	int[][] newTriangles = new int[triangles.length][3];
+	float[] newVertices = new float[3*vertexList.size()];
+	float[] newTexcoords = texcoords != null ? new float[2*vertexList.size()] : null;
+	int[] newTriangles = new int[triangles.length];
 	
 	ListIterator<int[]> it1 = vertexList.listIterator(0);
 	ListIterator<Integer> it2 = indexList.listIterator(0);
@@ -395,21 +397,24 @@ protected int[][] eliminateDiscontinuities(Hashtable<Edge,EdgeInfo> adjacencyLis
 		int[] vertex = it1.next();
 		int index = it2.next().intValue();
 		newAdjacencyVTList[currentIndex] = vertex;
-		newVertices[currentIndex][0] = vertices[index][0];
-		newVertices[currentIndex][1] = vertices[index][1];
-		newVertices[currentIndex][2] = vertices[index][2];
+		newVertices[3*currentIndex  ] = vertices[3*index  ];
+		newVertices[3*currentIndex+1] = vertices[3*index+1];
+		newVertices[3*currentIndex+2] = vertices[3*index+2];
 		if (texcoords != null)
-			newTexcoords[currentIndex] = texcoords[index];
+		{
+			newTexcoords[2*currentIndex  ] = texcoords[2*index  ];
+			newTexcoords[2*currentIndex+1] = texcoords[2*index+1];
+		}
 		
 		//update triangle indices and vertices
 		for (int i = 0; i < vertex.length; i++)
 		{
-			if (triangles[vertex[i]][0] == index)
-				newTriangles[vertex[i]][0] = currentIndex;
-			else if (triangles[vertex[i]][1] == index)
-				newTriangles[vertex[i]][1] = currentIndex;
+			if (triangles[3*vertex[i]] == index)
+				newTriangles[3*vertex[i]  ] = currentIndex;
+			else if (triangles[3*vertex[i]+1] == index)
+				newTriangles[3*vertex[i]+1] = currentIndex;
 			else
-				newTriangles[vertex[i]][2] = currentIndex;
+				newTriangles[3*vertex[i]+2] = currentIndex;
 		}
 		
 		currentIndex++;
@@ -417,7 +422,7 @@ protected int[][] eliminateDiscontinuities(Hashtable<Edge,EdgeInfo> adjacencyLis
 	
 	vertices = newVertices;
 	triangles = newTriangles;
-	texcoords = texcoords != null ? newTexcoords : texcoords;
+	texcoords = newTexcoords;
 	
 	return newAdjacencyVTList;
 }
@@ -425,7 +430,7 @@ protected int[][] eliminateDiscontinuities(Hashtable<Edge,EdgeInfo> adjacencyLis
 //returns a list with one normal per vertex
 protected void normalList(int[][] adjacencyVTList)
 {
-	normals = new float[adjacencyVTList.length][3];
+	normals = new float[3*adjacencyVTList.length];
 
 	for (int i = 0; i < adjacencyVTList.length; i++)
 	{
@@ -439,9 +444,9 @@ protected void normalList(int[][] adjacencyVTList)
 		
 		normalize(normal);
 		
-		normals[i][0] = (float)normal[0];
-		normals[i][1] = (float)normal[1];
-		normals[i][2] = (float)normal[2]; 
+		normals[3*i  ] = (float)normal[0];
+		normals[3*i+1] = (float)normal[1];
+		normals[3*i+2] = (float)normal[2]; 
 	}
 }
 
@@ -450,13 +455,13 @@ protected double[] triangleUnNormal(int triangle)
 	double[] v1 = new double[3];
 	double[] v2 = new double[3];
 	
-	v1[0] = (double)vertices[triangles[triangle][1]][0] - (double)vertices[triangles[triangle][0]][0];
-	v1[1] = (double)vertices[triangles[triangle][1]][1] - (double)vertices[triangles[triangle][0]][1];
-	v1[2] = (double)vertices[triangles[triangle][1]][2] - (double)vertices[triangles[triangle][0]][2];
+	v1[0] = (double)vertices[3*triangles[3*triangle+1]] - (double)vertices[3*triangles[3*triangle]];
+	v1[1] = (double)vertices[3*triangles[3*triangle+1]+1] - (double)vertices[3*triangles[3*triangle]+1];
+	v1[2] = (double)vertices[3*triangles[3*triangle+1]+2] - (double)vertices[3*triangles[3*triangle]+2];
 	
-	v2[0] = (double)vertices[triangles[triangle][2]][0] - (double)vertices[triangles[triangle][0]][0];
-	v2[1] = (double)vertices[triangles[triangle][2]][1] - (double)vertices[triangles[triangle][0]][1];
-	v2[2] = (double)vertices[triangles[triangle][2]][2] - (double)vertices[triangles[triangle][0]][2];
+	v2[0] = (double)vertices[3*triangles[3*triangle+2]] - (double)vertices[3*triangles[3*triangle]];
+	v2[1] = (double)vertices[3*triangles[3*triangle+2]+1] - (double)vertices[3*triangles[3*triangle]+1];
+	v2[2] = (double)vertices[3*triangles[3*triangle+2]+2] - (double)vertices[3*triangles[3*triangle]+2];
 	
 	double[] normal = cross(v1, v2);
 	return normal;
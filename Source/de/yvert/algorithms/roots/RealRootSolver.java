@@ -0,0 +1,297 @@
+// arch-tag: a9b927d0-d632-4d6e-9dc3-3251601b2942
+package de.yvert.algorithms.roots;
+
+/**
+ * Finds the real roots of polynomials up to degree four, without allocating.
+ * <p>
+ * {@link RootSolver} computes all complex roots, which is wasteful when only the real
+ * ones matter, as for ray intersections. The methods here write the real roots in
+ * ascending order into an array supplied by the caller and return their number; roots of
+ * higher multiplicity appear several times, or once if rounding splits them into a pair
+ * of complex ones. {@link #firstQuarticRoot} only returns the smallest root in an
+ * interval and needs no array at all.
+ * <p>
+ * The quadratic formula is evaluated in the form that avoids cancellation. Cubics are
+ * solved in closed form, trigonometrically if they have three real roots. Quartics are
+ * split into two quadratics with the largest root of Ferrari's resolvent cubic. Every
+ * root of a cubic or quartic is then polished with a few Newton steps on the original
+ * polynomial, which removes most of the rounding error of the closed forms.
+ */
+public final class RealRootSolver
+{
+	private static final int NEWTON_STEPS = 4;
+	
+	private RealRootSolver()
+	{/*OK*/}
+	
+	/**
+	 * Solves <code>c2*x^2 + c1*x + c0 = 0</code>, which degenerates into a linear
+	 * equation if <code>c2</code> is 0.
+	 */
+	public static int solveQuadratic(double c2, double c1, double c0, double[] roots)
+	{
+		if (c2 == 0)
+		{
+			if (c1 == 0) return 0;
+			roots[0] = -c0/c1;
+			return 1;
+		}
+		double disc = c1*c1-4*c2*c0;
+		if (disc < 0) return 0;
+		double q = -0.5*(c1+(c1 >= 0 ? Math.sqrt(disc) : -Math.sqrt(disc)));
+		if (q == 0)
+		{
+			// c1 and c0 are both 0
+			roots[0] = 0;
+			roots[1] = 0;
+			return 2;
+		}
+		double x1 = q/c2, x2 = c0/q;
+		roots[0] = Math.min(x1, x2);
+		roots[1] = Math.max(x1, x2);
+		return 2;
+	}
+	
+	/**
+	 * Solves <code>c3*x^3 + c2*x^2 + c1*x + c0 = 0</code>, or a quadratic if
+	 * <code>c3</code> is 0.
+	 */
+	public static int solveCubic(double c3, double c2, double c1, double c0, double[] roots)
+	{
+		if (c3 == 0) return solveQuadratic(c2, c1, c0, roots);
+		double a = c2/c3, b = c1/c3, c = c0/c3;
+		int count = depressedCubic(a, b, c, roots);
+		for (int i = 0; i < count; i++)
+			roots[i] = polishCubic(a, b, c, roots[i]);
+		sort(roots, count);
+		return count;
+	}
+	
+	/**
+	 * Solves <code>c4*x^4 + c3*x^3 + c2*x^2 + c1*x + c0 = 0</code>, or a cubic if
+	 * <code>c4</code> is 0. The array must hold four roots.
+	 */
+	public static int solveQuartic(double c4, double c3, double c2, double c1, double c0, double[] roots)
+	{
+		if (c4 == 0) return solveCubic(c3, c2, c1, c0, roots);
+		double a = c3/c4, b = c2/c4, c = c1/c4, d = c0/c4;
+		
+		// x = y - a/4 gives y^4 + p*y^2 + q*y + r
+		double shift = a/4;
+		double p = b-6*shift*shift;
+		double q = c-2*b*shift+8*shift*shift*shift;
+		double r = d-c*shift+b*shift*shift-3*shift*shift*shift*shift;
+		
+		int count = 0;
+		double m = q == 0 ? 0 : resolvent(p, q, r);
+		if (m <= 0)
+		{
+			// biquadratic, z = y^2
+			double disc = p*p-4*r;
+			if (disc >= 0)
+			{
+				double root = Math.sqrt(disc);
+				double q0 = -0.5*(p+(p >= 0 ? root : -root));
+				double z1 = q0, z2 = q0 != 0 ? r/q0 : 0;
+				if (z1 >= 0)
+				{
+					roots[count++] = Math.sqrt(z1)-shift;
+					roots[count++] = -Math.sqrt(z1)-shift;
+				}
+				if (z2 >= 0)
+				{
+					roots[count++] = Math.sqrt(z2)-shift;
+					roots[count++] = -Math.sqrt(z2)-shift;
+				}
+			}
+		}
+		else
+		{
+			// (y^2 + p/2 + m)^2 = 2m*(y - q/(4m))^2
+			double s = Math.sqrt(2*m);
+			count = quadratic(-s, p/2+m+q/(2*s), shift, roots, count);
+			count = quadratic(s, p/2+m-q/(2*s), shift, roots, count);
+		}
+		
+		for (int i = 0; i < count; i++)
+			roots[i] = polishQuartic(a, b, c, d, roots[i]);
+		sort(roots, count);
+		return count;
+	}
+	
+	/**
+	 * Returns the smallest real root of
+	 * <code>c4*x^4 + c3*x^3 + c2*x^2 + c1*x + c0</code> in the open interval
+	 * <code>(min, max)</code>, or {@link Double#NaN} if there is none. The leading
+	 * coefficient must not be 0.
+	 */
+	public static double firstQuarticRoot(double c4, double c3, double c2, double c1, double c0, double min, double max)
+	{
+		double a = c3/c4, b = c2/c4, c = c1/c4, d = c0/c4;
+		double shift = a/4;
+		double p = b-6*shift*shift;
+		double q = c-2*b*shift+8*shift*shift*shift;
+		double r = d-c*shift+b*shift*shift-3*shift*shift*shift*shift;
+		
+		double result = Double.NaN;
+		double m = q == 0 ? 0 : resolvent(p, q, r);
+		if (m <= 0)
+		{
+			double disc = p*p-4*r;
+			if (disc < 0) return Double.NaN;
+			double root = Math.sqrt(disc);
+			double q0 = -0.5*(p+(p >= 0 ? root : -root));
+			double z1 = q0, z2 = q0 != 0 ? r/q0 : 0;
+			if (z1 >= 0)
+			{
+				result = first(result, polishQuartic(a, b, c, d, Math.sqrt(z1)-shift), min, max);
+				result = first(result, polishQuartic(a, b, c, d, -Math.sqrt(z1)-shift), min, max);
+			}
+			if (z2 >= 0)
+			{
+				result = first(result, polishQuartic(a, b, c, d, Math.sqrt(z2)-shift), min, max);
+				result = first(result, polishQuartic(a, b, c, d, -Math.sqrt(z2)-shift), min, max);
+			}
+			return result;
+		}
+		
+		double s = Math.sqrt(2*m);
+		for (int sign = -1; sign <= 1; sign += 2)
+		{
+			// y^2 + sign*s*y + e
+			double f = sign*s;
+			double e = p/2+m-sign*q/(2*s);
+			double disc = f*f-4*e;
+			if (disc < 0) continue;
+			double y1 = -0.5*(f+(f >= 0 ? Math.sqrt(disc) : -Math.sqrt(disc)));
+			double y2 = y1 != 0 ? e/y1 : 0;
+			result = first(result, polishQuartic(a, b, c, d, y1-shift), min, max);
+			result = first(result, polishQuartic(a, b, c, d, y2-shift), min, max);
+		}
+		return result;
+	}
+	
+	private static double first(double result, double x, double min, double max)
+	{
+		if ((x > min) && (x < max) && !(x >= result)) return x;
+		return result;
+	}
+	
+	/**
+	 * Adds the real roots of <code>y^2 + f*y + e</code>, shifted by <code>-shift</code>.
+	 */
+	private static int quadratic(double f, double e, double shift, double[] roots, int count)
+	{
+		double disc = f*f-4*e;
+		if (disc < 0) return count;
+		double y1 = -0.5*(f+(f >= 0 ? Math.sqrt(disc) : -Math.sqrt(disc)));
+		double y2 = y1 != 0 ? e/y1 : 0;
+		roots[count++] = y1-shift;
+		roots[count++] = y2-shift;
+		return count;
+	}
+	
+	/**
+	 * Returns the largest root of Ferrari's resolvent
+	 * <code>8m^3 + 8p*m^2 + (2p^2-8r)*m - q^2</code>, which is positive if
+	 * <code>q</code> is not 0.
+	 */
+	private static double resolvent(double p, double q, double r)
+	{
+		double a = p, b = (p*p-4*r)/4, c = -q*q/8;
+		
+		// t = m + a/3 gives t^3 + pp*t + qq
+		double pp = b-a*a/3;
+		double qq = 2*a*a*a/27-a*b/3+c;
+		double disc = qq*qq/4+pp*pp*pp/27;
+		double t;
+		if (disc > 0)
+		{
+			double u = -Math.signum(qq)*Math.cbrt(Math.abs(qq)/2+Math.sqrt(disc));
+			t = u != 0 ? u-pp/(3*u) : 0;
+		}
+		else if (pp == 0)
+			t = 0;
+		else
+		{
+			double rho = Math.sqrt(-pp/3);
+			double cos = Math.max(-1, Math.min(1, -qq/(2*rho*rho*rho)));
+			t = 2*rho*Math.cos(Math.acos(cos)/3);
+		}
+		return polishCubic(a, b, c, t-a/3);
+	}
+	
+	/**
+	 * Writes the real roots of the monic cubic <code>x^3 + a*x^2 + b*x + c</code>.
+	 */
+	private static int depressedCubic(double a, double b, double c, double[] roots)
+	{
+		double shift = a/3;
+		double p = b-a*a/3;
+		double q = 2*a*a*a/27-a*b/3+c;
+		double disc = q*q/4+p*p*p/27;
+		if (disc > 0)
+		{
+			double u = -Math.signum(q)*Math.cbrt(Math.abs(q)/2+Math.sqrt(disc));
+			roots[0] = (u != 0 ? u-p/(3*u) : 0)-shift;
+			return 1;
+		}
+		if (p == 0)
+		{
+			roots[0] = -shift;
+			return 1;
+		}
+		double rho = Math.sqrt(-p/3);
+		double phi = Math.acos(Math.max(-1, Math.min(1, -q/(2*rho*rho*rho))));
+		for (int k = 0; k < 3; k++)
+			roots[k] = 2*rho*Math.cos((phi+2*Math.PI*k)/3)-shift;
+		return 3;
+	}
+	
+	private static double polishCubic(double a, double b, double c, double x)
+	{
+		double f = ((x+a)*x+b)*x+c;
+		for (int i = 0; (i < NEWTON_STEPS) && (f != 0); i++)
+		{
+			double df = (3*x+2*a)*x+b;
+			if (df == 0) break;
+			double next = x-f/df;
+			double fn = ((next+a)*next+b)*next+c;
+			if (!(Math.abs(fn) < Math.abs(f))) break;
+			x = next;
+			f = fn;
+		}
+		return x;
+	}
+	
+	private static double polishQuartic(double a, double b, double c, double d, double x)
+	{
+		double f = (((x+a)*x+b)*x+c)*x+d;
+		for (int i = 0; (i < NEWTON_STEPS) && (f != 0); i++)
+		{
+			double df = ((4*x+3*a)*x+2*b)*x+c;
+			if (df == 0) break;
+			double next = x-f/df;
+			double fn = (((next+a)*next+b)*next+c)*next+d;
+			if (!(Math.abs(fn) < Math.abs(f))) break;
+			x = next;
+			f = fn;
+		}
+		return x;
+	}
+	
+	private static void sort(double[] roots, int count)
+	{
+		for (int i = 1; i < count; i++)
+		{
+			double x = roots[i];
+			int j = i-1;
+			while ((j >= 0) && (roots[j] > x))
+			{
+				roots[j+1] = roots[j];
+				j--;
+			}
+			roots[j+1] = x;
+		}
+	}
+}
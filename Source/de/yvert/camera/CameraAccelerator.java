@@ -1,7 +1,10 @@
 package de.yvert.camera;
 
+import java.util.Random;
+
 import de.yvert.geometry.Matrix3;
 import de.yvert.geometry.Ray;
+import de.yvert.geometry.RayPacket;
 import de.yvert.geometry.Vector3;
 
 public class CameraAccelerator
@@ -22,15 +25,60 @@ public CameraAccelerator(Camera camera)
 	distCache = CameraTools.getDist(camera);
 }
 
+/**
+ * Sets up the ray through the pixel <code>(x, y)</code> at shutter open.
+ */
 public Ray getRay(Ray ray, double x, double y)
+{ return getRay(ray, x, y, 0); }
+
+/**
+ * Sets up the ray through the pixel <code>(x, y)</code> at the given point of the
+ * shutter interval, see {@link Ray#time}.
+ */
+public Ray getRay(Ray ray, double x, double y, double time)
 {
 	ray.p.set(position);
 	ray.v.set(x-width/2.+0.5, y-height/2.+0.5, -distCache).multiplyAndSet(rotcache3);
+	ray.time = time;
 	return ray;
 }
 
 public Ray getRay(Ray ray, int x, int y)
-{ return getRay(ray, (double) x, (double) y); }
+{ return getRay(ray, x, y, 0); }
+
+/**
+ * Sets up the rays of the packet for the tile of pixels whose upper left corner is
+ * <code>(x, y)</code>, see {@link RayPacket#getTileWidth()}, at shutter open. Pixels
+ * outside the image are left out of the mask.
+ */
+public RayPacket getPacket(RayPacket packet, int x, int y)
+{ return getPacket(packet, x, y, null); }
+
+/**
+ * Like {@link #getPacket(RayPacket, int, int)}, but the rays sample the shutter interval
+ * for motion blur. The interval is split into one stratum per ray, and each ray gets a
+ * random time in its own stratum. Which ray gets which stratum is rotated randomly for
+ * every packet, so that repeated samples of a pixel cover the whole interval. Without a
+ * random number generator, all rays sample shutter open.
+ */
+public RayPacket getPacket(RayPacket packet, int x, int y, Random random)
+{
+	int tileWidth = packet.getTileWidth();
+	int size = packet.size();
+	int rotation = random == null ? 0 : random.nextInt(size);
+	int mask = 0;
+	for (int i = 0; i < size; i++)
+	{
+		int px = x+i%tileWidth, py = y+i/tileWidth;
+		if ((px >= width) || (py >= height)) continue;
+		double time = random == null ? 0 : ((i+rotation)%size+random.nextDouble())/size;
+		Ray ray = getRay(packet.rays[i], px, py, time);
+		ray.update();
+		mask |= 1 << i;
+	}
+	packet.update(mask);
+	return packet;
+}
 
 public Ray getNextRay(Ray ray)
 {
@@ -32,15 +32,52 @@ public Vector3 reflectv = new Vector3(); // Reflection vector according to shadi
 // Hit distance, the object that has been hit, it's textures and it's texture coordinates
 public double distance;
 public SceneItem item = null;
+// The item hit inside the instance, if item is a de.yvert.accel.Instance
+public SceneItem innerItem = null;
 public Texture[] textures = null;
 public Vector4[] uvstcoords = new Vector4[8];
 
+// Filled in by intersectors that know them, so that shading need not recompute them:
+// the barycentric weights of the second and third vertex of the triangle hit, the item
+// they belong to, its face index and its mesh. Only valid if hasBarycentrics is true,
+// baryItem and mesh are null and primitive is -1 if unknown.
+public boolean hasBarycentrics = false;
+public double baryU, baryV;
+public SceneItem baryItem = null;
+public int primitive = -1;
+public TriangleMesh mesh = null;
+
 public IntersectionResult()
 {
 	for (int i = 0; i < uvstcoords.length; i++)
 		uvstcoords[i] = new Vector4();
 }
 
+/**
+ * Forgets the barycentric coordinates, their item, the face index and mesh of the previous hit.
+ * Intersectors that do not provide them call this when they find a closer hit.
+ */
+public void clearPrimitive()
+{
+	hasBarycentrics = false;
+	baryItem = null;
+	primitive = -1;
+	mesh = null;
+}
+
+/**
+ * Copies the barycentric coordinates, their item, the face index and mesh from another result.
+ */
+public void copyPrimitive(IntersectionResult other)
+{
+	hasBarycentrics = other.hasBarycentrics;
+	baryU = other.baryU;
+	baryV = other.baryV;
+	baryItem = other.baryItem;
+	primitive = other.primitive;
+	mesh = other.mesh;
+}
+
 public void update()
 {
 	// calculate hit point
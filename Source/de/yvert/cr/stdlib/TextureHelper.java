@@ -9,15 +9,23 @@ public class TextureHelper
 {
 	
 public static Vector4 queryTexture(Texture texture, Vector4 coords)
-{
-	Color col = new Color(Color.BLACK);
-	if (texture != null) texture.getColor(coords, col);
-	return new Vector4(col.getR(), col.getG(), col.getB(), 0);
-}
+{ return queryTexture(texture, coords, new Color(), new Vector4()); }
 
 public static Vector4 queryTexture(Texture texture, float coord)
 { 
 	return queryTexture(texture, new Vector4(coord,0,0,0)); 
 }
 
+/**
+ * Same as {@link #queryTexture(Texture, Vector4)}, but looks the color up in
+ * <code>color</code> and stores the result in <code>dest</code>, so nothing is allocated.
+ */
+public static Vector4 queryTexture(Texture texture, Vector4 coords, Color color, Vector4 dest)
+{
+	color.set(Color.BLACK);
+	if (texture != null) texture.getColor(coords, color);
+	dest.set(color.getR(), color.getG(), color.getB(), 0);
+	return dest;
+}
+
 }
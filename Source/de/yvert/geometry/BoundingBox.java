@@ -1,6 +1,8 @@
 // arch-tag: 93c11d84-9a20-46dc-b963-aa701eab2bf5
 package de.yvert.geometry;
 
+import java.nio.DoubleBuffer;
+
 public class BoundingBox
 {
 
@@ -17,7 +19,7 @@ public BoundingBox(BoundingBox data)
 {
 	this.min = new Vector3(data.min);
 	this.max = new Vector3(data.max);
-	this.center = data.center;
+	this.center = new Vector3(data.center);
 }
 
 public BoundingBox(Vector3 min, Vector3 max)
@@ -44,6 +46,16 @@ public BoundingBox(Sphere s)
 	center = max.add(min).scaleAndSet(1/2.);
 }
 
+/**
+ * Sets the corners and the center of this box, without allocating.
+ */
+public BoundingBox set(double minX, double minY, double minZ, double maxX, double maxY, double maxZ)
+{
+	min.set(minX, minY, minZ);
+	max.set(maxX, maxY, maxZ);
+	center.set(max).addAndSet(min).scaleAndSet(1/2.);
+	return this;
+}
 
 public double getMinX()
 { return min.getX(); }
@@ -185,6 +197,169 @@ public final double intersects2(double px, double py, double pz, double vix, dou
 	return tmin > 0 ? tmin : 0;
 }
 
+/**
+ * Same as {@link #intersects2(double, double, double, double, double, double, double)},
+ * but for a box stored in a flat array as min x, y, z followed by max x, y, z, starting
+ * at <code>offset</code>. Acceleration structures keep their node boxes in this form.
+ */
+public static double intersects2(double[] bounds, int offset, double px, double py, double pz, double vix, double viy, double viz, double maxDistance)
+{
+	double help;
+	double tmin;
+	double tmax;
+	
+	{
+		double xmin = (bounds[offset  ]-px)*vix;
+		double xmax = (bounds[offset+3]-px)*vix;
+		if (vix < 0) { help = xmin; xmin = xmax; xmax = help; }
+		tmin = xmin;
+		tmax = xmax;
+	}
+	
+	if (tmin > maxDistance) return -1;
+	if (tmax < 0) return -1;
+	
+	{
+		double ymin = (bounds[offset+1]-py)*viy;
+		double ymax = (bounds[offset+4]-py)*viy;
+		if (viy < 0) { help = ymin; ymin = ymax; ymax = help; }
+		if (ymin > tmin) tmin = ymin;
+		if (ymax < tmax) tmax = ymax;
+	}
+	
+	if (tmin > maxDistance) return -1;
+	if (tmax < 0) return -1;
+	
+	{
+		double zmin = (bounds[offset+2]-pz)*viz;
+		double zmax = (bounds[offset+5]-pz)*viz;
+		if (viz < 0) { help = zmin; zmin = zmax; zmax = help; }
+		if (zmin > tmin) tmin = zmin;
+		if (zmax < tmax) tmax = zmax;
+	}
+	
+	if (tmin > maxDistance) return -1;
+	if (tmax < 0) return -1;
+	if (tmin > tmax) return -1;
+	
+	return tmin > 0 ? tmin : 0;
+}
+
+/**
+ * Same as {@link #intersects2(double[], int, double, double, double, double, double,
+ * double, double)}, with the reciprocal direction, slab order and scaled origin cached
+ * in the ray, so each slab costs one multiply-add per plane and no branches.
+ */
+public static double intersects2(double[] bounds, int offset, Ray ray, double maxDistance)
+{
+	double tmin = bounds[offset+ray.sx]*ray.ix+ray.ox;
+	double tmax = bounds[offset+3-ray.sx]*ray.ix+ray.ox;
+	double ymin = bounds[offset+1+ray.sy]*ray.iy+ray.oy;
+	double ymax = bounds[offset+4-ray.sy]*ray.iy+ray.oy;
+	double zmin = bounds[offset+2+ray.sz]*ray.iz+ray.oz;
+	double zmax = bounds[offset+5-ray.sz]*ray.iz+ray.oz;
+	if (ymin > tmin) tmin = ymin;
+	if (zmin > tmin) tmin = zmin;
+	if (ymax < tmax) tmax = ymax;
+	if (zmax < tmax) tmax = zmax;
+	
+	if (tmin > maxDistance) return -1;
+	if (tmax < 0) return -1;
+	if (tmin > tmax) return -1;
+	return tmin > 0 ? tmin : 0;
+}
+
+/**
+ * Same as {@link #intersects2(double[], int, Ray, double)}, for boxes read with absolute
+ * gets from a buffer, e.g. a view of a memory-mapped file.
+ */
+public static double intersects2(DoubleBuffer bounds, int offset, Ray ray, double maxDistance)
+{
+	double tmin = bounds.get(offset+ray.sx)*ray.ix+ray.ox;
+	double tmax = bounds.get(offset+3-ray.sx)*ray.ix+ray.ox;
+	double ymin = bounds.get(offset+1+ray.sy)*ray.iy+ray.oy;
+	double ymax = bounds.get(offset+4-ray.sy)*ray.iy+ray.oy;
+	double zmin = bounds.get(offset+2+ray.sz)*ray.iz+ray.oz;
+	double zmax = bounds.get(offset+5-ray.sz)*ray.iz+ray.oz;
+	if (ymin > tmin) tmin = ymin;
+	if (zmin > tmin) tmin = zmin;
+	if (ymax < tmax) tmax = ymax;
+	if (zmax < tmax) tmax = zmax;
+	
+	if (tmin > maxDistance) return -1;
+	if (tmax < 0) return -1;
+	if (tmin > tmax) return -1;
+	return tmin > 0 ? tmin : 0;
+}
+
+/**
+ * Slab test of a box in a flat array against the rays of a packet selected by
+ * <code>mask</code>, each up to its <code>maxDistance</code>. Returns the mask of the
+ * rays that hit the box and stores their entry distance in <code>entry</code>.
+ */
+public static int intersects(double[] bounds, int offset, RayPacket packet, int mask, double[] entry)
+{
+	int result = 0;
+	for (int m = mask; m != 0; m &= m-1)
+	{
+		int i = Integer.numberOfTrailingZeros(m);
+		double t = intersects2(bounds, offset, packet.px[i], packet.py[i], packet.pz[i],
+				packet.vix[i], packet.viy[i], packet.viz[i], packet.maxDistance[i]);
+		if (t >= 0)
+		{
+			entry[i] = t;
+			result |= 1 << i;
+		}
+	}
+	return result;
+}
+
+/**
+ * Interval arithmetic test of a box in a flat array against a whole coherent packet.
+ * Returns false only if no ray of the packet can hit the box. The bounds of the ray
+ * origins and reciprocal directions bound the entry and exit distance of every ray on
+ * each axis, so if the largest lower bound of the entries lies behind the smallest upper
+ * bound of the exits, all rays miss.
+ */
+public static boolean intersectsFrustum(double[] bounds, int offset, RayPacket packet)
+{
+	double farthest = 0;
+	for (int m = packet.getMask(); m != 0; m &= m-1)
+		farthest = Math.max(farthest, packet.maxDistance[Integer.numberOfTrailingZeros(m)]);
+	
+	double enter = 0, exit = farthest;
+	boolean pos = packet.minVIX >= 0;
+	enter = Math.max(enter, lower(bounds[offset+(pos ? 0 : 3)], packet.minPX, packet.maxPX, packet.minVIX, packet.maxVIX));
+	exit = Math.min(exit, upper(bounds[offset+(pos ? 3 : 0)], packet.minPX, packet.maxPX, packet.minVIX, packet.maxVIX));
+	pos = packet.minVIY >= 0;
+	enter = Math.max(enter, lower(bounds[offset+(pos ? 1 : 4)], packet.minPY, packet.maxPY, packet.minVIY, packet.maxVIY));
+	exit = Math.min(exit, upper(bounds[offset+(pos ? 4 : 1)], packet.minPY, packet.maxPY, packet.minVIY, packet.maxVIY));
+	pos = packet.minVIZ >= 0;
+	enter = Math.max(enter, lower(bounds[offset+(pos ? 2 : 5)], packet.minPZ, packet.maxPZ, packet.minVIZ, packet.maxVIZ));
+	exit = Math.min(exit, upper(bounds[offset+(pos ? 5 : 2)], packet.minPZ, packet.maxPZ, packet.minVIZ, packet.maxVIZ));
+	return enter <= exit;
+}
+
+/**
+ * Lower bound of (plane-p)*vi for p in [p0, p1] and vi in [vi0, vi1].
+ */
+private static double lower(double plane, double p0, double p1, double vi0, double vi1)
+{
+	double a = plane-p1, b = plane-p0;
+	return Math.min(Math.min(a*vi0, a*vi1), Math.min(b*vi0, b*vi1));
+}
+
+private static double upper(double plane, double p0, double p1, double vi0, double vi1)
+{
+	double a = plane-p1, b = plane-p0;
+	return Math.max(Math.max(a*vi0, a*vi1), Math.max(b*vi0, b*vi1));
+}
+
+/**
+ * @deprecated the ray caches its reciprocal direction, use
+ * {@link #intersects2(Ray, double)}
+ */
+@Deprecated
 public double intersects2(Ray ray, Vector3 accel, double maxDistance)
 {
 	double help;
@@ -234,70 +409,26 @@ public double intersects2(Ray ray, Vector3 accel, double maxDistance)
 	return tmin > 0 ? tmin : 0;
 }
 
+/**
+ * Returns the distance at which the ray enters the box, or -1 if it misses the box or
+ * enters it behind <code>maxDistance</code>. Uses the values cached by
+ * {@link Ray#update()}.
+ */
 public double intersects2(Ray ray, double maxDistance)
 {
-	double help;
-	double dx = oneOver(ray.v.getV0());
-	double xmin = (min.getV0()-ray.p.getV0())*dx;
-	double xmax = (max.getV0()-ray.p.getV0())*dx;
-	if (dx < 0) { help = xmin; xmin = xmax; xmax = help; }
-	
-	if (xmin > maxDistance) return -1;
-	if (xmax < 0) return -1;
-	
-	double dy = oneOver(ray.v.getV1());
-	double ymin = (min.getV1()-ray.p.getV1())*dy;
-	double ymax = (max.getV1()-ray.p.getV1())*dy;
-	if (dy < 0) { help = ymin; ymin = ymax; ymax = help; }
-	
-	if (ymin > maxDistance) return -1;
-	if (ymax < 0) return -1;
-	
-	double dz = oneOver(ray.v.getV2());
-	double zmin = (min.getV2()-ray.p.getV2())*dz;
-	double zmax = (max.getV2()-ray.p.getV2())*dz;
-	if (dz < 0) { help = zmin; zmin = zmax; zmax = help; }
-	
-	if (ymin > xmin) xmin = ymin;
-	if (zmin > xmin) xmin = zmin;
-	
-	if (ymax < xmax) xmax = ymax;
-	if (zmax < xmax) xmax = zmax;
-	
-	if (xmin > xmax) return -1;
-	if (xmin > maxDistance) return -1;
-	if (xmax < 0) return -1;
-	return xmin > 0 ? xmin : 0;
+	double tmin = entry(ray), tmax = exit(ray);
+	if (tmin > tmax) return -1;
+	if (tmin > maxDistance) return -1;
+	if (tmax < 0) return -1;
+	return tmin > 0 ? tmin : 0;
 }
 
 public boolean intersects(Ray ray, double minDistance, double maxDistance)
 {
-	double help;
-	double dx = oneOver(ray.v.getV0());
-	double dy = oneOver(ray.v.getV1());
-	double dz = oneOver(ray.v.getV2());
-	
-	double xmin = (min.getV0()-ray.p.getV0())*dx;
-	double xmax = (max.getV0()-ray.p.getV0())*dx;
-	if (dx < 0) { help = xmin; xmin = xmax; xmax = help; }
-	
-	double ymin = (min.getV1()-ray.p.getV1())*dy;
-	double ymax = (max.getV1()-ray.p.getV1())*dy;
-	if (dy < 0) { help = ymin; ymin = ymax; ymax = help; }
-	
-	double zmin = (min.getV2()-ray.p.getV2())*dz;
-	double zmax = (max.getV2()-ray.p.getV2())*dz;
-	if (dz < 0) { help = zmin; zmin = zmax; zmax = help; }
-	
-	if (ymin > xmin) xmin = ymin;
-	if (zmin > xmin) xmin = zmin;
-	
-	if (ymax < xmax) xmax = ymax;
-	if (zmax < xmax) xmax = zmax;
-	
-	if (xmin > xmax) return false;
-	if (xmin > maxDistance) return false;
-	if (xmax < minDistance) return false;
+	double tmin = entry(ray), tmax = exit(ray);
+	if (tmin > tmax) return false;
+	if (tmin > maxDistance) return false;
+	if (tmax < minDistance) return false;
 	return true;
 }
 
@@ -306,62 +437,36 @@ public boolean intersects(Ray ray)
 
 public double intersectsMax(Ray ray)
 {
-	double help;
-	double dx = oneOver(ray.v.getV0());
-	double dy = oneOver(ray.v.getV1());
-	double dz = oneOver(ray.v.getV2());
-	
-	double xmin = (min.getV0()-ray.p.getV0())*dx;
-	double xmax = (max.getV0()-ray.p.getV0())*dx;
-	if (dx < 0) { help = xmin; xmin = xmax; xmax = help; }
-	
-	double ymin = (min.getV1()-ray.p.getV1())*dy;
-	double ymax = (max.getV1()-ray.p.getV1())*dy;
-	if (dy < 0) { help = ymin; ymin = ymax; ymax = help; }
-	
-	double zmin = (min.getV2()-ray.p.getV2())*dz;
-	double zmax = (max.getV2()-ray.p.getV2())*dz;
-	if (dz < 0) { help = zmin; zmin = zmax; zmax = help; }
-	
-	if (ymin > xmin) xmin = ymin;
-	if (zmin > xmin) xmin = zmin;
-	
-	if (ymax < xmax) xmax = ymax;
-	if (zmax < xmax) xmax = zmax;
-	
-	if (xmin > xmax) return -1;
-	if (xmax < 0) return -1;
-	return xmax;
+	double tmin = entry(ray), tmax = exit(ray);
+	if (tmin > tmax) return -1;
+	if (tmax < 0) return -1;
+	return tmax;
 }
 
 public double intersectsMin(Ray ray)
 {
-	double help;
-	double dx = oneOver(ray.v.getV0());
-	double dy = oneOver(ray.v.getV1());
-	double dz = oneOver(ray.v.getV2());
-	
-	double xmin = (min.getV0()-ray.p.getV0())*dx;
-	double xmax = (max.getV0()-ray.p.getV0())*dx;
-	if (dx < 0) { help = xmin; xmin = xmax; xmax = help; }
-	
-	double ymin = (min.getV1()-ray.p.getV1())*dy;
-	double ymax = (max.getV1()-ray.p.getV1())*dy;
-	if (dy < 0) { help = ymin; ymin = ymax; ymax = help; }
-	
-	double zmin = (min.getV2()-ray.p.getV2())*dz;
-	double zmax = (max.getV2()-ray.p.getV2())*dz;
-	if (dz < 0) { help = zmin; zmin = zmax; zmax = help; }
-	
-	if (ymin > xmin) xmin = ymin;
-	if (zmin > xmin) xmin = zmin;
-	
-	if (ymax < xmax) xmax = ymax;
-	if (zmax < xmax) xmax = zmax;
-	
-	if (xmin > xmax) return -1;
-	if (xmax < 0) return -1;
-	return xmin;
+	double tmin = entry(ray), tmax = exit(ray);
+	if (tmin > tmax) return -1;
+	if (tmax < 0) return -1;
+	return tmin;
+}
+
+private double entry(Ray ray)
+{
+	double tx = (ray.sx == 0 ? min : max).getX()*ray.ix+ray.ox;
+	double ty = (ray.sy == 0 ? min : max).getY()*ray.iy+ray.oy;
+	double tz = (ray.sz == 0 ? min : max).getZ()*ray.iz+ray.oz;
+	if (ty > tx) tx = ty;
+	return tz > tx ? tz : tx;
+}
+
+private double exit(Ray ray)
+{
+	double tx = (ray.sx == 0 ? max : min).getX()*ray.ix+ray.ox;
+	double ty = (ray.sy == 0 ? max : min).getY()*ray.iy+ray.oy;
+	double tz = (ray.sz == 0 ? max : min).getZ()*ray.iz+ray.oz;
+	if (ty < tx) tx = ty;
+	return tz < tx ? tz : tx;
 }
 
 @Override
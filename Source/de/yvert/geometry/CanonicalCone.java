@@ -0,0 +1,114 @@
+// arch-tag: f524492a-6da6-47a1-9294-60fae249975d
+package de.yvert.geometry;
+
+/**
+ * The constants of a cone (frustum) in its canonical space, where the vertex is the
+ * origin and the axis is z, so that the side is
+ * <code>x^2 + y^2 = (vertexRadius + tan*z)^2</code> for <code>0 <= z <= length</code>.
+ * <p>
+ * {@link #prepare} computes the frame once; an intersection then transforms the ray
+ * with two dot products per axis and solves a quadratic without allocating, and a normal
+ * is found the same way. Used by {@link Cone} and {@link OpenCone}, which give the same
+ * distances as before, only faster.
+ */
+final class CanonicalCone
+{
+
+private static final double EPSILON = 1e-4f;
+
+// the vertex, and the rows of the rotation into canonical space
+private double px, py, pz;
+private double ux, uy, uz;
+private double wx, wy, wz;
+private double ax, ay, az;
+private double length, tan;
+private double r0, r0Squared, r1Squared;
+
+CanonicalCone()
+{/*OK*/}
+
+void prepare(Vector3 apex, Vector3 vertex, double apexRadius, double vertexRadius)
+{
+	Vector3 axis = apex.sub(vertex);
+	length = axis.getLength();
+	double invLength = 1/length;
+	axis.scaleAndSet(invLength);
+	Vector3 u = axis.findAnyOrthogonal();
+	Vector3 w = axis.cross(u).normalizeAndSet();
+	px = vertex.getX(); py = vertex.getY(); pz = vertex.getZ();
+	ux = u.getX(); uy = u.getY(); uz = u.getZ();
+	wx = w.getX(); wy = w.getY(); wz = w.getZ();
+	ax = axis.getX(); ay = axis.getY(); az = axis.getZ();
+	tan = (apexRadius-vertexRadius)*invLength;
+	r0 = vertexRadius;
+	r0Squared = vertexRadius*vertexRadius;
+	r1Squared = apexRadius*apexRadius;
+}
+
+/**
+ * Returns the nearest hit further away than a small epsilon, on the side or, if
+ * <code>caps</code> is true, on the discs at both ends, or -1.
+ */
+double distance(Ray ray, boolean caps)
+{
+	double ex = ray.p.getX()-px, ey = ray.p.getY()-py, ez = ray.p.getZ()-pz;
+	double dx = ray.v.getX(), dy = ray.v.getY(), dz = ray.v.getZ();
+	double ox = ux*ex+uy*ey+uz*ez, oy = wx*ex+wy*ey+wz*ez, oz = ax*ex+ay*ey+az*ez;
+	double vx = ux*dx+uy*dy+uz*dz, vy = wx*dx+wy*dy+wz*dz, vz = ax*dx+ay*dy+az*dz;
+	
+	double result = Double.POSITIVE_INFINITY;
+	
+	// side, a*t^2 + 2*b*t + c = 0
+	double k = r0+tan*oz;
+	double tvz = tan*vz;
+	double a = vx*vx+vy*vy-tvz*tvz;
+	double b = ox*vx+oy*vy-k*tvz;
+	double c = ox*ox+oy*oy-k*k;
+	double disc = b*b-a*c;
+	// the same threshold as the unscaled discriminant of the old formulation
+	if (disc > EPSILON/4)
+	{
+		double root = Math.sqrt(disc);
+		double t1 = (-b+root)/a;
+		double t2 = (-b-root)/a;
+		double z1 = oz+t1*vz, z2 = oz+t2*vz;
+		if ((t1 > EPSILON) && (t1 < result) && (z1 >= 0) && (z1 <= length)) result = t1;
+		if ((t2 > EPSILON) && (t2 < result) && (z2 >= 0) && (z2 <= length)) result = t2;
+	}
+	
+	// discs at z = 0 and z = length
+	if (caps && (Math.abs(vz)*length > EPSILON))
+	{
+		double t3 = -oz/vz;
+		double x3 = ox+t3*vx, y3 = oy+t3*vy;
+		if ((t3 > EPSILON) && (t3 < result) && (x3*x3+y3*y3 <= r0Squared)) result = t3;
+		double t4 = (length-oz)/vz;
+		double x4 = ox+t4*vx, y4 = oy+t4*vy;
+		if ((t4 > EPSILON) && (t4 < result) && (x4*x4+y4*y4 <= r1Squared)) result = t4;
+	}
+	
+	return result < Double.POSITIVE_INFINITY ? result : -1;
+}
+
+/**
+ * Stores the normal at a point on the surface in <code>geonormal</code>. If
+ * <code>caps</code> is true, points within a small epsilon of either end lie on a disc.
+ */
+void getNormal(Vector3 hitpoint, boolean caps, Vector3 geonormal)
+{
+	double ex = hitpoint.getX()-px, ey = hitpoint.getY()-py, ez = hitpoint.getZ()-pz;
+	double ox = ux*ex+uy*ey+uz*ez, oy = wx*ex+wy*ey+wz*ez, oz = ax*ex+ay*ey+az*ez;
+	if (caps && (oz < EPSILON*length))
+		geonormal.set(-ax, -ay, -az);
+	else if (caps && (oz > (1-EPSILON)*length))
+		geonormal.set(ax, ay, az);
+	else
+	{
+		// radially outwards, tilted against the axis by the slope of the side
+		double slope = -tan*Math.sqrt(ox*ox+oy*oy);
+		geonormal.set(ox*ux+oy*wx+slope*ax, ox*uy+oy*wy+slope*ay, ox*uz+oy*wz+slope*az);
+		geonormal.normalizeAndSet();
+	}
+}
+
+}
@@ -6,11 +6,11 @@ import de.yvert.cr.profiles.IntersectionResult;
 public class Cone extends SceneItem
 {
 
-private static final double EPSILON = 1e-4f;
-
 public Vector3 apex, vertex;
 public double apexRadius, vertexRadius;
 
+private final CanonicalCone canonical = new CanonicalCone();
+
 public Cone(Cone other)
 { set(other); }
 
@@ -20,6 +20,7 @@ public Cone(Vector3 apex, Vector3 vertex, double apexRadius, double vertexRadius
 	this.vertex = new Vector3(vertex);
 	this.apexRadius = apexRadius;
 	this.vertexRadius = vertexRadius;
+	prepare();
 }
 
 public Cone(Vector4 apex, Vector4 vertex)
@@ -28,6 +29,7 @@ public Cone(Vector4 apex, Vector4 vertex)
 	this.vertex = new Vector3().set(vertex);
 	this.apexRadius = apex.getV3();
 	this.vertexRadius = vertex.getV3();
+	prepare();
 }
 
 
@@ -37,9 +39,17 @@ public final Cone set(Cone other)
 	this.vertex = new Vector3(other.vertex);
 	this.apexRadius = other.apexRadius;
 	this.vertexRadius = other.vertexRadius;
+	prepare();
 	return this;
 }
 
+/**
+ * Precomputes what {@link #distance(Ray)} needs. Must be called again after changing
+ * the public fields.
+ */
+public final void prepare()
+{ canonical.prepare(apex, vertex, apexRadius, vertexRadius); }
+
 private double min(double a, double b)
 { return a < b ? a : b; }
 
@@ -48,22 +58,7 @@ private double max(double a, double b)
 
 @Override
 public void getNormal(IntersectionResult result, Vector3 geonormal)
-{
-	Vector3 a = apex.sub(vertex);
-	
-	double u = result.hitpoint.sub(vertex).multiply(a)/a.getSquaredLength();
-	if (u < EPSILON) geonormal.set(a).scaleAndSet(-1);
-	else if (u > 1-EPSILON)	geonormal.set(a);
-	else
-	{
-		double r0 = vertexRadius, r1 = apexRadius;
-		Vector3 pl = a.scale(u).addAndSet(vertex);
-		double tanAlpha = (r1-r0)/a.getLength();
-		double dp = result.hitpoint.sub(pl).getLength()*tanAlpha/a.getLength();
-		geonormal.set(a).scaleAndSet(-dp).addAndSet(result.hitpoint).subAndSet(pl);
-	}
-	geonormal.normalizeAndSet();
-}
+{ canonical.getNormal(result.hitpoint, true, geonormal); }
 
 @Override
 public double getMinX()
@@ -100,79 +95,12 @@ public BoundingBox getBoundingBox()
 public BoundingSphere getBoundingSphere()
 { throw new RuntimeException("Argh!"); }
 
+/**
+ * Intersects the ray in the canonical space of the cone, see {@link #prepare()}.
+ */
 @Override
 public double distance(Ray r)
-{
-	Vector3 p0 = vertex, p1 = apex, o = r.p, d = r.v;
-	double r0 = vertexRadius, r1 = apexRadius, dr = r1-r0;
-	
-	Vector3 a = p1.sub(p0);
-	Vector3 c = o.sub(p0);
-
-	double ac = a.multiply(c);
-	double ad = a.multiply(d);
-	double cd = c.multiply(d);
-	
-	double aa = a.multiply(a);
-	double cc = c.multiply(c);
-	double dd = d.multiply(d);
-	
-	// These will hold the pre-results
-	double t1 = -Double.MAX_VALUE, t2 = t1, t3 = t1, t4 = t1;
-	
-	// Check Side
-	double z1 = 1/aa + dr*dr/(aa*aa);
-	double z2 = r0*dr/aa;
-	
-	double c1 = ad*ad*z1 - dd;
-	double c2 = 2*(ac*ad*z1 + ad*z2 - cd);
-	double c3 = r0*r0 + ac*ac*z1 + ac*2*z2 - cc; 
-		
-	double t = c2*c2 - 4*c1*c3;
-	if (t > EPSILON)
-	{
-		t = Math.sqrt(t);
-		t1 = (-c2 + t)/(2*c1);
-		t2 = (-c2 - t)/(2*c1);
-	
-		double u1 = (ac + t1*ad)/aa;
-		double u2 = (ac + t2*ad)/aa;
-		if (u1 < 0 || u1 > 1) t1 = -Double.MAX_VALUE;
-		if (u2 < 0 || u2 > 1) t2 = -Double.MAX_VALUE;
-	}
-	
-	// Check Top/Bottom
-	if ((ad > EPSILON) || (ad < -EPSILON))
-	{
-		Vector3 e = o.sub(p1);
-		double ae = a.multiply(e);
-		double de = d.multiply(e);
-		double ee = e.multiply(e);
-			
-		t3 = -ac/ad;
-		t4 = -ae/ad;
-		double rad3 = cc + 2*cd*t3 + dd*t3*t3;
-		double rad4 = ee + 2*de*t4 + dd*t4*t4;
-			
-		t3 = (rad3 > r0*r0) ? -Double.MAX_VALUE : t3;
-		t4 = (rad4 > r1*r1) ? -Double.MAX_VALUE : t4;
-	}
-	
-	// Merge results (hint: at most 2 t-values are greater than 0)
-	double tmax = Math.max(Math.max(t1,t2), Math.max(t3,t4));
-	double tmin = -Double.MAX_VALUE;
-	if ((t1 > EPSILON) && (t1 < tmax)) tmin = t1;
-	if ((t2 > EPSILON) && (t2 < tmax)) tmin = t2;
-	if ((t3 > EPSILON) && (t3 < tmax)) tmin = t3;
-	if ((t4 > EPSILON) && (t4 < tmax)) tmin = t4;
-				
-	if (tmax < EPSILON) return -Double.MAX_VALUE;
-		
-	if (tmin > EPSILON)
-		return tmin;
-	else
-		return tmax;
-}
+{ return canonical.distance(r, true); }
 
 private void triangulate(Triangulation tri, int comega)
 {
@@ -328,6 +328,63 @@ public Matrix4 multiplyLeftAndSet(Matrix4 m)
 	return this;
 }
 
+/**
+ * Returns the inverse of this Matrix4.
+ * Throws an exception if the matrix is singular.
+ */
+public Matrix4 invert()
+{ return new Matrix4(this).invertAndSet(); }
+
+/**
+ * Same as invert(), but stores the result in the current Matrix4.
+ * This is a Gauss-Jordan elimination with partial pivoting.
+ */
+public Matrix4 invertAndSet()
+{
+	double[][] a = new double[4][4];
+	double[][] result = new double[4][4];
+	for (int i = 0; i < 4; i++)
+	{
+		for (int j = 0; j < 4; j++)
+			a[i][j] = matrix[i][j];
+		result[i][i] = 1;
+	}
+	
+	for (int col = 0; col < 4; col++)
+	{
+		int pivot = col;
+		for (int i = col+1; i < 4; i++)
+			if (Math.abs(a[i][col]) > Math.abs(a[pivot][col])) pivot = i;
+		if (a[pivot][col] == 0)
+			throw new ArithmeticException("Matrix is singular!");
+		
+		double[] temp = a[col]; a[col] = a[pivot]; a[pivot] = temp;
+		temp = result[col]; result[col] = result[pivot]; result[pivot] = temp;
+		
+		double d = 1/a[col][col];
+		for (int j = 0; j < 4; j++)
+		{
+			a[col][j] *= d;
+			result[col][j] *= d;
+		}
+		
+		for (int i = 0; i < 4; i++)
+		{
+			if (i == col) continue;
+			double f = a[i][col];
+			if (f == 0) continue;
+			for (int j = 0; j < 4; j++)
+			{
+				a[i][j] -= f*a[col][j];
+				result[i][j] -= f*result[col][j];
+			}
+		}
+	}
+	
+	this.matrix = result;
+	return this;
+}
+
 /**
  * Prints this Matrix4.
  */
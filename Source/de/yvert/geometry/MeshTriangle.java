@@ -0,0 +1,175 @@
+// arch-tag: e5a169a8-d38d-4d4b-a071-23b7aa026a66
+package de.yvert.geometry;
+
+import de.yvert.cr.profiles.IntersectionResult;
+
+/**
+ * A face of a {@link TriangleMesh}, which reads its vertices, normals and texture
+ * coordinates from the arrays of the mesh instead of copying them.
+ * <p>
+ * A {@link Triangle} made by {@link TriangleMesh#getTriangle(int)} takes several
+ * hundred bytes for its vectors and arrays; a face holds just the mesh and its index, so
+ * the faces of a large mesh cost little more than the mesh itself. Faces see changes to
+ * <code>vertexData</code> and <code>vertexNormals</code> immediately, but
+ * {@link TriangleMesh#calculateNormals()} must be called again after moving vertices.
+ * Intersecting a face or computing its normal does not allocate.
+ * <p>
+ * A face is still an object: with compressed references it takes 48 bytes (the header,
+ * the six fields of {@link SceneItem}, the mesh and the index) plus 4 bytes for its slot
+ * in the array of faces, without them 80 plus 8 bytes. This is accepted because the
+ * accelerators and {@link IntersectionResult#item} deal in scene items; creating a face
+ * only on a hit would allocate on every hit, and reusing one per thread would change the
+ * item of a result that the caller still holds during a nested trace. {@link
+ * de.yvert.accel.MeshBVH} does not touch the faces while traversing, it intersects its
+ * {@link PrecomputedTriangles} by index and only reports the face that was hit.
+ *
+ * @see TriangleMesh#getFaces()
+ */
+public final class MeshTriangle extends SceneItem
+{
+
+public final TriangleMesh mesh;
+public final int face;
+
+/**
+ * Creates a view of face <code>face</code> of the mesh, without textures, see
+ * {@link TriangleMesh#getFace(int)}.
+ */
+public MeshTriangle(TriangleMesh mesh, int face)
+{
+	this.mesh = mesh;
+	this.face = face;
+	this.material = mesh.material;
+}
+
+/**
+ * Returns a copy of this face.
+ */
+public Triangle getTriangle()
+{ return mesh.getTriangle(face); }
+
+// coordinate axis of corner k
+private float coord(int k, int axis)
+{ return mesh.vertexData[3*mesh.faceData[3*face+k]+axis]; }
+
+@Override
+public void triangulate(Triangulation tri)
+{ tri.add(getTriangle()); }
+
+@Override
+public double getMinX()
+{ return Math.min(Math.min(coord(0, 0), coord(1, 0)), coord(2, 0)); }
+
+@Override
+public double getMaxX()
+{ return Math.max(Math.max(coord(0, 0), coord(1, 0)), coord(2, 0)); }
+
+@Override
+public double getMinY()
+{ return Math.min(Math.min(coord(0, 1), coord(1, 1)), coord(2, 1)); }
+
+@Override
+public double getMaxY()
+{ return Math.max(Math.max(coord(0, 1), coord(1, 1)), coord(2, 1)); }
+
+@Override
+public double getMinZ()
+{ return Math.min(Math.min(coord(0, 2), coord(1, 2)), coord(2, 2)); }
+
+@Override
+public double getMaxZ()
+{ return Math.max(Math.max(coord(0, 2), coord(1, 2)), coord(2, 2)); }
+
+@Override
+public BoundingSphere getBoundingSphere()
+{ return new BoundingSphere(getTriangle()); }
+
+/**
+ * The same test as {@link PrecomputedTriangles}, on the vertices in the mesh.
+ */
+@Override
+public double distance(Ray ray)
+{ return intersect(ray, null, null); }
+
+/**
+ * Returns the distance to the face, or -1. If one of <code>bary3</code> and
+ * <code>bary4</code> is not null, this returns the distance to the plane of the face
+ * instead and stores the barycentric coordinates of the three vertices at that point in
+ * it.
+ */
+private double intersect(Ray ray, Vector3 bary3, Vector4 bary4)
+{
+	float[] p = mesh.vertexData;
+	int a = 3*mesh.faceData[3*face], b = 3*mesh.faceData[3*face+1], c = 3*mesh.faceData[3*face+2];
+	double ax = p[a], ay = p[a+1], az = p[a+2];
+	double e1x = p[b]-ax, e1y = p[b+1]-ay, e1z = p[b+2]-az;
+	double e2x = p[c]-ax, e2y = p[c+1]-ay, e2z = p[c+2]-az;
+	
+	double nx = e1y*e2z-e1z*e2y, ny = e1z*e2x-e1x*e2z, nz = e1x*e2y-e1y*e2x;
+	double dx = ray.v.getX(), dy = ray.v.getY(), dz = ray.v.getZ();
+	double den = dx*nx+dy*ny+dz*nz;
+	if (den == 0) return -1;
+	double inv = 1/den;
+	double sx = ray.p.getX()-ax, sy = ray.p.getY()-ay, sz = ray.p.getZ()-az;
+	double distance = -(sx*nx+sy*ny+sz*nz)*inv;
+	boolean bary = (bary3 != null) || (bary4 != null);
+	if ((distance <= 0) && !bary) return -1;
+	double mx = sy*dz-sz*dy, my = sz*dx-sx*dz, mz = sx*dy-sy*dx;
+	double u = -(e2x*mx+e2y*my+e2z*mz)*inv;
+	double v = (e1x*mx+e1y*my+e1z*mz)*inv;
+	if (bary3 != null) bary3.set(1-u-v, u, v);
+	if (bary4 != null) bary4.set(1-u-v, u, v, 0);
+	if (bary) return distance;
+	if ((u < 0) || (u > 1) || (v < 0) || (u+v > 1)) return -1;
+	return distance;
+}
+
+/**
+ * Returns the barycentric coordinates of the hit described by <code>result</code>, like
+ * {@link Triangle#barycentricCoords(IntersectionResult, Vector3)}. They are taken from
+ * the result if an intersector stored them for this face, otherwise they are calculated
+ * from <code>result.ray</code>.
+ */
+public Vector3 barycentricCoords(IntersectionResult result, Vector3 bary)
+{
+	if (result.hasBarycentrics && (result.mesh == mesh) && (result.primitive == face))
+		bary.set(1-result.baryU-result.baryV, result.baryU, result.baryV);
+	else
+		intersect(result.ray, bary, null);
+	return bary;
+}
+
+/**
+ * Same as {@link #barycentricCoords(IntersectionResult, Vector3)}, the last coordinate
+ * of <code>bary</code> is set to <code>0</code>.
+ */
+public Vector4 barycentricCoords(IntersectionResult result, Vector4 bary)
+{
+	if (result.hasBarycentrics && (result.mesh == mesh) && (result.primitive == face))
+		bary.set(1-result.baryU-result.baryV, result.baryU, result.baryV, 0);
+	else
+		intersect(result.ray, null, bary);
+	return bary;
+}
+
+@Override
+public void getNormal(IntersectionResult result, Vector3 geonormal)
+{
+	if (mesh.vertexNormals != null)
+	{
+		barycentricCoords(result, geonormal);
+		float[] n = mesh.vertexNormals;
+		int a = 3*mesh.faceData[3*face], b = 3*mesh.faceData[3*face+1], c = 3*mesh.faceData[3*face+2];
+		double wa = geonormal.getX(), wb = geonormal.getY(), wc = geonormal.getZ();
+		geonormal.set(wa*n[a]+wb*n[b]+wc*n[c], wa*n[a+1]+wb*n[b+1]+wc*n[c+1], wa*n[a+2]+wb*n[b+2]+wc*n[c+2]);
+	}
+	else
+		mesh.getNormal(geonormal, face);
+	geonormal.normalizeAndSet();
+}
+
+@Override
+public String toString()
+{ return "MeshTriangle: "+mesh+" "+face; }
+
+}
@@ -0,0 +1,21 @@
+// arch-tag: c372ab05-f0a9-49f0-b784-aac8367354ee
+package de.yvert.geometry;
+
+/**
+ * A {@link SceneItem} that moves during the shutter interval, for motion blur.
+ * <p>
+ * {@link SceneItem#distance(Ray)} intersects the item where it is at
+ * {@link Ray#time}, and the bounds of {@link SceneItem#getBoundingBox()} enclose the
+ * whole motion. The motion must be linear, so that interpolating the boxes at shutter
+ * open and close encloses the item at any time in between.
+ */
+public interface MovingItem
+{
+
+/**
+ * Returns the bounds of the item at the given time, 0 for shutter open and 1 for
+ * shutter close.
+ */
+BoundingBox getBoundingBox(double time);
+
+}
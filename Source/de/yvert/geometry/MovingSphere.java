@@ -0,0 +1,125 @@
+// arch-tag: a3dab1f8-9cdb-4f8b-ba73-b7fb9cc89992
+package de.yvert.geometry;
+
+import de.yvert.cr.profiles.IntersectionResult;
+
+/**
+ * A sphere whose center moves linearly from <code>start</code> at shutter open to
+ * <code>end</code> at shutter close.
+ */
+public class MovingSphere extends SceneItem implements MovingItem
+{
+
+private static final double EPSILON = 1e-4f;
+
+public final Vector3 start, end;
+public final double radius;
+
+public MovingSphere(Vector3 start, Vector3 end, double radius)
+{
+	this.start = new Vector3(start);
+	this.end = new Vector3(end);
+	this.radius = radius;
+}
+
+/**
+ * Returns the center at the given time.
+ */
+public Vector3 getCenter(double time, Vector3 dest)
+{
+	dest.set(start.getX()+time*(end.getX()-start.getX()),
+	         start.getY()+time*(end.getY()-start.getY()),
+	         start.getZ()+time*(end.getZ()-start.getZ()));
+	return dest;
+}
+
+@Override
+public void getNormal(IntersectionResult result, Vector3 geonormal)
+{
+	geonormal.set(result.hitpoint).subAndSet(start, 1-result.ray.time).subAndSet(end, result.ray.time);
+	geonormal.normalizeAndSet();
+}
+
+@Override
+public double getMinX()
+{ return Math.min(start.getX(), end.getX())-radius; }
+
+@Override
+public double getMaxX()
+{ return Math.max(start.getX(), end.getX())+radius; }
+
+@Override
+public double getMinY()
+{ return Math.min(start.getY(), end.getY())-radius; }
+
+@Override
+public double getMaxY()
+{ return Math.max(start.getY(), end.getY())+radius; }
+
+@Override
+public double getMinZ()
+{ return Math.min(start.getZ(), end.getZ())-radius; }
+
+@Override
+public double getMaxZ()
+{ return Math.max(start.getZ(), end.getZ())+radius; }
+
+public BoundingBox getBoundingBox(double time)
+{
+	Vector3 center = getCenter(time, new Vector3());
+	Vector3 r = new Vector3(radius, radius, radius);
+	return new BoundingBox(center.sub(r), center.add(r));
+}
+
+@Override
+public BoundingSphere getBoundingSphere()
+{
+	Vector3 center = start.add(end).scaleAndSet(0.5);
+	return new BoundingSphere(center, start.distance(center)+radius);
+}
+
+/**
+ * Same as {@link Sphere#distance(Ray)} with the center at the time of the ray.
+ */
+@Override
+public double distance(Ray ray)
+{
+	double t = ray.time;
+	double cx = start.getX()+t*(end.getX()-start.getX());
+	double cy = start.getY()+t*(end.getY()-start.getY());
+	double cz = start.getZ()+t*(end.getZ()-start.getZ());
+	double px = ray.p.getX(), py = ray.p.getY(), pz = ray.p.getZ();
+	double vx = ray.v.getX(), vy = ray.v.getY(), vz = ray.v.getZ();
+	double dx = px-cx, dy = py-cy, dz = pz-cz;
+	double a = vx*vx+vy*vy+vz*vz;
+	double b = vx*dx+vy*dy+vz*dz;
+	double c = dx*dx+dy*dy+dz*dz-radius*radius;
+	double belowrt = b*b-a*c;
+	if (belowrt < 0) return -1;
+	double rt = Math.sqrt(belowrt);
+	double first = (-b-rt)/a;
+	if (first < 0)
+	{
+		double second = (-b+rt)/a;
+		if (second < EPSILON) return -1;
+		return second;
+	}
+	return first;
+}
+
+/**
+ * Triangulates the sphere at the middle of the shutter interval.
+ */
+@Override
+public void triangulate(Triangulation tri)
+{
+	Sphere sphere = new Sphere(getCenter(0.5, new Vector3()), radius);
+	sphere.setMaterial(material);
+	sphere.triangulate(tri);
+}
+
+@Override
+public String toString()
+{ return "MovingSphere: "+start+" to "+end+", "+radius; }
+
+}
@@ -0,0 +1,136 @@
+// arch-tag: f5281d00-b40b-44b0-aa6e-0d7f01a5a17e
+package de.yvert.geometry;
+
+import de.yvert.cr.profiles.IntersectionResult;
+
+/**
+ * A triangle whose vertices move linearly from <code>a0, b0, c0</code> at shutter open
+ * to <code>a1, b1, c1</code> at shutter close, e.g. a deforming mesh between two frames.
+ * Like {@link Triangle}, both sides are hit.
+ */
+public class MovingTriangle extends SceneItem implements MovingItem
+{
+
+public final Vector3 a0, b0, c0;
+public final Vector3 a1, b1, c1;
+
+public MovingTriangle(Vector3 a0, Vector3 b0, Vector3 c0, Vector3 a1, Vector3 b1, Vector3 c1)
+{
+	this.a0 = new Vector3(a0);
+	this.b0 = new Vector3(b0);
+	this.c0 = new Vector3(c0);
+	this.a1 = new Vector3(a1);
+	this.b1 = new Vector3(b1);
+	this.c1 = new Vector3(c1);
+}
+
+/**
+ * Returns the triangle at the given time.
+ */
+public Triangle getTriangle(double time)
+{
+	Triangle result = new Triangle(lerp(a0, a1, time), lerp(b0, b1, time), lerp(c0, c1, time));
+	result.setMaterial(material);
+	return result;
+}
+
+private static Vector3 lerp(Vector3 from, Vector3 to, double time)
+{ return to.sub(from).scaleAndSet(time).addAndSet(from); }
+
+@Override
+public void getNormal(IntersectionResult result, Vector3 geonormal)
+{
+	double t = result.ray.time;
+	double ax = a0.getX()+t*(a1.getX()-a0.getX());
+	double ay = a0.getY()+t*(a1.getY()-a0.getY());
+	double az = a0.getZ()+t*(a1.getZ()-a0.getZ());
+	double e1x = b0.getX()+t*(b1.getX()-b0.getX())-ax;
+	double e1y = b0.getY()+t*(b1.getY()-b0.getY())-ay;
+	double e1z = b0.getZ()+t*(b1.getZ()-b0.getZ())-az;
+	double e2x = c0.getX()+t*(c1.getX()-c0.getX())-ax;
+	double e2y = c0.getY()+t*(c1.getY()-c0.getY())-ay;
+	double e2z = c0.getZ()+t*(c1.getZ()-c0.getZ())-az;
+	geonormal.set(e1y*e2z-e1z*e2y, e1z*e2x-e1x*e2z, e1x*e2y-e1y*e2x);
+	geonormal.normalizeAndSet();
+}
+
+@Override
+public double getMinX()
+{ return Math.min(Math.min(Math.min(a0.getX(), b0.getX()), c0.getX()), Math.min(Math.min(a1.getX(), b1.getX()), c1.getX())); }
+
+@Override
+public double getMaxX()
+{ return Math.max(Math.max(Math.max(a0.getX(), b0.getX()), c0.getX()), Math.max(Math.max(a1.getX(), b1.getX()), c1.getX())); }
+
+@Override
+public double getMinY()
+{ return Math.min(Math.min(Math.min(a0.getY(), b0.getY()), c0.getY()), Math.min(Math.min(a1.getY(), b1.getY()), c1.getY())); }
+
+@Override
+public double getMaxY()
+{ return Math.max(Math.max(Math.max(a0.getY(), b0.getY()), c0.getY()), Math.max(Math.max(a1.getY(), b1.getY()), c1.getY())); }
+
+@Override
+public double getMinZ()
+{ return Math.min(Math.min(Math.min(a0.getZ(), b0.getZ()), c0.getZ()), Math.min(Math.min(a1.getZ(), b1.getZ()), c1.getZ())); }
+
+@Override
+public double getMaxZ()
+{ return Math.max(Math.max(Math.max(a0.getZ(), b0.getZ()), c0.getZ()), Math.max(Math.max(a1.getZ(), b1.getZ()), c1.getZ())); }
+
+public BoundingBox getBoundingBox(double time)
+{ return getTriangle(time).getBoundingBox(); }
+
+@Override
+public BoundingSphere getBoundingSphere()
+{
+	BoundingBox bb = getBoundingBox();
+	return new BoundingSphere(bb.center, bb.max.sub(bb.center).getLength());
+}
+
+/**
+ * Intersects the triangle at the time of the ray, without allocating.
+ */
+@Override
+public double distance(Ray ray)
+{
+	double t = ray.time;
+	double ax = a0.getX()+t*(a1.getX()-a0.getX());
+	double ay = a0.getY()+t*(a1.getY()-a0.getY());
+	double az = a0.getZ()+t*(a1.getZ()-a0.getZ());
+	double e1x = b0.getX()+t*(b1.getX()-b0.getX())-ax;
+	double e1y = b0.getY()+t*(b1.getY()-b0.getY())-ay;
+	double e1z = b0.getZ()+t*(b1.getZ()-b0.getZ())-az;
+	double e2x = c0.getX()+t*(c1.getX()-c0.getX())-ax;
+	double e2y = c0.getY()+t*(c1.getY()-c0.getY())-ay;
+	double e2z = c0.getZ()+t*(c1.getZ()-c0.getZ())-az;
+	
+	// the same test as PrecomputedTriangles
+	double nx = e1y*e2z-e1z*e2y, ny = e1z*e2x-e1x*e2z, nz = e1x*e2y-e1y*e2x;
+	double dx = ray.v.getX(), dy = ray.v.getY(), dz = ray.v.getZ();
+	double den = dx*nx+dy*ny+dz*nz;
+	if (den == 0) return -1;
+	double inv = 1/den;
+	double sx = ray.p.getX()-ax, sy = ray.p.getY()-ay, sz = ray.p.getZ()-az;
+	double distance = -(sx*nx+sy*ny+sz*nz)*inv;
+	if (distance <= 0) return -1;
+	double mx = sy*dz-sz*dy, my = sz*dx-sx*dz, mz = sx*dy-sy*dx;
+	double u = -(e2x*mx+e2y*my+e2z*mz)*inv;
+	if ((u < 0) || (u > 1)) return -1;
+	double v = (e1x*mx+e1y*my+e1z*mz)*inv;
+	if ((v < 0) || (u+v > 1)) return -1;
+	return distance;
+}
+
+/**
+ * Triangulates the triangle at the middle of the shutter interval.
+ */
+@Override
+public void triangulate(Triangulation tri)
+{ tri.add(getTriangle(0.5)); }
+
+@Override
+public String toString()
+{ return "MovingTriangle: "+a0+", "+b0+", "+c0+" to "+a1+", "+b1+", "+c1; }
+
+}
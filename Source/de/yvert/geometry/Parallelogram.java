@@ -37,37 +37,37 @@ public void getNormal(IntersectionResult result, Vector3 geonormal)
 @Override
 public double getMinX()
 {
-	return Math.min(a.getX(), Math.min(b.getX(), c.getX()));
+	return Math.min(Math.min(a.getX(), b.getX()), Math.min(c.getX(), a.getX()+v.getX()));
 }
 
 @Override
 public double getMaxX()
 {
-	return Math.max(a.getX(), Math.max(b.getX(), c.getX()));
+	return Math.max(Math.max(a.getX(), b.getX()), Math.max(c.getX(), a.getX()+v.getX()));
 }
 
 @Override
 public double getMinY()
 {
-	return Math.min(a.getY(), Math.min(b.getY(), c.getY()));
+	return Math.min(Math.min(a.getY(), b.getY()), Math.min(c.getY(), a.getY()+v.getY()));
 }
 
 @Override
 public double getMaxY()
 {
-	return Math.max(a.getY(), Math.max(b.getY(), c.getY()));
+	return Math.max(Math.max(a.getY(), b.getY()), Math.max(c.getY(), a.getY()+v.getY()));
 }
 
 @Override
 public double getMinZ()
 {
-	return Math.min(a.getZ(), Math.min(b.getZ(), c.getZ()));
+	return Math.min(Math.min(a.getZ(), b.getZ()), Math.min(c.getZ(), a.getZ()+v.getZ()));
 }
 
 @Override
 public double getMaxZ()
 {
-	return Math.max(a.getZ(), Math.max(b.getZ(), c.getZ()));
+	return Math.max(Math.max(a.getZ(), b.getZ()), Math.max(c.getZ(), a.getZ()+v.getZ()));
 }
 
 @Override
@@ -78,29 +78,31 @@ public BoundingSphere getBoundingSphere()
 	return new BoundingSphere(bb.center, bb.max.sub(bb.center).getLength());
 }
 
-private double det3(Vector3 v1, Vector3 v2, Vector3 v3)
+private static double det3(double x1, double y1, double z1, double x2, double y2, double z2, double x3, double y3, double z3)
 { 
-	return    v1.getX()*(v2.getY()*v3.getZ() - v3.getY()*v2.getZ()) 
-			+ v1.getY()*(v3.getX()*v2.getZ() - v2.getX()*v3.getZ()) 
-			+ v1.getZ()*(v2.getX()*v3.getY() - v2.getY()*v3.getX()); 
+	return    x1*(y2*z3 - y3*z2) 
+			+ y1*(x3*z2 - x2*z3) 
+			+ z1*(x2*y3 - y2*x3); 
 }
 
 @Override
 public double distance(Ray ray)
 {
-	Vector3 o = a, d = ray.v;
-	Vector3 tmp = ray.p.sub(o);
+	double ux = u.getX(), uy = u.getY(), uz = u.getZ();
+	double vx = v.getX(), vy = v.getY(), vz = v.getZ();
+	double dx = ray.v.getX(), dy = ray.v.getY(), dz = ray.v.getZ();
+	double tx = ray.p.getX()-a.getX(), ty = ray.p.getY()-a.getY(), tz = ray.p.getZ()-a.getZ();
 	
-	double det = det3(u,v,d);
+	double det = det3(ux,uy,uz, vx,vy,vz, dx,dy,dz);
 	if (Math.abs(det) < EPSILON) return -1;
 	
-	double t = -det3(u,v,tmp)/det;
+	double t = -det3(ux,uy,uz, vx,vy,vz, tx,ty,tz)/det;
 	if (t < EPSILON) return -1;
 	
-	double alpha = det3(tmp,v,d)/det;
+	double alpha = det3(tx,ty,tz, vx,vy,vz, dx,dy,dz)/det;
 	if ((alpha < 0) || (alpha > 1)) return -1;
 	
-	double beta  = det3(u,tmp,d)/det;
+	double beta  = det3(ux,uy,uz, tx,ty,tz, dx,dy,dz)/det;
 	if ((beta < 0) || (beta > 1)) return -1;
 	
 	return t;
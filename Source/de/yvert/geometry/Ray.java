@@ -1,12 +1,31 @@
 // arch-tag: 26f30bf1-263b-4e6c-82a5-ac75a3145982
 package de.yvert.geometry;
 
+/**
+ * A ray <code>p + t*v</code>.
+ * <p>
+ * {@link #update()} caches what intersection tests need, and must be called whenever
+ * <code>p</code> or <code>v</code> change: the point <code>q = p+v</code>, the
+ * reciprocal direction as computed by {@link BoundingBox#oneOver(double)}, the offset of
+ * the box plane a ray enters first on each axis (0 for the minimum and 3 for the maximum,
+ * as in a box stored in a flat array), and the origin times the negated reciprocal
+ * direction. The distance to the plane <code>x = c</code> is then
+ * <code>c*ix+ox</code>.
+ * <p>
+ * For motion blur, <code>time</code> is the point in the shutter interval the ray
+ * samples, from 0 at shutter open to 1 at shutter close. Static geometry ignores it.
+ */
 public class Ray implements Cloneable
 {
 
 public Vector3 p = new Vector3();
 public Vector3 v = new Vector3();
 public Vector3 q;
+public double time;
+
+public double ix, iy, iz;
+public int sx, sy, sz;
+public double ox, oy, oz;
 
 public Ray()
 {/*OK*/}
@@ -15,6 +34,7 @@ public Ray(Ray other)
 {
 	p.set(other.p);
 	v.set(other.v);
+	time = other.time;
 	update();
 }
 
@@ -38,6 +58,7 @@ public void set(Ray other)
 {
 	p.set(other.p);
 	v.set(other.v);
+	time = other.time;
 	update();
 }
 
@@ -47,6 +68,16 @@ public final void update()
 		q.set(p).addAndSet(v);
 	else
 		q = p.add(v);
+	
+	ix = BoundingBox.oneOver(v.getX());
+	iy = BoundingBox.oneOver(v.getY());
+	iz = BoundingBox.oneOver(v.getZ());
+	sx = ix < 0 ? 3 : 0;
+	sy = iy < 0 ? 3 : 0;
+	sz = iz < 0 ? 3 : 0;
+	ox = -p.getX()*ix;
+	oy = -p.getY()*iy;
+	oz = -p.getZ()*iz;
 }
 
 @Override
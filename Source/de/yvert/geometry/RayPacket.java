@@ -0,0 +1,138 @@
+// arch-tag: bff43238-5ced-4a1a-b75a-7dac3030c29d
+package de.yvert.geometry;
+
+/**
+ * A packet of 4, 8 or 16 rays that are traced together, e.g. the primary rays through a
+ * small tile of pixels.
+ * <p>
+ * The packet owns its rays. Set them up, then call {@link #update(int)} with a mask of
+ * the rays to trace, which updates them and copies their origins and reciprocal
+ * directions into struct-of-arrays form. Traversal keeps the distance to the closest hit
+ * so far of ray <code>i</code> in <code>maxDistance[i]</code>, which the caller
+ * initializes.
+ * <p>
+ * If the direction of every ray in the mask has the same sign on each axis, the packet
+ * is coherent, and the bounds of its origins and reciprocal directions allow
+ * {@link BoundingBox#intersectsFrustum} to reject a box for the whole packet with one
+ * interval arithmetic test. Incoherent packets are better traced ray by ray.
+ */
+public final class RayPacket
+{
+
+/** The largest packet size. */
+public static final int MAX_SIZE = 16;
+
+public final Ray[] rays;
+public final double[] px, py, pz;
+public final double[] vix, viy, viz;
+public final double[] maxDistance;
+
+private final int tileWidth;
+private int mask = 0;
+private boolean coherent = false;
+private boolean frustumCulling = true;
+
+// bounds of the origins and reciprocal directions of the rays in the mask
+double minPX, minPY, minPZ, maxPX, maxPY, maxPZ;
+double minVIX, minVIY, minVIZ, maxVIX, maxVIY, maxVIZ;
+
+public RayPacket(int size)
+{
+	if ((size != 4) && (size != 8) && (size != 16))
+		throw new IllegalArgumentException("size must be 4, 8 or 16");
+	rays = new Ray[size];
+	for (int i = 0; i < size; i++)
+	{
+		rays[i] = new Ray();
+		rays[i].update();
+	}
+	px = new double[size];
+	py = new double[size];
+	pz = new double[size];
+	vix = new double[size];
+	viy = new double[size];
+	viz = new double[size];
+	maxDistance = new double[size];
+	tileWidth = size == 4 ? 2 : 4;
+}
+
+public int size()
+{ return rays.length; }
+
+/**
+ * Returns the width of the pixel tile covered by the packet, 2 or 4. Ray <code>i</code>
+ * belongs to pixel <code>(i % tileWidth, i / tileWidth)</code> of the tile.
+ */
+public int getTileWidth()
+{ return tileWidth; }
+
+public int getTileHeight()
+{ return rays.length/tileWidth; }
+
+/**
+ * Returns the mask of the rays to trace, bit <code>i</code> stands for ray
+ * <code>i</code>.
+ */
+public int getMask()
+{ return mask; }
+
+public boolean isCoherent()
+{ return coherent; }
+
+public boolean isFrustumCulling()
+{ return frustumCulling; }
+
+/**
+ * Turns the interval arithmetic test of whole packets on or off. It is only used for
+ * coherent packets.
+ */
+public void setFrustumCulling(boolean frustumCulling)
+{ this.frustumCulling = frustumCulling; }
+
+/**
+ * Copies the rays selected by <code>mask</code> into the arrays and updates the
+ * coherence and the bounds used by the frustum test. Must be called whenever the rays
+ * change.
+ */
+public void update(int mask)
+{
+	if ((mask & ~((1 << rays.length)-1)) != 0)
+		throw new IllegalArgumentException("mask selects rays outside the packet");
+	this.mask = mask;
+	minPX = minPY = minPZ = minVIX = minVIY = minVIZ = Double.POSITIVE_INFINITY;
+	maxPX = maxPY = maxPZ = maxVIX = maxVIY = maxVIZ = Double.NEGATIVE_INFINITY;
+	for (int m = mask; m != 0; m &= m-1)
+	{
+		int i = Integer.numberOfTrailingZeros(m);
+		Ray ray = rays[i];
+		ray.update();
+		px[i] = ray.p.getX();
+		py[i] = ray.p.getY();
+		pz[i] = ray.p.getZ();
+		vix[i] = ray.ix;
+		viy[i] = ray.iy;
+		viz[i] = ray.iz;
+		minPX = Math.min(minPX, px[i]);
+		minPY = Math.min(minPY, py[i]);
+		minPZ = Math.min(minPZ, pz[i]);
+		maxPX = Math.max(maxPX, px[i]);
+		maxPY = Math.max(maxPY, py[i]);
+		maxPZ = Math.max(maxPZ, pz[i]);
+		minVIX = Math.min(minVIX, vix[i]);
+		minVIY = Math.min(minVIY, viy[i]);
+		minVIZ = Math.min(minVIZ, viz[i]);
+		maxVIX = Math.max(maxVIX, vix[i]);
+		maxVIY = Math.max(maxVIY, viy[i]);
+		maxVIZ = Math.max(maxVIZ, viz[i]);
+	}
+	coherent = (mask != 0) &&
+	           ((minVIX >= 0) || (maxVIX < 0)) &&
+	           ((minVIY >= 0) || (maxVIY < 0)) &&
+	           ((minVIZ >= 0) || (maxVIZ < 0));
+}
+
+@Override
+public String toString()
+{ return "RayPacket of "+rays.length+" rays, mask "+Integer.toBinaryString(mask)+(coherent ? ", coherent" : ""); }
+
+}
@@ -99,10 +99,12 @@ public double distance(Ray ray)
 	if ((e < 0) ^ (d < 0)) return -1;
 	double t = e/d;
 	if (t < 0) return -1;
-	Vector3 hitp = ray.v.scale(t).addAndSet(ray.p);
-	double dist = hitp.distance(point);
+	double dx = ray.p.getX()+t*ray.v.getX()-point.getX();
+	double dy = ray.p.getY()+t*ray.v.getY()-point.getY();
+	double dz = ray.p.getZ()+t*ray.v.getZ()-point.getZ();
+	double dist = Math.sqrt(dx*dx+dy*dy+dz*dz);
 	if ((dist < innerradius) || (dist > outerradius)) return -1;
-	return dist;
+	return t;
 }
 
 private void triangulate(Triangulation tri, int comega)
@@ -90,6 +90,12 @@ public BoundingBox getBoundingBox()
 	return new BoundingBox(min, max);
 }
 
+/**
+ * Same as {@link #getBoundingBox()}, but stores the result in <code>dest</code>.
+ */
+public BoundingBox getBoundingBox(BoundingBox dest)
+{ return dest.set(getMinX(), getMinY(), getMinZ(), getMaxX(), getMaxY(), getMaxZ()); }
+
 public abstract BoundingSphere getBoundingSphere();
 
 // distance at which the ray hits this object or -1, if the ray does not hit this object
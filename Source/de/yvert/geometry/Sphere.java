@@ -11,6 +11,8 @@ private static final double EPSILON = 1e-4f;
 public Vector3 point;
 public double radius;
 
+private double radiusSquared;
+
 public Sphere(Sphere other)
 { set(other); }
 
@@ -18,6 +20,7 @@ public Sphere(Vector3 point, double radius)
 {
 	this.point = new Vector3(point);
 	this.radius = radius;
+	prepare();
 }
 
 
@@ -31,9 +34,17 @@ public final Sphere set(Sphere other)
 {
 	point = new Vector3(other.point);
 	radius = other.radius;
+	prepare();
 	return this;
 }
 
+/**
+ * Precomputes what {@link #distance(Ray)} needs. Must be called again after changing
+ * the public fields.
+ */
+public final void prepare()
+{ radiusSquared = radius*radius; }
+
 @Override
 public void getNormal(IntersectionResult result, Vector3 geonormal)
 {
@@ -73,12 +84,18 @@ public BoundingBox getBoundingBox()
 public BoundingSphere getBoundingSphere()
 { return new BoundingSphere(point, radius); }
 
+/**
+ * Solves <code>a*t^2 + 2*b*t + c = 0</code> with the ray origin relative to the
+ * center, without allocating.
+ */
 @Override
 public double distance(Ray ray)
 {
-	double a = ray.v.getSquaredLength();
-	double b = ray.v.multiply(ray.p) - ray.v.multiply(point);
-	double c = ray.p.squaredDistance(point) - radius*radius;
+	double dx = ray.p.getX()-point.getX(), dy = ray.p.getY()-point.getY(), dz = ray.p.getZ()-point.getZ();
+	double vx = ray.v.getX(), vy = ray.v.getY(), vz = ray.v.getZ();
+	double a = vx*vx+vy*vy+vz*vz;
+	double b = vx*dx+vy*dy+vz*dz;
+	double c = dx*dx+dy*dy+dz*dz-radiusSquared;
 	double belowrt = b*b-a*c;
 	if (belowrt < 0) return -1;
 	double rt = Math.sqrt(belowrt);
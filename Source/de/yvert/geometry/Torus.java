@@ -1,7 +1,7 @@
 // arch-tag: 7569faf7-1c5d-4186-8537-198b68af5c42
 package de.yvert.geometry;
 
-import de.yvert.algorithms.roots.*;
+import de.yvert.algorithms.roots.RealRootSolver;
 import de.yvert.cr.profiles.IntersectionResult;
 
 public final class Torus extends SceneItem
@@ -14,6 +14,9 @@ public Vector3 normal;
 public double majorRadius;
 public double minorRadius;
 
+// the coefficients of the quartic that only depend on the radii
+private double c1, c2, c3, c1Squared;
+
 public Torus(Torus other)
 {
 	set(other);
@@ -25,6 +28,7 @@ public Torus(Vector3 center, Vector3 normal, double majorRadius, double minorRad
 	this.normal = new Vector3(normal).normalizeAndSet();
 	this.majorRadius = majorRadius;
 	this.minorRadius = minorRadius;
+	prepare();
 }
 
 
@@ -46,21 +50,40 @@ public final Torus set(Torus other)
 	normal = new Vector3(other.normal);
 	majorRadius = other.majorRadius;
 	minorRadius = other.minorRadius;
+	prepare();
 	return this;
 }
 
+/**
+ * Precomputes what {@link #distance(Ray)} needs. Must be called again after changing
+ * the public fields.
+ */
+public final void prepare()
+{
+	double r2 = majorRadius*majorRadius;
+	double k2 = minorRadius*minorRadius;
+	c1 = r2-k2;
+	c2 = 4*r2;
+	c3 = 2*c1-c2;
+	c1Squared = c1*c1;
+}
+
 //public double surfaceArea()
 //{ return 4*Math.PI*Math.PI*majorRadius*minorRadius; }
 
 @Override
 public void getNormal(IntersectionResult result, Vector3 geonormal)
 {
-	double u = result.hitpoint.sub(center).multiply(normal);
+	// the hit point relative to the center, and its projection into the plane of the ring
+	geonormal.set(result.hitpoint).subAndSet(center);
+	double u = geonormal.multiply(normal);
+	double px = geonormal.getX()-u*normal.getX();
+	double py = geonormal.getY()-u*normal.getY();
+	double pz = geonormal.getZ()-u*normal.getZ();
+	double scale = majorRadius/Math.sqrt(px*px+py*py+pz*pz);
 	
-	Vector3 p = normal.scale(-u).addAndSet(result.hitpoint).subAndSet(center);
-	p.scaleAndSet(majorRadius/p.getLength()).addAndSet(center);
-	
-	geonormal.set(result.hitpoint).subAndSet(p);
+	// minus the nearest point on the ring
+	geonormal.set(geonormal.getX()-scale*px, geonormal.getY()-scale*py, geonormal.getZ()-scale*pz);
 	geonormal.normalizeAndSet();
 }
 
@@ -101,39 +124,33 @@ public BoundingSphere getBoundingSphere()
 	return new BoundingSphere(center, majorRadius+minorRadius);
 }
 
+/**
+ * Returns the nearest root of the quartic along the ray, or -1, see
+ * {@link RealRootSolver#firstQuarticRoot}. Nothing is allocated.
+ */
 @Override
 public double distance(Ray ray)
 {
-	Vector3 e = ray.p.sub(center);
-	
-	double dd = ray.v.multiply(ray.v);
-	double dn = ray.v.multiply(normal);
-	double ee = e.multiply(e);
-	double ed = e.multiply(ray.v);
-	double en = e.multiply(normal);
-
-	double r2 = majorRadius*majorRadius;
-	double k2 = minorRadius*minorRadius;
-	double c1 = r2-k2;
-	double c2 = 4*r2;
-	double c3 = 2*c1-c2;
+	double ex = ray.p.getX()-center.getX();
+	double ey = ray.p.getY()-center.getY();
+	double ez = ray.p.getZ()-center.getZ();
+	double vx = ray.v.getX(), vy = ray.v.getY(), vz = ray.v.getZ();
+	double nx = normal.getX(), ny = normal.getY(), nz = normal.getZ();
 	
-	double[] c = new double[5];
-	c[4] = dd*dd;
-	c[3] = 4*ed*dd;
-	c[2] = 2*(2*ed*ed+ee*dd) + c2*dn*dn + c3*dd;
-	c[1] = 4*ee*ed + c2*2*en*dn + c3*2*ed;
-	c[0] = ee*ee + c2*en*en + c3*ee + c1*c1;
-			
-	Roots roots = RootSolver.solve(new Polynom(c));	
-	double x = Double.MAX_VALUE;
-	for (int i = 0; i < roots.size(); i++)
-	{
-		ComplexNumber r = roots.get(i);
-		if ((!r.hasIm()) && (r.re < x) && (r.re > EPSILON)) x = r.re;
-	}
+	double dd = vx*vx+vy*vy+vz*vz;
+	double dn = vx*nx+vy*ny+vz*nz;
+	double ee = ex*ex+ey*ey+ez*ez;
+	double ed = ex*vx+ey*vy+ez*vz;
+	double en = ex*nx+ey*ny+ez*nz;
 	
-	return x;
+	double x = RealRootSolver.firstQuarticRoot(
+			dd*dd,
+			4*ed*dd,
+			2*(2*ed*ed+ee*dd) + c2*dn*dn + c3*dd,
+			4*ee*ed + c2*2*en*dn + c3*2*ed,
+			ee*ee + c2*en*en + c3*ee + c1Squared,
+			EPSILON, Double.POSITIVE_INFINITY);
+	return Double.isNaN(x) ? -1 : x;
 }
 
 @Override
@@ -64,9 +64,7 @@ public void getNormal(IntersectionResult result, Vector3 geonormal)
 { 
 	if (vertexNormals[0] != null && vertexNormals[1] != null && vertexNormals[2] != null)
 	{
-		Vector4 temp = new Vector4();
-		barycentricCoords(result.ray, temp);
-		geonormal.set(temp.getX(), temp.getY(), temp.getZ());
+		barycentricCoords(result, geonormal);
 		geonormal.multiplyAndSet(vertexNormals[0], vertexNormals[1], vertexNormals[2]);
 		geonormal.normalizeAndSet();
 	}
@@ -243,6 +241,29 @@ public Vector4 barycentricCoords(Ray ray, Vector4 bary)
 	return bary;
 }
 
+/**
+ * Returns the barycentric coordinates of the hit described by <code>result</code>. They
+ * are taken from the result if the intersector stored them for this triangle, otherwise
+ * they are calculated from <code>result.ray</code>.
+ */
+public Vector3 barycentricCoords(IntersectionResult result, Vector3 bary)
+{
+	if (!result.hasBarycentrics || (result.baryItem != this)) return barycentricCoords(result.ray, bary);
+	bary.set(1-result.baryU-result.baryV, result.baryU, result.baryV);
+	return bary;
+}
+
+/**
+ * Same as {@link #barycentricCoords(IntersectionResult, Vector3)}, the last coordinate
+ * of <code>bary</code> is set to <code>0</code>.
+ */
+public Vector4 barycentricCoords(IntersectionResult result, Vector4 bary)
+{
+	if (!result.hasBarycentrics || (result.baryItem != this)) return barycentricCoords(result.ray, bary);
+	bary.set(1-result.baryU-result.baryV, result.baryU, result.baryV, 0);
+	return bary;
+}
+
 /**
  * Returns a string suitable for debugging.
  */
@@ -1,28 +1,43 @@
 // arch-tag: 269129a6-27e4-4364-9c07-b4387fe7746f
 package de.yvert.geometry;
 
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
 import de.yvert.cr.profiles.Material;
+import de.yvert.textures.MeshTexCoordFunction;
 import de.yvert.textures.TexCoordFunction;
 import de.yvert.textures.Texture;
 import de.yvert.textures.TriangleTexCoordFunction;
 
+/**
+ * A mesh of triangles that share vertices. Each attribute is stored in a single flat
+ * array: vertex <code>i</code> is <code>vertexData[3*i]</code> to
+ * <code>vertexData[3*i+2]</code>, its texture coordinates are
+ * <code>texcoordData[2*i]</code> and <code>texcoordData[2*i+1]</code>, and face
+ * <code>i</code> consists of the vertices <code>faceData[3*i]</code> to
+ * <code>faceData[3*i+2]</code>. Optional attributes are null if the mesh does not have
+ * them. The buffer accessors wrap the arrays without copying them.
+ */
 public final class TriangleMesh extends SceneObject
 {
 
 private static final TriangleTexCoordFunction FUNCTION_0 = new TriangleTexCoordFunction(0);
 private static final TriangleTexCoordFunction FUNCTION_1 = new TriangleTexCoordFunction(1);
+private static final MeshTexCoordFunction MESH_FUNCTION_0 = new MeshTexCoordFunction(0);
+private static final MeshTexCoordFunction MESH_FUNCTION_1 = new MeshTexCoordFunction(1);
 
 public String name;
 
-public float[][] vertexData;   // vertex data
-public float[][] texcoordData; // texture coordinates per vertex
-public float[][] lmcoordData;  // texture coordinates per vertex
+public float[] vertexData;     // x, y, z per vertex
+public float[] texcoordData;   // u, v per vertex, optional
+public float[] lmcoordData;    // u, v per vertex, optional
 
-public int[][] faceData;       // int triple per triangle
-public Texture[] textureData;  // one texture per triangle
-public Texture[] lightmapData; // one lightmap per triangle
-public float[][] normalData;   // normal data per triangle (not vertex)
-public float[][] vertexNormals; // normal data per vertex
+public int[] faceData;         // three vertex indices per triangle
+public Texture[] textureData;  // one texture per triangle, optional
+public Texture[] lightmapData; // one lightmap per triangle, optional
+public float[] normalData;     // x, y, z per triangle (not vertex)
+public float[] vertexNormals;  // x, y, z per vertex, optional
 
 public Material material;
 
@@ -31,88 +46,68 @@ public TriangleMesh()
 
 public TriangleMesh(Triangle data)
 {
-	vertexData = new float[3][3];
-	texcoordData = new float[3][4];
-	lmcoordData = new float[3][4];
-	
-	faceData = new int[1][3];
-	textureData = new Texture[1];
-	lightmapData = new Texture[1];
-	
-	data.a.get(vertexData[0]);
-	data.b.get(vertexData[1]);
-	data.c.get(vertexData[2]);
-	
-	if (data.getTextures() != null)
-	{
-		if ((data.getTextures().length > 0) && (data.getTextures()[0] != null))
-		{
-			data.texcoordparams[0].get(texcoordData[0]);
-			data.texcoordparams[1].get(texcoordData[1]);
-			data.texcoordparams[2].get(texcoordData[2]);
-			textureData[0] = data.getTextures()[0];
-		}
-		
-		if ((data.getTextures().length > 1) && (data.getTextures()[1] != null))
-		{
-			data.texcoordparams[3].get(lmcoordData[0]);
-			data.texcoordparams[4].get(lmcoordData[1]);
-			data.texcoordparams[5].get(lmcoordData[2]);
-			lightmapData[0] = data.getTextures()[1];
-		}
-	}
-	
-	faceData[0][0] = 0;
-	faceData[0][1] = 1;
-	faceData[0][2] = 2;
-	
+	this(new Triangle[] { data });
 	material = data.material;
-	calculateNormals();
 }
 
 public TriangleMesh(Triangle[] data)
 {
-	vertexData = new float[3*data.length][3];
-	texcoordData = new float[3*data.length][4];
-	lmcoordData = new float[3*data.length][4];
-	
-	faceData = new int[data.length][3];
-	textureData = new Texture[data.length];
-	lightmapData = new Texture[data.length];
-	
+	vertexData = new float[9*data.length];
+	faceData = new int[3*data.length];
 	for (int i = 0; i < data.length; i++)
 	{
-		data[i].a.get(vertexData[3*i  ]);
-		data[i].b.get(vertexData[3*i+1]);
-		data[i].c.get(vertexData[3*i+2]);
+		set(vertexData, 3*i  , data[i].a);
+		set(vertexData, 3*i+1, data[i].b);
+		set(vertexData, 3*i+2, data[i].c);
 		
-		if (data[i].getTextures() != null)
+		Texture[] textures = data[i].getTextures();
+		if ((textures != null) && (textures.length > 0) && (textures[0] != null))
 		{
-			if (data[i].getTextures()[0] != null)
+			if (texcoordData == null)
 			{
-				data[i].texcoordparams[0].get(texcoordData[3*i  ]);
-				data[i].texcoordparams[1].get(texcoordData[3*i+1]);
-				data[i].texcoordparams[2].get(texcoordData[3*i+2]);
-				textureData[i] = data[i].getTextures()[0];
+				texcoordData = new float[6*data.length];
+				textureData = new Texture[data.length];
 			}
-			
-			if (data[i].getTextures()[1] != null)
+			set(texcoordData, 3*i  , data[i].texcoordparams[0]);
+			set(texcoordData, 3*i+1, data[i].texcoordparams[1]);
+			set(texcoordData, 3*i+2, data[i].texcoordparams[2]);
+			textureData[i] = textures[0];
+		}
+		
+		if ((textures != null) && (textures.length > 1) && (textures[1] != null))
+		{
+			if (lmcoordData == null)
 			{
-				data[i].texcoordparams[3].get(lmcoordData[3*i  ]);
-				data[i].texcoordparams[4].get(lmcoordData[3*i+1]);
-				data[i].texcoordparams[5].get(lmcoordData[3*i+2]);
-				lightmapData[i] = data[i].getTextures()[1];
+				lmcoordData = new float[6*data.length];
+				lightmapData = new Texture[data.length];
 			}
+			set(lmcoordData, 3*i  , data[i].texcoordparams[3]);
+			set(lmcoordData, 3*i+1, data[i].texcoordparams[4]);
+			set(lmcoordData, 3*i+2, data[i].texcoordparams[5]);
+			lightmapData[i] = textures[1];
 		}
 		
-		faceData[i][0] = 3*i;
-		faceData[i][1] = 3*i+1;
-		faceData[i][2] = 3*i+2;
+		faceData[3*i  ] = 3*i;
+		faceData[3*i+1] = 3*i+1;
+		faceData[3*i+2] = 3*i+2;
 	}
 	
 	calculateNormals();
 }
 
+private static void set(float[] dest, int index, Vector3 v)
+{
+	dest[3*index  ] = (float) v.getX();
+	dest[3*index+1] = (float) v.getY();
+	dest[3*index+2] = (float) v.getZ();
+}
+
+private static void set(float[] dest, int index, Vector4 v)
+{
+	dest[2*index  ] = (float) v.getX();
+	dest[2*index+1] = (float) v.getY();
+}
+
 
 public void setMaterial(Material material)
 { this.material = material; }
@@ -120,22 +115,61 @@ public void setMaterial(Material material)
 public Material getMaterial()
 { return material; }
 
+public int vertexCount()
+{ return vertexData.length/3; }
+
 public int triangleCount()
-{ return faceData.length; }
+{ return faceData.length/3; }
+
+/**
+ * Returns the positions, three floats per vertex, backed by <code>vertexData</code>.
+ */
+public FloatBuffer getVertexBuffer()
+{ return FloatBuffer.wrap(vertexData); }
+
+/**
+ * Returns the texture coordinates, two floats per vertex, backed by
+ * <code>texcoordData</code>, or null if the mesh has none.
+ */
+public FloatBuffer getTexCoordBuffer()
+{ return texcoordData != null ? FloatBuffer.wrap(texcoordData) : null; }
+
+/**
+ * Returns the lightmap coordinates, two floats per vertex, backed by
+ * <code>lmcoordData</code>, or null if the mesh has none.
+ */
+public FloatBuffer getLightmapCoordBuffer()
+{ return lmcoordData != null ? FloatBuffer.wrap(lmcoordData) : null; }
+
+/**
+ * Returns the vertex normals, three floats per vertex, backed by
+ * <code>vertexNormals</code>, or null if the mesh has none.
+ */
+public FloatBuffer getVertexNormalBuffer()
+{ return vertexNormals != null ? FloatBuffer.wrap(vertexNormals) : null; }
+
+/**
+ * Returns the vertex indices, three per face, backed by <code>faceData</code>.
+ */
+public IntBuffer getFaceBuffer()
+{ return IntBuffer.wrap(faceData); }
+
+public Vector3 getVertex(int index, Vector3 dest)
+{ return dest.set(vertexData[3*index], vertexData[3*index+1], vertexData[3*index+2]); }
 
 public Vector3 getMin(Vector3 in)
 {
-	in.set(vertexData[0][0], vertexData[0][1], vertexData[0][2]);
-	for (int i = 0; i < vertexData.length; i++)
-		in.componentMinAndSet(vertexData[i][0], vertexData[i][1], vertexData[i][2]);
+	in.set(vertexData[0], vertexData[1], vertexData[2]);
+	for (int i = 0; i < vertexData.length; i += 3)
+		in.componentMinAndSet(vertexData[i], vertexData[i+1], vertexData[i+2]);
 	return in;
 }
 
 public Vector3 getMax(Vector3 in)
 {
-	in.set(vertexData[0][0], vertexData[0][1], vertexData[0][2]);
-	for (int i = 0; i < vertexData.length; i++)
-		in.componentMaxAndSet(vertexData[i][0], vertexData[i][1], vertexData[i][2]);
+	in.set(vertexData[0], vertexData[1], vertexData[2]);
+	for (int i = 0; i < vertexData.length; i += 3)
+		in.componentMaxAndSet(vertexData[i], vertexData[i+1], vertexData[i+2]);
 	return in;
 }
 
@@ -147,46 +181,59 @@ public void triangulate(Triangulation tri)
 		tri.add(data[i]);
 }
 
+/**
+ * Calculates the unnormalized face normals from the vertex positions. The array is
+ * reused if it has the right size, so calling this after moving vertices does not
+ * allocate.
+ */
 public final void calculateNormals()
 {
-	normalData = new float[faceData.length][3];
-	for (int i = 0; i < faceData.length; i++)
+	if ((normalData == null) || (normalData.length != faceData.length))
+		normalData = new float[faceData.length];
+	for (int i = 0; i < faceData.length; i += 3)
 	{
-		int a = faceData[i][0];
-		int b = faceData[i][1];
-		int c = faceData[i][2];
+		int a = 3*faceData[i];
+		int b = 3*faceData[i+1];
+		int c = 3*faceData[i+2];
 		
-		float ex = vertexData[b][0]-vertexData[a][0];
-		float ey = vertexData[b][1]-vertexData[a][1];
-		float ez = vertexData[b][2]-vertexData[a][2];
+		float ex = vertexData[b  ]-vertexData[a  ];
+		float ey = vertexData[b+1]-vertexData[a+1];
+		float ez = vertexData[b+2]-vertexData[a+2];
 		
-		float fx = vertexData[c][0]-vertexData[a][0];
-		float fy = vertexData[c][1]-vertexData[a][1];
-		float fz = vertexData[c][2]-vertexData[a][2];
+		float fx = vertexData[c  ]-vertexData[a  ];
+		float fy = vertexData[c+1]-vertexData[a+1];
+		float fz = vertexData[c+2]-vertexData[a+2];
 		
-		normalData[i][0] = ey*fz - ez*fy;
-		normalData[i][1] = ez*fx - ex*fz;
-		normalData[i][2] = ex*fy - ey*fx;
+		normalData[i  ] = ey*fz - ez*fy;
+		normalData[i+1] = ez*fx - ex*fz;
+		normalData[i+2] = ex*fy - ey*fx;
 	}
 }
 
 public void getNormal(Vector3 normal, int index)
 {
-	normal.set(normalData[index]);
+	normal.set(normalData[3*index], normalData[3*index+1], normalData[3*index+2]);
 }
 
+private Vector3 vector(float[] data, int index)
+{ return new Vector3(data[3*index], data[3*index+1], data[3*index+2]); }
+
+private Vector4 texcoords(float[] data, int index)
+{ return new Vector4(data[2*index], data[2*index+1], 0, 0); }
+
 public Triangle getTriangle(Triangle t, int index)
 {
-	t.a = new Vector3(vertexData[faceData[index][0]]);
-	t.b = new Vector3(vertexData[faceData[index][1]]);
-	t.c = new Vector3(vertexData[faceData[index][2]]);
-	t.n = new Vector3(normalData[index]).normalizeAndSet();
+	int a = faceData[3*index], b = faceData[3*index+1], c = faceData[3*index+2];
+	t.a = vector(vertexData, a);
+	t.b = vector(vertexData, b);
+	t.c = vector(vertexData, c);
+	t.n = vector(normalData, index).normalizeAndSet();
 	
 	if (vertexNormals != null)
 	{
-		t.vertexNormals[0] = new Vector3(vertexNormals[faceData[index][0]]);
-		t.vertexNormals[1] = new Vector3(vertexNormals[faceData[index][1]]);
-		t.vertexNormals[2] = new Vector3(vertexNormals[faceData[index][2]]);
+		t.vertexNormals[0] = vector(vertexNormals, a);
+		t.vertexNormals[1] = vector(vertexNormals, b);
+		t.vertexNormals[2] = vector(vertexNormals, c);
 	}
 	else
 	{
@@ -203,13 +250,13 @@ public Triangle getTriangle(Triangle t, int index)
 			t.setTexCoordFunctions(new TexCoordFunction[] { FUNCTION_0, FUNCTION_1 });
 			t.texcoordparams = new Vector4[6];
 			
-			t.texcoordparams[0] = new Vector4(texcoordData[faceData[index][0]], true);
-			t.texcoordparams[1] = new Vector4(texcoordData[faceData[index][1]], true);
-			t.texcoordparams[2] = new Vector4(texcoordData[faceData[index][2]], true);
+			t.texcoordparams[0] = texcoords(texcoordData, a);
+			t.texcoordparams[1] = texcoords(texcoordData, b);
+			t.texcoordparams[2] = texcoords(texcoordData, c);
 			
-			t.texcoordparams[3] = new Vector4(lmcoordData[faceData[index][0]], true);
-			t.texcoordparams[4] = new Vector4(lmcoordData[faceData[index][1]], true);
-			t.texcoordparams[5] = new Vector4(lmcoordData[faceData[index][2]], true);
+			t.texcoordparams[3] = texcoords(lmcoordData, a);
+			t.texcoordparams[4] = texcoords(lmcoordData, b);
+			t.texcoordparams[5] = texcoords(lmcoordData, c);
 		}
 		else
 		{
@@ -217,11 +264,9 @@ public Triangle getTriangle(Triangle t, int index)
 			t.setTexCoordFunctions(new TexCoordFunction[] { FUNCTION_0 });
 			t.texcoordparams = new Vector4[3];
 			
-			t.texcoordparams[0] = new Vector4(texcoordData[faceData[index][0]], true);
-			t.texcoordparams[1] = new Vector4(texcoordData[faceData[index][1]], true);
-			t.texcoordparams[2] = new Vector4(texcoordData[faceData[index][2]], true);
-			
-//			System.out.println(t.texcoordparams[0]+" "+t.texcoordparams[1]+" "+t.texcoordparams[2]);
+			t.texcoordparams[0] = texcoords(texcoordData, a);
+			t.texcoordparams[1] = texcoords(texcoordData, b);
+			t.texcoordparams[2] = texcoords(texcoordData, c);
 		}
 	}
 	
@@ -236,12 +281,65 @@ public Triangle getTriangle(int index)
 
 public Triangle[] getTriangles()
 {
-	Triangle[] result = new Triangle[faceData.length];
-	for (int i = 0; i < faceData.length; i++)
+	Triangle[] result = new Triangle[triangleCount()];
+	for (int i = 0; i < result.length; i++)
 		result[i] = getTriangle(i);
 	return result;
 }
 
+/**
+ * Returns a view of face <code>index</code> that reads from the arrays of this mesh,
+ * see {@link MeshTriangle}. Unlike {@link #getTriangle(int)}, nothing is copied.
+ */
+public MeshTriangle getFace(int index)
+{
+	MeshTriangle result = new MeshTriangle(this, index);
+	setTextures(result, index, null);
+	return result;
+}
+
+/**
+ * Returns views of all faces in face order, which take far less memory than
+ * {@link #getTriangles()}.
+ */
+public MeshTriangle[] getFaces()
+{
+	MeshTriangle[] result = new MeshTriangle[triangleCount()];
+	for (int i = 0; i < result.length; i++)
+	{
+		result[i] = new MeshTriangle(this, i);
+		setTextures(result[i], i, i > 0 ? result[i-1] : null);
+	}
+	return result;
+}
+
+/**
+ * Gives a face the textures of face <code>index</code>, like {@link #getTriangle(int)}.
+ * Runs of faces usually have the same textures, so a face shares the arrays of the
+ * previous one if possible.
+ */
+private void setTextures(MeshTriangle face, int index, MeshTriangle previous)
+{
+	if ((texcoordData == null) || (textureData == null)) return;
+	boolean lightmap = (lmcoordData != null) && (lightmapData != null);
+	Texture[] textures = previous != null ? previous.getTextures() : null;
+	if ((textures != null) && (textures[0] == textureData[index]) && (!lightmap || (textures[1] == lightmapData[index])))
+	{
+		face.setTextures(textures);
+		face.setTexCoordFunctions(previous.getTexCoordFunctions());
+	}
+	else if (lightmap)
+	{
+		face.setTextures(new Texture[] { textureData[index], lightmapData[index] });
+		face.setTexCoordFunctions(new TexCoordFunction[] { MESH_FUNCTION_0, MESH_FUNCTION_1 });
+	}
+	else
+	{
+		face.setTextures(new Texture[] { textureData[index] });
+		face.setTexCoordFunctions(new TexCoordFunction[] { MESH_FUNCTION_0 });
+	}
+}
+
 @Override
 public String toString()
 { return name; }
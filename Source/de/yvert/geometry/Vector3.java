@@ -204,6 +204,16 @@ public double multiply(double x, double y, double z)
 public Vector3 cross(Vector3 v)
 { return new Vector3(this).crossAndSet(v); }
 
+/**
+ * Same as cross(Vector3 v), but stores the result in dest, which may be this or v.
+ */
+public Vector3 cross(Vector3 v, Vector3 dest)
+{
+	return dest.set(v1*v.v2 - v2*v.v1,
+	                v2*v.v0 - v0*v.v2,
+	                v0*v.v1 - v1*v.v0);
+}
+
 /**
  * Same as cross(Vector3 v), but stores the result in the current Vector3.
  */
@@ -236,6 +246,12 @@ public Vector3 scaleAndSet(double d)
 public Vector3 add(Vector3 v)
 { return new Vector3(v0+v.v0,v1+v.v1,v2+v.v2); }
 
+/**
+ * Same as add(Vector3 v), but stores the result in dest.
+ */
+public Vector3 add(Vector3 v, Vector3 dest)
+{ return dest.set(v0+v.v0, v1+v.v1, v2+v.v2); }
+
 /**
  * Same as add(Vector3 v), but stores the result in the current Vector3.
  */
@@ -259,6 +275,12 @@ public Vector3 addAndSet(Vector3 v, double s)
 public Vector3 sub(Vector3 v)
 { return new Vector3(v0-v.v0, v1-v.v1, v2-v.v2); }
 
+/**
+ * Same as sub(Vector3 v), but stores the result in dest.
+ */
+public Vector3 sub(Vector3 v, Vector3 dest)
+{ return dest.set(v0-v.v0, v1-v.v1, v2-v.v2); }
+
 /**
  * Same as sub(Vector3 v), but stores the result in the current Vector3.
  */
@@ -405,19 +427,24 @@ public double distance(Vector3 other)
  * @see #normalizeAndSet()
  */
 public Vector3 findAnyOrthogonal()
+{ return findAnyOrthogonal(new Vector3()); }
+
+/**
+ * Same as findAnyOrthogonal(), but stores the result in dest, which must not be this.
+ */
+public Vector3 findAnyOrthogonal(Vector3 dest)
 {
 	// find the axis that is least colinear to this vector
-	Vector3 subdominant = new Vector3();
 	if ((Math.abs(v0) < Math.abs(v1)) && (Math.abs(v0) < Math.abs(v2)))
-		subdominant.set(1, 0, 0);
+		dest.set(1, 0, 0);
 	else
 	{
 		if (Math.abs(v1) < Math.abs(v2))
-			subdominant.set(0, 1, 0);
+			dest.set(0, 1, 0);
 		else
-			subdominant.set(0, 0, 1);
+			dest.set(0, 0, 1);
 	}
-	return cross(subdominant).normalizeAndSet();
+	return cross(dest, dest).normalizeAndSet();
 }
 
 /**
@@ -49,6 +49,8 @@ ArrayList<Vector3> vertices = new ArrayList<Vector3>();
 ArrayList<Vector3> texcoords = new ArrayList<Vector3>();
 ArrayList<Vector3> normals = new ArrayList<Vector3>();
 ArrayList<Face> faces = new ArrayList<Face>();
+// whether any of the faces has texture coordinates
+boolean hasTexcoords = false;
 
 boolean hasObject = false;
 
@@ -82,10 +84,11 @@ private void finishMesh() throws IOException
 		}
 	}
 	
-	mesh.faceData = new int[faces.size()][3];
-	mesh.vertexData = new float[used.size()][3];
-//	mesh.vertexNormals = new float[used.size()][3];
-	mesh.texcoordData = new float[used.size()][2];
+	mesh.faceData = new int[3*faces.size()];
+	mesh.vertexData = new float[3*used.size()];
+//	mesh.vertexNormals = new float[3*used.size()];
+	if (hasTexcoords)
+		mesh.texcoordData = new float[2*used.size()];
 	for (int i = 0; i < faces.size(); i++)
 	{
 		Face f = faces.get(i);
@@ -100,21 +103,23 @@ private void finishMesh() throws IOException
 				coords = NULL;
 			Vertex v = new Vertex(pos, coords);
 			int k = used.get(v).intValue();
-			mesh.faceData[i][j] = k;
-			mesh.vertexData[k][0] = (float) pos.getX();
-			mesh.vertexData[k][1] = (float) pos.getY();
-			mesh.vertexData[k][2] = (float) pos.getZ();
-//			mesh.vertexNormals[k][0] = (float) normal.getX();
-//			mesh.vertexNormals[k][1] = (float) normal.getY();
-//			mesh.vertexNormals[k][2] = (float) normal.getZ();
-			mesh.texcoordData[k][0] = (float) coords.getX();
-			mesh.texcoordData[k][1] = (float) coords.getY();
-//			mesh.texcoordData[k][2] = (float) coords.getZ();
+			mesh.faceData[3*i+j] = k;
+			mesh.vertexData[3*k  ] = (float) pos.getX();
+			mesh.vertexData[3*k+1] = (float) pos.getY();
+			mesh.vertexData[3*k+2] = (float) pos.getZ();
+//			mesh.vertexNormals[3*k  ] = (float) normal.getX();
+//			mesh.vertexNormals[3*k+1] = (float) normal.getY();
+//			mesh.vertexNormals[3*k+2] = (float) normal.getZ();
+			if (hasTexcoords)
+			{
+				mesh.texcoordData[2*k  ] = (float) coords.getX();
+				mesh.texcoordData[2*k+1] = (float) coords.getY();
+			}
 		}
 		
-		int h = mesh.faceData[i][1];
-		mesh.faceData[i][1] = mesh.faceData[i][2];
-		mesh.faceData[i][2] = h;
+		int h = mesh.faceData[3*i+1];
+		mesh.faceData[3*i+1] = mesh.faceData[3*i+2];
+		mesh.faceData[3*i+2] = h;
 	}
 	
 //	System.out.println("WARNING: new normal calculations!");
@@ -132,6 +137,7 @@ private void finishMesh() throws IOException
 		mesh.setMaterial(DEFAULT_MATERIAL);
 	model.add(mesh);
 	faces.clear();
+	hasTexcoords = false;
 	if (false) throw new IOException("FINISH ME!");
 }
 
@@ -150,7 +156,7 @@ private void parseFace(String s) throws IOException
 {
 	String[] corners = s.split(" +");
 	int[][] indices = new int[corners.length-1][3];
-//	boolean hasTexCoords = true;
+	boolean faceHasTexcoords = false;
 	Matcher m = SL_INT_PATTERN.matcher("");
 	for (int i = 0; i < corners.length-1; i++)
 	{
@@ -160,7 +166,10 @@ private void parseFace(String s) throws IOException
 			indices[i][0] = Integer.parseInt(m.group(1))-1;
 			String tmp = m.group(2);
 			if ((tmp != null) && !"".equals(tmp))
+			{
 				indices[i][1] = Integer.parseInt(tmp)-1;
+				faceHasTexcoords = true;
+			}
 			else
 				indices[i][1] = -1;
 			tmp = m.group(3);
@@ -176,6 +185,7 @@ private void parseFace(String s) throws IOException
 	{
 		case 3 :
 			faces.add(new Face(indices));
+			hasTexcoords |= faceHasTexcoords;
 			break;
 		case 4 :
 			{
@@ -189,6 +199,7 @@ private void parseFace(String s) throws IOException
 				second[2] = indices[3];
 				faces.add(new Face(first));
 				faces.add(new Face(second));
+				hasTexcoords |= faceHasTexcoords;
 			}
 			break;
 		default :
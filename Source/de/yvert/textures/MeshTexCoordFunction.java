@@ -0,0 +1,41 @@
+// arch-tag: 6ffd4002-b13d-4f2d-ad48-4941f709c31f
+package de.yvert.textures;
+
+import de.yvert.cr.profiles.IntersectionResult;
+import de.yvert.geometry.MeshTriangle;
+import de.yvert.geometry.Vector4;
+
+/**
+ * The counterpart of {@link TriangleTexCoordFunction} for a {@link MeshTriangle}, which
+ * interpolates the texture coordinates stored in its mesh: <code>texcoordData</code> for
+ * offset 0 and <code>lmcoordData</code> for offset 1.
+ */
+public class MeshTexCoordFunction extends TexCoordFunction
+{
+
+private final int offset;
+
+public MeshTexCoordFunction(int offset)
+{ this.offset = offset; }
+
+public int getOffset()
+{ return offset; }
+
+@Override
+public void genTexCoords(IntersectionResult result, Vector4 uvstcoords)
+{
+	MeshTriangle t = (MeshTriangle) result.item;
+	float[] coords = offset == 0 ? t.mesh.texcoordData : t.mesh.lmcoordData;
+	int[] f = t.mesh.faceData;
+	int a = 2*f[3*t.face], b = 2*f[3*t.face+1], c = 2*f[3*t.face+2];
+	
+	t.barycentricCoords(result, uvstcoords);
+	double wa = uvstcoords.getX(), wb = uvstcoords.getY(), wc = uvstcoords.getZ();
+	double x = wa*coords[a  ]+wb*coords[b  ]+wc*coords[c  ];
+	double y = wa*coords[a+1]+wb*coords[b+1]+wc*coords[c+1];
+	x -= Math.floor(x);
+	y -= Math.floor(y);
+	uvstcoords.set(x, y, 0, 0);
+}
+
+}
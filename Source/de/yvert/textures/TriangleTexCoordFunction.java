@@ -20,7 +20,7 @@ public int getOffset()
 public void genTexCoords(IntersectionResult result, Vector4 uvstcoords)
 {
 	Triangle t = (Triangle) result.item;
-	t.barycentricCoords(result.ray, uvstcoords);
+	t.barycentricCoords(result, uvstcoords);
 //	System.out.println(t.texcoordparams[offset+0]+" "+t.texcoordparams[offset+1]+" "+t.texcoordparams[offset+2]);
 	uvstcoords.multiplyAndSet(t.texcoordparams[offset+0], t.texcoordparams[offset+1], t.texcoordparams[offset+2]);
 	
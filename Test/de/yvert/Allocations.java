@@ -0,0 +1,112 @@
+// arch-tag: acd6d499-4b61-441b-8ceb-a9ba7155d2ae
+package de.yvert;
+
+import java.lang.management.ManagementFactory;
+
+import junit.framework.Assert;
+
+/**
+ * Counts the bytes the current thread allocates, for tests that check that hot methods
+ * produce no garbage. This needs a VM that implements
+ * <code>com.sun.management.ThreadMXBean</code>; on others, {@link #isSupported()} is
+ * false and {@link #assertNoAllocation} does nothing.
+ * <p>
+ * Escape analysis lets the JIT remove allocations, so whether a method passed would
+ * depend on whether earlier tests had already made the JIT compile it. The checks
+ * therefore only run in a VM started with <code>-XX:-DoEscapeAnalysis</code>, as the
+ * <code>test</code> target of the build file does; in other VMs
+ * {@link #isSupported()} is false as well. The code under test first runs a fixed
+ * number of times, so that classes are loaded and compilation has mostly happened
+ * before measuring, whatever ran before.
+ */
+public final class Allocations
+{
+
+private static final int WARMUP = 2000;
+private static final int RUNS = 5000;
+
+private static final com.sun.management.ThreadMXBean BEAN;
+private static final boolean CHECKED;
+
+static
+{
+	java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+	if ((bean instanceof com.sun.management.ThreadMXBean) &&
+			((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported())
+	{
+		BEAN = (com.sun.management.ThreadMXBean) bean;
+		BEAN.setThreadAllocatedMemoryEnabled(true);
+	}
+	else
+		BEAN = null;
+	CHECKED = (BEAN != null) && !isEscapeAnalysisEnabled();
+}
+
+private Allocations()
+{/*OK*/}
+
+private static boolean isEscapeAnalysisEnabled()
+{
+	try
+	{
+		com.sun.management.HotSpotDiagnosticMXBean bean = ManagementFactory.newPlatformMXBeanProxy(
+				ManagementFactory.getPlatformMBeanServer(), "com.sun.management:type=HotSpotDiagnostic",
+				com.sun.management.HotSpotDiagnosticMXBean.class);
+		return !"false".equals(bean.getVMOption("DoEscapeAnalysis").getValue());
+	}
+	catch (IllegalArgumentException e)
+	{ return false; } // no such option, so no escape analysis
+	catch (Exception e)
+	{ return true; } // cannot tell, so assume the worst
+}
+
+/**
+ * Returns whether {@link #assertNoAllocation} checks anything.
+ */
+public static boolean isSupported()
+{ return CHECKED; }
+
+/**
+ * Returns the number of bytes allocated by the current thread so far, or -1 if this
+ * is not supported.
+ */
+public static long allocatedBytes()
+{
+	if (BEAN == null) return -1;
+	return BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+}
+
+/**
+ * Runs the code to warm it up, so that classes are loaded and lazily created state
+ * exists, and then returns the number of bytes that <code>count</code> more runs
+ * allocate, or -1 if this is not supported.
+ */
+public static long measure(Runnable code, int count)
+{
+	if (BEAN == null) return -1;
+	for (int i = 0; i < WARMUP; i++)
+		code.run();
+	// what measuring itself allocates
+	long start = allocatedBytes();
+	long overhead = allocatedBytes()-start;
+	
+	start = allocatedBytes();
+	for (int i = 0; i < count; i++)
+		code.run();
+	return Math.max(0, allocatedBytes()-start-overhead);
+}
+
+/**
+ * Fails if the code allocates anything once warmed up.
+ */
+public static void assertNoAllocation(String message, Runnable code)
+{
+	if (!CHECKED) return;
+	long bytes = measure(code, RUNS);
+	// anything that allocates does so on every run, and an object takes at least 16 bytes;
+	// less than a byte per run is left over from compiling the code while measuring
+	if (bytes >= RUNS)
+		Assert.fail(message+" allocates "+(bytes/RUNS)+" bytes per call");
+}
+
+}
@@ -0,0 +1,165 @@
+// arch-tag: b048bafb-3738-4d48-976b-e908adb11595
+package de.yvert.accel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import de.yvert.cr.profiles.IntersectionResult;
+import de.yvert.geometry.MeshTriangle;
+import de.yvert.geometry.Ray;
+import de.yvert.geometry.SceneItem;
+import de.yvert.geometry.SceneItemCollection;
+import de.yvert.geometry.Triangle;
+import de.yvert.geometry.TriangleMesh;
+
+public class BVHCacheTest extends TestCase
+{
+
+private File directory;
+
+@Override
+protected void setUp() throws Exception
+{
+	directory = File.createTempFile("bvhcache", "");
+	directory.delete();
+	directory.mkdir();
+}
+
+@Override
+protected void tearDown() throws Exception
+{
+	File[] files = directory.listFiles();
+	for (int i = 0; i < files.length; i++)
+		files[i].delete();
+	directory.delete();
+}
+
+private static TriangleMesh randomMesh(long seed, int count)
+{
+	SceneItem[] items = TestScenes.randomTriangles(seed, count).toArray();
+	Triangle[] triangles = new Triangle[items.length];
+	for (int i = 0; i < items.length; i++)
+		triangles[i] = (Triangle) items[i];
+	return new TriangleMesh(triangles);
+}
+
+private static SceneItemCollection collection(SceneItem[] items)
+{
+	SceneItemCollection result = new SceneItemCollection();
+	for (int i = 0; i < items.length; i++)
+		result.add(items[i]);
+	return result;
+}
+
+public void testRoundTrip() throws IOException
+{
+	TriangleMesh mesh = randomMesh(1234, 1000);
+	BVHCache cache = new BVHCache(directory, new SAHBuilder());
+	assertFalse(cache.getFile(mesh).exists());
+	MeshBVH built = (MeshBVH) cache.get(mesh);
+	assertTrue(cache.getFile(mesh).exists());
+	
+	MappedMeshBVH loaded = (MappedMeshBVH) cache.get(mesh);
+	assertTrue(loaded.bounds.isDirect());
+	assertEquals(built.nodeCount, loaded.nodeCount);
+	assertEquals(built.maxDepth, loaded.maxDepth);
+	assertEquals(built.refs.length, loaded.refs.limit());
+	for (int i = 0; i < built.refs.length; i++)
+		assertEquals(built.refs[i], loaded.refs.get(i));
+	for (int i = 0; i < 2*built.nodeCount; i++)
+		assertEquals(built.nodes[i], loaded.nodes.get(i));
+	for (int i = 0; i < 6*built.nodeCount; i++)
+		assertEquals(built.bounds[i], loaded.bounds.get(i), 0);
+	assertEquals(0, built.getBoundingBox().max.distance(loaded.getBoundingBox().max), 0);
+	assertTrue(TestScenes.compare(collection(loaded.items), loaded, 99, 1000) > 50);
+}
+
+public void testDuplicatedReferences() throws IOException
+{
+	TriangleMesh mesh = randomMesh(4321, 500);
+	BVHCache cache = new BVHCache(directory, new SBVHBuilder());
+	BVH built = (BVH) cache.get(mesh);
+	MappedBVH loaded = (MappedBVH) cache.get(mesh);
+	assertSame(mesh, ((MappedMeshBVH) loaded).getMesh());
+	assertEquals(built.refs.length, loaded.refs.limit());
+	TestScenes.compare(collection(loaded.items), loaded, 7, 500);
+}
+
+public void testHitRecord() throws IOException
+{
+	TriangleMesh mesh = randomMesh(1234, 300);
+	BVHCache cache = new BVHCache(directory, new SAHBuilder());
+	Accelerator built = cache.get(mesh);
+	Accelerator loaded = cache.get(mesh);
+	Random rand = new Random(5);
+	IntersectionResult result = new IntersectionResult();
+	int hits = 0;
+	for (int i = 0; i < 200; i++)
+	{
+		Ray ray = TestScenes.randomRay(rand);
+		for (Accelerator accel : new Accelerator[] { built, loaded })
+		{
+			result.clearPrimitive();
+			if (!accel.intersect(ray, Double.MAX_VALUE, result)) continue;
+			hits++;
+			assertTrue(result.hasBarycentrics);
+			assertSame(mesh, result.mesh);
+			assertEquals(result.primitive, ((MeshTriangle) result.item).face);
+			assertEquals(result.distance, mesh.getTriangle(result.primitive).distance(ray), 1e-6);
+		}
+	}
+	assertTrue(hits > 50);
+}
+
+public void testHash()
+{
+	TriangleMesh mesh = randomMesh(1234, 100);
+	byte[] hash = BVHCache.hash(mesh);
+	assertTrue(Arrays.equals(hash, BVHCache.hash(randomMesh(1234, 100))));
+	mesh.vertexData[3*17+1] += 0.001f;
+	assertFalse(Arrays.equals(hash, BVHCache.hash(mesh)));
+}
+
+public void testDamagedFile() throws IOException
+{
+	TriangleMesh mesh = randomMesh(1234, 200);
+	BVHCache cache = new BVHCache(directory, new SAHBuilder());
+	cache.get(mesh);
+	File file = cache.getFile(mesh);
+	
+	RandomAccessFile out = new RandomAccessFile(file, "rw");
+	out.setLength(file.length()-4);
+	out.close();
+	try
+	{
+		BVHCache.read(file, BVHCache.hash(mesh), mesh.getTriangles());
+		fail();
+	}
+	catch (IOException e)
+	{/*Expected Exception*/}
+	
+	// rebuilt and stored again
+	BVH bvh = (BVH) cache.get(mesh);
+	assertEquals(bvh.refs.length, BVHCache.read(file, BVHCache.hash(mesh), mesh.getTriangles()).refs.limit());
+}
+
+public void testOtherMesh() throws IOException
+{
+	TriangleMesh mesh = randomMesh(1234, 200);
+	BVHCache cache = new BVHCache(directory, new SAHBuilder());
+	cache.get(mesh);
+	try
+	{
+		TriangleMesh other = randomMesh(99, 200);
+		BVHCache.read(cache.getFile(mesh), BVHCache.hash(other), other.getTriangles());
+		fail();
+	}
+	catch (IOException e)
+	{/*Expected Exception*/}
+}
+
+}
@@ -0,0 +1,151 @@
+// arch-tag: ad3eecf1-2c31-4742-8312-b556e8bde717
+package de.yvert.accel;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import de.yvert.cr.profiles.IntersectionResult;
+import de.yvert.geometry.Ray;
+import de.yvert.geometry.RayPacket;
+import de.yvert.geometry.SceneItemCollection;
+import de.yvert.geometry.Sphere;
+import de.yvert.geometry.Vector3;
+
+public class BVHTest extends TestCase
+{
+
+public void testEmpty()
+{
+	BVH bvh = new SAHBuilder().build(new SceneItemCollection());
+	assertEquals(0, bvh.getNodeCount());
+	assertNull(bvh.getBoundingBox());
+	Ray ray = new Ray();
+	ray.v.set(0, 0, 1);
+	ray.update();
+	assertFalse(bvh.intersect(ray, Double.MAX_VALUE, new IntersectionResult()));
+}
+
+public void testSingleSphere()
+{
+	SceneItemCollection items = new SceneItemCollection();
+	Sphere sphere = new Sphere(new Vector3(0, 0, 5), 1);
+	items.add(sphere);
+	BVH bvh = new SAHBuilder().build(items);
+	assertEquals(1, bvh.getNodeCount());
+	
+	Ray ray = new Ray();
+	ray.v.set(0, 0, 1);
+	ray.update();
+	IntersectionResult result = new IntersectionResult();
+	assertTrue(bvh.intersect(ray, Double.MAX_VALUE, result));
+	assertSame(sphere, result.item);
+	assertEquals(4, result.distance, 1e-9);
+	assertFalse(bvh.intersect(ray, 3, new IntersectionResult()));
+}
+
+public void testTriangles()
+{
+	SceneItemCollection items = TestScenes.randomTriangles(1234, 2000);
+	BVH bvh = new SAHBuilder().build(items);
+	assertTrue(TestScenes.compare(items, bvh, 99, 2000) > 100);
+}
+
+public void testMixed()
+{
+	SceneItemCollection items = TestScenes.randomScene(4321, 500, 100);
+	BVH bvh = new SAHBuilder().build(items);
+	assertTrue(TestScenes.compare(items, bvh, 17, 2000) > 100);
+}
+
+public void testLargeLeaves()
+{
+	SceneItemCollection items = TestScenes.randomScene(4321, 500, 100);
+	SAHBuilder builder = new SAHBuilder();
+	builder.setTraversalCost(100);
+	builder.setMaxLeafSize(32);
+	BVH bvh = builder.build(items);
+	assertTrue(bvh.getStatistics().maxLeafSize <= 32);
+	TestScenes.compare(items, bvh, 17, 500);
+}
+
+public void testCoincidentItems()
+{
+	SceneItemCollection items = new SceneItemCollection();
+	for (int i = 0; i < 50; i++)
+		items.add(new Sphere(new Vector3(0, 0, 5), 1));
+	BVH bvh = new SAHBuilder().build(items);
+	assertTrue(bvh.getStatistics().maxLeafSize <= new SAHBuilder().getMaxLeafSize());
+	TestScenes.compare(items, bvh, 5, 200);
+}
+
+public void testStatistics()
+{
+	SceneItemCollection items = TestScenes.randomTriangles(1234, 1000);
+	BVHStatistics stats = new SAHBuilder().build(items).getStatistics();
+	assertEquals(1000, stats.itemCount);
+	assertEquals(1000, stats.referenceCount);
+	assertEquals(2*stats.leafCount-1, stats.nodeCount);
+	assertTrue(stats.maxDepth > 0);
+	assertTrue(stats.sahCost > 0);
+	assertTrue(stats.sahCost < 1000);
+	assertNotNull(stats.toString());
+}
+
+private static void comparePackets(BVH bvh, long seed, boolean coherent, boolean frustum)
+{
+	Random rand = new Random(seed);
+	RayPacket packet = new RayPacket(16);
+	packet.setFrustumCulling(frustum);
+	IntersectionResult[] results = new IntersectionResult[16];
+	for (int k = 0; k < 16; k++)
+		results[k] = new IntersectionResult();
+	IntersectionResult expected = new IntersectionResult();
+	int hits = 0;
+	int coherentPackets = 0;
+	for (int i = 0; i < 300; i++)
+	{
+		Vector3 origin = TestScenes.randomPoint(rand, 15);
+		Vector3 target = TestScenes.randomPoint(rand, 5);
+		int mask = (i % 2 == 0) ? 0xFFFF : rand.nextInt(0x10000);
+		for (int k = 0; k < 16; k++)
+		{
+			Ray ray = packet.rays[k];
+			ray.p.set(origin);
+			if (coherent)
+				ray.v.set(target).subAndSet(origin).normalizeAndSet().addAndSet(TestScenes.randomPoint(rand, 0.02));
+			else
+				ray.v.set(TestScenes.randomPoint(rand, 1));
+			ray.update();
+			packet.maxDistance[k] = (i % 4 == 0) ? 20 : Double.MAX_VALUE;
+			results[k].item = null;
+		}
+		packet.update(mask);
+		if (packet.isCoherent()) coherentPackets++;
+		int hit = bvh.intersect(packet, results);
+		assertEquals(0, hit & ~mask);
+		for (int k = 0; k < 16; k++)
+		{
+			if ((mask & (1 << k)) == 0) continue;
+			boolean single = bvh.intersect(packet.rays[k], (i % 4 == 0) ? 20 : Double.MAX_VALUE, expected);
+			assertEquals(single, (hit & (1 << k)) != 0);
+			if (!single) continue;
+			hits++;
+			assertSame(expected.item, results[k].item);
+			assertEquals(expected.distance, results[k].distance, 1e-9);
+			assertEquals(expected.distance, packet.maxDistance[k], 1e-9);
+		}
+	}
+	assertTrue(hits > 100);
+	assertEquals(coherent, coherentPackets > 200);
+}
+
+public void testPackets()
+{
+	BVH bvh = new SAHBuilder().build(TestScenes.randomScene(12, 2000, 50));
+	comparePackets(bvh, 1, true, true);
+	comparePackets(bvh, 2, true, false);
+	comparePackets(bvh, 3, false, true);
+	assertEquals(0, new SAHBuilder().build(new SceneItemCollection()).intersect(new RayPacket(4), new IntersectionResult[4]));
+}
+
+}
@@ -0,0 +1,98 @@
+// arch-tag: a8294257-0d46-4f71-9fc3-8da138ae337e
+package de.yvert.accel;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import de.yvert.cr.profiles.IntersectionResult;
+import de.yvert.geometry.Parallelogram;
+import de.yvert.geometry.Ray;
+import de.yvert.geometry.SceneItem;
+import de.yvert.geometry.SceneItemCollection;
+import de.yvert.geometry.Sphere;
+import de.yvert.geometry.Triangle;
+import de.yvert.geometry.Vector3;
+
+public class CompiledBVHTest extends TestCase
+{
+
+private static SceneItemCollection mixedScene(long seed)
+{
+	Random rand = new Random(seed);
+	SceneItemCollection result = TestScenes.randomScene(seed, 1000, 100);
+	for (int i = 0; i < 100; i++)
+	{
+		Vector3 a = TestScenes.randomPoint(rand, 10);
+		result.add(new Parallelogram(a, a.add(TestScenes.randomPoint(rand, 1)), a.add(TestScenes.randomPoint(rand, 1))));
+	}
+	// subclasses are not compiled
+	for (int i = 0; i < 21; i++)
+	{
+		result.add(new Sphere(TestScenes.randomPoint(rand, 10), 0.1+rand.nextDouble())
+			{
+				@Override
+				public double distance(Ray ray)
+				{ return super.distance(ray); }
+			});
+	}
+	return result;
+}
+
+public void testIntersect()
+{
+	SceneItemCollection items = mixedScene(1);
+	CompiledBVH bvh = new CompiledBVH(new SAHBuilder().build(items));
+	assertEquals(1000, bvh.getTypeCount(CompiledBVH.TRIANGLE));
+	assertEquals(100, bvh.getTypeCount(CompiledBVH.SPHERE));
+	assertEquals(100, bvh.getTypeCount(CompiledBVH.PARALLELOGRAM));
+	assertEquals(21, bvh.getTypeCount(CompiledBVH.OTHER));
+	assertTrue(TestScenes.compare(items, bvh, 99, 2000) > 100);
+	TestScenes.compare(items, new WideBVH(bvh, 4), 5, 500);
+}
+
+public void testSameDistances()
+{
+	Random rand = new Random(7);
+	Sphere sphere = new Sphere(new Vector3(1, 2, 3), 1.5);
+	Parallelogram p = new Parallelogram(new Vector3(0, 0, 0), new Vector3(2, 0.5, 0), new Vector3(2.5, 2, 0.5));
+	SceneItemCollection items = new SceneItemCollection();
+	items.add(sphere);
+	items.add(p);
+	CompiledBVH bvh = new CompiledBVH(new SAHBuilder().build(items));
+	IntersectionResult result = new IntersectionResult();
+	for (int i = 0; i < 1000; i++)
+	{
+		Ray ray = TestScenes.randomRay(rand);
+		ray.p.scaleAndSet(0.3);
+		ray.update();
+		int sphereIndex = bvh.items[0] == sphere ? 0 : 1;
+		assertEquals(sphere.distance(ray), bvh.intersectItem(sphereIndex, ray, Double.MAX_VALUE, result), 1e-12);
+		assertEquals(p.distance(ray), bvh.intersectItem(1-sphereIndex, ray, Double.MAX_VALUE, result), 1e-9);
+	}
+}
+
+public void testBarycentrics()
+{
+	SceneItemCollection items = TestScenes.randomScene(3, 500, 50);
+	CompiledBVH bvh = new CompiledBVH(new SAHBuilder().build(items));
+	Random rand = new Random(4);
+	IntersectionResult result = new IntersectionResult();
+	Vector3 expected = new Vector3();
+	int triangles = 0;
+	for (int i = 0; i < 1000; i++)
+	{
+		Ray ray = TestScenes.randomRay(rand);
+		if (!bvh.intersect(ray, Double.MAX_VALUE, result)) continue;
+		SceneItem item = result.item;
+		assertEquals(item instanceof Triangle, result.hasBarycentrics);
+		assertEquals(-1, result.primitive);
+		if (!(item instanceof Triangle)) continue;
+		triangles++;
+		((Triangle) item).barycentricCoords(ray, expected);
+		assertEquals(expected.getY(), result.baryU, 1e-9);
+		assertEquals(expected.getZ(), result.baryV, 1e-9);
+	}
+	assertTrue(triangles > 50);
+}
+
+}
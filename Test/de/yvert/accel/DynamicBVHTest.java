@@ -0,0 +1,113 @@
+// arch-tag: 9c29a35f-2ebd-43c6-b40c-a51f90083cb2
+package de.yvert.accel;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import de.yvert.geometry.SceneItem;
+import de.yvert.geometry.SceneItemCollection;
+import de.yvert.geometry.Sphere;
+import de.yvert.geometry.Vector3;
+
+public class DynamicBVHTest extends TestCase
+{
+
+private static SceneItemCollection toCollection(ArrayList<SceneItem> list)
+{
+	SceneItemCollection result = new SceneItemCollection();
+	for (SceneItem item : list)
+		result.add(item);
+	return result;
+}
+
+public void testEmpty()
+{
+	DynamicBVH bvh = new DynamicBVH();
+	assertEquals(0, bvh.size());
+	assertNull(bvh.getBoundingBox());
+	assertEquals(0, TestScenes.compare(new SceneItemCollection(), bvh, 1, 10));
+}
+
+public void testInsert()
+{
+	SceneItemCollection items = TestScenes.randomScene(1234, 2000, 100);
+	DynamicBVH bvh = new DynamicBVH(items);
+	assertEquals(items.size(), bvh.size());
+	assertEquals(2*items.size()-1, bvh.getNodeCount());
+	assertTrue(TestScenes.compare(items, bvh, 99, 2000) > 100);
+	
+	// the tree stays shallow and close to a full rebuild
+	assertTrue(bvh.getHeight() < 40);
+	double rebuilt = new SAHBuilder().build(items).getStatistics().sahCost;
+	assertTrue(bvh.getSAHCost() < 2*rebuilt);
+}
+
+public void testInsertRemove()
+{
+	Random rand = new Random(5);
+	SceneItemCollection pool = TestScenes.randomScene(4321, 1000, 100);
+	ArrayList<SceneItem> contained = new ArrayList<SceneItem>();
+	ArrayList<SceneItem> removed = new ArrayList<SceneItem>();
+	for (SceneItem item : pool)
+		removed.add(item);
+	
+	DynamicBVH bvh = new DynamicBVH();
+	for (int round = 0; round < 10; round++)
+	{
+		for (int i = 0; i < 200; i++)
+		{
+			boolean add = contained.isEmpty() || (!removed.isEmpty() && rand.nextInt(3) != 0);
+			if (add)
+			{
+				SceneItem item = removed.remove(rand.nextInt(removed.size()));
+				bvh.insert(item);
+				contained.add(item);
+			}
+			else
+			{
+				SceneItem item = contained.remove(rand.nextInt(contained.size()));
+				assertTrue(bvh.remove(item));
+				assertFalse(bvh.contains(item));
+				removed.add(item);
+			}
+		}
+		assertEquals(contained.size(), bvh.size());
+		assertEquals(Math.max(0, 2*contained.size()-1), bvh.getNodeCount());
+		TestScenes.compare(toCollection(contained), bvh, round, 200);
+	}
+	
+	for (SceneItem item : contained)
+		assertTrue(bvh.remove(item));
+	assertEquals(0, bvh.size());
+	assertEquals(0, bvh.getNodeCount());
+	assertFalse(bvh.remove(pool.iterator().next()));
+}
+
+public void testUpdate()
+{
+	SceneItemCollection items = TestScenes.randomScene(77, 200, 50);
+	DynamicBVH bvh = new DynamicBVH(items);
+	Random rand = new Random(3);
+	for (SceneItem item : items)
+		if (item instanceof Sphere)
+		{
+			((Sphere) item).point.set(TestScenes.randomPoint(rand, 10));
+			assertTrue(bvh.update(item));
+		}
+	TestScenes.compare(items, bvh, 4, 1000);
+	assertFalse(bvh.update(new Sphere(new Vector3(0, 0, 0), 1)));
+}
+
+public void testSortedInsertion()
+{
+	// spheres along a line, inserted in order
+	SceneItemCollection items = new SceneItemCollection();
+	for (int i = 0; i < 4096; i++)
+		items.add(new Sphere(new Vector3(i*0.01-20, 0.5, 0.5), 0.004));
+	DynamicBVH bvh = new DynamicBVH(items);
+	assertTrue(bvh.getHeight() < 64);
+	TestScenes.compare(items, bvh, 5, 500);
+}
+
+}
@@ -0,0 +1,104 @@
+// arch-tag: a25d89d2-6e66-482e-aa2b-1bf489a5727b
+package de.yvert.accel;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import de.yvert.geometry.SceneItemCollection;
+import de.yvert.geometry.Sphere;
+import de.yvert.geometry.Triangle;
+import de.yvert.geometry.Vector3;
+
+public class GridTest extends TestCase
+{
+
+public void testEmpty()
+{
+	Grid grid = new GridBuilder().build(new SceneItemCollection());
+	assertNull(grid.getBoundingBox());
+	assertEquals(0, TestScenes.compare(new SceneItemCollection(), grid, 1, 10));
+}
+
+public void testSingleSphere()
+{
+	SceneItemCollection items = new SceneItemCollection();
+	items.add(new Sphere(new Vector3(1, 2, 3), 1));
+	Grid grid = new GridBuilder().build(items);
+	assertEquals(1, grid.getTopCellCount());
+	TestScenes.compare(items, grid, 3, 100);
+}
+
+public void testTriangles()
+{
+	SceneItemCollection items = TestScenes.randomTriangles(1234, 2000);
+	Grid grid = new GridBuilder().build(items);
+	assertTrue(grid.getTopCellCount() > 1);
+	assertTrue(grid.getLeafCellCount() > grid.getTopCellCount());
+	assertTrue(grid.getReferenceCount() >= items.size());
+	assertTrue(TestScenes.compare(items, grid, 99, 2000) > 100);
+}
+
+public void testMixed()
+{
+	SceneItemCollection items = TestScenes.randomScene(4321, 1000, 200);
+	Grid grid = new GridBuilder().build(items);
+	assertTrue(TestScenes.compare(items, grid, 77, 2000) > 100);
+}
+
+public void testClustered()
+{
+	// a dense cluster in a sparse scene gets finer subgrids
+	Random rand = new Random(8);
+	SceneItemCollection items = TestScenes.randomTriangles(3, 200);
+	for (int i = 0; i < 2000; i++)
+		items.add(TestScenes.randomTriangle(rand, 1, 0.1));
+	Grid grid = new GridBuilder().build(items);
+	assertTrue(TestScenes.compare(items, grid, 17, 2000) > 100);
+}
+
+public void testPlanar()
+{
+	// a terrain patch, flat along z
+	SceneItemCollection items = new SceneItemCollection();
+	for (int x = 0; x < 20; x++)
+		for (int y = 0; y < 20; y++)
+		{
+			items.add(new Triangle(new Vector3(x, y, 0), new Vector3(x+1, y, 0), new Vector3(x, y+1, 0)));
+			items.add(new Triangle(new Vector3(x+1, y+1, 0), new Vector3(x, y+1, 0), new Vector3(x+1, y, 0)));
+		}
+	Grid grid = new GridBuilder().build(items);
+	assertEquals(1, grid.getResolution(2));
+	assertTrue(grid.getResolution(0) > 1);
+	TestScenes.compare(items, grid, 13, 2000);
+}
+
+public void testResolution()
+{
+	int[] res = new int[3];
+	GridBuilder.resolution(10, 10, 10, 1000, 1, 128, res, 0);
+	assertEquals(10, res[0]);
+	assertEquals(10, res[1]);
+	assertEquals(10, res[2]);
+	GridBuilder.resolution(20, 5, 0, 400, 1, 128, res, 0);
+	assertEquals(40, res[0]);
+	assertEquals(10, res[1]);
+	assertEquals(1, res[2]);
+}
+
+public void testDensity()
+{
+	GridBuilder builder = new GridBuilder();
+	try
+	{
+		builder.setCellDensity(0);
+		fail();
+	}
+	catch (IllegalArgumentException e)
+	{/*Expected Exception*/}
+	SceneItemCollection items = TestScenes.randomScene(5, 500, 50);
+	builder.setTopDensity(1);
+	builder.setCellDensity(0.5);
+	TestScenes.compare(items, builder.build(items), 6, 500);
+}
+
+}
@@ -0,0 +1,162 @@
+// arch-tag: 219005c4-0563-4916-a072-8564a9bbb4c2
+package de.yvert.accel;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import de.yvert.cr.profiles.IntersectionResult;
+import de.yvert.geometry.Matrix4;
+import de.yvert.geometry.Ray;
+import de.yvert.geometry.SceneItem;
+import de.yvert.geometry.SceneItemCollection;
+import de.yvert.geometry.Triangle;
+import de.yvert.geometry.Triangulation;
+import de.yvert.geometry.Vector3;
+
+public class InstanceTest extends TestCase
+{
+
+private static Matrix4 randomTransform(Random rand)
+{
+	double angle = 2*Math.PI*rand.nextDouble();
+	double sx = 0.5+rand.nextDouble(), sy = 0.5+rand.nextDouble(), sz = 0.5+rand.nextDouble();
+	Matrix4 rotation = new Matrix4(Math.cos(angle), -Math.sin(angle), 0, 0,
+	                               Math.sin(angle),  Math.cos(angle), 0, 0,
+	                               0, 0, 1, 0,
+	                               0, 0, 0, 1);
+	Matrix4 scale = new Matrix4(sx, 0, 0, 0, 0, sy, 0, 0, 0, 0, sz, 0, 0, 0, 0, 1);
+	Vector3 t = TestScenes.randomPoint(rand, 10);
+	Matrix4 translation = new Matrix4(1, 0, 0, t.getX(), 0, 1, 0, t.getY(), 0, 0, 1, t.getZ(), 0, 0, 0, 1);
+	return translation.multiplyAndSet(rotation).multiplyAndSet(scale);
+}
+
+private static Triangle transform(Triangle tri, Matrix4 m)
+{ return new Triangle(tri.a.multiply(m), tri.b.multiply(m), tri.c.multiply(m)); }
+
+public void testInvert()
+{
+	Random rand = new Random(42);
+	for (int i = 0; i < 10; i++)
+	{
+		Matrix4 m = randomTransform(rand);
+		Matrix4 product = m.multiply(m.invert());
+		for (int x = 0; x < 4; x++)
+			for (int y = 0; y < 4; y++)
+				assertEquals(x == y ? 1 : 0, product.getEntry(x, y), 1e-12);
+	}
+}
+
+public void testSingular()
+{
+	try
+	{
+		new Matrix4().invert();
+		fail();
+	}
+	catch (ArithmeticException e)
+	{/*Expected Exception*/}
+}
+
+public void testNotAffine()
+{
+	Matrix4 m = new Matrix4(1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 1, 1);
+	try
+	{
+		new Instance(new SAHBuilder().build(new SceneItemCollection()), m);
+		fail();
+	}
+	catch (IllegalArgumentException e)
+	{/*Expected Exception*/}
+}
+
+public void testTriangulate()
+{
+	Random rand = new Random(11);
+	SceneItemCollection mesh = new SceneItemCollection();
+	for (int i = 0; i < 20; i++)
+	{
+		Triangle t = TestScenes.randomTriangle(rand, 1, 0.5);
+		t.vertexNormals[1] = t.n;
+		mesh.add(t);
+	}
+	BVH shared = new SAHBuilder().build(mesh);
+	Matrix4 m = randomTransform(rand);
+	
+	Triangulation tri = new Triangulation();
+	new Instance(shared, m).triangulate(tri);
+	assertEquals(shared.items.length, tri.size());
+	int i = 0;
+	for (Triangle actual : tri)
+	{
+		Triangle expected = transform((Triangle) shared.items[i++], m);
+		assertEquals(0, expected.a.distance(actual.a), 1e-9);
+		assertEquals(0, expected.b.distance(actual.b), 1e-9);
+		assertEquals(0, expected.c.distance(actual.c), 1e-9);
+		assertEquals(1, expected.n.multiply(actual.n), 1e-9);
+		assertNull(actual.vertexNormals[0]);
+		assertEquals(1, expected.n.multiply(actual.vertexNormals[1]), 1e-9);
+	}
+	
+	// a mirror flips the winding, but not the normals
+	Matrix4 mirror = new Matrix4(-1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1);
+	tri = new Triangulation();
+	new Instance(shared, mirror).triangulate(tri);
+	Triangle source = (Triangle) shared.items[0];
+	Triangle actual = tri.toArray()[0];
+	assertEquals(0, actual.a.distance(source.a.multiply(mirror)), 1e-12);
+	Vector3 n = new Vector3(-source.n.getX(), source.n.getY(), source.n.getZ());
+	assertEquals(0, n.distance(actual.n), 1e-12);
+}
+
+public void testInstances()
+{
+	Random rand = new Random(7);
+	SceneItemCollection mesh = new SceneItemCollection();
+	for (int i = 0; i < 100; i++)
+		mesh.add(TestScenes.randomTriangle(rand, 1, 0.5));
+	BVH shared = new SAHBuilder().build(mesh);
+	
+	// the same scene, once instanced and once with all triangles copied
+	SceneItemCollection instances = new SceneItemCollection();
+	SceneItemCollection copies = new SceneItemCollection();
+	for (int i = 0; i < 50; i++)
+	{
+		Matrix4 m = randomTransform(rand);
+		instances.add(new Instance(shared, m));
+		for (SceneItem item : mesh)
+			copies.add(transform((Triangle) item, m));
+	}
+	TopLevelBVH top = new TopLevelBVH(new SAHBuilder().build(instances));
+	
+	IntersectionResult expected = new IntersectionResult();
+	IntersectionResult actual = new IntersectionResult();
+	Vector3 expectedNormal = new Vector3();
+	Vector3 actualNormal = new Vector3();
+	int hits = 0;
+	for (int i = 0; i < 2000; i++)
+	{
+		Ray ray = TestScenes.randomRay(rand);
+		TestScenes.bruteForce(copies, ray, Double.MAX_VALUE, expected);
+		actual.item = null;
+		boolean hit = top.intersect(ray, Double.MAX_VALUE, actual);
+		assertEquals("ray "+i, expected.item != null, hit);
+		if (!hit) continue;
+		hits++;
+		assertEquals("ray "+i, expected.distance, actual.distance, 1e-9);
+		assertTrue(actual.item instanceof Instance);
+		assertTrue(actual.innerItem instanceof Triangle);
+		
+		expected.ray.set(ray);
+		expected.hitpoint.set(ray.v).scaleAndSet(expected.distance).addAndSet(ray.p);
+		expected.item.getNormal(expected, expectedNormal);
+		actual.ray.set(ray);
+		actual.hitpoint.set(expected.hitpoint);
+		actual.item.getNormal(actual, actualNormal);
+		assertEquals(1, expectedNormal.multiply(actualNormal), 1e-9);
+		
+		assertEquals(expected.distance, actual.item.distance(ray), 1e-9);
+	}
+	assertTrue(hits > 100);
+}
+
+}
@@ -0,0 +1,101 @@
+// arch-tag: 141804cc-8dec-48d6-aefc-0fe608caf89f
+package de.yvert.accel;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import de.yvert.geometry.SceneItemCollection;
+import de.yvert.geometry.Sphere;
+import de.yvert.geometry.Triangle;
+import de.yvert.geometry.Vector3;
+
+public class KdTreeTest extends TestCase
+{
+
+public void testEmpty()
+{
+	KdTree tree = new KdTreeBuilder().build(new SceneItemCollection());
+	assertEquals(0, tree.getNodeCount());
+	assertNull(tree.getBoundingBox());
+	assertEquals(0, TestScenes.compare(new SceneItemCollection(), tree, 1, 10));
+}
+
+public void testSingleSphere()
+{
+	SceneItemCollection items = new SceneItemCollection();
+	items.add(new Sphere(new Vector3(1, 2, 3), 1));
+	KdTree tree = new KdTreeBuilder().build(items);
+	assertEquals(1, tree.getNodeCount());
+	TestScenes.compare(items, tree, 3, 100);
+}
+
+public void testTriangles()
+{
+	SceneItemCollection items = TestScenes.randomTriangles(1234, 2000);
+	KdTree tree = new KdTreeBuilder().build(items);
+	assertTrue(tree.getNodeCount() > 1);
+	assertTrue(tree.getReferenceCount() >= items.size());
+	assertTrue(TestScenes.compare(items, tree, 99, 2000) > 100);
+}
+
+public void testMixed()
+{
+	SceneItemCollection items = TestScenes.randomScene(4321, 1000, 200);
+	KdTree tree = new KdTreeBuilder().build(items);
+	assertTrue(TestScenes.compare(items, tree, 77, 2000) > 100);
+}
+
+public void testLongThinTriangles()
+{
+	// diagonal slivers, their boxes overlap almost everything
+	Random rand = new Random(5);
+	SceneItemCollection items = new SceneItemCollection();
+	for (int i = 0; i < 500; i++)
+	{
+		Vector3 a = TestScenes.randomPoint(rand, 10);
+		Vector3 b = a.scale(-1);
+		Vector3 c = new Vector3(a).addAndSet(TestScenes.randomPoint(rand, 0.1));
+		items.add(new Triangle(a, b, c));
+	}
+	KdTree tree = new KdTreeBuilder().build(items);
+	assertTrue(TestScenes.compare(items, tree, 11, 2000) > 100);
+}
+
+public void testPlanar()
+{
+	// all triangles in the plane z = 0, and some axis-aligned ones on split candidates
+	SceneItemCollection items = new SceneItemCollection();
+	for (int x = 0; x < 10; x++)
+		for (int y = 0; y < 10; y++)
+		{
+			items.add(new Triangle(new Vector3(x, y, 0), new Vector3(x+1, y, 0), new Vector3(x, y+1, 0)));
+			items.add(new Triangle(new Vector3(x, 0, y), new Vector3(x, 1, y), new Vector3(x, 0, y+1)));
+		}
+	KdTree tree = new KdTreeBuilder().build(items);
+	TestScenes.compare(items, tree, 13, 2000);
+}
+
+public void testMaxDepth()
+{
+	SceneItemCollection items = TestScenes.randomTriangles(1234, 1000);
+	KdTreeBuilder builder = new KdTreeBuilder();
+	builder.setMaxDepth(3);
+	KdTree tree = builder.build(items);
+	assertTrue(tree.getMaxDepth() <= 3);
+	TestScenes.compare(items, tree, 99, 500);
+}
+
+public void testMailbox()
+{
+	Mailbox mailbox = new Mailbox(4);
+	Sphere a = new Sphere(new Vector3(0, 0, 0), 1);
+	Sphere b = new Sphere(new Vector3(0, 0, 0), 1);
+	mailbox.nextRay();
+	assertTrue(mailbox.visit(a));
+	assertFalse(mailbox.visit(a));
+	assertTrue(mailbox.visit(b));
+	mailbox.nextRay();
+	assertTrue(mailbox.visit(a));
+}
+
+}
@@ -0,0 +1,76 @@
+// arch-tag: d9e11a13-a723-4df9-bda8-c385207d334f
+package de.yvert.accel;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+import de.yvert.geometry.SceneItemCollection;
+import de.yvert.geometry.Sphere;
+import de.yvert.geometry.Vector3;
+
+public class LBVHTest extends TestCase
+{
+
+public void testMortonCode()
+{
+	assertEquals(0, LBVHBuilder.mortonCode(0, 0, 0));
+	assertEquals(1, LBVHBuilder.mortonCode(0, 0, 1));
+	assertEquals(2, LBVHBuilder.mortonCode(0, 1, 0));
+	assertEquals(4, LBVHBuilder.mortonCode(1, 0, 0));
+	assertEquals(7*8+7, LBVHBuilder.mortonCode(3, 3, 3));
+	assertEquals((1 << 30)-1, LBVHBuilder.mortonCode(1023, 1023, 1023));
+}
+
+public void testEmpty()
+{
+	BVH bvh = new LBVHBuilder(null, 1).build(new SceneItemCollection());
+	assertEquals(0, bvh.getNodeCount());
+}
+
+public void testSingle()
+{
+	SceneItemCollection items = new SceneItemCollection();
+	items.add(new Sphere(new Vector3(1, 2, 3), 1));
+	BVH bvh = new LBVHBuilder(null, 1).build(items);
+	assertEquals(1, bvh.getNodeCount());
+	TestScenes.compare(items, bvh, 3, 100);
+}
+
+public void testSequential()
+{
+	SceneItemCollection items = TestScenes.randomScene(1234, 2000, 100);
+	BVH bvh = new LBVHBuilder(null, 1).build(items);
+	assertEquals(2*items.size()-1, bvh.getNodeCount());
+	assertTrue(TestScenes.compare(items, bvh, 99, 2000) > 100);
+}
+
+public void testParallel()
+{
+	SceneItemCollection items = TestScenes.randomScene(1234, 2000, 100);
+	ExecutorService executor = Executors.newFixedThreadPool(4);
+	try
+	{
+		BVH bvh = new LBVHBuilder(executor, 8).build(items);
+		BVHStatistics stats = bvh.getStatistics();
+		assertEquals(items.size(), stats.referenceCount);
+		assertEquals(items.size(), stats.leafCount);
+		assertTrue(TestScenes.compare(items, bvh, 99, 2000) > 100);
+	}
+	finally
+	{
+		executor.shutdown();
+	}
+}
+
+public void testCoincidentItems()
+{
+	SceneItemCollection items = new SceneItemCollection();
+	for (int i = 0; i < 100; i++)
+		items.add(new Sphere(new Vector3(0, 0, 5), 1+i/100.0));
+	BVH bvh = new LBVHBuilder().build(items);
+	assertEquals(199, bvh.getNodeCount());
+	TestScenes.compare(items, bvh, 5, 200);
+}
+
+}
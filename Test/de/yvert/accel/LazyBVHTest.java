@@ -0,0 +1,101 @@
+// arch-tag: 74f33ddd-fab0-444f-a9c4-5228a659857f
+package de.yvert.accel;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import de.yvert.cr.profiles.IntersectionResult;
+import de.yvert.geometry.Ray;
+import de.yvert.geometry.SceneItemCollection;
+import de.yvert.geometry.Sphere;
+import de.yvert.geometry.Vector3;
+
+public class LazyBVHTest extends TestCase
+{
+
+public void testEmpty()
+{
+	LazyBVH bvh = new LazyBVHBuilder().build(new SceneItemCollection());
+	assertEquals(0, bvh.getNodeCount());
+	assertNull(bvh.getBoundingBox());
+	assertEquals(0, TestScenes.compare(new SceneItemCollection(), bvh, 1, 10));
+}
+
+public void testSingleSphere()
+{
+	SceneItemCollection items = new SceneItemCollection();
+	items.add(new Sphere(new Vector3(1, 2, 3), 1));
+	LazyBVH bvh = new LazyBVHBuilder().build(items);
+	assertEquals(1, bvh.getSubtreeCount());
+	TestScenes.compare(items, bvh, 3, 100);
+}
+
+public void testOnDemand()
+{
+	SceneItemCollection items = TestScenes.randomScene(4321, 5000, 200);
+	LazyBVHBuilder builder = new LazyBVHBuilder();
+	builder.setSubtreeSize(100);
+	LazyBVH bvh = builder.build(items);
+	assertTrue(bvh.getSubtreeCount() >= 52);
+	assertEquals(0, bvh.getBuiltSubtreeCount());
+	
+	// a single ray only reaches a few subtrees
+	Ray ray = TestScenes.randomRay(new Random(5));
+	bvh.intersect(ray, Double.MAX_VALUE, new IntersectionResult());
+	assertTrue(bvh.getBuiltSubtreeCount() < bvh.getSubtreeCount()/2);
+	
+	assertTrue(TestScenes.compare(items, bvh, 77, 2000) > 100);
+}
+
+public void testOtherSubtreeBuilder()
+{
+	SceneItemCollection items = TestScenes.randomTriangles(1234, 2000);
+	LazyBVHBuilder builder = new LazyBVHBuilder();
+	builder.setSubtreeSize(300);
+	builder.setSubtreeBuilder(new KdTreeBuilder());
+	TestScenes.compare(items, builder.build(items), 99, 1000);
+}
+
+public void testConcurrent() throws InterruptedException
+{
+	final SceneItemCollection items = TestScenes.randomTriangles(99, 5000);
+	LazyBVHBuilder builder = new LazyBVHBuilder();
+	builder.setSubtreeSize(50);
+	final LazyBVH bvh = builder.build(items);
+	
+	final Throwable[] failure = new Throwable[1];
+	Thread[] threads = new Thread[4];
+	for (int i = 0; i < threads.length; i++)
+	{
+		// all threads shoot the same rays, so that they race for the same subtrees
+		threads[i] = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{ TestScenes.compare(items, bvh, 11, 500); }
+					catch (Throwable e)
+					{ failure[0] = e; }
+				}
+			};
+		threads[i].start();
+	}
+	for (int i = 0; i < threads.length; i++)
+		threads[i].join();
+	if (failure[0] != null) fail(failure[0].toString());
+	assertTrue(bvh.getBuiltSubtreeCount() > 0);
+}
+
+public void testIllegalSubtreeSize()
+{
+	try
+	{
+		new LazyBVHBuilder().setSubtreeSize(0);
+		fail();
+	}
+	catch (IllegalArgumentException e)
+	{/*Expected Exception*/}
+}
+
+}
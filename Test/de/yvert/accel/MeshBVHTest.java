@@ -0,0 +1,122 @@
+// arch-tag: 414e9a9a-a6d2-40d2-af02-a75804688a70
+package de.yvert.accel;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import de.yvert.cr.profiles.IntersectionResult;
+import de.yvert.geometry.MeshTriangle;
+import de.yvert.geometry.Ray;
+import de.yvert.geometry.SceneItem;
+import de.yvert.geometry.SceneItemCollection;
+import de.yvert.geometry.Triangle;
+import de.yvert.geometry.TriangleMesh;
+import de.yvert.geometry.Vector3;
+
+public class MeshBVHTest extends TestCase
+{
+
+private static TriangleMesh createMesh(long seed, int count)
+{
+	SceneItem[] items = TestScenes.randomTriangles(seed, count).toArray();
+	Triangle[] triangles = new Triangle[items.length];
+	for (int i = 0; i < items.length; i++)
+		triangles[i] = (Triangle) items[i];
+	return new TriangleMesh(triangles);
+}
+
+private static SceneItemCollection toCollection(TriangleMesh mesh)
+{
+	SceneItemCollection result = new SceneItemCollection();
+	for (Triangle t : mesh.getTriangles())
+	{
+		// the mesh normals are only float precision
+		t.calculateNormal();
+		result.add(t);
+	}
+	return result;
+}
+
+public void testIntersect()
+{
+	TriangleMesh mesh = createMesh(1234, 2000);
+	MeshBVH bvh = new MeshBVH(new SAHBuilder().build(mesh.getTriangles()), mesh);
+	assertSame(mesh, bvh.getMesh());
+	assertTrue(TestScenes.compare(toCollection(mesh), bvh, 99, 2000) > 100);
+}
+
+public void testHitRecord()
+{
+	TriangleMesh mesh = createMesh(777, 1000);
+	MeshBVH bvh = new MeshBVH(new SAHBuilder().build(mesh.getTriangles()), mesh);
+	BVH plain = new SAHBuilder().build(mesh.getTriangles());
+	Random rand = new Random(5);
+	IntersectionResult result = new IntersectionResult();
+	Vector3 expected = new Vector3();
+	int hits = 0;
+	for (int i = 0; i < 1000; i++)
+	{
+		Ray ray = TestScenes.randomRay(rand);
+		if (!bvh.intersect(ray, Double.MAX_VALUE, result)) continue;
+		hits++;
+		assertTrue(result.hasBarycentrics);
+		assertSame(mesh, result.mesh);
+		assertSame(bvh.items[result.primitive], result.item);
+		((Triangle) result.item).barycentricCoords(ray, expected);
+		assertEquals(expected.getY(), result.baryU, 1e-9);
+		assertEquals(expected.getZ(), result.baryV, 1e-9);
+		
+		// other accelerators do not leave the old record behind
+		assertTrue(plain.intersect(ray, Double.MAX_VALUE, result));
+		assertFalse(result.hasBarycentrics);
+		assertEquals(-1, result.primitive);
+		assertNull(result.mesh);
+	}
+	assertTrue(hits > 50);
+}
+
+public void testFaces()
+{
+	TriangleMesh mesh = createMesh(555, 2000);
+	MeshBVH bvh = new MeshBVH(new SAHBuilder().build(mesh.getFaces()), mesh);
+	assertTrue(TestScenes.compare(toCollection(mesh), bvh, 98, 2000) > 100);
+	
+	// the face hit takes the barycentric coordinates from the record
+	Random rand = new Random(6);
+	IntersectionResult result = new IntersectionResult();
+	Vector3 bary = new Vector3(), expected = new Vector3();
+	for (int i = 0; i < 1000; i++)
+	{
+		Ray ray = TestScenes.randomRay(rand);
+		if (!bvh.intersect(ray, Double.MAX_VALUE, result)) continue;
+		MeshTriangle face = (MeshTriangle) result.item;
+		assertEquals(result.primitive, face.face);
+		result.ray.set(ray);
+		face.barycentricCoords(result, bary);
+		mesh.getTriangle(face.face).barycentricCoords(ray, expected);
+		assertEquals(0, bary.distance(expected), 1e-9);
+	}
+}
+
+public void testRefit()
+{
+	TriangleMesh mesh = createMesh(4321, 1000);
+	MeshBVH bvh = new MeshBVH(new SAHBuilder().build(mesh.getTriangles()), mesh);
+	for (int i = 2; i < mesh.vertexData.length; i += 3)
+		mesh.vertexData[i] += 0.5f;
+	new Refitter(bvh, mesh).refit();
+	TestScenes.compare(toCollection(mesh), bvh, 7, 1000);
+}
+
+public void testWrongMesh()
+{
+	try
+	{
+		new MeshBVH(new SAHBuilder().build(createMesh(1, 10).getTriangles()), createMesh(2, 11));
+		fail();
+	}
+	catch (IllegalArgumentException e)
+	{/*Expected Exception*/}
+}
+
+}
@@ -0,0 +1,111 @@
+// arch-tag: a05897c6-f134-4762-bf35-d2d031695e15
+package de.yvert.accel;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import de.yvert.cr.profiles.IntersectionResult;
+import de.yvert.geometry.MovingSphere;
+import de.yvert.geometry.MovingTriangle;
+import de.yvert.geometry.Ray;
+import de.yvert.geometry.SceneItemCollection;
+import de.yvert.geometry.Vector3;
+
+public class MotionBVHTest extends TestCase
+{
+
+private static SceneItemCollection movingScene(long seed)
+{
+	Random rand = new Random(seed);
+	SceneItemCollection result = TestScenes.randomScene(seed, 500, 50);
+	for (int i = 0; i < 500; i++)
+	{
+		Vector3 a = TestScenes.randomPoint(rand, 10);
+		Vector3 b = TestScenes.randomPoint(rand, 1).addAndSet(a);
+		Vector3 c = TestScenes.randomPoint(rand, 1).addAndSet(a);
+		Vector3 move = TestScenes.randomPoint(rand, 3);
+		result.add(new MovingTriangle(a, b, c, a.add(move), b.add(move), c.add(TestScenes.randomPoint(rand, 3))));
+	}
+	for (int i = 0; i < 50; i++)
+	{
+		Vector3 start = TestScenes.randomPoint(rand, 10);
+		result.add(new MovingSphere(start, start.add(TestScenes.randomPoint(rand, 3)), 0.2+rand.nextDouble()));
+	}
+	return result;
+}
+
+public void testTimes()
+{
+	SceneItemCollection items = movingScene(1);
+	MotionBVH bvh = new MotionBVH(new SAHBuilder().build(items));
+	Random rand = new Random(2);
+	IntersectionResult expected = new IntersectionResult();
+	IntersectionResult actual = new IntersectionResult();
+	int hits = 0;
+	for (int i = 0; i < 2000; i++)
+	{
+		Ray ray = TestScenes.randomRay(rand);
+		ray.time = rand.nextDouble();
+		TestScenes.bruteForce(items, ray, Double.MAX_VALUE, expected);
+		actual.item = null;
+		boolean hit = bvh.intersect(ray, Double.MAX_VALUE, actual);
+		assertEquals("ray "+i, expected.item != null, hit);
+		if (hit)
+		{
+			assertEquals("ray "+i, expected.distance, actual.distance, 1e-9);
+			hits++;
+		}
+		double tmin = hit ? expected.distance*(1+1e-6) : 0;
+		assertEquals("ray "+i, TestScenes.bruteForceOccluded(items, ray, tmin, 20),
+				bvh.occluded(ray, tmin, 20));
+	}
+	assertTrue(hits > 200);
+}
+
+public void testShutterOpen()
+{
+	SceneItemCollection items = movingScene(3);
+	TestScenes.compare(items, new MotionBVH(new SAHBuilder().build(items)), 4, 1000);
+}
+
+public void testMovingSphere()
+{
+	SceneItemCollection items = new SceneItemCollection();
+	items.add(new MovingSphere(new Vector3(0, 0, 0), new Vector3(10, 0, 0), 1));
+	MotionBVH bvh = new MotionBVH(new SAHBuilder().build(items));
+	IntersectionResult result = new IntersectionResult();
+	Ray ray = new Ray();
+	ray.p.set(5, 0, -10);
+	ray.v.set(0, 0, 1);
+	ray.update();
+	assertFalse(bvh.intersect(ray, Double.MAX_VALUE, result));
+	ray.time = 0.5;
+	assertTrue(bvh.intersect(ray, Double.MAX_VALUE, result));
+	assertEquals(9, result.distance, 1e-9);
+	
+	// the normal is taken at the time of the ray
+	result.ray.set(ray);
+	result.hitpoint.set(5, 0, -1);
+	Vector3 normal = new Vector3();
+	result.item.getNormal(result, normal);
+	assertEquals(-1, normal.getZ(), 1e-9);
+}
+
+public void testMovingTriangle()
+{
+	MovingTriangle triangle = new MovingTriangle(
+			new Vector3(0, 0, 0), new Vector3(1, 0, 0), new Vector3(0, 1, 0),
+			new Vector3(0, 0, 2), new Vector3(1, 0, 2), new Vector3(0, 1, 2));
+	Ray ray = new Ray();
+	ray.p.set(0.2, 0.2, -1);
+	ray.v.set(0, 0, 1);
+	ray.update();
+	for (int i = 0; i <= 4; i++)
+	{
+		ray.time = i/4.0;
+		assertEquals(1+2*ray.time, triangle.distance(ray), 1e-12);
+		assertEquals(1+2*ray.time, triangle.getTriangle(ray.time).distance(ray), 1e-12);
+	}
+}
+
+}
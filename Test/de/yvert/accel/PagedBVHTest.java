@@ -0,0 +1,259 @@
+// arch-tag: 4106ff4c-b9bd-4dfe-b66d-fc03b309a22e
+package de.yvert.accel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import de.yvert.Allocations;
+import de.yvert.cr.profiles.IntersectionResult;
+import de.yvert.geometry.Ray;
+import de.yvert.geometry.SceneItem;
+import de.yvert.geometry.SceneItemCollection;
+import de.yvert.geometry.Sphere;
+import de.yvert.geometry.Triangle;
+import de.yvert.geometry.TriangleMesh;
+import de.yvert.geometry.Triangulation;
+import de.yvert.geometry.Vector3;
+
+public class PagedBVHTest extends TestCase
+{
+
+private File file;
+
+@Override
+protected void setUp() throws Exception
+{ file = File.createTempFile("paged", ".bvh"); }
+
+@Override
+protected void tearDown() throws Exception
+{ file.delete(); }
+
+public void testEmpty() throws IOException
+{
+	PagedBVH.write(new SAHBuilder().build(new SceneItemCollection()), file);
+	PagedBVH bvh = new PagedBVH(file, 4);
+	assertEquals(1, bvh.getPageCount());
+	assertNull(bvh.getBoundingBox());
+	assertEquals(0, TestScenes.compare(new SceneItemCollection(), bvh, 1, 10));
+	bvh.close();
+}
+
+public void testSmallCache() throws IOException
+{
+	SceneItemCollection items = TestScenes.randomTriangles(1234, 5000);
+	BVH tree = new SAHBuilder().build(items);
+	PagedBVH.write(tree, file);
+	PagedBVH bvh = new PagedBVH(file, 4);
+	assertEquals(tree.nodeCount, bvh.getNodeCount());
+	assertEquals(5000, bvh.getTriangleCount());
+	assertTrue(bvh.getPageCount() > 4);
+	assertTrue(TestScenes.compare(items, bvh, 99, 2000) > 100);
+	assertTrue(bvh.getCacheMisses() > bvh.getPageCount());
+	bvh.close();
+}
+
+public void testTreelets() throws IOException
+{
+	// with all pages in memory, every page is loaded exactly once
+	SceneItemCollection items = TestScenes.randomTriangles(4321, 5000);
+	PagedBVH.write(new SAHBuilder().build(items), file);
+	PagedBVH bvh = new PagedBVH(file, 1000);
+	TestScenes.compare(items, bvh, 7, 2000);
+	assertTrue(bvh.getCacheMisses() < bvh.getPageCount());
+	assertTrue(bvh.getCacheHits() > 100*bvh.getCacheMisses());
+	bvh.close();
+}
+
+public void testHitRecord() throws IOException
+{
+	SceneItemCollection items = TestScenes.randomTriangles(55, 1000);
+	BVH tree = new SAHBuilder().build(items);
+	PagedBVH.write(tree, file);
+	PagedBVH bvh = new PagedBVH(file, 8);
+	Random rand = new Random(3);
+	IntersectionResult result = new IntersectionResult();
+	Vector3 expected = new Vector3();
+	for (int i = 0; i < 200; i++)
+	{
+		Ray ray = TestScenes.randomRay(rand);
+		if (!bvh.intersect(ray, Double.MAX_VALUE, result)) continue;
+		assertTrue(result.hasBarycentrics);
+		Triangle t = (Triangle) tree.items[result.primitive];
+		assertEquals(result.distance, t.distance(ray), 1e-9);
+		t.barycentricCoords(ray, expected);
+		assertEquals(expected.getY(), result.baryU, 1e-9);
+		assertEquals(expected.getZ(), result.baryV, 1e-9);
+	}
+	bvh.close();
+}
+
+public void testDuplicatedReferences() throws IOException
+{
+	SceneItemCollection items = TestScenes.randomTriangles(77, 1000);
+	PagedBVH.write(new SBVHBuilder().build(items), file);
+	PagedBVH bvh = new PagedBVH(file, 8);
+	TestScenes.compare(items, bvh, 5, 1000);
+	bvh.close();
+}
+
+public void testTriangulate() throws IOException
+{
+	SceneItemCollection items = TestScenes.randomTriangles(77, 1000);
+	BVH tree = new SBVHBuilder().build(items);
+	assertTrue(tree.refs.length > 1000);
+	PagedBVH.write(tree, file);
+	PagedBVH bvh = new PagedBVH(file, 8);
+	Triangulation tri = new Triangulation();
+	bvh.triangulate(tri);
+	// duplicated references are added once
+	assertEquals(1000, tri.size());
+	double expected = 0, actual = 0;
+	for (int i = 0; i < 1000; i++)
+		expected += ((Triangle) tree.items[i]).a.getX();
+	for (Triangle t : tri)
+		actual += t.a.getX();
+	assertEquals(expected, actual, 1e-9);
+	bvh.close();
+}
+
+private static TriangleMesh randomMesh(long seed, int count)
+{
+	SceneItem[] items = TestScenes.randomTriangles(seed, count).toArray();
+	Triangle[] triangles = new Triangle[items.length];
+	for (int i = 0; i < items.length; i++)
+		triangles[i] = (Triangle) items[i];
+	return new TriangleMesh(triangles);
+}
+
+public void testWriteMesh() throws IOException
+{
+	// more than one page of treelet roots and triangles
+	TriangleMesh mesh = randomMesh(31, 20000);
+	PagedBVH.write(mesh, file);
+	PagedBVH bvh = new PagedBVH(file, 16);
+	assertEquals(20000, bvh.getTriangleCount());
+	assertTrue(bvh.getNodeCount() > PagedBVH.NODES_PER_PAGE);
+	// the normals of the mesh are floats, so the triangles get theirs calculated
+	Triangle[] triangles = mesh.getTriangles();
+	SceneItemCollection items = new SceneItemCollection();
+	for (int i = 0; i < triangles.length; i++)
+	{
+		triangles[i] = new Triangle(triangles[i].a, triangles[i].b, triangles[i].c);
+		items.add(triangles[i]);
+	}
+	assertTrue(TestScenes.compare(items, bvh, 12, 2000) > 100);
+	
+	// the triangles are numbered like the faces
+	Random rand = new Random(4);
+	IntersectionResult result = new IntersectionResult();
+	for (int i = 0; i < 200; i++)
+	{
+		Ray ray = TestScenes.randomRay(rand);
+		if (!bvh.intersect(ray, Double.MAX_VALUE, result)) continue;
+		assertEquals(result.distance, triangles[result.primitive].distance(ray), 1e-9);
+	}
+	bvh.close();
+	
+	PagedBVH.write(new TriangleMesh(new Triangle[0]), file);
+	bvh = new PagedBVH(file, 4);
+	assertEquals(1, bvh.getPageCount());
+	assertNull(bvh.getBoundingBox());
+	bvh.close();
+}
+
+public void testHitTriangle() throws IOException
+{
+	SceneItemCollection items = TestScenes.randomTriangles(56, 1000);
+	BVH tree = new SAHBuilder().build(items);
+	PagedBVH.write(tree, file);
+	final PagedBVH bvh = new PagedBVH(file, 8);
+	Random rand = new Random(9);
+	final IntersectionResult result = new IntersectionResult();
+	Vector3 expected = new Vector3(), actual = new Vector3();
+	final Ray[] rays = new Ray[64];
+	int hits = 0;
+	for (int i = 0; i < rays.length; i++)
+	{
+		rays[i] = TestScenes.randomRay(rand);
+		if (!bvh.intersect(rays[i], Double.MAX_VALUE, result)) continue;
+		hits++;
+		Triangle t = (Triangle) tree.items[result.primitive];
+		Triangle hit = (Triangle) result.item;
+		assertEquals(0, t.b.distance(hit.b), 0);
+		result.ray.set(rays[i]);
+		result.hitpoint.set(rays[i].v).scaleAndSet(result.distance).addAndSet(rays[i].p);
+		t.getNormal(result, expected);
+		hit.getNormal(result, actual);
+		assertEquals(0, expected.distance(actual), 1e-12);
+	}
+	assertTrue(hits > 0);
+	
+	final int[] next = new int[1];
+	Allocations.assertNoAllocation("PagedBVH.intersect", new Runnable()
+		{
+			public void run()
+			{ bvh.intersect(rays[next[0]++ % rays.length], Double.MAX_VALUE, result); }
+		});
+	bvh.close();
+}
+
+public void testOtherItems() throws IOException
+{
+	SceneItemCollection items = new SceneItemCollection();
+	items.add(new Sphere(new Vector3(1, 2, 3), 1));
+	try
+	{
+		PagedBVH.write(new SAHBuilder().build(items), file);
+		fail();
+	}
+	catch (IllegalArgumentException e)
+	{/*Expected Exception*/}
+}
+
+public void testInvalidFile() throws IOException
+{
+	try
+	{
+		new PagedBVH(file, 4);
+		fail();
+	}
+	catch (IOException e)
+	{/*Expected Exception*/}
+}
+
+public void testPageCache()
+{
+	final int[] loads = new int[1];
+	PageCache cache = new PageCache(new PageCache.Loader()
+		{
+			public void load(int page, PageCache.Frame frame)
+			{
+				frame.ints[0] = page;
+				loads[0]++;
+			}
+		}, 3, 1, 1);
+	
+	for (int page = 0; page < 3; page++)
+		assertEquals(page, cache.get(page).ints[0]);
+	assertEquals(3, loads[0]);
+	cache.get(0);
+	assertEquals(3, loads[0]);
+	
+	// page 1 is the least recently used one now
+	cache.get(3);
+	assertEquals(4, loads[0]);
+	cache.get(0);
+	cache.get(2);
+	cache.get(3);
+	assertEquals(4, loads[0]);
+	assertEquals(1, cache.get(1).ints[0]);
+	assertEquals(5, loads[0]);
+	
+	// many pages with colliding hashes
+	for (int i = 0; i < 1000; i++)
+		assertEquals(i*64 % 17, cache.get(i*64 % 17).ints[0]);
+}
+
+}
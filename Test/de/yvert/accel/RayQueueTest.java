@@ -0,0 +1,90 @@
+// arch-tag: ca9e2d86-134c-4a24-87b2-f90e4e20ef09
+package de.yvert.accel;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+import de.yvert.cr.profiles.IntersectionResult;
+import de.yvert.geometry.Ray;
+import de.yvert.geometry.SceneItemCollection;
+
+public class RayQueueTest extends TestCase
+{
+
+private static void check(Accelerator accel, RayQueue queue, ExecutorService executor, long seed)
+{
+	Random rand = new Random(seed);
+	queue.clear();
+	while (!queue.isFull())
+	{
+		int slot = queue.size();
+		assertEquals(slot, queue.add(TestScenes.randomRay(rand), (slot % 4 == 0) ? 20 : Double.MAX_VALUE, slot % 7, slot / 7));
+	}
+	int hits = queue.trace(accel, executor, 4);
+	
+	IntersectionResult expected = new IntersectionResult();
+	int expectedHits = 0;
+	for (int slot = 0; slot < queue.size(); slot++)
+	{
+		IntersectionResult result = queue.getResult(slot);
+		assertEquals(slot % 7, result.x);
+		assertEquals(slot / 7, result.y);
+		expected.item = null;
+		boolean hit = accel.intersect(result.ray, (slot % 4 == 0) ? 20 : Double.MAX_VALUE, expected);
+		assertEquals(hit, queue.isHit(slot));
+		if (!hit) continue;
+		expectedHits++;
+		assertSame(expected.item, result.item);
+		assertEquals(expected.distance, result.distance, 0);
+	}
+	assertEquals(expectedHits, hits);
+	assertTrue(hits > 100);
+}
+
+public void testTrace()
+{
+	SceneItemCollection items = TestScenes.randomScene(42, 2000, 30);
+	BVH bvh = new SAHBuilder().build(items);
+	RayQueue queue = new RayQueue(1000);
+	check(bvh, queue, null, 1);
+	
+	ExecutorService executor = Executors.newFixedThreadPool(4);
+	try
+	{
+		check(bvh, queue, executor, 2);
+		check(new KdTreeBuilder().build(items), queue, executor, 3);
+	}
+	finally
+	{ executor.shutdown(); }
+}
+
+public void testLimits()
+{
+	RayQueue queue = new RayQueue(2);
+	assertEquals(0, queue.trace(new SAHBuilder().build(new SceneItemCollection()), null, 1));
+	Ray ray = new Ray();
+	ray.v.set(0, 0, 1);
+	queue.add(ray, 1, 0, 0);
+	queue.add(ray, 1, 1, 0);
+	try
+	{
+		queue.add(ray, 1, 2, 0);
+		fail();
+	}
+	catch (IllegalStateException e)
+	{/*Expected Exception*/}
+	assertEquals(0, queue.trace(new SAHBuilder().build(new SceneItemCollection()), null, 1));
+	assertFalse(queue.isHit(1));
+	queue.clear();
+	try
+	{
+		queue.isHit(0);
+		fail();
+	}
+	catch (IndexOutOfBoundsException e)
+	{/*Expected Exception*/}
+}
+
+}
@@ -0,0 +1,138 @@
+// arch-tag: d9ea7e92-9448-4dde-94c3-7e7cb91c92dc
+package de.yvert.accel;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+import de.yvert.geometry.SceneItem;
+import de.yvert.geometry.SceneItemCollection;
+import de.yvert.geometry.Triangle;
+import de.yvert.geometry.TriangleMesh;
+
+public class RefitterTest extends TestCase
+{
+
+private static TriangleMesh createMesh(long seed, int count)
+{
+	SceneItemCollection items = TestScenes.randomTriangles(seed, count);
+	Triangle[] triangles = new Triangle[items.size()];
+	int i = 0;
+	for (SceneItem item : items)
+		triangles[i++] = (Triangle) item;
+	return new TriangleMesh(triangles);
+}
+
+private static SceneItemCollection toCollection(TriangleMesh mesh)
+{
+	SceneItemCollection result = new SceneItemCollection();
+	for (Triangle t : mesh.getTriangles())
+	{
+		// the mesh normals are only float precision
+		t.calculateNormal();
+		result.add(t);
+	}
+	return result;
+}
+
+private static void deform(TriangleMesh mesh, Random rand, float amount)
+{
+	float[] v = mesh.vertexData;
+	for (int i = 0; i < v.length; i++)
+		v[i] += amount*(2*rand.nextFloat()-1);
+}
+
+public void testRefit()
+{
+	TriangleMesh mesh = createMesh(1234, 2000);
+	BVH bvh = new SAHBuilder().build(mesh.getTriangles());
+	Refitter refitter = new Refitter(bvh, mesh);
+	assertFalse(refitter.refit());
+	assertEquals(1, refitter.getCostRatio(), 1e-9);
+	
+	Random rand = new Random(5);
+	for (int frame = 0; frame < 3; frame++)
+	{
+		deform(mesh, rand, 0.2f);
+		refitter.refit();
+		TestScenes.compare(toCollection(mesh), bvh, frame, 1000);
+	}
+}
+
+public void testRefitFaces()
+{
+	TriangleMesh mesh = createMesh(2345, 2000);
+	MeshBVH bvh = new MeshBVH(new SAHBuilder().build(mesh.getFaces()), mesh);
+	Refitter refitter = new Refitter(bvh, mesh);
+	Random rand = new Random(8);
+	for (int frame = 0; frame < 3; frame++)
+	{
+		deform(mesh, rand, 0.2f);
+		refitter.refit();
+		TestScenes.compare(toCollection(mesh), bvh, frame, 1000);
+	}
+	
+	// the faces follow the mesh without the precomputed triangles, too
+	BVH plain = new SAHBuilder().build(mesh.getFaces());
+	refitter = new Refitter(plain, mesh);
+	deform(mesh, rand, 0.2f);
+	refitter.refit();
+	TestScenes.compare(toCollection(mesh), plain, 3, 1000);
+}
+
+public void testParallelRefit()
+{
+	TriangleMesh mesh = createMesh(4321, 5000);
+	BVH bvh = new LBVHBuilder(null, 1).build(mesh.getTriangles());
+	ExecutorService executor = Executors.newFixedThreadPool(4);
+	try
+	{
+		Refitter refitter = new Refitter(bvh, mesh, executor, 4);
+		deform(mesh, new Random(6), 0.5f);
+		refitter.refit();
+		assertTrue(TestScenes.compare(toCollection(mesh), bvh, 8, 2000) > 100);
+	}
+	finally
+	{
+		executor.shutdown();
+	}
+}
+
+public void testCostDrift()
+{
+	TriangleMesh mesh = createMesh(99, 1000);
+	BVH bvh = new SAHBuilder().build(mesh.getTriangles());
+	Refitter refitter = new Refitter(bvh, mesh);
+	refitter.setRebuildThreshold(1.2);
+	
+	// scatter the triangles, the tree is now useless
+	deform(mesh, new Random(7), 10);
+	assertTrue(refitter.refit());
+	assertTrue(refitter.getCostRatio() > 1.2);
+	TestScenes.compare(toCollection(mesh), bvh, 9, 500);
+}
+
+public void testWrongMesh()
+{
+	BVH bvh = new SAHBuilder().build(createMesh(1, 10).getTriangles());
+	try
+	{
+		new Refitter(bvh, createMesh(1, 11));
+		fail();
+	}
+	catch (IllegalArgumentException e)
+	{/*Expected Exception*/}
+	
+	TriangleMesh mesh = createMesh(1, 10);
+	bvh = new SAHBuilder().build(createMesh(1, 10).getFaces());
+	try
+	{
+		new Refitter(bvh, mesh);
+		fail();
+	}
+	catch (IllegalArgumentException e)
+	{/*Expected Exception*/}
+}
+
+}
@@ -0,0 +1,91 @@
+// arch-tag: f29f4c99-2e26-49fa-b4b7-ef3d66490ec4
+package de.yvert.accel;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import de.yvert.geometry.SceneItemCollection;
+import de.yvert.geometry.Sphere;
+import de.yvert.geometry.Triangle;
+import de.yvert.geometry.Vector3;
+
+public class SBVHTest extends TestCase
+{
+
+private static SceneItemCollection diagonalTriangles(long seed, int count)
+{
+	// long slivers through the whole scene, their boxes overlap almost everything
+	Random rand = new Random(seed);
+	SceneItemCollection items = new SceneItemCollection();
+	for (int i = 0; i < count; i++)
+	{
+		Vector3 a = TestScenes.randomPoint(rand, 10);
+		Vector3 b = a.scale(-1);
+		Vector3 c = new Vector3(a).addAndSet(TestScenes.randomPoint(rand, 0.1));
+		items.add(new Triangle(a, b, c));
+	}
+	return items;
+}
+
+public void testEmpty()
+{
+	BVH bvh = new SBVHBuilder().build(new SceneItemCollection());
+	assertEquals(0, bvh.getNodeCount());
+	assertNull(bvh.getBoundingBox());
+}
+
+public void testSingleSphere()
+{
+	SceneItemCollection items = new SceneItemCollection();
+	items.add(new Sphere(new Vector3(1, 2, 3), 1));
+	BVH bvh = new SBVHBuilder().build(items);
+	assertEquals(1, bvh.getNodeCount());
+	TestScenes.compare(items, bvh, 3, 100);
+}
+
+public void testMixed()
+{
+	SceneItemCollection items = TestScenes.randomScene(4321, 1000, 200);
+	BVH bvh = new SBVHBuilder().build(items);
+	assertTrue(TestScenes.compare(items, bvh, 77, 2000) > 100);
+}
+
+public void testDiagonalTriangles()
+{
+	SceneItemCollection items = diagonalTriangles(5, 500);
+	BVH sbvh = new SBVHBuilder().build(items);
+	BVH bvh = new SAHBuilder().build(items);
+	assertTrue(TestScenes.compare(items, sbvh, 11, 2000) > 100);
+	
+	BVHStatistics stats = sbvh.getStatistics();
+	assertTrue(stats.referenceCount > items.size());
+	assertTrue(stats.sahCost < bvh.getStatistics().sahCost);
+}
+
+public void testDuplicationLimit()
+{
+	SceneItemCollection items = diagonalTriangles(7, 1000);
+	SBVHBuilder builder = new SBVHBuilder();
+	builder.setMaxDuplication(0.1);
+	BVH bvh = builder.build(items);
+	assertTrue(bvh.getStatistics().referenceCount <= 1100);
+	TestScenes.compare(items, bvh, 13, 1000);
+	
+	builder.setMaxDuplication(0);
+	bvh = builder.build(items);
+	assertEquals(items.size(), bvh.getStatistics().referenceCount);
+	TestScenes.compare(items, bvh, 13, 1000);
+}
+
+public void testIllegalDuplication()
+{
+	try
+	{
+		new SBVHBuilder().setMaxDuplication(-1);
+		fail();
+	}
+	catch (IllegalArgumentException e)
+	{/*Expected Exception*/}
+}
+
+}
@@ -0,0 +1,164 @@
+// arch-tag: cbff2c27-e966-4939-ab6c-a9874191206b
+package de.yvert.accel;
+
+import java.util.Random;
+
+import junit.framework.Assert;
+import de.yvert.cr.profiles.IntersectionResult;
+import de.yvert.geometry.Ray;
+import de.yvert.geometry.SceneItem;
+import de.yvert.geometry.SceneItemCollection;
+import de.yvert.geometry.Sphere;
+import de.yvert.geometry.Triangle;
+import de.yvert.geometry.Vector3;
+
+/**
+ * Random scenes and a brute force reference for the accelerator tests.
+ */
+final class TestScenes
+{
+
+static Vector3 randomPoint(Random rand, double size)
+{
+	return new Vector3(size*(2*rand.nextDouble()-1), size*(2*rand.nextDouble()-1), size*(2*rand.nextDouble()-1));
+}
+
+static Triangle randomTriangle(Random rand, double size, double triangleSize)
+{
+	Vector3 a = randomPoint(rand, size);
+	Vector3 b = randomPoint(rand, triangleSize).addAndSet(a);
+	Vector3 c = randomPoint(rand, triangleSize).addAndSet(a);
+	return new Triangle(a, b, c);
+}
+
+static SceneItemCollection randomTriangles(long seed, int count)
+{
+	Random rand = new Random(seed);
+	SceneItemCollection result = new SceneItemCollection();
+	for (int i = 0; i < count; i++)
+		result.add(randomTriangle(rand, 10, 1));
+	return result;
+}
+
+static SceneItemCollection randomScene(long seed, int triangles, int spheres)
+{
+	Random rand = new Random(seed);
+	SceneItemCollection result = new SceneItemCollection();
+	for (int i = 0; i < triangles; i++)
+		result.add(randomTriangle(rand, 10, 1));
+	for (int i = 0; i < spheres; i++)
+		result.add(new Sphere(randomPoint(rand, 10), 0.2+rand.nextDouble()));
+	return result;
+}
+
+static Ray randomRay(Random rand)
+{
+	Ray ray = new Ray();
+	ray.p.set(randomPoint(rand, 15));
+	ray.v.set(randomPoint(rand, 1)).subAndSet(ray.p).normalizeAndSet();
+	ray.update();
+	return ray;
+}
+
+static double bruteForce(SceneItemCollection items, Ray ray, double maxDistance, IntersectionResult result)
+{
+	double closest = maxDistance;
+	SceneItem hit = null;
+	for (SceneItem item : items)
+	{
+		double d = item.distance(ray);
+		if ((d > 0) && (d < closest))
+		{
+			closest = d;
+			hit = item;
+		}
+	}
+	result.item = hit;
+	result.distance = hit != null ? closest : -1;
+	return result.distance;
+}
+
+static boolean bruteForceOccluded(SceneItemCollection items, Ray ray, double tmin, double tmax)
+{
+	for (SceneItem item : items)
+	{
+		double d = item.distance(ray);
+		if ((d > tmin) && (d < tmax)) return true;
+	}
+	return false;
+}
+
+/**
+ * Shoots random rays and compares the accelerator with the brute force result, for
+ * closest hits and for occlusion. Returns the number of rays that hit something.
+ */
+static int compare(SceneItemCollection items, Accelerator accel, long seed, int rays)
+{
+	Random rand = new Random(seed);
+	IntersectionResult expected = new IntersectionResult();
+	IntersectionResult actual = new IntersectionResult();
+	int hits = 0;
+	for (int i = 0; i < rays; i++)
+	{
+		Ray ray = randomRay(rand);
+		double maxDistance = (i % 4 == 0) ? 20 : Double.MAX_VALUE;
+		bruteForce(items, ray, maxDistance, expected);
+		actual.item = null;
+		boolean hit = accel.intersect(ray, maxDistance, actual);
+		Assert.assertEquals("ray "+i, expected.item != null, hit);
+		if (hit)
+		{
+			Assert.assertEquals("ray "+i, expected.distance, actual.distance, 1e-9);
+			hits++;
+		}
+		
+		// every third ray starts its occlusion test just behind the first hit
+		double tmin = (hit && (i % 3 == 1)) ? expected.distance*(1+1e-6) : 0;
+		Assert.assertEquals("ray "+i, bruteForceOccluded(items, ray, tmin, maxDistance),
+				accel.occluded(ray, tmin, maxDistance));
+	}
+	compareShadowRays(items, accel, rand);
+	return hits;
+}
+
+/**
+ * Checks batches of shadow rays from random points towards a small area light.
+ */
+private static void compareShadowRays(SceneItemCollection items, Accelerator accel, Random rand)
+{
+	int count = 16;
+	Ray[] rays = new Ray[count];
+	double[] tmin = new double[count];
+	double[] tmax = new double[count];
+	boolean[] occluded = new boolean[count];
+	Vector3 light = randomPoint(rand, 10);
+	for (int batch = 0; batch < 20; batch++)
+	{
+		Vector3 origin = randomPoint(rand, 10);
+		for (int i = 0; i < count; i++)
+		{
+			rays[i] = new Ray();
+			rays[i].p.set(origin);
+			rays[i].v.set(randomPoint(rand, 0.5)).addAndSet(light).subAndSet(origin);
+			rays[i].update();
+			tmin[i] = 1e-9;
+			tmax[i] = 1;
+		}
+		
+		// every other batch leaves the last entry of the arrays alone
+		int n = (batch % 2 == 0) ? count : count-1;
+		occluded[count-1] = true;
+		int expected = 0;
+		for (int i = 0; i < n; i++)
+			if (bruteForceOccluded(items, rays[i], tmin[i], tmax[i])) expected++;
+		Assert.assertEquals(expected, accel.occluded(rays, tmin, tmax, n, occluded));
+		for (int i = 0; i < n; i++)
+			Assert.assertEquals(bruteForceOccluded(items, rays[i], tmin[i], tmax[i]), occluded[i]);
+		if (n < count) Assert.assertTrue(occluded[count-1]);
+	}
+}
+
+private TestScenes()
+{/*OK*/}
+
+}
@@ -0,0 +1,128 @@
+// arch-tag: 1f10495f-48ac-40ed-aa33-21f8ed331e55
+package de.yvert.accel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import de.yvert.Allocations;
+import de.yvert.cr.profiles.IntersectionResult;
+import de.yvert.geometry.Ray;
+import de.yvert.geometry.RayPacket;
+import de.yvert.geometry.SceneItemCollection;
+import de.yvert.geometry.Vector3;
+
+/**
+ * Checks that tracing rays through the accelerators does not allocate, once the
+ * per-thread traversal state exists.
+ */
+public class TraversalAllocationTest extends TestCase
+{
+
+private final SceneItemCollection scene = TestScenes.randomScene(1234, 500, 50);
+private final Ray[] rays = new Ray[64];
+private final IntersectionResult result = new IntersectionResult();
+
+@Override
+protected void setUp()
+{
+	Random rand = new Random(5);
+	for (int i = 0; i < rays.length; i++)
+		rays[i] = TestScenes.randomRay(rand);
+}
+
+private void assertTracingDoesNotAllocate(String name, final Accelerator accel)
+{
+	int hits = 0;
+	for (int i = 0; i < rays.length; i++)
+		if (accel.intersect(rays[i], Double.MAX_VALUE, result)) hits++;
+	assertTrue(name, hits > 0);
+	
+	final int[] next = new int[1];
+	Allocations.assertNoAllocation(name+".intersect", new Runnable()
+		{
+			public void run()
+			{ accel.intersect(rays[next[0]++ % rays.length], Double.MAX_VALUE, result); }
+		});
+	Allocations.assertNoAllocation(name+".occluded", new Runnable()
+		{
+			public void run()
+			{ accel.occluded(rays[next[0]++ % rays.length], 0, Double.MAX_VALUE); }
+		});
+}
+
+public void testBVH()
+{ assertTracingDoesNotAllocate("BVH", new SAHBuilder().build(scene)); }
+
+public void testCompiledBVH()
+{ assertTracingDoesNotAllocate("CompiledBVH", new CompiledBVH(new SAHBuilder().build(scene))); }
+
+public void testLazyBVH()
+{
+	// subtrees allocate when they are built, which the warm-up of each check does
+	assertTracingDoesNotAllocate("LazyBVH", new LazyBVHBuilder().build(scene));
+}
+
+public void testDynamicBVH()
+{ assertTracingDoesNotAllocate("DynamicBVH", new DynamicBVH(scene)); }
+
+public void testKdTree()
+{ assertTracingDoesNotAllocate("KdTree", new KdTreeBuilder().build(scene)); }
+
+public void testWideBVH()
+{
+	assertTracingDoesNotAllocate("WideBVH4", new WideBVH(new SAHBuilder().build(scene), 4));
+	assertTracingDoesNotAllocate("WideBVH8", new WideBVH(new SAHBuilder().build(scene), 8));
+}
+
+public void testMotionBVH()
+{ assertTracingDoesNotAllocate("MotionBVH", new MotionBVH(new SAHBuilder().build(scene))); }
+
+public void testMappedBVH() throws IOException
+{
+	BVH bvh = new SAHBuilder().build(scene);
+	File file = File.createTempFile("bvh", ".bvh");
+	try
+	{
+		byte[] hash = new byte[20];
+		BVHCache.write(bvh, hash, file);
+		assertTracingDoesNotAllocate("MappedBVH", BVHCache.read(file, hash, bvh.items));
+	}
+	finally
+	{ file.delete(); }
+}
+
+public void testBVHPacket()
+{
+	final BVH bvh = new SAHBuilder().build(scene);
+	final RayPacket packet = new RayPacket(16);
+	final IntersectionResult[] results = new IntersectionResult[16];
+	Random rand = new Random(7);
+	Vector3 origin = TestScenes.randomPoint(rand, 15);
+	Vector3 target = new Vector3();
+	for (int k = 0; k < 16; k++)
+	{
+		results[k] = new IntersectionResult();
+		Ray ray = packet.rays[k];
+		ray.p.set(origin);
+		ray.v.set(target).subAndSet(origin).normalizeAndSet().addAndSet(TestScenes.randomPoint(rand, 0.02));
+		ray.update();
+	}
+	packet.update(0xFFFF);
+	assertTrue(packet.isCoherent());
+	Arrays.fill(packet.maxDistance, Double.MAX_VALUE);
+	assertTrue(bvh.intersect(packet, results) != 0);
+	
+	Allocations.assertNoAllocation("BVH.intersect(RayPacket)", new Runnable()
+		{
+			public void run()
+			{
+				Arrays.fill(packet.maxDistance, Double.MAX_VALUE);
+				bvh.intersect(packet, results);
+			}
+		});
+}
+
+}
@@ -0,0 +1,72 @@
+// arch-tag: 91f6180e-c088-4b1f-84af-7c3a34a83173
+package de.yvert.accel;
+
+import junit.framework.TestCase;
+import de.yvert.geometry.SceneItemCollection;
+import de.yvert.geometry.Sphere;
+import de.yvert.geometry.Vector3;
+
+public class WideBVHTest extends TestCase
+{
+
+public void testEmpty()
+{
+	WideBVH bvh = new WideBVH(new SAHBuilder().build(new SceneItemCollection()), 4);
+	assertEquals(0, bvh.getNodeCount());
+	assertNull(bvh.getBoundingBox());
+	assertEquals(0, TestScenes.compare(new SceneItemCollection(), bvh, 1, 10));
+}
+
+public void testSingleSphere()
+{
+	SceneItemCollection items = new SceneItemCollection();
+	items.add(new Sphere(new Vector3(1, 2, 3), 1));
+	WideBVH bvh = new WideBVH(new SAHBuilder().build(items), 8);
+	assertEquals(1, bvh.getNodeCount());
+	TestScenes.compare(items, bvh, 3, 100);
+}
+
+public void testWidths()
+{
+	SceneItemCollection items = TestScenes.randomScene(4321, 2000, 200);
+	BVH binary = new SAHBuilder().build(items);
+	WideBVH four = new WideBVH(binary, 4);
+	WideBVH eight = new WideBVH(binary, 8);
+	assertTrue(four.getNodeCount() < binary.getNodeCount()/2);
+	assertTrue(eight.getNodeCount() < four.getNodeCount());
+	assertTrue(four.getMaxDepth() < binary.getMaxDepth());
+	assertTrue(TestScenes.compare(items, four, 77, 2000) > 100);
+	assertTrue(TestScenes.compare(items, eight, 77, 2000) > 100);
+}
+
+public void testOtherBuilders()
+{
+	SceneItemCollection items = TestScenes.randomTriangles(1234, 2000);
+	TestScenes.compare(items, new WideBVH(new LBVHBuilder().build(items), 4), 99, 1000);
+	TestScenes.compare(items, new WideBVH(new SBVHBuilder().build(items), 8), 99, 1000);
+}
+
+public void testConservativeRounding()
+{
+	double[] values = { 0, 1e-50, -1e-50, 0.1, -0.1, 1.0/3, -1.0/3, 12345.678901, -98765.4321 };
+	for (int i = 0; i < values.length; i++)
+	{
+		assertTrue(WideBVH.roundDown(values[i]) <= values[i]);
+		assertTrue(WideBVH.roundUp(values[i]) >= values[i]);
+	}
+	assertEquals(0.5f, WideBVH.roundDown(0.5), 0);
+	assertEquals(0.5f, WideBVH.roundUp(0.5), 0);
+}
+
+public void testIllegalWidth()
+{
+	try
+	{
+		new WideBVH(new SAHBuilder().build(new SceneItemCollection()), 2);
+		fail();
+	}
+	catch (IllegalArgumentException e)
+	{/*Expected Exception*/}
+}
+
+}
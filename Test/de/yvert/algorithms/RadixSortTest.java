@@ -0,0 +1,98 @@
+// arch-tag: 9fb90067-6b76-4b06-bdc4-406f9056d476
+package de.yvert.algorithms;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+public class RadixSortTest extends TestCase
+{
+
+private void check(int[] original, int[] keys, int[] values)
+{
+	for (int i = 0; i < keys.length; i++)
+	{
+		assertEquals(original[values[i]], keys[i]);
+		if (i > 0)
+		{
+			// unsigned order, ties keep their original order
+			long a = keys[i-1] & 0xFFFFFFFFL;
+			long b = keys[i] & 0xFFFFFFFFL;
+			assertTrue(a <= b);
+			if (a == b) assertTrue(values[i-1] < values[i]);
+		}
+	}
+}
+
+private int[] identity(int count)
+{
+	int[] result = new int[count];
+	for (int i = 0; i < count; i++)
+		result[i] = i;
+	return result;
+}
+
+public void testEmpty()
+{
+	RadixSort.sort(new int[0], new int[0]);
+}
+
+public void testSimple()
+{
+	int[] keys = new int[] { 5, 3, 9, 3, 0, 1 };
+	int[] values = identity(keys.length);
+	RadixSort.sort(keys, values);
+	assertEquals(0, keys[0]); assertEquals(4, values[0]);
+	assertEquals(1, keys[1]); assertEquals(5, values[1]);
+	assertEquals(3, keys[2]); assertEquals(1, values[2]);
+	assertEquals(3, keys[3]); assertEquals(3, values[3]);
+	assertEquals(5, keys[4]); assertEquals(0, values[4]);
+	assertEquals(9, keys[5]); assertEquals(2, values[5]);
+}
+
+public void testUnsigned()
+{
+	Random rand = new Random(1234);
+	int[] keys = new int[1000];
+	for (int i = 0; i < keys.length; i++)
+		keys[i] = rand.nextInt();
+	int[] original = keys.clone();
+	int[] values = identity(keys.length);
+	RadixSort.sort(keys, values);
+	check(original, keys, values);
+}
+
+public void testInvalidParam()
+{
+	try
+	{
+		RadixSort.sort(new int[3], new int[2]);
+		fail();
+	}
+	catch (IllegalArgumentException e)
+	{/*Expected Exception*/}
+}
+
+public void testParallel()
+{
+	Random rand = new Random(4321);
+	int[] keys = new int[100000];
+	for (int i = 0; i < keys.length; i++)
+		keys[i] = rand.nextInt(1 << 20);
+	int[] original = keys.clone();
+	int[] values = identity(keys.length);
+	ExecutorService executor = Executors.newFixedThreadPool(4);
+	try
+	{
+		RadixSort.sort(keys, values, 20, executor, 7);
+	}
+	finally
+	{
+		executor.shutdown();
+	}
+	check(original, keys, values);
+}
+
+}
@@ -12,33 +12,21 @@ public class VertexNormalCalculatorTest extends TestCase
 
 public void testSimple()
 {
-	float[][] vertices = new float[4][3];
-	vertices[0][0] = 0;
-	vertices[0][1] = 0;
-	vertices[0][2] = 0;
+	float[] vertices =
+		{
+			0,  0, 0,
+			1,  1, 0,
+			1, -1, 0,
+			1,  0, 1,
+		};
 	
-	vertices[1][0] = 1;
-	vertices[1][1] = 1;
-	vertices[1][2] = 0;
+	int[] triangles =
+		{
+			0, 1, 2,
+			1, 3, 2,
+		};
 	
-	vertices[2][0] = 1;
-	vertices[2][1] = -1;
-	vertices[2][2] = 0;
-	
-	vertices[3][0] = 1;
-	vertices[3][1] = 0;
-	vertices[3][2] = 1;
-	
-	int[][] triangles = new int[2][3];
-	triangles[0][0] = 0;
-	triangles[0][1] = 1;
-	triangles[0][2] = 2;
-	
-	triangles[1][0] = 1;
-	triangles[1][1] = 3;
-	triangles[1][2] = 2;
-	
-	VertexNormalCalculator calc = new VertexNormalCalculator(vertices, triangles, new float[vertices.length][3]);
+	VertexNormalCalculator calc = new VertexNormalCalculator(vertices, triangles, new float[2*4]);
 	Hashtable<Edge,EdgeInfo> adjacencyList = calc.adjacentTriangles();
 	assertEquals(5, adjacencyList.size());
 	assertTrue(adjacencyList.containsKey(new Edge(1, 3)));
@@ -76,18 +64,20 @@ public void testSimple()
 	assertEquals(1, newAdjList[4].length); assertEquals(0, newAdjList[4][0]);
 	assertEquals(1, newAdjList[5].length); assertEquals(1, newAdjList[5][0]);
 	
-	int[][] newtris = calc.getTriangles();
-	assertEquals(2, newtris.length);
-	assertEquals(3, newtris[0].length);
-	assertEquals(0, newtris[0][0]);
-	assertEquals(2, newtris[0][1]);
-	assertEquals(4, newtris[0][2]);
-	assertEquals(3, newtris[1].length);
-	assertEquals(1, newtris[1][0]);
-	assertEquals(5, newtris[1][1]);
-	assertEquals(3, newtris[1][2]);
+	int[] newtris = calc.getTriangles();
+	assertEquals(6, newtris.length);
+	assertEquals(0, newtris[0]);
+	assertEquals(2, newtris[1]);
+	assertEquals(4, newtris[2]);
+	assertEquals(1, newtris[3]);
+	assertEquals(5, newtris[4]);
+	assertEquals(3, newtris[5]);
 	
 	calc.normalList(newAdjList);
+	float[] newnormals = calc.getNormals();
+	assertEquals(3*6, newnormals.length);
+	assertEquals(-1, newnormals[2], 1e-6);
+	assertEquals(3*6, calc.getVertices().length);
 	
 //	float[][] newverts = calc.getVertices();
 //	float[][] newnormals = calc.getNormals();
@@ -102,4 +92,26 @@ public void testSimple()
 		System.out.println(newnormals[i][0]+" "+newnormals[i][1]+" "+newnormals[i][2]);*/
 }
 
+public void testWithoutTexCoords()
+{
+	float[] vertices = { 0, 0, 0, 1, 0, 0, 0, 1, 0, 1, 1, 0 };
+	int[] triangles = { 0, 1, 2, 1, 3, 2 };
+	VertexNormalCalculator calc = new VertexNormalCalculator(vertices, triangles, null);
+	calc.doCalculation();
+	assertNull(calc.getTexCoords());
+	// a flat quad has no discontinuities, so no vertex is split
+	assertEquals(12, calc.getVertices().length);
+	assertEquals(6, calc.getTriangles().length);
+	float[] normals = calc.getNormals();
+	assertEquals(12, normals.length);
+	for (int i = 0; i < 4; i++)
+	{
+		assertEquals(0, normals[3*i  ], 1e-6);
+		assertEquals(0, normals[3*i+1], 1e-6);
+		assertEquals(1, normals[3*i+2], 1e-6);
+	}
+	// the input is left alone
+	assertEquals(1, vertices[3], 0);
+}
+
 }
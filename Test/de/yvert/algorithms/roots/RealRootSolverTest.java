@@ -0,0 +1,108 @@
+// arch-tag: e10d6679-3e39-49e9-9cab-d8d49bfb9a68
+package de.yvert.algorithms.roots;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class RealRootSolverTest extends TestCase
+{
+
+private static void assertRoots(double[] expected, double[] actual, int count, double epsilon)
+{
+	assertEquals(expected.length, count);
+	Arrays.sort(expected);
+	for (int i = 0; i < count; i++)
+		assertEquals(expected[i], actual[i], epsilon);
+}
+
+public void testQuadratic()
+{
+	double[] roots = new double[2];
+	assertRoots(new double[] { -3, 2 }, roots, RealRootSolver.solveQuadratic(1, 1, -6, roots), 1e-15);
+	assertEquals(0, RealRootSolver.solveQuadratic(1, 0, 1, roots));
+	assertRoots(new double[] { 0.5 }, roots, RealRootSolver.solveQuadratic(0, 2, -1, roots), 1e-15);
+	
+	// the textbook formula loses the small root to cancellation
+	assertEquals(2, RealRootSolver.solveQuadratic(1, -1e8, 1, roots));
+	assertEquals(1e-8, roots[0], 1e-22);
+	assertEquals(1e8, roots[1], 1e-6);
+}
+
+public void testCubic()
+{
+	double[] roots = new double[3];
+	// (x-1)(x-2)(x-3)
+	assertRoots(new double[] { 1, 2, 3 }, roots, RealRootSolver.solveCubic(1, -6, 11, -6, roots), 1e-12);
+	// (x-2)(x^2+1)
+	assertRoots(new double[] { 2 }, roots, RealRootSolver.solveCubic(2, -4, 2, -4, roots), 1e-12);
+	assertRoots(new double[] { 0 }, roots, RealRootSolver.solveCubic(1, 0, 0, 0, roots), 1e-12);
+}
+
+public void testQuartic()
+{
+	double[] roots = new double[4];
+	// (x-1)(x-2)(x-3)(x-4)
+	assertRoots(new double[] { 1, 2, 3, 4 }, roots, RealRootSolver.solveQuartic(1, -10, 35, -50, 24, roots), 1e-12);
+	// (x^2-4)(x^2+1), biquadratic
+	assertRoots(new double[] { -2, 2 }, roots, RealRootSolver.solveQuartic(1, 0, -3, 0, -4, roots), 1e-12);
+	assertEquals(0, RealRootSolver.solveQuartic(1, 0, 2, 0, 1, roots) & 1);
+	assertEquals(0, RealRootSolver.solveQuartic(1, 0, 0, 0, 1, roots));
+}
+
+public void testRandomQuartics()
+{
+	Random rand = new Random(3);
+	double[] roots = new double[4];
+	for (int i = 0; i < 10000; i++)
+	{
+		double[] expected = new double[4];
+		for (int j = 0; j < 4; j++)
+			expected[j] = 20*rand.nextDouble()-10;
+		double a = expected[0], b = expected[1], c = expected[2], d = expected[3];
+		double scale = 0.5+rand.nextDouble();
+		int count = RealRootSolver.solveQuartic(scale,
+				-scale*(a+b+c+d),
+				scale*(a*b+a*c+a*d+b*c+b*d+c*d),
+				-scale*(a*b*c+a*b*d+a*c*d+b*c*d),
+				scale*a*b*c*d, roots);
+		Arrays.sort(expected);
+		// close roots may turn into a complex pair
+		if (count < 4) continue;
+		for (int j = 0; j < 4; j++)
+			assertEquals("quartic "+i, expected[j], roots[j], 1e-6);
+		
+		double first = RealRootSolver.firstQuarticRoot(scale,
+				-scale*(a+b+c+d),
+				scale*(a*b+a*c+a*d+b*c+b*d+c*d),
+				-scale*(a*b*c+a*b*d+a*c*d+b*c*d),
+				scale*a*b*c*d, 0, Double.POSITIVE_INFINITY);
+		double smallest = Double.NaN;
+		for (int j = 3; j >= 0; j--)
+			if (roots[j] > 0) smallest = roots[j];
+		if (Double.isNaN(smallest))
+			assertTrue(Double.isNaN(first));
+		else
+			assertEquals(smallest, first, 1e-12);
+	}
+}
+
+public void testSameAsRootSolver()
+{
+	Random rand = new Random(5);
+	double[] roots = new double[4];
+	for (int i = 0; i < 1000; i++)
+	{
+		double[] c = new double[5];
+		for (int j = 0; j < 5; j++)
+			c[j] = 2*rand.nextDouble()-1;
+		Roots reference = RootSolver.solve(new Polynom(c));
+		int real = 0;
+		for (int j = 0; j < reference.size(); j++)
+			if (!reference.get(j).hasIm()) real++;
+		assertEquals(real, RealRootSolver.solveQuartic(c[4], c[3], c[2], c[1], c[0], roots));
+	}
+}
+
+}
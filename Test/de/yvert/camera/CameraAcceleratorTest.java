@@ -0,0 +1,55 @@
+// arch-tag: d66161cd-25e1-4738-9c70-00cc76f04fb3
+package de.yvert.camera;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import de.yvert.geometry.Ray;
+import de.yvert.geometry.RayPacket;
+
+public class CameraAcceleratorTest extends TestCase
+{
+
+public void testRayTime()
+{
+	CameraAccelerator camera = new CameraAccelerator(new FreeCamera());
+	Ray ray = camera.getRay(new Ray(), 10.0, 20.0, 0.75);
+	assertEquals(0.75, ray.time, 0);
+	Ray expected = camera.getRay(new Ray(), 10, 20);
+	assertEquals(0, expected.time, 0);
+	assertEquals(0, expected.v.distance(ray.v), 0);
+	// without a time, the ray samples shutter open again
+	assertEquals(0, camera.getRay(ray, 10, 20).time, 0);
+}
+
+public void testPacketTimes()
+{
+	CameraAccelerator camera = new CameraAccelerator(new FreeCamera());
+	RayPacket packet = new RayPacket(16);
+	RayPacket expected = camera.getPacket(new RayPacket(16), 32, 48);
+	Random random = new Random(17);
+	int[] counts = new int[16];
+	for (int round = 0; round < 100; round++)
+	{
+		camera.getPacket(packet, 32, 48, random);
+		assertEquals(0xFFFF, packet.getMask());
+		boolean[] strata = new boolean[16];
+		for (int i = 0; i < 16; i++)
+		{
+			double time = packet.rays[i].time;
+			assertTrue((time >= 0) && (time < 1));
+			assertEquals(0, expected.rays[i].time, 0);
+			assertEquals(0, expected.rays[i].v.distance(packet.rays[i].v), 0);
+			// one ray per stratum
+			int stratum = (int) (16*time);
+			assertFalse(strata[stratum]);
+			strata[stratum] = true;
+			if (i == 0) counts[stratum]++;
+		}
+	}
+	// the same pixel samples different parts of the interval
+	for (int i = 0; i < 16; i++)
+		assertTrue(counts[i] > 0);
+}
+
+}
@@ -0,0 +1,142 @@
+// arch-tag: 3a873655-cc81-4cbb-a07f-3dc8be96e801
+package de.yvert.cr.profiles;
+
+import junit.framework.TestCase;
+import de.yvert.Allocations;
+import de.yvert.cr.stdlib.TextureHelper;
+import de.yvert.geometry.MeshTriangle;
+import de.yvert.geometry.SceneItem;
+import de.yvert.geometry.Sphere;
+import de.yvert.geometry.Triangle;
+import de.yvert.geometry.TriangleMesh;
+import de.yvert.geometry.Vector2;
+import de.yvert.geometry.Vector3;
+import de.yvert.geometry.Vector4;
+import de.yvert.textures.Color;
+import de.yvert.textures.SphereTexCoordFunction;
+import de.yvert.textures.TexCoordFunction;
+import de.yvert.textures.Texture;
+import de.yvert.textures.TriangleTexCoordFunction;
+
+/**
+ * Checks that shading a hit, i.e. {@link IntersectionResult#update()}, the material
+ * and texture lookups, does not allocate.
+ */
+public class ShadingAllocationTest extends TestCase
+{
+
+private static final Texture CHECKER = new Texture()
+	{
+		public void getColor(Vector4 coords, Color color)
+		{
+			int parity = ((int) Math.floor(8*coords.getX())+(int) Math.floor(8*coords.getY())) & 1;
+			color.set(parity, 0.5, 1-parity);
+		}
+	};
+
+private final IntersectionResult result = new IntersectionResult();
+
+private void hit(SceneItem item)
+{
+	result.ray.p.set(-5, 0.1, 0.2);
+	result.ray.v.set(1, 0, 0);
+	result.ray.update();
+	result.item = item;
+	result.distance = item.distance(result.ray);
+	assertTrue(result.distance > 0);
+}
+
+private void assertShadingDoesNotAllocate(final SceneItem item)
+{
+	hit(item);
+	Allocations.assertNoAllocation(item.getClass().getSimpleName()+" shading", new Runnable()
+		{
+			public void run()
+			{ result.update(); }
+		});
+}
+
+public void testTriangle()
+{
+	Triangle triangle = new Triangle(new Vector3(0, -1, -1), new Vector3(0, 1, -1), new Vector3(0, 0, 1));
+	triangle.setMaterial(new MaterialAdapter());
+	triangle.texcoordparams = new Vector4[] { new Vector4(0, 0, 0, 0), new Vector4(1, 0, 0, 0), new Vector4(0, 1, 0, 0) };
+	triangle.setTextures(new Texture[] { CHECKER });
+	triangle.setTexCoordFunctions(new TexCoordFunction[] { new TriangleTexCoordFunction(0) });
+	assertShadingDoesNotAllocate(triangle);
+}
+
+public void testMeshFace()
+{
+	Triangle triangle = new Triangle(new Vector3(0, -1, -1), new Vector3(0, 1, -1), new Vector3(0, 0, 1));
+	triangle.setMaterial(new MaterialAdapter());
+	triangle.texcoordparams = new Vector4[] { new Vector4(0, 0, 0, 0), new Vector4(1, 0, 0, 0), new Vector4(0, 1, 0, 0) };
+	triangle.setTextures(new Texture[] { CHECKER });
+	MeshTriangle face = new TriangleMesh(triangle).getFace(0);
+	assertShadingDoesNotAllocate(face);
+	
+	// with the barycentric coordinates an accelerator stored
+	result.hasBarycentrics = true;
+	result.baryU = 0.3;
+	result.baryV = 0.2;
+	result.primitive = 0;
+	result.mesh = face.mesh;
+	Allocations.assertNoAllocation("MeshTriangle shading with barycentrics", new Runnable()
+		{
+			public void run()
+			{ result.update(); }
+		});
+}
+
+public void testSphere()
+{
+	Sphere sphere = new Sphere(new Vector3(0, 0, 0), 1);
+	sphere.setMaterial(new MaterialAdapter());
+	sphere.setTextures(new Texture[] { CHECKER });
+	sphere.setTexCoordFunctions(new TexCoordFunction[] { new SphereTexCoordFunction() });
+	assertShadingDoesNotAllocate(sphere);
+}
+
+public void testMaterial()
+{
+	final Material material = new MaterialAdapter();
+	Sphere sphere = new Sphere(new Vector3(0, 0, 0), 1);
+	sphere.setMaterial(material);
+	hit(sphere);
+	result.update();
+	final Vector3 direction = new Vector3(0.6, 0, 0.8);
+	final Vector2 sample = new Vector2(0.3, 0.7);
+	final Color color = new Color();
+	final Color rior = new Color();
+	Allocations.assertNoAllocation("MaterialAdapter", new Runnable()
+		{
+			public void run()
+			{
+				material.getNormal(result);
+				material.getEmittance(result, color);
+				material.getWeight(result, direction, color);
+				material.getDirectBRDF(result, direction, color);
+				material.getMirrorWeight(result, color);
+				material.getRefractionWeight(result, color, rior);
+				material.getWeightedDirection(result, sample, direction, color);
+			}
+		});
+}
+
+public void testQueryTexture()
+{
+	final Vector4 coords = new Vector4(0.3, 0.7, 0, 0);
+	final Color color = new Color();
+	final Vector4 dest = new Vector4();
+	Allocations.assertNoAllocation("TextureHelper.queryTexture", new Runnable()
+		{
+			public void run()
+			{ TextureHelper.queryTexture(CHECKER, coords, color, dest); }
+		});
+	Vector4 expected = TextureHelper.queryTexture(CHECKER, coords);
+	assertEquals(expected.getX(), dest.getX(), 0);
+	assertEquals(expected.getY(), dest.getY(), 0);
+	assertEquals(expected.getZ(), dest.getZ(), 0);
+}
+
+}
@@ -0,0 +1,128 @@
+// arch-tag: 5f6b97b4-1c85-4003-9929-4accb5d263b8
+package de.yvert.geometry;
+
+import junit.framework.TestCase;
+import de.yvert.Allocations;
+import de.yvert.cr.profiles.IntersectionResult;
+
+/**
+ * Checks that intersecting primitives, computing their normals and the destination
+ * variants of the vector and bounding box methods do not allocate.
+ */
+public class AllocationTest extends TestCase
+{
+
+private final Ray ray = new Ray();
+private final IntersectionResult result = new IntersectionResult();
+private final Vector3 normal = new Vector3();
+
+@Override
+protected void setUp()
+{
+	ray.p.set(-5, 0.1, 0.2);
+	ray.v.set(1, 0.01, 0.02);
+	ray.update();
+	result.ray.set(ray);
+}
+
+private SceneItem[] primitives()
+{
+	Vector3 a = new Vector3(0, -1, -1), b = new Vector3(0, 1, -1), c = new Vector3(0, 0, 1);
+	return new SceneItem[]
+		{
+			new Triangle(a, b, c),
+			new Sphere(new Vector3(0, 0, 0), 1),
+			new Cone(new Vector3(1, 0, 0), new Vector3(-1, 0, 0), 0.5, 1),
+			new OpenCone(new Vector3(0, 0, 1), new Vector3(0, 0, -1), 0.5, 1),
+			new Torus(new Vector3(0, 0, 0), new Vector3(0, 1, 0), 2, 0.5),
+			new Parallelogram(a, b, c),
+			new Ring(new Vector3(0, 0, 0), new Vector3(1, 0, 0), 0.1, 1),
+			new MovingSphere(new Vector3(0, 0, 0), new Vector3(0, 1, 0), 1),
+			new MovingTriangle(a, b, c, a, b, new Vector3(0, 0, 2)),
+			new TriangleMesh(new Triangle(a, b, c)).getFace(0),
+		};
+}
+
+public void testDistance()
+{
+	SceneItem[] items = primitives();
+	for (int i = 0; i < items.length; i++)
+	{
+		final SceneItem item = items[i];
+		assertTrue(item.toString(), item.distance(ray) > 0);
+		Allocations.assertNoAllocation(item.getClass().getSimpleName()+".distance", new Runnable()
+			{
+				public void run()
+				{ item.distance(ray); }
+			});
+	}
+}
+
+public void testNormal()
+{
+	SceneItem[] items = primitives();
+	for (int i = 0; i < items.length; i++)
+	{
+		final SceneItem item = items[i];
+		result.distance = item.distance(ray);
+		result.item = item;
+		result.hitpoint.set(ray.v).scaleAndSet(result.distance).addAndSet(ray.p);
+		Allocations.assertNoAllocation(item.getClass().getSimpleName()+".getNormal", new Runnable()
+			{
+				public void run()
+				{ item.getNormal(result, normal); }
+			});
+		assertEquals(1, normal.getLength(), 1e-9);
+	}
+}
+
+public void testBoundingBox()
+{
+	SceneItem[] items = primitives();
+	final BoundingBox box = new BoundingBox(new Vector3(), new Vector3());
+	for (int i = 0; i < items.length; i++)
+	{
+		final SceneItem item = items[i];
+		Allocations.assertNoAllocation(item.getClass().getSimpleName()+".getBoundingBox", new Runnable()
+			{
+				public void run()
+				{ item.getBoundingBox(box); }
+			});
+		BoundingBox expected = item.getBoundingBox();
+		assertEquals(0, expected.min.distance(box.min), 0);
+		assertEquals(0, expected.max.distance(box.max), 0);
+	}
+}
+
+public void testVector3()
+{
+	final Vector3 a = new Vector3(1, 2, 3), b = new Vector3(-2, 0.5, 4), dest = new Vector3();
+	Allocations.assertNoAllocation("Vector3.add", new Runnable()
+		{
+			public void run()
+			{ a.add(b, dest); }
+		});
+	Allocations.assertNoAllocation("Vector3.sub", new Runnable()
+		{
+			public void run()
+			{ a.sub(b, dest); }
+		});
+	Allocations.assertNoAllocation("Vector3.cross", new Runnable()
+		{
+			public void run()
+			{ a.cross(b, dest); }
+		});
+	Allocations.assertNoAllocation("Vector3.findAnyOrthogonal", new Runnable()
+		{
+			public void run()
+			{ a.findAnyOrthogonal(dest); }
+		});
+	
+	assertEquals(0, a.cross(b).distance(a.cross(b, dest)), 0);
+	// the destination may be an operand
+	Vector3 c = new Vector3(b);
+	assertEquals(0, a.cross(b).distance(a.cross(c, c)), 0);
+	assertEquals(0, a.multiply(a.findAnyOrthogonal(dest)), 1e-12);
+}
+
+}
@@ -0,0 +1,65 @@
+// arch-tag: 8d0b6634-5e93-4723-aab8-11c4b5fb92a7
+package de.yvert.geometry;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class BoundingBoxTest extends TestCase
+{
+
+private static Vector3 randomPoint(Random rand)
+{ return new Vector3(2*rand.nextDouble()-1, 2*rand.nextDouble()-1, 2*rand.nextDouble()-1); }
+
+public void testCachedRay()
+{
+	Random rand = new Random(1234);
+	Ray ray = new Ray();
+	double[] bounds = new double[6];
+	int hits = 0;
+	for (int i = 0; i < 10000; i++)
+	{
+		Vector3 a = randomPoint(rand), b = randomPoint(rand);
+		BoundingBox box = new BoundingBox(new Vector3(Math.min(a.getX(), b.getX()), Math.min(a.getY(), b.getY()), Math.min(a.getZ(), b.getZ())),
+				new Vector3(Math.max(a.getX(), b.getX()), Math.max(a.getY(), b.getY()), Math.max(a.getZ(), b.getZ())));
+		bounds[0] = box.min.getX(); bounds[1] = box.min.getY(); bounds[2] = box.min.getZ();
+		bounds[3] = box.max.getX(); bounds[4] = box.max.getY(); bounds[5] = box.max.getZ();
+		
+		ray.p.set(randomPoint(rand)).scaleAndSet(3);
+		ray.v.set(randomPoint(rand)).subAndSet(ray.p);
+		// some rays parallel to an axis
+		if (i % 5 == 0) ray.v.setX(0);
+		ray.update();
+		double maxDistance = (i % 3 == 0) ? 1 : Double.MAX_VALUE;
+		
+		double expected = BoundingBox.intersects2(bounds, 0, ray.p.getX(), ray.p.getY(), ray.p.getZ(),
+				BoundingBox.oneOver(ray.v.getX()), BoundingBox.oneOver(ray.v.getY()), BoundingBox.oneOver(ray.v.getZ()), maxDistance);
+		double actual = BoundingBox.intersects2(bounds, 0, ray, maxDistance);
+		assertEquals(expected >= 0, actual >= 0);
+		if (expected < 0) continue;
+		hits++;
+		assertEquals(expected, actual, 1e-9);
+		assertEquals(expected, box.intersects2(ray, maxDistance), 1e-9);
+		assertTrue(box.intersects(ray, 0, maxDistance));
+		assertTrue(box.intersectsMax(ray) >= actual);
+	}
+	assertTrue(hits > 1000);
+}
+
+public void testUpdate()
+{
+	Ray ray = new Ray();
+	ray.p.set(1, 2, 3);
+	ray.v.set(2, -4, 0);
+	ray.update();
+	assertEquals(0.5, ray.ix, 0);
+	assertEquals(-0.25, ray.iy, 0);
+	assertEquals(0, ray.sx);
+	assertEquals(3, ray.sy);
+	assertEquals(3, ray.sz);
+	assertEquals(-0.5, ray.ox, 0);
+	assertEquals(0.5, ray.oy, 0);
+	assertEquals(new Ray(ray).oy, ray.clone().oy, 0);
+}
+
+}
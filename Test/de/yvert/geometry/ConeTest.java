@@ -0,0 +1,85 @@
+// arch-tag: 40836ba3-0d41-4c4a-a156-868213b31ad9
+package de.yvert.geometry;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class ConeTest extends TestCase
+{
+
+private static Ray ray(double px, double py, double pz, double vx, double vy, double vz)
+{
+	Ray ray = new Ray();
+	ray.p.set(px, py, pz);
+	ray.v.set(vx, vy, vz);
+	ray.update();
+	return ray;
+}
+
+private static Ray randomRay(Random rand)
+{
+	Vector3 target = new Vector3(4*rand.nextDouble()-2, 4*rand.nextDouble()-2, 4*rand.nextDouble()-2);
+	Ray ray = new Ray();
+	ray.p.set(10*rand.nextDouble()-5, 10*rand.nextDouble()-5, 10*rand.nextDouble()-5);
+	ray.v.set(target).subAndSet(ray.p).scaleAndSet(0.5+rand.nextDouble());
+	ray.update();
+	return ray;
+}
+
+private static void assertSameDistance(double expected, double actual)
+{
+	if (expected < 0)
+		assertTrue("expected a miss, got "+actual, actual < 0);
+	else
+		assertEquals(expected, actual, 1e-9*Math.max(1, expected));
+}
+
+public void testDistance()
+{
+	// along the axis from below, through the base
+	Cone cone = new Cone(new Vector3(0, 3, 0), new Vector3(0, 1, 0), 0.5, 1);
+	assertEquals(2, cone.distance(ray(0, -1, 0, 0, 1, 0)), 1e-9);
+	// from the side, the radius is 0.75 halfway up
+	assertEquals(4.25, cone.distance(ray(-5, 2, 0, 1, 0, 0)), 1e-9);
+	assertEquals(-1, cone.distance(ray(-5, 4, 0, 1, 0, 0)), 0);
+	
+	// an open cone has no caps
+	OpenCone open = new OpenCone(new Vector3(0, 3, 0), new Vector3(0, 1, 0), 0.5, 1);
+	assertEquals(4.25, open.distance(ray(-5, 2, 0, 1, 0, 0)), 1e-9);
+	assertEquals(-1, open.distance(ray(0, -1, 0, 0, 1, 0)), 0);
+}
+
+public void testPrepare()
+{
+	Cone cone = new Cone(new Vector3(0, 3, 0), new Vector3(0, 1, 0), 0.5, 1);
+	cone.vertexRadius = 2;
+	cone.prepare();
+	// the radius is 1.25 halfway up
+	assertEquals(3.75, cone.distance(ray(-5, 2, 0, 1, 0, 0)), 1e-9);
+}
+
+public void testMatchesLegacy()
+{
+	Random rand = new Random(1);
+	int hits = 0;
+	for (int i = 0; i < 100; i++)
+	{
+		Vector3 apex = new Vector3(4*rand.nextDouble()-2, 4*rand.nextDouble()-2, 4*rand.nextDouble()-2);
+		Vector3 vertex = new Vector3(4*rand.nextDouble()-2, 4*rand.nextDouble()-2, 4*rand.nextDouble()-2);
+		double apexRadius = 1.5*rand.nextDouble(), vertexRadius = 1.5*rand.nextDouble();
+		Cone cone = new Cone(apex, vertex, apexRadius, vertexRadius);
+		OpenCone open = new OpenCone(apex, vertex, apexRadius, vertexRadius);
+		for (int j = 0; j < 100; j++)
+		{
+			Ray ray = randomRay(rand);
+			double expected = LegacyIntersectors.cone(apex, vertex, apexRadius, vertexRadius, ray, true);
+			assertSameDistance(expected, cone.distance(ray));
+			assertSameDistance(LegacyIntersectors.cone(apex, vertex, apexRadius, vertexRadius, ray, false), open.distance(ray));
+			if (expected > 0) hits++;
+		}
+	}
+	assertTrue(hits > 1000);
+}
+
+}
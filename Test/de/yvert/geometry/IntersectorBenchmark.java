@@ -0,0 +1,135 @@
+// arch-tag: 20966362-4e1b-46aa-a21b-1f4111d45108
+package de.yvert.geometry;
+
+import java.util.Random;
+
+import de.yvert.Allocations;
+
+/**
+ * Compares the intersection tests of cones, spheres and tori with the versions they
+ * replaced, see {@link LegacyIntersectors}. Prints the time and the number of bytes
+ * allocated per call; the latter needs a VM that {@link Allocations} supports.
+ * <p>
+ * Counted from the source, a capped cone used to allocate three vectors, which escape
+ * analysis may remove, and divide eight times per ray, and now transforms the ray with
+ * nine dot products into its canonical space and divides four times. A sphere saves a
+ * dot product and a square, a torus the array, polynomial and complex roots of the
+ * general solver.
+ */
+public class IntersectorBenchmark
+{
+
+private static final int PRIMITIVES = 64;
+private static final int RAYS = 4096;
+private static final int ROUNDS = 20;
+
+private interface Test
+{
+	double run(int primitive, Ray ray);
+}
+
+private static double sum;
+
+private static void measure(String name, Test test, Ray[] rays)
+{
+	// warm up
+	for (int round = 0; round < ROUNDS; round++)
+		runAll(test, rays);
+	
+	long bytes = Allocations.allocatedBytes();
+	long start = System.nanoTime();
+	for (int round = 0; round < ROUNDS; round++)
+		runAll(test, rays);
+	long time = System.nanoTime()-start;
+	long allocated = Allocations.allocatedBytes()-bytes;
+	
+	double calls = (double) ROUNDS*PRIMITIVES*rays.length;
+	System.out.print(name+": "+Math.round(10*time/calls)/10.0+" ns/call");
+	if (bytes >= 0) System.out.print(", "+Math.round(10*allocated/calls)/10.0+" bytes/call");
+	System.out.println();
+}
+
+private static void runAll(Test test, Ray[] rays)
+{
+	for (int i = 0; i < PRIMITIVES; i++)
+		for (int j = 0; j < rays.length; j++)
+			sum += test.run(i, rays[j]);
+}
+
+private static Vector3 randomPoint(Random rand, double size)
+{ return new Vector3(size*(2*rand.nextDouble()-1), size*(2*rand.nextDouble()-1), size*(2*rand.nextDouble()-1)); }
+
+public static void main(String[] args)
+{
+	Random rand = new Random(1);
+	final Ray[] rays = new Ray[RAYS];
+	for (int i = 0; i < RAYS; i++)
+	{
+		rays[i] = new Ray();
+		rays[i].p.set(randomPoint(rand, 5));
+		rays[i].v.set(randomPoint(rand, 2)).subAndSet(rays[i].p).normalizeAndSet();
+		rays[i].update();
+	}
+	
+	final Cone[] cones = new Cone[PRIMITIVES];
+	final OpenCone[] openCones = new OpenCone[PRIMITIVES];
+	final Sphere[] spheres = new Sphere[PRIMITIVES];
+	final Torus[] tori = new Torus[PRIMITIVES];
+	for (int i = 0; i < PRIMITIVES; i++)
+	{
+		Vector3 apex = randomPoint(rand, 2), vertex = randomPoint(rand, 2);
+		double apexRadius = rand.nextDouble(), vertexRadius = rand.nextDouble();
+		cones[i] = new Cone(apex, vertex, apexRadius, vertexRadius);
+		openCones[i] = new OpenCone(apex, vertex, apexRadius, vertexRadius);
+		spheres[i] = new Sphere(randomPoint(rand, 2), 0.1+rand.nextDouble());
+		tori[i] = new Torus(randomPoint(rand, 2), randomPoint(rand, 1), 1+rand.nextDouble(), 0.1+0.4*rand.nextDouble());
+	}
+	
+	for (int pass = 0; pass < 2; pass++)
+	{
+		System.out.println(pass == 0 ? "warm up" : "results");
+		measure("Cone, legacy     ", new Test()
+			{
+				public double run(int i, Ray ray)
+				{ Cone c = cones[i]; return LegacyIntersectors.cone(c.apex, c.vertex, c.apexRadius, c.vertexRadius, ray, true); }
+			}, rays);
+		measure("Cone             ", new Test()
+			{
+				public double run(int i, Ray ray)
+				{ return cones[i].distance(ray); }
+			}, rays);
+		measure("OpenCone, legacy ", new Test()
+			{
+				public double run(int i, Ray ray)
+				{ OpenCone c = openCones[i]; return LegacyIntersectors.cone(c.apex, c.vertex, c.apexRadius, c.vertexRadius, ray, false); }
+			}, rays);
+		measure("OpenCone         ", new Test()
+			{
+				public double run(int i, Ray ray)
+				{ return openCones[i].distance(ray); }
+			}, rays);
+		measure("Sphere, legacy   ", new Test()
+			{
+				public double run(int i, Ray ray)
+				{ return LegacyIntersectors.sphere(spheres[i].point, spheres[i].radius, ray); }
+			}, rays);
+		measure("Sphere           ", new Test()
+			{
+				public double run(int i, Ray ray)
+				{ return spheres[i].distance(ray); }
+			}, rays);
+		measure("Torus, legacy    ", new Test()
+			{
+				public double run(int i, Ray ray)
+				{ Torus t = tori[i]; return LegacyIntersectors.torus(t.center, t.normal, t.majorRadius, t.minorRadius, ray); }
+			}, rays);
+		measure("Torus            ", new Test()
+			{
+				public double run(int i, Ray ray)
+				{ return tori[i].distance(ray); }
+			}, rays);
+	}
+	System.out.println("checksum "+sum);
+}
+
+}
@@ -0,0 +1,142 @@
+// arch-tag: a1cf6feb-bf93-45e9-af88-c385c47ed0f1
+package de.yvert.geometry;
+
+import de.yvert.algorithms.roots.ComplexNumber;
+import de.yvert.algorithms.roots.Polynom;
+import de.yvert.algorithms.roots.RootSolver;
+import de.yvert.algorithms.roots.Roots;
+
+/**
+ * The intersection tests as they were before the primitives precomputed their constants,
+ * kept to check the new ones against and to benchmark them. Misses are returned as -1.
+ */
+final class LegacyIntersectors
+{
+
+private static final double EPSILON = 1e-4f;
+private static final double TORUS_EPSILON = 1e-6f;
+
+private LegacyIntersectors()
+{/*OK*/}
+
+static double cone(Vector3 apex, Vector3 vertex, double apexRadius, double vertexRadius, Ray r, boolean caps)
+{
+	Vector3 p0 = vertex, p1 = apex, o = r.p, d = r.v;
+	double r0 = vertexRadius, r1 = apexRadius, dr = r1-r0;
+	
+	Vector3 a = p1.sub(p0);
+	Vector3 c = o.sub(p0);
+	
+	double ac = a.multiply(c);
+	double ad = a.multiply(d);
+	double cd = c.multiply(d);
+	
+	double aa = a.multiply(a);
+	double cc = c.multiply(c);
+	double dd = d.multiply(d);
+	
+	double t1 = -Double.MAX_VALUE, t2 = t1, t3 = t1, t4 = t1;
+	
+	double z1 = 1/aa + dr*dr/(aa*aa);
+	double z2 = r0*dr/aa;
+	
+	double c1 = ad*ad*z1 - dd;
+	double c2 = 2*(ac*ad*z1 + ad*z2 - cd);
+	double c3 = r0*r0 + ac*ac*z1 + ac*2*z2 - cc;
+	
+	double t = c2*c2 - 4*c1*c3;
+	if (t > EPSILON)
+	{
+		t = Math.sqrt(t);
+		t1 = (-c2 + t)/(2*c1);
+		t2 = (-c2 - t)/(2*c1);
+		
+		double u1 = (ac + t1*ad)/aa;
+		double u2 = (ac + t2*ad)/aa;
+		if (u1 < 0 || u1 > 1) t1 = -Double.MAX_VALUE;
+		if (u2 < 0 || u2 > 1) t2 = -Double.MAX_VALUE;
+	}
+	
+	if (caps && ((ad > EPSILON) || (ad < -EPSILON)))
+	{
+		Vector3 e = o.sub(p1);
+		double ae = a.multiply(e);
+		double de = d.multiply(e);
+		double ee = e.multiply(e);
+		
+		t3 = -ac/ad;
+		t4 = -ae/ad;
+		double rad3 = cc + 2*cd*t3 + dd*t3*t3;
+		double rad4 = ee + 2*de*t4 + dd*t4*t4;
+		
+		t3 = (rad3 > r0*r0) ? -Double.MAX_VALUE : t3;
+		t4 = (rad4 > r1*r1) ? -Double.MAX_VALUE : t4;
+	}
+	
+	double tmax = Math.max(Math.max(t1,t2), Math.max(t3,t4));
+	double tmin = -Double.MAX_VALUE;
+	if ((t1 > EPSILON) && (t1 < tmax)) tmin = t1;
+	if ((t2 > EPSILON) && (t2 < tmax)) tmin = t2;
+	if ((t3 > EPSILON) && (t3 < tmax)) tmin = t3;
+	if ((t4 > EPSILON) && (t4 < tmax)) tmin = t4;
+	
+	if (tmax < EPSILON) return -1;
+	
+	if (tmin > EPSILON)
+		return tmin;
+	else
+		return tmax;
+}
+
+static double sphere(Vector3 point, double radius, Ray ray)
+{
+	double a = ray.v.getSquaredLength();
+	double b = ray.v.multiply(ray.p) - ray.v.multiply(point);
+	double c = ray.p.squaredDistance(point) - radius*radius;
+	double belowrt = b*b-a*c;
+	if (belowrt < 0) return -1;
+	double rt = Math.sqrt(belowrt);
+	double first = (-b-rt)/a;
+	if (first < 0)
+	{
+		double second = (-b+rt)/a;
+		if (second < EPSILON) return -1;
+		return second;
+	}
+	return first;
+}
+
+static double torus(Vector3 center, Vector3 normal, double majorRadius, double minorRadius, Ray ray)
+{
+	Vector3 e = ray.p.sub(center);
+	
+	double dd = ray.v.multiply(ray.v);
+	double dn = ray.v.multiply(normal);
+	double ee = e.multiply(e);
+	double ed = e.multiply(ray.v);
+	double en = e.multiply(normal);
+	
+	double r2 = majorRadius*majorRadius;
+	double k2 = minorRadius*minorRadius;
+	double c1 = r2-k2;
+	double c2 = 4*r2;
+	double c3 = 2*c1-c2;
+	
+	double[] c = new double[5];
+	c[4] = dd*dd;
+	c[3] = 4*ed*dd;
+	c[2] = 2*(2*ed*ed+ee*dd) + c2*dn*dn + c3*dd;
+	c[1] = 4*ee*ed + c2*2*en*dn + c3*2*ed;
+	c[0] = ee*ee + c2*en*en + c3*ee + c1*c1;
+	
+	Roots roots = RootSolver.solve(new Polynom(c));
+	double x = Double.MAX_VALUE;
+	for (int i = 0; i < roots.size(); i++)
+	{
+		ComplexNumber r = roots.get(i);
+		if ((!r.hasIm()) && (r.re < x) && (r.re > TORUS_EPSILON)) x = r.re;
+	}
+	return x == Double.MAX_VALUE ? -1 : x;
+}
+
+}
@@ -0,0 +1,172 @@
+// arch-tag: 44323f07-54d7-41c2-909e-a349d8284996
+package de.yvert.geometry;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import de.yvert.cr.profiles.IntersectionResult;
+import de.yvert.cr.profiles.MaterialAdapter;
+import de.yvert.textures.Color;
+import de.yvert.textures.Texture;
+
+public class MeshTriangleTest extends TestCase
+{
+
+private static final Texture TEXTURE = new Texture()
+	{
+		public void getColor(Vector4 coords, Color color)
+		{ color.set(coords.getX(), coords.getY(), 0); }
+	};
+
+private static Vector3 randomPoint(Random rand)
+{ return new Vector3(2*rand.nextDouble()-1, 2*rand.nextDouble()-1, 2*rand.nextDouble()-1); }
+
+private static TriangleMesh createMesh(Random rand, int count)
+{
+	Triangle[] triangles = new Triangle[count];
+	for (int i = 0; i < count; i++)
+		triangles[i] = new Triangle(randomPoint(rand), randomPoint(rand), randomPoint(rand));
+	return new TriangleMesh(triangles);
+}
+
+/**
+ * Two faces sharing an edge, with texture coordinates and vertex normals.
+ */
+private static TriangleMesh createTexturedMesh()
+{
+	TriangleMesh mesh = new TriangleMesh();
+	mesh.vertexData = new float[] { 0, -1, -1, 0, 1, -1, 0, 0, 1, 0, 2, 1 };
+	mesh.texcoordData = new float[] { 0, 0, 1, 0, 0.5f, 1, 1.5f, 1 };
+	mesh.faceData = new int[] { 0, 1, 2, 1, 3, 2 };
+	mesh.textureData = new Texture[] { TEXTURE, TEXTURE };
+	mesh.vertexNormals = new float[] { -1, 0, 0, -1, 0.5f, 0, -1, 0, 0.5f, -1, 0.5f, 0.5f };
+	mesh.material = new MaterialAdapter();
+	mesh.calculateNormals();
+	return mesh;
+}
+
+public void testAgainstTriangle()
+{
+	Random rand = new Random(1234);
+	TriangleMesh mesh = createMesh(rand, 100);
+	MeshTriangle[] faces = mesh.getFaces();
+	Triangle[] triangles = mesh.getTriangles();
+	PrecomputedTriangles precomputed = new PrecomputedTriangles(mesh);
+	assertEquals(triangles.length, faces.length);
+	
+	IntersectionResult result = new IntersectionResult();
+	Vector3 expected = new Vector3(), actual = new Vector3();
+	double[] uv = new double[2];
+	int hits = 0;
+	for (int i = 0; i < 10000; i++)
+	{
+		result.ray.p.set(randomPoint(rand)).scaleAndSet(3);
+		result.ray.v.set(randomPoint(rand)).subAndSet(result.ray.p).normalizeAndSet();
+		result.ray.update();
+		int index = i % faces.length;
+		MeshTriangle face = faces[index];
+		assertSame(mesh, face.mesh);
+		assertEquals(index, face.face);
+		double distance = face.distance(result.ray);
+		assertEquals(precomputed.intersect(index, result.ray, Double.MAX_VALUE, uv), distance, 1e-9);
+		if (distance <= 0) continue;
+		hits++;
+		
+		result.distance = distance;
+		result.hitpoint.set(result.ray.v).scaleAndSet(distance).addAndSet(result.ray.p);
+		face.barycentricCoords(result, actual);
+		assertEquals(0, actual.distance(new Vector3(1-uv[0]-uv[1], uv[0], uv[1])), 1e-9);
+		triangles[index].getNormal(result, expected);
+		face.getNormal(result, actual);
+		assertEquals(0, expected.distance(actual), 1e-9);
+	}
+	assertTrue(hits > 100);
+	
+	for (int i = 0; i < faces.length; i++)
+	{
+		assertEquals(0, triangles[i].getBoundingBox().min.distance(faces[i].getBoundingBox().min), 0);
+		assertEquals(0, triangles[i].getBoundingBox().max.distance(faces[i].getBoundingBox().max), 0);
+	}
+}
+
+public void testStoredBarycentrics()
+{
+	TriangleMesh mesh = createTexturedMesh();
+	MeshTriangle face = mesh.getFace(0);
+	IntersectionResult result = new IntersectionResult();
+	result.ray.p.set(-5, 0.1, 0.2);
+	result.ray.v.set(1, 0, 0);
+	result.ray.update();
+	Vector3 bary = new Vector3();
+	Vector3 expected = mesh.getTriangle(0).barycentricCoords(result.ray, new Vector3());
+	
+	// stored for this face, they are used as they are
+	result.hasBarycentrics = true;
+	result.baryU = 0.25;
+	result.baryV = 0.5;
+	result.primitive = 0;
+	result.mesh = mesh;
+	face.barycentricCoords(result, bary);
+	assertEquals(0, bary.distance(new Vector3(0.25, 0.25, 0.5)), 1e-12);
+	
+	// stored for another face, they are calculated
+	result.primitive = 1;
+	face.barycentricCoords(result, bary);
+	assertEquals(0, bary.distance(expected), 1e-9);
+	result.clearPrimitive();
+	face.barycentricCoords(result, bary);
+	assertEquals(0, bary.distance(expected), 1e-9);
+}
+
+public void testTextures()
+{
+	TriangleMesh mesh = createTexturedMesh();
+	MeshTriangle[] faces = mesh.getFaces();
+	// faces with the same texture share their arrays
+	assertSame(faces[0].getTextures(), faces[1].getTextures());
+	assertSame(faces[0].getTexCoordFunctions(), faces[1].getTexCoordFunctions());
+	assertSame(TEXTURE, mesh.getFace(1).getTextures()[0]);
+	assertSame(mesh.material, faces[1].getMaterial());
+	
+	IntersectionResult expected = new IntersectionResult();
+	IntersectionResult actual = new IntersectionResult();
+	double[][] points = { { 0.1, 0.2 }, { -0.5, -0.8 }, { 1.2, 0.5 }, { 1.5, 0.9 } };
+	for (int i = 0; i < points.length; i++)
+	{
+		int index = i < 2 ? 0 : 1;
+		actual.ray.p.set(-5, points[i][0], points[i][1]);
+		actual.ray.v.set(1, 0, 0);
+		actual.ray.update();
+		expected.ray.set(actual.ray);
+		
+		actual.item = faces[index];
+		actual.distance = faces[index].distance(actual.ray);
+		assertEquals(5, actual.distance, 1e-9);
+		actual.update();
+		expected.item = mesh.getTriangle(index);
+		expected.distance = expected.item.distance(expected.ray);
+		expected.update();
+		
+		assertEquals(expected.uvstcoords[0].getX(), actual.uvstcoords[0].getX(), 1e-6);
+		assertEquals(expected.uvstcoords[0].getY(), actual.uvstcoords[0].getY(), 1e-6);
+		assertEquals(0, expected.normal.distance(actual.normal), 1e-6);
+	}
+}
+
+public void testMovedVertices()
+{
+	TriangleMesh mesh = createTexturedMesh();
+	MeshTriangle face = mesh.getFace(0);
+	Ray ray = new Ray();
+	ray.p.set(-5, 0.1, 0.2);
+	ray.v.set(1, 0, 0);
+	ray.update();
+	assertEquals(5, face.distance(ray), 1e-9);
+	for (int i = 0; i < mesh.vertexData.length; i += 3)
+		mesh.vertexData[i] = 1;
+	assertEquals(6, face.distance(ray), 1e-9);
+	assertEquals(1, face.getMinX(), 0);
+	assertEquals(1, face.getMaxX(), 0);
+}
+
+}
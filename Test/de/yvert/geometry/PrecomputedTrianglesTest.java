@@ -0,0 +1,89 @@
+// arch-tag: ef36d7ef-300d-4512-bc66-1ebeaaf92f5f
+package de.yvert.geometry;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class PrecomputedTrianglesTest extends TestCase
+{
+
+private static Vector3 randomPoint(Random rand)
+{ return new Vector3(2*rand.nextDouble()-1, 2*rand.nextDouble()-1, 2*rand.nextDouble()-1); }
+
+public void testAgainstTriangle()
+{
+	Random rand = new Random(1234);
+	Triangle[] triangles = new Triangle[100];
+	for (int i = 0; i < triangles.length; i++)
+		triangles[i] = new Triangle(randomPoint(rand), randomPoint(rand), randomPoint(rand));
+	PrecomputedTriangles precomputed = new PrecomputedTriangles(triangles);
+	assertEquals(100, precomputed.size());
+	
+	double[] uv = new double[2];
+	Vector3 bary = new Vector3();
+	Ray ray = new Ray();
+	int hits = 0;
+	for (int i = 0; i < 10000; i++)
+	{
+		ray.p.set(randomPoint(rand)).scaleAndSet(3);
+		ray.v.set(randomPoint(rand)).subAndSet(ray.p).normalizeAndSet();
+		ray.update();
+		int index = i % triangles.length;
+		Triangle t = triangles[index];
+		double expected = t.distance(ray);
+		double actual = precomputed.intersect(index, ray, Double.MAX_VALUE, uv);
+		assertEquals(expected > 0, actual > 0);
+		if (actual <= 0) continue;
+		hits++;
+		assertEquals(expected, actual, 1e-9);
+		
+		t.barycentricCoords(ray, bary);
+		assertEquals(bary.getX(), 1-uv[0]-uv[1], 1e-9);
+		assertEquals(bary.getY(), uv[0], 1e-9);
+		assertEquals(bary.getZ(), uv[1], 1e-9);
+		
+		// hits at or beyond the maximum distance are rejected
+		assertEquals(-1, precomputed.intersect(index, ray, actual, null), 0);
+		assertEquals(actual, precomputed.intersect(index, ray, actual*1.001, null), 0);
+	}
+	assertTrue(hits > 100);
+}
+
+public void testEdges()
+{
+	Triangle t = new Triangle(new Vector3(0, 0, 0), new Vector3(1, 0, 0), new Vector3(0, 1, 0));
+	PrecomputedTriangles precomputed = new PrecomputedTriangles(new Triangle[] { t });
+	Ray ray = new Ray();
+	ray.v.set(0, 0, -1);
+	
+	// a point on the shared edge and a vertex hit from both sides
+	ray.p.set(0.5, 0.5, 1);
+	assertEquals(1, precomputed.intersect(0, ray, 10, null), 1e-12);
+	ray.p.set(0, 0, 1);
+	assertEquals(1, precomputed.intersect(0, ray, 10, null), 1e-12);
+	ray.p.set(0.2, 0.2, -1);
+	ray.v.set(0, 0, 1);
+	assertEquals(1, precomputed.intersect(0, ray, 10, null), 1e-12);
+	ray.p.set(0.6, 0.6, -1);
+	assertEquals(-1, precomputed.intersect(0, ray, 10, null), 0);
+	
+	// parallel to the plane
+	ray.p.set(0.2, 0.2, 0);
+	ray.v.set(1, 0, 0);
+	assertEquals(-1, precomputed.intersect(0, ray, 10, null), 0);
+}
+
+public void testSet()
+{
+	Triangle t = new Triangle(new Vector3(0, 0, 0), new Vector3(1, 0, 0), new Vector3(0, 1, 0));
+	PrecomputedTriangles precomputed = new PrecomputedTriangles(new Triangle[] { t });
+	Ray ray = new Ray();
+	ray.p.set(0.2, 0.2, 1);
+	ray.v.set(0, 0, -1);
+	assertEquals(1, precomputed.intersect(0, ray, 10, null), 1e-12);
+	precomputed.set(0, new Vector3(0, 0, -1), new Vector3(1, 0, -1), new Vector3(0, 1, -1));
+	assertEquals(2, precomputed.intersect(0, ray, 10, null), 1e-12);
+}
+
+}
@@ -0,0 +1,94 @@
+// arch-tag: ba5a090a-b37d-4284-a58a-f9d09096b4b6
+package de.yvert.geometry;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class RayPacketTest extends TestCase
+{
+
+private static Vector3 randomPoint(Random rand)
+{ return new Vector3(2*rand.nextDouble()-1, 2*rand.nextDouble()-1, 2*rand.nextDouble()-1); }
+
+public void testSize()
+{
+	assertEquals(2, new RayPacket(4).getTileHeight());
+	assertEquals(2, new RayPacket(8).getTileHeight());
+	assertEquals(4, new RayPacket(16).getTileWidth());
+	try
+	{
+		new RayPacket(5);
+		fail();
+	}
+	catch (IllegalArgumentException e)
+	{/*Expected Exception*/}
+	try
+	{
+		new RayPacket(4).update(0x10);
+		fail();
+	}
+	catch (IllegalArgumentException e)
+	{/*Expected Exception*/}
+}
+
+public void testCoherence()
+{
+	RayPacket packet = new RayPacket(4);
+	for (int i = 0; i < 4; i++)
+		packet.rays[i].v.set(1, 0.1*(i+1), -1);
+	packet.update(0xF);
+	assertTrue(packet.isCoherent());
+	packet.rays[3].v.set(-1, 0, -1);
+	packet.update(0xF);
+	assertFalse(packet.isCoherent());
+	packet.update(0x7);
+	assertTrue(packet.isCoherent());
+	packet.update(0);
+	assertFalse(packet.isCoherent());
+}
+
+public void testFrustumIsConservative()
+{
+	Random rand = new Random(99);
+	RayPacket packet = new RayPacket(16);
+	double[] bounds = new double[6];
+	double[] entry = new double[16];
+	int rejected = 0;
+	for (int i = 0; i < 5000; i++)
+	{
+		// a bundle of rays from nearby origins in similar directions
+		Vector3 origin = randomPoint(rand).scaleAndSet(5);
+		Vector3 target = randomPoint(rand);
+		for (int k = 0; k < 16; k++)
+		{
+			Ray ray = packet.rays[k];
+			ray.p.set(randomPoint(rand)).scaleAndSet(0.05).addAndSet(origin);
+			ray.v.set(randomPoint(rand)).scaleAndSet(0.2).addAndSet(target).subAndSet(ray.p);
+			packet.maxDistance[k] = (i % 3 == 0) ? 0.5 : Double.MAX_VALUE;
+		}
+		packet.update(0xFFFF);
+		if (!packet.isCoherent()) continue;
+		
+		Vector3 a = randomPoint(rand), b = randomPoint(rand);
+		bounds[0] = Math.min(a.getX(), b.getX()); bounds[3] = Math.max(a.getX(), b.getX());
+		bounds[1] = Math.min(a.getY(), b.getY()); bounds[4] = Math.max(a.getY(), b.getY());
+		bounds[2] = Math.min(a.getZ(), b.getZ()); bounds[5] = Math.max(a.getZ(), b.getZ());
+		int mask = BoundingBox.intersects(bounds, 0, packet, 0xFFFF, entry);
+		boolean frustum = BoundingBox.intersectsFrustum(bounds, 0, packet);
+		if (mask != 0) assertTrue(frustum);
+		if (!frustum) rejected++;
+		for (int k = 0; k < 16; k++)
+		{
+			Ray ray = packet.rays[k];
+			double t = BoundingBox.intersects2(bounds, 0, ray.p.getX(), ray.p.getY(), ray.p.getZ(),
+					BoundingBox.oneOver(ray.v.getX()), BoundingBox.oneOver(ray.v.getY()), BoundingBox.oneOver(ray.v.getZ()),
+					packet.maxDistance[k]);
+			assertEquals(t >= 0, (mask & (1 << k)) != 0);
+			if (t >= 0) assertEquals(t, entry[k], 0);
+		}
+	}
+	assertTrue(rejected > 100);
+}
+
+}
@@ -0,0 +1,64 @@
+// arch-tag: 6c024dd2-e8ae-4a4e-a3d2-5a8cb457c8c6
+package de.yvert.geometry;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class SphereTest extends TestCase
+{
+
+private static Ray randomRay(Random rand)
+{
+	Vector3 target = new Vector3(4*rand.nextDouble()-2, 4*rand.nextDouble()-2, 4*rand.nextDouble()-2);
+	Ray ray = new Ray();
+	ray.p.set(10*rand.nextDouble()-5, 10*rand.nextDouble()-5, 10*rand.nextDouble()-5);
+	ray.v.set(target).subAndSet(ray.p).scaleAndSet(0.5+rand.nextDouble());
+	ray.update();
+	return ray;
+}
+
+private static void assertSameDistance(double expected, double actual)
+{
+	if (expected < 0)
+		assertTrue("expected a miss, got "+actual, actual < 0);
+	else
+		assertEquals(expected, actual, 1e-9*Math.max(1, expected));
+}
+
+public void testDistance()
+{
+	Sphere sphere = new Sphere(new Vector3(1, 2, 3), 2);
+	Ray ray = new Ray();
+	ray.p.set(-5, 2, 3);
+	ray.v.set(2, 0, 0);
+	ray.update();
+	assertEquals(2, sphere.distance(ray), 1e-9);
+	
+	// from inside
+	ray.p.set(1, 2, 3);
+	ray.update();
+	assertEquals(1, sphere.distance(ray), 1e-9);
+	
+	ray.p.set(-5, 5, 3);
+	ray.update();
+	assertEquals(-1, sphere.distance(ray), 0);
+}
+
+public void testMatchesLegacy()
+{
+	Random rand = new Random(2);
+	for (int i = 0; i < 100; i++)
+	{
+		Vector3 center = new Vector3(4*rand.nextDouble()-2, 4*rand.nextDouble()-2, 4*rand.nextDouble()-2);
+		double radius = 2*rand.nextDouble();
+		Sphere sphere = new Sphere(center, radius);
+		for (int j = 0; j < 100; j++)
+		{
+			Ray ray = randomRay(rand);
+			assertSameDistance(LegacyIntersectors.sphere(center, radius, ray), sphere.distance(ray));
+		}
+	}
+}
+
+}
@@ -0,0 +1,81 @@
+// arch-tag: 65292b74-9447-4426-abb0-8c39eaa538e0
+package de.yvert.geometry;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TorusTest extends TestCase
+{
+
+public void testDistance()
+{
+	Torus torus = new Torus(new Vector3(1, 2, 3), new Vector3(0, 1, 0), 2, 0.5);
+	Ray ray = new Ray();
+	ray.p.set(-9, 2, 3);
+	ray.v.set(1, 0, 0);
+	ray.update();
+	assertEquals(7.5, torus.distance(ray), 1e-9);
+	
+	// from inside the tube
+	ray.p.set(-1, 2, 3);
+	ray.update();
+	assertEquals(0.5, torus.distance(ray), 1e-9);
+	
+	// through the hole
+	ray.p.set(1, -5, 3);
+	ray.v.set(0, 1, 0);
+	ray.update();
+	assertEquals(-1, torus.distance(ray), 0);
+}
+
+public void testHitsSurface()
+{
+	Random rand = new Random(1);
+	Torus torus = new Torus(new Vector3(0, 0, 0), new Vector3(1, 2, 3), 2, 0.5);
+	int hits = 0;
+	for (int i = 0; i < 1000; i++)
+	{
+		Ray ray = new Ray();
+		ray.p.set(10*rand.nextDouble()-5, 10*rand.nextDouble()-5, 10*rand.nextDouble()-5);
+		ray.v.set(2*rand.nextDouble()-1, 2*rand.nextDouble()-1, 2*rand.nextDouble()-1).subAndSet(ray.p).normalizeAndSet();
+		ray.update();
+		double d = torus.distance(ray);
+		if (d < 0) continue;
+		hits++;
+		
+		// the hit point lies on the surface
+		Vector3 hit = ray.v.scale(d).addAndSet(ray.p);
+		double height = hit.multiply(torus.normal);
+		Vector3 inPlane = torus.normal.scale(-height).addAndSet(hit);
+		double ring = inPlane.getLength()-torus.majorRadius;
+		assertEquals(torus.minorRadius, Math.sqrt(ring*ring+height*height), 1e-9);
+	}
+	assertTrue(hits > 100);
+}
+
+public void testMatchesLegacy()
+{
+	Random rand = new Random(2);
+	for (int i = 0; i < 20; i++)
+	{
+		Vector3 center = new Vector3(2*rand.nextDouble()-1, 2*rand.nextDouble()-1, 2*rand.nextDouble()-1);
+		Vector3 normal = new Vector3(2*rand.nextDouble()-1, 2*rand.nextDouble()-1, 2*rand.nextDouble()-1).normalizeAndSet();
+		Torus torus = new Torus(center, normal, 1+rand.nextDouble(), 0.5*rand.nextDouble()+0.1);
+		for (int j = 0; j < 50; j++)
+		{
+			Ray ray = new Ray();
+			ray.p.set(10*rand.nextDouble()-5, 10*rand.nextDouble()-5, 10*rand.nextDouble()-5);
+			ray.v.set(2*rand.nextDouble()-1, 2*rand.nextDouble()-1, 2*rand.nextDouble()-1).subAndSet(ray.p).normalizeAndSet();
+			ray.update();
+			double expected = LegacyIntersectors.torus(torus.center, torus.normal, torus.majorRadius, torus.minorRadius, ray);
+			double actual = torus.distance(ray);
+			if (expected < 0)
+				assertTrue(actual < 0);
+			else
+				assertEquals(expected, actual, 1e-6);
+		}
+	}
+}
+
+}
@@ -0,0 +1,106 @@
+// arch-tag: c8f773d4-bfaa-475b-9970-833067c26c7b
+package de.yvert.geometry;
+
+import java.nio.FloatBuffer;
+
+import junit.framework.TestCase;
+import de.yvert.textures.Color;
+import de.yvert.textures.Texture;
+
+public class TriangleMeshTest extends TestCase
+{
+
+private static final Texture TEXTURE = new Texture()
+	{
+		public void getColor(Vector4 coords, Color color)
+		{ color.set(coords.getX(), coords.getY(), 0); }
+	};
+
+private static Vector3 normal(TriangleMesh mesh, int index)
+{
+	Vector3 result = new Vector3();
+	mesh.getNormal(result, index);
+	return result.normalizeAndSet();
+}
+
+private static Triangle[] createTriangles()
+{
+	Triangle first = new Triangle(new Vector3(0, 0, 0), new Vector3(1, 0, 0), new Vector3(0, 1, 0));
+	Triangle second = new Triangle(new Vector3(0, 0, 1), new Vector3(0, 1, 1), new Vector3(1, 0, 1));
+	return new Triangle[] { first, second };
+}
+
+public void testLayout()
+{
+	TriangleMesh mesh = new TriangleMesh(createTriangles());
+	assertEquals(2, mesh.triangleCount());
+	assertEquals(6, mesh.vertexCount());
+	assertEquals(3*6, mesh.vertexData.length);
+	assertEquals(3*2, mesh.faceData.length);
+	assertEquals(3*2, mesh.normalData.length);
+	// optional attributes are absent
+	assertNull(mesh.texcoordData);
+	assertNull(mesh.lmcoordData);
+	assertNull(mesh.textureData);
+	assertNull(mesh.lightmapData);
+	assertNull(mesh.vertexNormals);
+	
+	assertEquals(0, mesh.getVertex(4, new Vector3()).distance(new Vector3(0, 1, 1)), 0);
+	assertEquals(0, normal(mesh, 1).distance(new Vector3(0, 0, -1)), 1e-6);
+	Triangle t = mesh.getTriangle(1);
+	assertEquals(0, t.c.distance(new Vector3(1, 0, 1)), 0);
+	assertNull(t.getTextures());
+}
+
+public void testBuffers()
+{
+	TriangleMesh mesh = new TriangleMesh(createTriangles());
+	FloatBuffer vertices = mesh.getVertexBuffer();
+	assertEquals(mesh.vertexData.length, vertices.remaining());
+	// the buffers are views of the arrays
+	vertices.put(3, 5);
+	assertEquals(5, mesh.vertexData[3], 0);
+	mesh.faceData[4] = 0;
+	assertEquals(0, mesh.getFaceBuffer().get(4));
+	assertNull(mesh.getTexCoordBuffer());
+	assertNull(mesh.getLightmapCoordBuffer());
+	assertNull(mesh.getVertexNormalBuffer());
+}
+
+public void testTexCoords()
+{
+	Triangle[] triangles = createTriangles();
+	triangles[1].texcoordparams = new Vector4[] { new Vector4(0.5, 0.25, 0, 0), new Vector4(1, 0, 0, 0), new Vector4(0, 1, 0, 0) };
+	triangles[1].setTextures(new Texture[] { TEXTURE });
+	TriangleMesh mesh = new TriangleMesh(triangles);
+	assertEquals(2*6, mesh.texcoordData.length);
+	assertEquals(0.5f, mesh.texcoordData[2*3], 0);
+	assertEquals(0.25f, mesh.texcoordData[2*3+1], 0);
+	assertNull(mesh.textureData[0]);
+	assertSame(TEXTURE, mesh.textureData[1]);
+	assertNull(mesh.lmcoordData);
+	
+	Triangle t = mesh.getTriangle(1);
+	assertEquals(1, t.getTextures().length);
+	assertEquals(0.5, t.texcoordparams[0].getX(), 0);
+	assertEquals(0.25, t.texcoordparams[0].getY(), 0);
+}
+
+public void testCalculateNormals()
+{
+	TriangleMesh mesh = new TriangleMesh(createTriangles());
+	float[] normals = mesh.normalData;
+	// moving the second triangle up keeps its normal
+	for (int i = 9; i < 18; i += 3)
+		mesh.vertexData[i+2] += 1;
+	mesh.calculateNormals();
+	assertSame(normals, mesh.normalData);
+	assertEquals(0, normal(mesh, 1).distance(new Vector3(0, 0, -1)), 1e-6);
+	// flipping the first triangle flips its normal
+	mesh.faceData[1] = 2;
+	mesh.faceData[2] = 1;
+	mesh.calculateNormals();
+	assertEquals(0, normal(mesh, 0).distance(new Vector3(0, 0, -1)), 1e-6);
+}
+
+}
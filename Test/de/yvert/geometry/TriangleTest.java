@@ -0,0 +1,47 @@
+// arch-tag: beb1b19a-2655-4872-9a1b-ba1bc7464e31
+package de.yvert.geometry;
+
+import junit.framework.TestCase;
+import de.yvert.cr.profiles.IntersectionResult;
+
+public class TriangleTest extends TestCase
+{
+
+public void testStoredBarycentrics()
+{
+	Triangle triangle = new Triangle(new Vector3(0, -1, -1), new Vector3(0, 1, -1), new Vector3(0, 0, 1));
+	Triangle other = new Triangle(new Vector3(0, 1, -1), new Vector3(0, 2, 1), new Vector3(0, 0, 1));
+	IntersectionResult result = new IntersectionResult();
+	result.ray.p.set(-5, 0.1, 0.2);
+	result.ray.v.set(1, 0, 0);
+	result.ray.update();
+	Vector3 bary = new Vector3();
+	Vector4 bary4 = new Vector4();
+	Vector3 expected = triangle.barycentricCoords(result.ray, new Vector3());
+	
+	// stored for this triangle, they are used as they are
+	result.hasBarycentrics = true;
+	result.baryU = 0.25;
+	result.baryV = 0.5;
+	result.baryItem = triangle;
+	triangle.barycentricCoords(result, bary);
+	assertEquals(0, bary.distance(new Vector3(0.25, 0.25, 0.5)), 1e-12);
+	triangle.barycentricCoords(result, bary4);
+	assertEquals(0.25, bary4.getX(), 1e-12);
+	assertEquals(0.5, bary4.getZ(), 1e-12);
+	
+	// stored for another triangle or for nothing, they are calculated
+	result.baryItem = other;
+	triangle.barycentricCoords(result, bary);
+	assertEquals(0, bary.distance(expected), 1e-9);
+	triangle.barycentricCoords(result, bary4);
+	assertEquals(expected.getX(), bary4.getX(), 1e-9);
+	result.baryItem = null;
+	triangle.barycentricCoords(result, bary);
+	assertEquals(0, bary.distance(expected), 1e-9);
+	result.clearPrimitive();
+	triangle.barycentricCoords(result, bary);
+	assertEquals(0, bary.distance(expected), 1e-9);
+}
+
+}
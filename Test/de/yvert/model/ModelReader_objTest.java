@@ -0,0 +1,88 @@
+// arch-tag: 6b293b66-09c6-4e84-8729-c5e0cb570ecb
+package de.yvert.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+import de.yvert.geometry.TriangleMesh;
+
+public class ModelReader_objTest extends TestCase
+{
+
+private static TriangleMesh read(String data) throws IOException
+{
+	byte[] bytes = data.getBytes("ISO-8859-1");
+	Model model = new ModelReader_obj().read("test", new ByteArrayInputStream(bytes), bytes.length);
+	assertEquals(1, model.size());
+	return (TriangleMesh) model.iterator().next();
+}
+
+public void testQuad() throws IOException
+{
+	TriangleMesh mesh = read(
+			"v 0 0 0\n"+
+			"v 1 0 0\n"+
+			"v 1 1 0\n"+
+			"v 0 1 0\n"+
+			"vt 0 0\n"+
+			"vt 1 0\n"+
+			"vt 1 1\n"+
+			"vt 0 1\n"+
+			"f 1/1 2/2 3/3 4/4\n");
+	assertEquals(2, mesh.triangleCount());
+	assertEquals(4, mesh.vertexCount());
+	assertEquals(6, mesh.faceData.length);
+	assertEquals(2*4, mesh.texcoordData.length);
+	assertEquals(3*4, mesh.vertexNormals.length);
+	assertEquals(3*2, mesh.normalData.length);
+	assertNull(mesh.lmcoordData);
+	
+	// the faces are flipped, so the normals point down
+	for (int i = 0; i < mesh.vertexCount(); i++)
+		assertEquals(-1, mesh.vertexNormals[3*i+2], 1e-6);
+	// each vertex keeps its texture coordinates
+	for (int i = 0; i < mesh.vertexCount(); i++)
+	{
+		assertEquals(mesh.vertexData[3*i  ], mesh.texcoordData[2*i  ], 0);
+		assertEquals(mesh.vertexData[3*i+1], mesh.texcoordData[2*i+1], 0);
+	}
+}
+
+public void testWithoutTexCoords() throws IOException
+{
+	TriangleMesh mesh = read(
+			"v 0 0 0\n"+
+			"v 1 0 0\n"+
+			"v 0 1 0\n"+
+			"f 1 2 3\n");
+	assertEquals(1, mesh.triangleCount());
+	assertNull(mesh.texcoordData);
+	assertNull(mesh.getTexCoordBuffer());
+	assertNull(mesh.getFace(0).getTextures());
+}
+
+public void testGroups() throws IOException
+{
+	String data =
+			"v 0 0 0\n"+
+			"v 1 0 0\n"+
+			"v 0 1 0\n"+
+			"vt 0 0\n"+
+			"vt 1 0\n"+
+			"vt 0 1\n"+
+			"g textured\n"+
+			"f 1/1 2/2 3/3\n"+
+			"g plain\n"+
+			"f 1 3 2\n";
+	byte[] bytes = data.getBytes("ISO-8859-1");
+	Model model = new ModelReader_obj().read("test", new ByteArrayInputStream(bytes), bytes.length);
+	assertEquals(2, model.size());
+	Iterator<?> it = model.iterator();
+	// only the group that has them gets texture coordinates
+	assertEquals(2*3, ((TriangleMesh) it.next()).texcoordData.length);
+	assertNull(((TriangleMesh) it.next()).texcoordData);
+}
+
+}